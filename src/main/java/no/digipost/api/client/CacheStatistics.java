@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client;
+
+/**
+ * A snapshot of the usage of a client-side cache.
+ */
+public final class CacheStatistics {
+
+    public final String name;
+    public final long hits;
+    public final long misses;
+    public final int size;
+
+    public CacheStatistics(String name, long hits, long misses, int size) {
+        this.name = name;
+        this.hits = hits;
+        this.misses = misses;
+        this.size = size;
+    }
+
+    /**
+     * @return the ratio of lookups which was served from the cache, or {@code 0}
+     *         if the cache has not been used.
+     */
+    public double hitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": hits=" + hits + ", misses=" + misses + ", size=" + size + String.format(", hit rate=%.2f", hitRate());
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client;
+
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Configuration of client-side circuit breakers, which stop sending requests to Digipost when too many of
+ * the recent requests have failed or have been slow. Requests are instead immediately rejected with
+ * {@link no.digipost.api.client.errorhandling.ErrorCode#OVERLOAD_PROTECTION OVERLOAD_PROTECTION}, which
+ * keeps the threads of the application from piling up waiting for a degraded service, and gives Digipost
+ * room to recover.
+ * <p>
+ * There is one circuit breaker for each {@link Operation kind of request}: sending messages, archiving, retrieving
+ * document events, retrieving document statuses, and all other requests. Each breaker considers the outcome of the
+ * {@link Builder#slidingWindow(int) latest requests}. When the rate of failed or slow requests exceeds the
+ * configured thresholds, the breaker <em>opens</em> and rejects all requests for the
+ * {@link Builder#openDuration(Duration) open duration}. Then, a few trial requests are let through, and
+ * if they all succeed the breaker <em>closes</em>, and requests are sent as normal again.
+ * <p>
+ * A request is considered failed if it can not be sent, or Digipost responds with a server error or
+ * {@code 429 Too Many Requests}. Rejections because of invalid requests do not count as failures.
+ *
+ * @see DigipostClientConfig.Builder#circuitBreaker(CircuitBreakerConfig)
+ */
+public final class CircuitBreakerConfig {
+
+    /**
+     * No circuit breakers. This is the default.
+     */
+    public static final CircuitBreakerConfig DISABLED = new CircuitBreakerConfig(false, 0, 0, 1, Duration.ZERO, 1, Duration.ZERO, 0);
+
+    public static Builder newConfiguration() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int slidingWindowSize = 50;
+        private int minimumNumberOfRequests = 10;
+        private double failureRateThreshold = 0.5;
+        private Duration slowRequestDuration = Duration.ofSeconds(10);
+        private double slowRequestRateThreshold = 0.8;
+        private Duration openDuration = Duration.ofSeconds(30);
+        private int trialRequests = 3;
+
+        private Builder() {
+        }
+
+        /**
+         * The number of latest requests to consider, and the minimum number of these which must have completed
+         * before the breaker can open. Default is the latest 50 requests, and at least 10.
+         */
+        public Builder slidingWindow(int size, int minimumNumberOfRequests) {
+            if (size < 1 || minimumNumberOfRequests < 1 || minimumNumberOfRequests > size) {
+                throw new IllegalArgumentException(
+                        "The sliding window must be at least 1 request, and at least the minimum number of requests, " +
+                        "but was size " + size + " and minimum " + minimumNumberOfRequests);
+            }
+            this.slidingWindowSize = size;
+            this.minimumNumberOfRequests = minimumNumberOfRequests;
+            return this;
+        }
+
+        /**
+         * The fraction of failed requests which opens the breaker. Default is 0.5, i.e. half of the requests.
+         */
+        public Builder failureRateThreshold(double failureRateThreshold) {
+            this.failureRateThreshold = rate(failureRateThreshold);
+            return this;
+        }
+
+        /**
+         * Requests taking longer than the given duration to respond are considered slow, and the fraction of slow
+         * requests which opens the breaker. Default is that 80% of the requests taking at least 10 seconds opens the breaker.
+         */
+        public Builder slowRequests(Duration slowRequestDuration, double slowRequestRateThreshold) {
+            this.slowRequestDuration = requireNonNull(slowRequestDuration, "slowRequestDuration can not be null");
+            this.slowRequestRateThreshold = rate(slowRequestRateThreshold);
+            return this;
+        }
+
+        /**
+         * How long the breaker stays open before letting trial requests through. Default is 30 seconds.
+         */
+        public Builder openDuration(Duration openDuration) {
+            this.openDuration = requireNonNull(openDuration, "openDuration can not be null");
+            return this;
+        }
+
+        /**
+         * The number of trial requests which must succeed to close the breaker again. Default is 3.
+         */
+        public Builder trialRequests(int trialRequests) {
+            if (trialRequests < 1) {
+                throw new IllegalArgumentException("trialRequests must be at least 1, but was " + trialRequests);
+            }
+            this.trialRequests = trialRequests;
+            return this;
+        }
+
+        public CircuitBreakerConfig build() {
+            return new CircuitBreakerConfig(
+                    true, slidingWindowSize, minimumNumberOfRequests, failureRateThreshold,
+                    slowRequestDuration, slowRequestRateThreshold, openDuration, trialRequests);
+        }
+
+        private static double rate(double rate) {
+            if (rate <= 0 || rate > 1) {
+                throw new IllegalArgumentException("A rate must be greater than 0 and at most 1, but was " + rate);
+            }
+            return rate;
+        }
+    }
+
+
+    public final boolean enabled;
+    public final int slidingWindowSize;
+    public final int minimumNumberOfRequests;
+    public final double failureRateThreshold;
+    public final Duration slowRequestDuration;
+    public final double slowRequestRateThreshold;
+    public final Duration openDuration;
+    public final int trialRequests;
+
+    private CircuitBreakerConfig(boolean enabled, int slidingWindowSize, int minimumNumberOfRequests, double failureRateThreshold,
+                                 Duration slowRequestDuration, double slowRequestRateThreshold, Duration openDuration, int trialRequests) {
+        this.enabled = enabled;
+        this.slidingWindowSize = slidingWindowSize;
+        this.minimumNumberOfRequests = minimumNumberOfRequests;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowRequestDuration = slowRequestDuration;
+        this.slowRequestRateThreshold = slowRequestRateThreshold;
+        this.openDuration = openDuration;
+        this.trialRequests = trialRequests;
+    }
+
+    @Override
+    public String toString() {
+        return enabled
+                ? "circuit breaker opening at " + failureRateThreshold + " failure rate, or " + slowRequestRateThreshold + " rate of requests slower than " +
+                  slowRequestDuration + ", of the latest " + slidingWindowSize + " requests, and staying open for " + openDuration
+                : "no circuit breaker";
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client;
+
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Configuration of an adaptive limit of the number of requests to Digipost which can be in progress at the
+ * same time. Requests exceeding the limit are immediately rejected with
+ * {@link no.digipost.api.client.errorhandling.ErrorCode#OVERLOAD_PROTECTION OVERLOAD_PROTECTION}, instead of
+ * queuing up waiting for a connection while Digipost is struggling.
+ * <p>
+ * The limit adapts to how Digipost responds, using <em>additive increase, multiplicative decrease</em> (AIMD):
+ * while requests succeed within the {@link Builder#latencyThreshold(Duration) latency threshold}, the limit
+ * grows by one for each round of requests at the limit. When a request fails because Digipost is overloaded,
+ * or exceeds the latency threshold, the limit is multiplied by the {@link Builder#backoffRatio(double) backoff ratio}.
+ * <p>
+ * A request is in progress until the response headers are received. Reading the content of a response does
+ * not count towards the limit.
+ *
+ * @see DigipostClientConfig.Builder#concurrencyLimit(ConcurrencyLimitConfig)
+ */
+public final class ConcurrencyLimitConfig {
+
+    /**
+     * No concurrency limit, other than the size of the connection pool. This is the default.
+     */
+    public static final ConcurrencyLimitConfig DISABLED = new ConcurrencyLimitConfig(false, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 1, Duration.ZERO);
+
+    public static Builder newConfiguration() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int initialLimit = 20;
+        private int minLimit = 1;
+        private int maxLimit = 200;
+        private double backoffRatio = 0.9;
+        private Duration latencyThreshold = Duration.ofSeconds(5);
+
+        private Builder() {
+        }
+
+        /**
+         * The limit when the client is created, and the range the limit is adapted within.
+         * Default is to start at 20, within 1 and 200.
+         */
+        public Builder limit(int initialLimit, int minLimit, int maxLimit) {
+            if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+                throw new IllegalArgumentException(
+                        "The limits must satisfy 1 <= min <= initial <= max, but was min " + minLimit + ", initial " + initialLimit + ", max " + maxLimit);
+            }
+            this.initialLimit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        /**
+         * The factor to multiply the limit with when Digipost is overloaded. Default is 0.9.
+         */
+        public Builder backoffRatio(double backoffRatio) {
+            if (backoffRatio <= 0 || backoffRatio >= 1) {
+                throw new IllegalArgumentException("backoffRatio must be greater than 0 and less than 1, but was " + backoffRatio);
+            }
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        /**
+         * Requests taking longer than this to respond are taken as a sign that Digipost is overloaded. Default is 5 seconds.
+         */
+        public Builder latencyThreshold(Duration latencyThreshold) {
+            this.latencyThreshold = requireNonNull(latencyThreshold, "latencyThreshold can not be null");
+            return this;
+        }
+
+        public ConcurrencyLimitConfig build() {
+            return new ConcurrencyLimitConfig(true, initialLimit, minLimit, maxLimit, backoffRatio, latencyThreshold);
+        }
+    }
+
+
+    public final boolean enabled;
+    public final int initialLimit;
+    public final int minLimit;
+    public final int maxLimit;
+    public final double backoffRatio;
+    public final Duration latencyThreshold;
+
+    private ConcurrencyLimitConfig(boolean enabled, int initialLimit, int minLimit, int maxLimit, double backoffRatio, Duration latencyThreshold) {
+        this.enabled = enabled;
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyThreshold = latencyThreshold;
+    }
+
+    @Override
+    public String toString() {
+        return enabled
+                ? "adaptive concurrency limit starting at " + initialLimit + ", within " + minLimit + " and " + maxLimit
+                : "no concurrency limit";
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client;
+
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.H2AsyncClientBuilder;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.pool.PoolReusePolicy;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+import static no.digipost.http.client.HttpClientDefaults.CONNECTION_REQUEST_TIMEOUT_MS;
+import static no.digipost.http.client.HttpClientDefaults.CONNECT_TIMEOUT_MS;
+import static no.digipost.http.client.HttpClientDefaults.SOCKET_TIMEOUT_MS;
+import static no.digipost.http.client.HttpClientDefaults.VALIDATE_CONNECTION_AFTER_INACTIVITY_SECOND;
+
+/**
+ * Configuration of the pool of HTTP connections used by a {@link DigipostClient} to communicate
+ * with Digipost. Almost all requests go to the same host, so the number of connections per route
+ * is effectively the number of requests which can be in progress at the same time, and should be
+ * at least the number of threads using the client concurrently.
+ * <p>
+ * The configuration is only used when the client creates its own HTTP client, i.e. it has no
+ * effect if a {@link org.apache.hc.client5.http.impl.classic.HttpClientBuilder} is given to the
+ * {@link DigipostClient#DigipostClient(DigipostClientConfig, BrokerId, no.digipost.api.client.security.Signer,
+ * org.apache.hc.client5.http.impl.classic.HttpClientBuilder) client}.
+ *
+ * @see DigipostClientConfig.Builder#connectionPool(ConnectionPoolConfig)
+ * @see DigipostClient#getConnectionPoolStatistics()
+ */
+public final class ConnectionPoolConfig {
+
+    public static final ConnectionPoolConfig DEFAULT = newConfiguration().build();
+
+    public static Builder newConfiguration() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int maxConnections = 50;
+        private int maxConnectionsPerRoute = 50;
+        private Duration validateAfterInactivity = Duration.ofSeconds(VALIDATE_CONNECTION_AFTER_INACTIVITY_SECOND);
+        private Duration timeToLive = Duration.ofMinutes(2);
+        private Duration connectTimeout = Duration.ofMillis(CONNECT_TIMEOUT_MS);
+        private Duration socketTimeout = Duration.ofMillis(SOCKET_TIMEOUT_MS);
+        private Duration connectionRequestTimeout = Duration.ofMillis(CONNECTION_REQUEST_TIMEOUT_MS);
+        private boolean tcpNoDelay = true;
+        private boolean tcpKeepAlive = true;
+        private boolean http2 = false;
+
+        private Builder() {
+        }
+
+        /**
+         * The maximum number of connections in the pool. Default is 50.
+         */
+        public Builder maxConnections(int maxConnections) {
+            if (maxConnections < 1) {
+                throw new IllegalArgumentException("maxConnections must be at least 1, but was " + maxConnections);
+            }
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * The maximum number of connections to the same host. Default is 50.
+         */
+        public Builder maxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            if (maxConnectionsPerRoute < 1) {
+                throw new IllegalArgumentException("maxConnectionsPerRoute must be at least 1, but was " + maxConnectionsPerRoute);
+            }
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            return this;
+        }
+
+        /**
+         * Set both {@link #maxConnections(int)} and {@link #maxConnectionsPerRoute(int)}.
+         */
+        public Builder maxConnectionsTotalAndPerRoute(int maxConnections) {
+            return maxConnections(maxConnections).maxConnectionsPerRoute(maxConnections);
+        }
+
+        /**
+         * Check that a pooled connection is still open before reusing it, if it has been idle
+         * for longer than the given duration. Default is 5 seconds.
+         */
+        public Builder validateAfterInactivity(Duration validateAfterInactivity) {
+            this.validateAfterInactivity = validateAfterInactivity;
+            return this;
+        }
+
+        /**
+         * The maximum time a connection is reused, so that connections are eventually spread
+         * across new server instances. Default is 2 minutes.
+         */
+        public Builder timeToLive(Duration timeToLive) {
+            this.timeToLive = timeToLive;
+            return this;
+        }
+
+        /**
+         * The maximum time to wait for a new connection to be established. Default is 10 seconds.
+         */
+        public Builder connectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * The maximum time to wait for data on an established connection. Default is 10 seconds.
+         */
+        public Builder socketTimeout(Duration socketTimeout) {
+            this.socketTimeout = socketTimeout;
+            return this;
+        }
+
+        /**
+         * The maximum time to wait for a connection from the pool when all connections
+         * are in use. Default is 10 seconds.
+         */
+        public Builder connectionRequestTimeout(Duration connectionRequestTimeout) {
+            this.connectionRequestTimeout = connectionRequestTimeout;
+            return this;
+        }
+
+        /**
+         * Enable or disable Nagle's algorithm ({@code TCP_NODELAY}). The default is to send data
+         * immediately, i.e. {@code TCP_NODELAY} is enabled.
+         */
+        public Builder tcpNoDelay(boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        /**
+         * Enable or disable {@code SO_KEEPALIVE} on the connections. Enabled by default.
+         */
+        public Builder tcpKeepAlive(boolean tcpKeepAlive) {
+            this.tcpKeepAlive = tcpKeepAlive;
+            return this;
+        }
+
+        /**
+         * Send requests over HTTP/2 instead of HTTP/1.1. All concurrent requests to Digipost are then
+         * multiplexed over one connection, and the number of connections does not limit how many
+         * requests can be in progress at the same time. Response content is streamed to the caller as
+         * it is received, with at most 64 KiB of the content of each response held in memory, so
+         * downloads of document content are not read into memory. Closing the content of a response
+         * before it has been read to the end discards the rest of the content as it is received, without
+         * affecting the other requests in progress on the connection. The connection limits and the time to live of connections are not used with HTTP/2.
+         */
+        public Builder http2(boolean http2) {
+            this.http2 = http2;
+            return this;
+        }
+
+        public ConnectionPoolConfig build() {
+            return new ConnectionPoolConfig(maxConnections, maxConnectionsPerRoute, validateAfterInactivity, timeToLive,
+                    connectTimeout, socketTimeout, connectionRequestTimeout, tcpNoDelay, tcpKeepAlive, http2);
+        }
+    }
+
+
+    public final int maxConnections;
+    public final int maxConnectionsPerRoute;
+    public final Duration validateAfterInactivity;
+    public final Duration timeToLive;
+    public final Duration connectTimeout;
+    public final Duration socketTimeout;
+    public final Duration connectionRequestTimeout;
+    public final boolean tcpNoDelay;
+    public final boolean tcpKeepAlive;
+    public final boolean http2;
+
+    private ConnectionPoolConfig(int maxConnections, int maxConnectionsPerRoute, Duration validateAfterInactivity, Duration timeToLive,
+                                 Duration connectTimeout, Duration socketTimeout, Duration connectionRequestTimeout, boolean tcpNoDelay, boolean tcpKeepAlive,
+                                 boolean http2) {
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerRoute = Math.min(maxConnectionsPerRoute, maxConnections);
+        this.validateAfterInactivity = requireNonNull(validateAfterInactivity, "validateAfterInactivity can not be null");
+        this.timeToLive = requireNonNull(timeToLive, "timeToLive can not be null");
+        this.connectTimeout = requireNonNull(connectTimeout, "connectTimeout can not be null");
+        this.socketTimeout = requireNonNull(socketTimeout, "socketTimeout can not be null");
+        this.connectionRequestTimeout = requireNonNull(connectionRequestTimeout, "connectionRequestTimeout can not be null");
+        this.tcpNoDelay = tcpNoDelay;
+        this.tcpKeepAlive = tcpKeepAlive;
+        this.http2 = http2;
+    }
+
+    PoolingHttpClientConnectionManager createConnectionManager() {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setPoolConcurrencyPolicy(PoolConcurrencyPolicy.STRICT)
+                .setConnPoolPolicy(PoolReusePolicy.LIFO)
+                .setDefaultSocketConfig(SocketConfig.custom()
+                        .setTcpNoDelay(tcpNoDelay)
+                        .setSoKeepAlive(tcpKeepAlive)
+                        .build())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(socketTimeout))
+                        .setValidateAfterInactivity(TimeValue.of(validateAfterInactivity))
+                        .setTimeToLive(TimeValue.of(timeToLive))
+                        .build())
+                .build();
+    }
+
+    H2AsyncClientBuilder createHttp2ClientBuilder() {
+        return H2AsyncClientBuilder.create()
+                .setIOReactorConfig(IOReactorConfig.custom()
+                        .setSoTimeout(Timeout.of(socketTimeout))
+                        .setTcpNoDelay(tcpNoDelay)
+                        .setSoKeepAlive(tcpKeepAlive)
+                        .build())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(socketTimeout))
+                        .setValidateAfterInactivity(TimeValue.of(validateAfterInactivity))
+                        .build())
+                .setDefaultRequestConfig(createRequestConfig())
+                .disableAutomaticRetries();
+    }
+
+    RequestConfig createRequestConfig() {
+        return RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.of(connectionRequestTimeout))
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return "connection pool with max " + maxConnections + " connections (" + maxConnectionsPerRoute + " per route), " +
+                "validate after inactivity " + validateAfterInactivity + ", time to live " + timeToLive + ", " +
+                "connect timeout " + connectTimeout + ", socket timeout " + socketTimeout + ", connection request timeout " + connectionRequestTimeout + ", " +
+                "TCP_NODELAY " + tcpNoDelay + ", SO_KEEPALIVE " + tcpKeepAlive + (http2 ? ", HTTP/2" : "");
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client;
+
+/**
+ * A snapshot of the usage of the HTTP connection pool of a client.
+ */
+public final class ConnectionPoolStatistics {
+
+    /**
+     * Connections currently in use by requests.
+     */
+    public final int leased;
+
+    /**
+     * Requests waiting for a connection to become available.
+     */
+    public final int pending;
+
+    /**
+     * Idle connections which can be reused by the next requests.
+     */
+    public final int available;
+
+    public final int max;
+
+    public ConnectionPoolStatistics(int leased, int pending, int available, int max) {
+        this.leased = leased;
+        this.pending = pending;
+        this.available = available;
+        this.max = max;
+    }
+
+    /**
+     * @return {@code true} if all connections are in use, and requests are waiting for a connection.
+     */
+    public boolean isExhausted() {
+        return pending > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "connection pool: leased=" + leased + ", pending=" + pending + ", available=" + available + ", max=" + max;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client;
+
+import no.digipost.api.client.internal.ApiServiceImpl;
+import no.digipost.api.client.internal.delivery.SharedDelivery;
+import no.digipost.api.client.security.Signer;
+import no.digipost.http.client.HttpClientFactory;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.pool.ConnPoolControl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.util.Collections.unmodifiableSet;
+
+/**
+ * A client for sending through Digipost on behalf of many brokers, e.g. for a service provider
+ * serving many senders with their own broker ids and certificates.
+ * <p>
+ * All the brokers share one pool of HTTP connections, the entry point of the API, the
+ * certificate used to verify the responses from Digipost, the validators of documents, and the
+ * caches of validation and identification results, instead of each broker having a
+ * {@link DigipostClient} with its own. Each request is signed by the {@link Signer} of the broker
+ * sending it, and the responses cached for a broker, such as sender information, are not shared.
+ * <p>
+ * {@link #register(BrokerId, Signer) Register} each broker, and use the {@link DigipostClient}
+ * {@link #forBroker(BrokerId) for the broker} to send on its behalf.
+ */
+public class DigipostBrokerClient implements Closeable {
+
+    private final DigipostClientConfig config;
+    private final ApiServiceImpl.Shared shared;
+    private final SharedDelivery sharedDelivery;
+    private final Optional<PoolingHttpClientConnectionManager> connectionPool;
+    private final ConcurrentMap<BrokerId, DigipostClient> clients = new ConcurrentHashMap<>();
+
+    /**
+     * Create a client with one pool of HTTP connections for all the brokers, as configured by
+     * {@link DigipostClientConfig.Builder#connectionPool(ConnectionPoolConfig)}.
+     */
+    public DigipostBrokerClient(DigipostClientConfig config) {
+        this(config, config.connectionPool.http2 ? Optional.empty() : Optional.of(config.connectionPool.createConnectionManager()));
+    }
+
+    private DigipostBrokerClient(DigipostClientConfig config, Optional<PoolingHttpClientConnectionManager> connectionManager) {
+        this(config, connectionManager
+                .map(manager -> new ApiServiceImpl.Shared(config, HttpClientFactory.createBuilder(manager).setDefaultRequestConfig(config.connectionPool.createRequestConfig())))
+                .orElseGet(() -> new ApiServiceImpl.Shared(config, config.connectionPool.createHttp2ClientBuilder())),
+                connectionManager);
+    }
+
+    public DigipostBrokerClient(DigipostClientConfig config, HttpClientBuilder clientBuilder) {
+        this(config, new ApiServiceImpl.Shared(config, clientBuilder), Optional.empty());
+    }
+
+    private DigipostBrokerClient(DigipostClientConfig config, ApiServiceImpl.Shared shared, Optional<PoolingHttpClientConnectionManager> connectionPool) {
+        this.config = config;
+        this.shared = shared;
+        this.sharedDelivery = new SharedDelivery(config);
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * Register a broker, replacing any previously registered broker with the same id, e.g.
+     * to start using a renewed certificate.
+     *
+     * @return the client to send on behalf of the broker
+     */
+    public DigipostClient register(BrokerId brokerId, Signer signer) {
+        DigipostClient client = new DigipostClient(config, new ApiServiceImpl(shared, brokerId, signer), connectionPool, sharedDelivery);
+        clients.put(brokerId, client);
+        return client;
+    }
+
+    /**
+     * Remove a broker, which can no longer be used with this client.
+     *
+     * @return {@code true} if the broker was registered, {@code false} otherwise
+     */
+    public boolean unregister(BrokerId brokerId) {
+        shared.unregister(brokerId);
+        return clients.remove(brokerId) != null;
+    }
+
+    /**
+     * @return the client to send on behalf of a {@link #register(BrokerId, Signer) registered} broker
+     * @throws IllegalArgumentException if the broker is not registered
+     */
+    public DigipostClient forBroker(BrokerId brokerId) {
+        DigipostClient client = clients.get(brokerId);
+        if (client == null) {
+            throw new IllegalArgumentException("Broker " + brokerId + " is not registered");
+        }
+        return client;
+    }
+
+    public Set<BrokerId> getBrokers() {
+        return unmodifiableSet(clients.keySet());
+    }
+
+    /**
+     * Get the current usage of the pool of HTTP connections shared by all the brokers. This is only available
+     * if the client has created its own HTTP/1.1 client, and not when given a {@link HttpClientBuilder}.
+     */
+    public Optional<ConnectionPoolStatistics> getConnectionPoolStatistics() {
+        return connectionPool.map(ConnPoolControl::getTotalStats)
+                .map(stats -> new ConnectionPoolStatistics(stats.getLeased(), stats.getPending(), stats.getAvailable(), stats.getMax()));
+    }
+
+    /**
+     * Get statistics of how requests from all the brokers have been delayed by the rate limits, if enabled with
+     * {@link DigipostClientConfig.Builder#rateLimit(RateLimitConfig)}.
+     */
+    public Optional<RateLimitStatistics> getRateLimitStatistics() {
+        return config.rateLimit.isEnabled() ? Optional.of(shared.getRateLimitStatistics()) : Optional.empty();
+    }
+
+    /**
+     * Close the HTTP client and the pool of connections shared by all the brokers.
+     */
+    @Override
+    public void close() throws IOException {
+        clients.clear();
+        shared.close();
+    }
+}
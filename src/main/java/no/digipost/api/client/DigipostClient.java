@@ -16,16 +16,24 @@
 package no.digipost.api.client;
 
 import no.digipost.api.client.archive.ArchiveApi;
+import no.digipost.api.client.archive.ArchiveExporter;
+import no.digipost.api.client.archive.BulkArchiver;
 import no.digipost.api.client.batch.BatchApi;
 import no.digipost.api.client.delivery.MessageDeliveryApi;
 import no.digipost.api.client.delivery.OngoingDelivery;
+import no.digipost.api.client.delivery.RecipientIdentificationResult;
 import no.digipost.api.client.document.DocumentApi;
+import no.digipost.api.client.document.DocumentStatusResult;
 import no.digipost.api.client.errorhandling.DigipostClientException;
 import no.digipost.api.client.errorhandling.ErrorCode;
 import no.digipost.api.client.inbox.InboxApi;
+import no.digipost.api.client.inbox.InboxSynchronizer;
 import no.digipost.api.client.internal.ApiServiceImpl;
+import no.digipost.api.client.internal.DocumentStatusLookup;
 import no.digipost.api.client.internal.delivery.ArchiveDeliverer;
 import no.digipost.api.client.internal.delivery.MessageDeliverer;
+import no.digipost.api.client.internal.delivery.RecipientIdentifier;
+import no.digipost.api.client.internal.delivery.SharedDelivery;
 import no.digipost.api.client.representations.AddDataLink;
 import no.digipost.api.client.representations.AdditionalData;
 import no.digipost.api.client.representations.Autocomplete;
@@ -51,14 +59,15 @@ import no.digipost.api.client.representations.inbox.InboxDocument;
 import no.digipost.api.client.representations.sender.SenderInformation;
 import no.digipost.api.client.representations.shareddocuments.ShareDocumentsRequestState;
 import no.digipost.api.client.representations.shareddocuments.SharedDocumentContent;
-import no.digipost.api.client.security.CryptoUtil;
 import no.digipost.api.client.security.Signer;
 import no.digipost.api.client.shareddocuments.SharedDocumentsApi;
 import no.digipost.api.client.tag.TagApi;
 import no.digipost.api.client.util.JAXBContextUtils;
 import no.digipost.http.client.HttpClientFactory;
 import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
 import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.pool.ConnPoolControl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,7 +75,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 import static no.digipost.api.client.internal.http.response.HttpResponseUtils.checkResponse;
 import static no.digipost.api.client.util.JAXBContextUtils.jaxbContext;
@@ -79,10 +93,6 @@ import static no.digipost.api.client.util.JAXBContextUtils.jaxbContext;
  */
 public class DigipostClient {
 
-    static {
-        CryptoUtil.addBouncyCastleProviderAndVerify_AES256_CBC_Support();
-    }
-
     private static final Logger LOG = LoggerFactory.getLogger(DigipostClient.class);
 
     private final EventLogger eventLogger;
@@ -95,10 +105,24 @@ public class DigipostClient {
     private final BatchApi batchApi;
     private final TagApi tagApi;
     private final SharedDocumentsApi sharedDocumentsApi;
+    private final RecipientIdentifier recipientIdentifier;
+    private Optional<PoolingHttpClientConnectionManager> connectionPool = Optional.empty();
+    private Optional<ApiServiceImpl> rateLimitedApiService = Optional.empty();
 
 
+    /**
+     * Create a client with its own pool of HTTP connections, as configured by
+     * {@link DigipostClientConfig.Builder#connectionPool(ConnectionPoolConfig)}.
+     */
     public DigipostClient(DigipostClientConfig config, BrokerId brokerId, Signer signer) {
-        this(config, brokerId, signer, HttpClientFactory.createDefaultBuilder());
+        this(config, brokerId, signer, config.connectionPool.http2 ? Optional.empty() : Optional.of(config.connectionPool.createConnectionManager()));
+    }
+
+    private DigipostClient(DigipostClientConfig config, BrokerId brokerId, Signer signer, Optional<PoolingHttpClientConnectionManager> connectionManager) {
+        this(config, connectionManager
+                .map(manager -> new ApiServiceImpl(config, HttpClientFactory.createBuilder(manager).setDefaultRequestConfig(config.connectionPool.createRequestConfig()), brokerId, signer))
+                .orElseGet(() -> new ApiServiceImpl(config, config.connectionPool.createHttp2ClientBuilder(), brokerId, signer)),
+                connectionManager);
     }
 
     public DigipostClient(DigipostClientConfig config, BrokerId brokerId, Signer signer, HttpClientBuilder clientBuilder) {
@@ -106,10 +130,30 @@ public class DigipostClient {
     }
 
     private DigipostClient(DigipostClientConfig config, ApiServiceImpl apiService) {
-        this(config, apiService, apiService, apiService, apiService, apiService, apiService, apiService);
+        this(config, apiService, Optional.empty());
+    }
+
+    private DigipostClient(DigipostClientConfig config, ApiServiceImpl apiService, Optional<PoolingHttpClientConnectionManager> connectionPool) {
+        this(config, apiService, connectionPool, new SharedDelivery(config));
+    }
+
+    /**
+     * Create a client for one of the brokers of a {@link DigipostBrokerClient}, using the
+     * pool of connections, the validators and the caches of results shared by all its brokers.
+     */
+    DigipostClient(DigipostClientConfig config, ApiServiceImpl apiService, Optional<PoolingHttpClientConnectionManager> sharedConnectionPool, SharedDelivery sharedDelivery) {
+        this(config, sharedDelivery, apiService, apiService, apiService, apiService, apiService, apiService, apiService);
+        this.connectionPool = sharedConnectionPool;
+        if (config.rateLimit.isEnabled()) {
+            this.rateLimitedApiService = Optional.of(apiService);
+        }
     }
 
     public DigipostClient(DigipostClientConfig config, MessageDeliveryApi apiService, InboxApi inboxApiService, DocumentApi documentApi, ArchiveApi archiveApi, BatchApi batchApi, TagApi tagApi, SharedDocumentsApi sharedDocumentsApi) {
+        this(config, new SharedDelivery(config), apiService, inboxApiService, documentApi, archiveApi, batchApi, tagApi, sharedDocumentsApi);
+    }
+
+    private DigipostClient(DigipostClientConfig config, SharedDelivery sharedDelivery, MessageDeliveryApi apiService, InboxApi inboxApiService, DocumentApi documentApi, ArchiveApi archiveApi, BatchApi batchApi, TagApi tagApi, SharedDocumentsApi sharedDocumentsApi) {
         this.messageApi = apiService;
         this.inboxApiService = inboxApiService;
         this.documentApi = documentApi;
@@ -118,8 +162,9 @@ public class DigipostClient {
         this.tagApi = tagApi;
         this.sharedDocumentsApi = sharedDocumentsApi;
 
-        this.messageSender = new MessageDeliverer(config, apiService);
+        this.messageSender = new MessageDeliverer(config, apiService, sharedDelivery);
         this.archiveSender = new ArchiveDeliverer(config, archiveApi);
+        this.recipientIdentifier = new RecipientIdentifier(sharedDelivery, this::identifyRecipient);
 
         this.eventLogger = config.eventLogger.withDebugLogTo(LOG);
     }
@@ -144,6 +189,32 @@ public class DigipostClient {
         return messageSender.createPrintOnlyMessage(printMessage);
     }
 
+    /**
+     * Get usage statistics of the caches of document validation results, if enabled with
+     * {@link DigipostClientConfig.Builder#pdfValidationCacheSize(int)} or
+     * {@link DigipostClientConfig.Builder#htmlValidationCacheSize(int)}.
+     */
+    public List<CacheStatistics> getValidationCacheStatistics() {
+        return messageSender.getValidationCacheStatistics();
+    }
+
+    /**
+     * Get the current usage of the pool of HTTP connections. This is only available if the client
+     * has created its own HTTP/1.1 client, and not when given a {@link HttpClientBuilder}.
+     */
+    public Optional<ConnectionPoolStatistics> getConnectionPoolStatistics() {
+        return connectionPool.map(ConnPoolControl::getTotalStats)
+                .map(stats -> new ConnectionPoolStatistics(stats.getLeased(), stats.getPending(), stats.getAvailable(), stats.getMax()));
+    }
+
+    /**
+     * Get statistics of how requests have been delayed by the rate limits, if enabled with
+     * {@link DigipostClientConfig.Builder#rateLimit(RateLimitConfig)}.
+     */
+    public Optional<RateLimitStatistics> getRateLimitStatistics() {
+        return rateLimitedApiService.map(ApiServiceImpl::getRateLimitStatistics);
+    }
+
     public IdentificationResult identifyRecipient(final Identification identification) {
         try (ClassicHttpResponse response = messageApi.identifyRecipient(identification)) {
             checkResponse(response, eventLogger);
@@ -153,6 +224,38 @@ public class DigipostClient {
         }
     }
 
+    /**
+     * Identify many recipients concurrently, with up to {@value RecipientIdentifier#DEFAULT_MAX_CONCURRENT_REQUESTS}
+     * identifications in progress at a time.
+     *
+     * @see #identifyAll(Stream, int)
+     */
+    public Stream<RecipientIdentificationResult> identifyAll(Stream<Identification> identifications) {
+        return identifyAll(identifications, RecipientIdentifier.DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    /**
+     * Identify many recipients concurrently. The identifications are consumed lazily from the given stream, and
+     * the results are available in the returned stream in the order the identifications complete. A failed
+     * identification gives a {@link RecipientIdentificationResult} with the error, instead of aborting the others.
+     * Results found in the cache enabled with {@link DigipostClientConfig.Builder#identificationCache(int, java.time.Duration)}
+     * are available immediately. The returned stream should be closed if it is not consumed completely.
+     *
+     * @param maxConcurrentRequests how many identifications can be in progress at the same time. Should not be
+     *                              higher than the number of available connections to Digipost.
+     */
+    public Stream<RecipientIdentificationResult> identifyAll(Stream<Identification> identifications, int maxConcurrentRequests) {
+        return recipientIdentifier.identifyAll(identifications, maxConcurrentRequests);
+    }
+
+    /**
+     * Get usage statistics of the cache of identification results, if enabled with
+     * {@link DigipostClientConfig.Builder#identificationCache(int, java.time.Duration)}.
+     */
+    public Optional<CacheStatistics> getIdentificationCacheStatistics() {
+        return recipientIdentifier.getCacheStatistics();
+    }
+
     public void addData(AddDataLink addDataLink, AdditionalData data) {
         messageSender.addData(addDataLink, data);
     }
@@ -223,6 +326,29 @@ public class DigipostClient {
         return documentApi.getDocumentStatus(senderId, uuid);
     }
 
+    /**
+     * Look up the status of many documents concurrently, with up to {@value DocumentStatusLookup#DEFAULT_MAX_CONCURRENT_REQUESTS}
+     * lookups in progress at a time.
+     *
+     * @see #getDocumentStatuses(SenderId, Collection, int)
+     */
+    public Stream<DocumentStatusResult> getDocumentStatuses(SenderId senderId, Collection<UUID> uuids) {
+        return getDocumentStatuses(senderId, uuids, DocumentStatusLookup.DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    /**
+     * Look up the status of many documents concurrently. New lookups are started as the results are consumed
+     * from the returned stream, and the results are available in the order the lookups complete. A failed lookup
+     * gives a {@link DocumentStatusResult} with the error, instead of aborting the others. The returned stream
+     * should be closed if it is not consumed completely, which cancels the lookups in progress.
+     *
+     * @param maxConcurrentRequests how many lookups can be in progress at the same time. Should not be
+     *                              higher than the number of available connections to Digipost.
+     */
+    public Stream<DocumentStatusResult> getDocumentStatuses(SenderId senderId, Collection<UUID> uuids, int maxConcurrentRequests) {
+        return DocumentStatusLookup.lookupAll(uuids, uuid -> documentApi.getDocumentStatus(senderId, uuid), maxConcurrentRequests);
+    }
+
     public InputStream getContent(String path) {
         return documentApi.getDocumentContent(path);
     }
@@ -260,6 +386,17 @@ public class DigipostClient {
         return archiveApi.getArchiveDocuments(uri);
     }
 
+    /**
+     * Stream all documents of an archive, with the given attributes. The next page of documents is fetched
+     * while the current page is consumed.
+     *
+     * @param archive the archive, as given by {@link #getArchives(SenderId)}
+     * @param attributes only include documents with all of these attributes. May be empty.
+     */
+    public Stream<ArchiveDocument> streamArchiveDocuments(Archive archive, Map<String, String> attributes) {
+        return archiveApi.streamDocuments(archive, attributes);
+    }
+
     /**
      * Get the first 100 documents in the inbox for the organisation represented by senderId.
      *
@@ -302,6 +439,16 @@ public class DigipostClient {
         inboxApiService.deleteInboxDocument(inboxDocument);
     }
 
+    /**
+     * Receive new documents from the inbox of an organisation, downloading several documents concurrently.
+     *
+     * @param senderId Either an organisation that you operate on behalf of or your brokerId
+     * @return a builder to configure concurrency, deletion of handled documents and the watermark file.
+     */
+    public InboxSynchronizer.Builder inboxSynchronizer(SenderId senderId) {
+        return new InboxSynchronizer.Builder(inboxApiService, senderId);
+    }
+
     public UserAccount createOrActivateUserAccount(SenderId senderId, UserInformation user) {
         return messageApi.createOrActivateUserAccount(senderId, user);
     }
@@ -342,6 +489,25 @@ public class DigipostClient {
         return archiveSender.createArchive(archive);
     }
 
+    /**
+     * Archive a large number of documents to the given archive, using several concurrent requests.
+     *
+     * @param archive the archive to add documents to. Any documents already in the given {@code Archive} are ignored.
+     * @return a builder to configure the size of each request, concurrency and checkpointing.
+     */
+    public BulkArchiver.Builder bulkArchiver(final Archive archive) {
+        return new BulkArchiver.Builder(archive, archiveSender::createArchive);
+    }
+
+    /**
+     * Export all documents of an archive to a directory or a ZIP file, downloading several documents concurrently.
+     *
+     * @return a builder to configure concurrency and checkpointing of the export.
+     */
+    public ArchiveExporter.Builder archiveExporter() {
+        return new ArchiveExporter.Builder(archiveApi);
+    }
+
     public Archive getArchiveDocumentByUuid(UUID uri) {
         return archiveApi.getArchiveDocumentByUUID(null, uri);
     }
@@ -15,9 +15,14 @@
  */
 package no.digipost.api.client;
 
+import no.digipost.api.client.archive.ArchiveDeduplicationIndex;
+import no.digipost.api.client.delivery.DeliveryJournal;
+
 import java.net.URI;
 import java.time.Clock;
 import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Executor;
 
 import static java.util.Objects.requireNonNull;
 
@@ -33,6 +38,21 @@ public final class DigipostClientConfig {
         private EventLogger eventLogger = EventLogger.NOOP_LOGGER;
         private Clock clock = Clock.systemDefaultZone();
         private boolean failOnHtmlDiff = false;
+        private DeliveryJournal deliveryJournal;
+        private boolean resumeFromDeliveryJournal = false;
+        private Executor documentPreparationExecutor = Runnable::run;
+        private int pdfValidationCacheSize = 0;
+        private int htmlValidationCacheSize = 0;
+        private int identificationCacheSize = 0;
+        private Duration identificationCacheTimeToLive = Duration.ZERO;
+        private ArchiveDeduplicationIndex archiveDeduplicationIndex;
+        private ConnectionPoolConfig connectionPool = ConnectionPoolConfig.DEFAULT;
+        private RetryPolicy retryPolicy = RetryPolicy.NO_RETRIES;
+        private CircuitBreakerConfig circuitBreaker = CircuitBreakerConfig.DISABLED;
+        private ConcurrencyLimitConfig concurrencyLimit = ConcurrencyLimitConfig.DISABLED;
+        private RateLimitConfig rateLimit = RateLimitConfig.DISABLED;
+        private HedgingPolicy hedging = HedgingPolicy.DISABLED;
+        private boolean responseCompression = true;
 
         private Builder() {
         }
@@ -56,6 +76,177 @@ public final class DigipostClientConfig {
             return this;
         }
 
+        /**
+         * Record the intent and outcome of every message delivery in the given journal.
+         */
+        public Builder deliveryJournal(DeliveryJournal journal) {
+            this.deliveryJournal = journal;
+            return this;
+        }
+
+        /**
+         * Record the intent and outcome of every message delivery in the given journal, and
+         * skip sending messages which the journal already has recorded as delivered. If a message
+         * is rejected by Digipost as a duplicate, and the journal has recorded an identical message with
+         * the same id which was never confirmed delivered (e.g. because the client was stopped while
+         * sending it), the message has been received by Digipost in the earlier attempt. The message is then
+         * recorded as {@link DeliveryJournal.State#RECEIVED received} in the journal, and not sent again.
+         * As the actual status of the delivery is not known to the client, the returned
+         * {@link no.digipost.api.client.representations.MessageDelivery} has the status
+         * {@link no.digipost.api.client.representations.MessageStatus#COMPLETE COMPLETE} and no delivery time.
+         */
+        public Builder resumeFromDeliveryJournal(DeliveryJournal journal) {
+            this.deliveryJournal = journal;
+            this.resumeFromDeliveryJournal = true;
+            return this;
+        }
+
+        /**
+         * Validate and encrypt the documents of a message in parallel using the given executor.
+         * The default is to prepare the documents one at a time on the thread sending the message.
+         */
+        public Builder documentPreparationExecutor(Executor executor) {
+            this.documentPreparationExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Cache the results of validating PDF documents, keyed by the SHA-256 digest of the content and
+         * the validation settings. This is useful when sending the same documents many times, e.g. terms
+         * and brochures attached to every message. The cache is disabled by default.
+         *
+         * @param maxEntries the maximum number of validation results to keep
+         */
+        public Builder pdfValidationCacheSize(int maxEntries) {
+            this.pdfValidationCacheSize = maxEntries;
+            return this;
+        }
+
+        /**
+         * Cache the results of validating and sanitizing HTML documents, keyed by the SHA-256 digest
+         * of the content. This is useful when many recipients are sent byte-identical HTML documents.
+         * The cache is disabled by default.
+         *
+         * @param maxEntries the maximum number of validation results to keep
+         */
+        public Builder htmlValidationCacheSize(int maxEntries) {
+            this.htmlValidationCacheSize = maxEntries;
+            return this;
+        }
+
+        /**
+         * Cache the results of identifying recipients with
+         * {@link DigipostClient#identifyAll(java.util.stream.Stream)}, keyed by the
+         * {@link no.digipost.api.client.representations.Identification#normalized() normalized identification}.
+         * This is useful when the same recipients are identified several times, e.g. when a list of
+         * recipients contains duplicates, or is identified again shortly before sending. Only successful
+         * identifications are cached. The cache is disabled by default.
+         *
+         * @param maxEntries the maximum number of identification results to keep
+         * @param timeToLive how long an identification result is kept. A recipient may e.g. become a
+         *                   Digipost user, so this should not be longer than the results are expected to be valid.
+         */
+        public Builder identificationCache(int maxEntries, Duration timeToLive) {
+            if (maxEntries < 1) {
+                throw new IllegalArgumentException("maxEntries must be at least 1, but was " + maxEntries);
+            }
+            if (timeToLive.isZero() || timeToLive.isNegative()) {
+                throw new IllegalArgumentException("timeToLive must be positive, but was " + timeToLive);
+            }
+            this.identificationCacheSize = maxEntries;
+            this.identificationCacheTimeToLive = timeToLive;
+            return this;
+        }
+
+        /**
+         * Avoid uploading archive documents with content identical to documents already archived,
+         * and instead add a reference to the existing archive document. The SHA-256 digest of the content
+         * of every archived document is recorded in the given index, together with the sender and name of the archive,
+         * so content is only deduplicated within the same archive.
+         * <p>
+         * Archives with a {@link no.digipost.api.client.representations.SenderOrganization sender organization}
+         * are not deduplicated, and their documents are always uploaded, as references to archive documents can only
+         * be added on behalf of a {@link SenderId}.
+         */
+        public Builder archiveDeduplicationIndex(ArchiveDeduplicationIndex index) {
+            this.archiveDeduplicationIndex = index;
+            return this;
+        }
+
+        /**
+         * Configure the pool of HTTP connections to Digipost, e.g. to allow more concurrent requests.
+         * This is only used when the client creates its own HTTP client.
+         */
+        public Builder connectionPool(ConnectionPoolConfig connectionPool) {
+            this.connectionPool = connectionPool;
+            return this;
+        }
+
+        /**
+         * Retry requests which fail because of a transient condition, such as Digipost being temporarily
+         * unavailable. The default is to not retry any requests.
+         *
+         * @see RetryPolicy
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Stop sending requests to Digipost for a while when too many recent requests have failed or have
+         * been slow. The default is to not use circuit breakers.
+         *
+         * @see CircuitBreakerConfig
+         */
+        public Builder circuitBreaker(CircuitBreakerConfig circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        /**
+         * Adaptively limit the number of requests in progress, based on how Digipost responds.
+         * The default is to not limit the requests, other than by the size of the connection pool.
+         *
+         * @see ConcurrencyLimitConfig
+         */
+        public Builder concurrencyLimit(ConcurrencyLimitConfig concurrencyLimit) {
+            this.concurrencyLimit = concurrencyLimit;
+            return this;
+        }
+
+        /**
+         * Limit the rate of requests for each sender and each kind of request, by delaying requests
+         * exceeding the limits. The default is to not limit the rate of requests.
+         *
+         * @see RateLimitConfig
+         */
+        public Builder rateLimit(RateLimitConfig rateLimit) {
+            this.rateLimit = rateLimit;
+            return this;
+        }
+
+        /**
+         * Send a duplicate of latency-sensitive read requests which have not been answered within the usual
+         * response time, and use the first response. The default is to not hedge any requests.
+         *
+         * @see HedgingPolicy
+         */
+        public Builder hedging(HedgingPolicy hedging) {
+            this.hedging = hedging;
+            return this;
+        }
+
+        /**
+         * Whether to ask for the XML responses from Digipost to be compressed with gzip or deflate.
+         * The content hash of a compressed response is verified against the compressed bytes
+         * as they are received, before they are decompressed. The default is {@code true}.
+         */
+        public Builder responseCompression(boolean responseCompression) {
+            this.responseCompression = responseCompression;
+            return this;
+        }
+
         public Builder eventLogger(EventLogger eventLogger) {
             this.eventLogger = eventLogger;
             return this;
@@ -67,7 +258,9 @@ public final class DigipostClientConfig {
         }
 
         public DigipostClientConfig build() {
-            return new DigipostClientConfig(digipostApiUri, printKeyCacheTimeToLive, eventLogger, clock, failOnHtmlDiff);
+            return new DigipostClientConfig(digipostApiUri, printKeyCacheTimeToLive, eventLogger, clock, failOnHtmlDiff, deliveryJournal, resumeFromDeliveryJournal, documentPreparationExecutor,
+                    pdfValidationCacheSize, htmlValidationCacheSize, identificationCacheSize, identificationCacheTimeToLive, archiveDeduplicationIndex, connectionPool, retryPolicy,
+                    circuitBreaker, concurrencyLimit, rateLimit, hedging, responseCompression);
         }
     }
 
@@ -80,13 +273,49 @@ public final class DigipostClientConfig {
     public final EventLogger eventLogger;
     public final Clock clock;
     public final boolean failOnHtmlDiff;
+    public final Optional<DeliveryJournal> deliveryJournal;
+    public final boolean resumeFromDeliveryJournal;
+    public final Executor documentPreparationExecutor;
+    public final int pdfValidationCacheSize;
+    public final int htmlValidationCacheSize;
+    public final int identificationCacheSize;
+    public final Duration identificationCacheTimeToLive;
+    public final Optional<ArchiveDeduplicationIndex> archiveDeduplicationIndex;
+    public final ConnectionPoolConfig connectionPool;
+    public final RetryPolicy retryPolicy;
+    public final CircuitBreakerConfig circuitBreaker;
+    public final ConcurrencyLimitConfig concurrencyLimit;
+    public final RateLimitConfig rateLimit;
+    public final HedgingPolicy hedging;
+    public final boolean responseCompression;
 
-    private DigipostClientConfig(URI digipostApiUri, Duration printKeyCacheTimeToLive, EventLogger eventLogger, Clock clock, boolean failOnHtmlDiff) {
+    private DigipostClientConfig(URI digipostApiUri, Duration printKeyCacheTimeToLive, EventLogger eventLogger, Clock clock, boolean failOnHtmlDiff,
+                                 DeliveryJournal deliveryJournal, boolean resumeFromDeliveryJournal, Executor documentPreparationExecutor,
+                                 int pdfValidationCacheSize, int htmlValidationCacheSize,
+                                 int identificationCacheSize, Duration identificationCacheTimeToLive, ArchiveDeduplicationIndex archiveDeduplicationIndex,
+                                 ConnectionPoolConfig connectionPool, RetryPolicy retryPolicy,
+                                 CircuitBreakerConfig circuitBreaker, ConcurrencyLimitConfig concurrencyLimit, RateLimitConfig rateLimit,
+                                 HedgingPolicy hedging, boolean responseCompression) {
         this.digipostApiUri = requireNonNull(digipostApiUri, "digipostApiUri cat not be null");
         this.printKeyCacheTimeToLive = requireNonNull(printKeyCacheTimeToLive, "printKeyCacheTimeToLive can not be null");
         this.eventLogger = requireNonNull(eventLogger, "eventLogger can not be null");
         this.clock = clock;
         this.failOnHtmlDiff = failOnHtmlDiff;
+        this.deliveryJournal = Optional.ofNullable(deliveryJournal);
+        this.resumeFromDeliveryJournal = resumeFromDeliveryJournal;
+        this.documentPreparationExecutor = requireNonNull(documentPreparationExecutor, "documentPreparationExecutor can not be null");
+        this.pdfValidationCacheSize = pdfValidationCacheSize;
+        this.htmlValidationCacheSize = htmlValidationCacheSize;
+        this.identificationCacheSize = identificationCacheSize;
+        this.identificationCacheTimeToLive = requireNonNull(identificationCacheTimeToLive, "identificationCacheTimeToLive can not be null");
+        this.archiveDeduplicationIndex = Optional.ofNullable(archiveDeduplicationIndex);
+        this.connectionPool = requireNonNull(connectionPool, "connectionPool can not be null");
+        this.retryPolicy = requireNonNull(retryPolicy, "retryPolicy can not be null");
+        this.circuitBreaker = requireNonNull(circuitBreaker, "circuitBreaker can not be null");
+        this.concurrencyLimit = requireNonNull(concurrencyLimit, "concurrencyLimit can not be null");
+        this.rateLimit = requireNonNull(rateLimit, "rateLimit can not be null");
+        this.hedging = requireNonNull(hedging, "hedging can not be null");
+        this.responseCompression = responseCompression;
     }
 
 }
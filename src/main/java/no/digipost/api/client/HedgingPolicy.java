@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client;
+
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Policy for <em>hedging</em> latency-sensitive read requests: if a request has not been answered within
+ * the usual response time, a duplicate request is sent, and whichever response is received and verified first
+ * is used. The slower request is cancelled.
+ * <p>
+ * The hedged requests are searching for recipients, search suggestions (autocomplete), identifying recipients,
+ * and retrieving the status of documents. The usual response time is a {@link Builder#percentile(double) percentile},
+ * by default the 95th, of the recent response times of each kind of request, limited to be within the
+ * {@link Builder#delay(Duration, Duration) min and max delay}.
+ * <p>
+ * Every hedge is an extra request to Digipost, so the number of hedges is limited by a <em>hedge budget</em>:
+ * at most a {@link Builder#budget(double) fraction} of the requests may be hedged.
+ *
+ * @see DigipostClientConfig.Builder#hedging(HedgingPolicy)
+ */
+public final class HedgingPolicy {
+
+    /**
+     * Do not hedge any requests. This is the default.
+     */
+    public static final HedgingPolicy DISABLED = new HedgingPolicy(false, 1, Duration.ZERO, Duration.ZERO, 0);
+
+    public static Builder newPolicy() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private double percentile = 0.95;
+        private Duration minDelay = Duration.ofMillis(20);
+        private Duration maxDelay = Duration.ofSeconds(1);
+        private double budget = 0.05;
+
+        private Builder() {
+        }
+
+        /**
+         * The percentile of recent response times to wait for a response, before sending a duplicate request.
+         * Default is 0.95, i.e. the 95th percentile.
+         */
+        public Builder percentile(double percentile) {
+            if (percentile <= 0 || percentile >= 1) {
+                throw new IllegalArgumentException("percentile must be greater than 0 and less than 1, but was " + percentile);
+            }
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * The bounds of the time to wait for a response, before sending a duplicate request. The max delay is also
+         * used until enough response times are known. Default is between 20 milliseconds and 1 second.
+         */
+        public Builder delay(Duration minDelay, Duration maxDelay) {
+            if (requireNonNull(minDelay, "minDelay can not be null").compareTo(requireNonNull(maxDelay, "maxDelay can not be null")) > 0) {
+                throw new IllegalArgumentException("minDelay " + minDelay + " can not be longer than maxDelay " + maxDelay);
+            }
+            this.minDelay = minDelay;
+            this.maxDelay = maxDelay;
+            return this;
+        }
+
+        /**
+         * The maximum fraction of requests which may be hedged. Default is 0.05, i.e. 5% of the requests.
+         */
+        public Builder budget(double budget) {
+            if (budget <= 0 || budget > 1) {
+                throw new IllegalArgumentException("budget must be greater than 0 and at most 1, but was " + budget);
+            }
+            this.budget = budget;
+            return this;
+        }
+
+        public HedgingPolicy build() {
+            return new HedgingPolicy(true, percentile, minDelay, maxDelay, budget);
+        }
+    }
+
+
+    public final boolean enabled;
+    public final double percentile;
+    public final Duration minDelay;
+    public final Duration maxDelay;
+    public final double budget;
+
+    private HedgingPolicy(boolean enabled, double percentile, Duration minDelay, Duration maxDelay, double budget) {
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.budget = budget;
+    }
+
+    @Override
+    public String toString() {
+        return enabled
+                ? "hedging requests not answered within the " + percentile + " percentile response time, between " + minDelay + " and " + maxDelay +
+                  ", for at most " + budget + " of the requests"
+                : "no hedging";
+    }
+}
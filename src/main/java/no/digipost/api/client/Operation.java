@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client;
+
+/**
+ * The kinds of requests to Digipost which are protected and limited separately by the client.
+ *
+ * @see CircuitBreakerConfig
+ * @see RateLimitConfig
+ */
+public enum Operation {
+
+    /**
+     * Sending messages.
+     */
+    CREATE_MESSAGE,
+
+    /**
+     * Archiving documents, and retrieving and managing archived documents.
+     */
+    ARCHIVE,
+
+    /**
+     * Retrieving document events.
+     */
+    EVENTS,
+
+    /**
+     * Retrieving the status of documents.
+     */
+    STATUS,
+
+    /**
+     * All other requests.
+     */
+    OTHER
+
+}
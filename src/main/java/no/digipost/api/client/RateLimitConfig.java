@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Configuration of client-side rate limits, which smooth out bursts of requests to Digipost instead of
+ * having Digipost throttle them with {@code 429 Too Many Requests}.
+ * <p>
+ * Requests can be limited for each sender, and for each {@link Operation kind of request}. Requests on behalf
+ * of a sender count towards the limit of that sender, while other requests count towards the limit of the
+ * broker itself. Each limit is a <em>token bucket</em>: requests can be sent at the given rate per second, and a
+ * burst of requests up to the bucket size is allowed after a period of fewer requests.
+ * <p>
+ * A request exceeding a limit waits until it can be sent. Waiting requests are sent in the order they
+ * arrived. If a request would have to wait longer than the {@link Builder#maxWait(Duration) max wait},
+ * it is instead immediately rejected with
+ * {@link no.digipost.api.client.errorhandling.ErrorCode#OVERLOAD_PROTECTION OVERLOAD_PROTECTION}.
+ *
+ * @see DigipostClientConfig.Builder#rateLimit(RateLimitConfig)
+ * @see DigipostClient#getRateLimitStatistics()
+ */
+public final class RateLimitConfig {
+
+    /**
+     * No rate limits. This is the default.
+     */
+    public static final RateLimitConfig DISABLED = new RateLimitConfig(
+            Optional.empty(), Collections.emptyMap(), Collections.emptyMap(), Duration.ZERO);
+
+    public static Builder newConfiguration() {
+        return new Builder();
+    }
+
+    /**
+     * A rate of requests per second, allowing bursts of requests up to a number of requests.
+     */
+    public static final class Limit {
+        public final double requestsPerSecond;
+        public final int burst;
+
+        private Limit(double requestsPerSecond, int burst) {
+            if (requestsPerSecond <= 0 || burst < 1) {
+                throw new IllegalArgumentException(
+                        "A rate limit must allow more than 0 requests per second, and a burst of at least 1 request, " +
+                        "but was " + requestsPerSecond + " requests per second, and burst of " + burst);
+            }
+            this.requestsPerSecond = requestsPerSecond;
+            this.burst = burst;
+        }
+
+        @Override
+        public String toString() {
+            return requestsPerSecond + " requests/s, bursts of " + burst;
+        }
+    }
+
+    public static class Builder {
+        private Limit perSender;
+        private final Map<SenderId, Limit> senders = new HashMap<>();
+        private final Map<Operation, Limit> operations = new EnumMap<>(Operation.class);
+        private Duration maxWait = Duration.ofSeconds(30);
+
+        private Builder() {
+        }
+
+        /**
+         * Limit the requests on behalf of each sender, including the requests by the broker itself.
+         */
+        public Builder perSender(double requestsPerSecond, int burst) {
+            this.perSender = new Limit(requestsPerSecond, burst);
+            return this;
+        }
+
+        /**
+         * Limit the requests on behalf of a specific sender, instead of the {@link #perSender(double, int) limit for each sender}.
+         */
+        public Builder sender(SenderId senderId, double requestsPerSecond, int burst) {
+            senders.put(requireNonNull(senderId, "senderId can not be null"), new Limit(requestsPerSecond, burst));
+            return this;
+        }
+
+        /**
+         * Limit a kind of request, regardless of which sender the requests are on behalf of.
+         */
+        public Builder operation(Operation operation, double requestsPerSecond, int burst) {
+            operations.put(requireNonNull(operation, "operation can not be null"), new Limit(requestsPerSecond, burst));
+            return this;
+        }
+
+        /**
+         * The maximum time a request may wait to be sent. Default is 30 seconds.
+         */
+        public Builder maxWait(Duration maxWait) {
+            this.maxWait = requireNonNull(maxWait, "maxWait can not be null");
+            return this;
+        }
+
+        public RateLimitConfig build() {
+            return new RateLimitConfig(Optional.ofNullable(perSender), new HashMap<>(senders), new EnumMap<>(operations), maxWait);
+        }
+    }
+
+
+    public final Optional<Limit> perSender;
+    public final Map<SenderId, Limit> senders;
+    public final Map<Operation, Limit> operations;
+    public final Duration maxWait;
+
+    private RateLimitConfig(Optional<Limit> perSender, Map<SenderId, Limit> senders, Map<Operation, Limit> operations, Duration maxWait) {
+        this.perSender = perSender;
+        this.senders = unmodifiableMap(senders);
+        this.operations = unmodifiableMap(operations);
+        this.maxWait = maxWait;
+    }
+
+    public boolean isEnabled() {
+        return perSender.isPresent() || !senders.isEmpty() || !operations.isEmpty();
+    }
+
+    /**
+     * @return the limit of requests on behalf of the given sender, if any.
+     */
+    public Optional<Limit> getLimit(SenderId senderId) {
+        return senders.containsKey(senderId) ? Optional.of(senders.get(senderId)) : perSender;
+    }
+
+    @Override
+    public String toString() {
+        return isEnabled()
+                ? "rate limits per sender: " + perSender.map(Limit::toString).orElse("none") + ", specific senders: " + senders +
+                  ", per operation: " + operations + ", waiting at most " + maxWait
+                : "no rate limits";
+    }
+}
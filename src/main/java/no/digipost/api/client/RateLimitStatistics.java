@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client;
+
+import java.time.Duration;
+
+/**
+ * A snapshot of how requests have been delayed and rejected by the {@link RateLimitConfig rate limits}
+ * of a client, since it was created.
+ */
+public final class RateLimitStatistics {
+
+    /**
+     * Requests which have been allowed to be sent, with or without waiting.
+     */
+    public final long permitted;
+
+    /**
+     * Requests which had to wait before being sent.
+     */
+    public final long delayed;
+
+    /**
+     * Requests which were rejected, because they would have to wait longer than allowed.
+     */
+    public final long rejected;
+
+    /**
+     * The total time requests have waited.
+     */
+    public final Duration totalWait;
+
+    /**
+     * The longest time a request has waited.
+     */
+    public final Duration maxWait;
+
+    public RateLimitStatistics(long permitted, long delayed, long rejected, Duration totalWait, Duration maxWait) {
+        this.permitted = permitted;
+        this.delayed = delayed;
+        this.rejected = rejected;
+        this.totalWait = totalWait;
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * @return the average time a permitted request has waited before being sent.
+     */
+    public Duration getAverageWait() {
+        return permitted == 0 ? Duration.ZERO : totalWait.dividedBy(permitted);
+    }
+
+    @Override
+    public String toString() {
+        return "rate limits: permitted=" + permitted + ", delayed=" + delayed + ", rejected=" + rejected +
+               ", averageWait=" + getAverageWait().toMillis() + "ms, maxWait=" + maxWait.toMillis() + "ms";
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client;
+
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Policy for retrying requests to Digipost which fail because of a transient condition: the
+ * connection could not be established, or Digipost responds with
+ * {@code 503 Service Unavailable} or {@code 429 Too Many Requests}.
+ * <p>
+ * Only requests which are safe to send again are retried: requests which only retrieve data
+ * ({@code GET} and {@code HEAD}), and sending a message, which Digipost deduplicates by the
+ * message id. A message is only sent again if the connection could not be established, or
+ * if Digipost responded that it was not able to process the message. Requests with content
+ * which can not be read again, e.g. from a single-use {@link java.io.InputStream}, are never retried.
+ * <p>
+ * The delay before each retry grows exponentially from {@link #initialBackoff} up to
+ * {@link #maxBackoff}, and the actual delay is picked randomly up to that limit (<em>full jitter</em>),
+ * so that many clients failing at the same time do not retry in lockstep. If the response includes
+ * a {@code Retry-After} header, that delay is used instead, unless it is longer than {@link #maxBackoff},
+ * in which case the request is not retried. Each retry is signed anew, with a fresh {@code Date}.
+ * <p>
+ * To avoid retries amplifying the load on Digipost when it is overloaded, the retries are limited by
+ * a <em>retry budget</em>: every request earns a fraction ({@link #retryBudgetRatio}) of a retry, and
+ * at most {@link #maxRetryBudget} unused retries are saved up.
+ *
+ * @see DigipostClientConfig.Builder#retryPolicy(RetryPolicy)
+ */
+public final class RetryPolicy {
+
+    /**
+     * Do not retry any requests. This is the default.
+     */
+    public static final RetryPolicy NO_RETRIES = newPolicy().maxAttempts(1).build();
+
+    public static Builder newPolicy() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int maxAttempts = 3;
+        private Duration initialBackoff = Duration.ofMillis(200);
+        private Duration maxBackoff = Duration.ofSeconds(10);
+        private double retryBudgetRatio = 0.1;
+        private int maxRetryBudget = 10;
+
+        private Builder() {
+        }
+
+        /**
+         * The maximum number of attempts of each request, including the first. Default is 3.
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be at least 1, but was " + maxAttempts);
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * The upper limit of the delay before the first retry, which is doubled for each subsequent
+         * retry. Default is 200 milliseconds.
+         */
+        public Builder initialBackoff(Duration initialBackoff) {
+            this.initialBackoff = initialBackoff;
+            return this;
+        }
+
+        /**
+         * The upper limit of the delay before any retry. Default is 10 seconds.
+         */
+        public Builder maxBackoff(Duration maxBackoff) {
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        /**
+         * Limit the number of retries relative to the number of requests. Default is to allow
+         * one retry for every 10 requests, and to save up at most 10 retries.
+         *
+         * @param ratio the fraction of a retry earned by every request
+         * @param maxRetries the maximum number of retries which can be saved up, which is also the
+         *                   number of retries available when the client is created.
+         */
+        public Builder retryBudget(double ratio, int maxRetries) {
+            if (ratio < 0 || maxRetries < 0) {
+                throw new IllegalArgumentException("The retry budget can not be negative, but was ratio " + ratio + " and max " + maxRetries);
+            }
+            this.retryBudgetRatio = ratio;
+            this.maxRetryBudget = maxRetries;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(maxAttempts, initialBackoff, maxBackoff, retryBudgetRatio, maxRetryBudget);
+        }
+    }
+
+
+    public final int maxAttempts;
+    public final Duration initialBackoff;
+    public final Duration maxBackoff;
+    public final double retryBudgetRatio;
+    public final int maxRetryBudget;
+
+    private RetryPolicy(int maxAttempts, Duration initialBackoff, Duration maxBackoff, double retryBudgetRatio, int maxRetryBudget) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = requireNonNull(initialBackoff, "initialBackoff can not be null");
+        this.maxBackoff = requireNonNull(maxBackoff, "maxBackoff can not be null");
+        this.retryBudgetRatio = retryBudgetRatio;
+        this.maxRetryBudget = maxRetryBudget;
+    }
+
+    public boolean isEnabled() {
+        return maxAttempts > 1;
+    }
+
+    /**
+     * @param retry the number of the retry, starting at 1 for the first retry
+     * @param random a random value between 0 (inclusive) and 1 (exclusive)
+     * @return the delay before the given retry
+     */
+    public Duration backoff(int retry, double random) {
+        long ceilingMillis = initialBackoff.toMillis() << Math.min(retry - 1, 30);
+        if (ceilingMillis <= 0 || ceilingMillis > maxBackoff.toMillis()) {
+            ceilingMillis = maxBackoff.toMillis();
+        }
+        return Duration.ofMillis((long) (ceilingMillis * random));
+    }
+
+    @Override
+    public String toString() {
+        return isEnabled()
+                ? "retry up to " + (maxAttempts - 1) + " times, with backoff from " + initialBackoff + " up to " + maxBackoff +
+                  ", and a retry budget of " + retryBudgetRatio + " per request, up to " + maxRetryBudget
+                : "no retries";
+    }
+}
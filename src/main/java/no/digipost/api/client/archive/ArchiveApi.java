@@ -16,6 +16,7 @@
 package no.digipost.api.client.archive;
 
 import no.digipost.api.client.SenderId;
+import no.digipost.api.client.delivery.ContentSource;
 import no.digipost.api.client.representations.archive.Archive;
 import no.digipost.api.client.representations.archive.ArchiveDocument;
 import no.digipost.api.client.representations.archive.ArchiveDocumentContent;
@@ -23,10 +24,18 @@ import no.digipost.api.client.representations.archive.Archives;
 import org.apache.hc.core5.http.ClassicHttpResponse;
 import org.apache.hc.core5.http.HttpEntity;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public interface ArchiveApi {
 
@@ -34,6 +43,14 @@ public interface ArchiveApi {
 
     ClassicHttpResponse sendMultipartArchive(HttpEntity build);
 
+    /**
+     * Arkiverer dokumenter på vegne av en avsender. Avsenderen brukes til å begrense raten av
+     * forespørsler per avsender, se {@link no.digipost.api.client.RateLimitConfig}.
+     */
+    default ClassicHttpResponse sendMultipartArchive(SenderId onBehalfOf, HttpEntity multipart) {
+        return sendMultipartArchive(multipart);
+    }
+
     Archive getArchiveDocuments(URI uri);
 
     Archive getArchiveDocumentByUUID(SenderId senderId, UUID uuid);
@@ -53,13 +70,39 @@ public interface ArchiveApi {
          */
         ArchivingDocuments addFile(ArchiveDocument document, InputStream content);
 
+        /**
+         * Laster opp innhold til et dokument. Innhold med kjent lengde sendes
+         * uten å først kopieres til minnet. En implementasjon som ikke overstyrer
+         * denne leser innholdet som en {@link InputStream}.
+         *
+         * @return videre operasjoner for å fullføre leveransen.
+         * @see ContentSource
+         */
+        default ArchivingDocuments addFile(ArchiveDocument document, ContentSource content) {
+            try {
+                return addFile(document, content.openStream());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to open content of archive document " + document.uuid + ", because " + e.getMessage(), e);
+            }
+        }
+
         /**
          * Laster opp innhold til et dokument.
          *
          * @return videre operasjoner for å fullføre leveransen.
          */
         default ArchivingDocuments addFile(ArchiveDocument document, byte[] content) {
-            return addFile(document, new ByteArrayInputStream(content));
+            return addFile(document, ContentSource.of(content));
+        }
+
+        /**
+         * Laster opp innholdet i en fil til et dokument. Filen overføres direkte fra disk
+         * når forsendelsen sendes, uten å leses inn i minnet.
+         *
+         * @return videre operasjoner for å fullføre leveransen.
+         */
+        default ArchivingDocuments addFile(ArchiveDocument document, Path content) {
+            return addFile(document, ContentSource.of(content));
         }
 
         /**
@@ -79,4 +122,31 @@ public interface ArchiveApi {
     ArchiveDocumentContent getArchiveDocumentContent(URI uri);
 
     InputStream getArchiveDocumentContentStream(URI uri);
+
+    /**
+     * Stream all documents of an archive, optionally only those with the given attributes. The pages
+     * of documents are fetched lazily as the stream is consumed, and the next page is fetched in the
+     * background while the current page is consumed. The stream should be closed if it is not consumed
+     * to the end.
+     *
+     * @param archive the archive, as given by {@link #getArchives(SenderId)}
+     * @param attributes only include documents with all of these attributes. May be empty.
+     */
+    default Stream<ArchiveDocument> streamDocuments(Archive archive, Map<String, String> attributes) {
+        return streamDocuments(archive, attributes, 1);
+    }
+
+    /**
+     * Stream all documents of an archive, optionally only those with the given attributes,
+     * fetching up to {@code prefetchPages} pages ahead of the page being consumed.
+     *
+     * @see #streamDocuments(Archive, Map)
+     */
+    default Stream<ArchiveDocument> streamDocuments(Archive archive, Map<String, String> attributes, int prefetchPages) {
+        Optional<URI> firstPage = attributes.isEmpty() ? archive.getNextDocuments() : archive.getNextDocumentsWithAttributes(attributes);
+        ArchivePages pages = new ArchivePages(firstPage, page -> ArchivePages.nextPageWithAttributes(page, attributes), this::getArchiveDocuments, prefetchPages);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .flatMap(page -> page.getDocuments().stream())
+                .onClose(pages::close);
+    }
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.archive;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A persistent index from the digest of archived content to the UUID of the archive document
+ * which was uploaded with that content. When enabled with
+ * {@link no.digipost.api.client.DigipostClientConfig.Builder#archiveDeduplicationIndex(ArchiveDeduplicationIndex)},
+ * a document with content identical to an already archived document is not uploaded again. Instead
+ * its UUID is added as a reference to the existing archive document.
+ * <p>
+ * The index is kept in memory, and each new entry is appended to the index file. The index is only
+ * valid for the archive it has been used with, and an archive document must not be deleted from
+ * Digipost while it is in the index. (If it is, the content will be uploaded again.)
+ * <p>
+ * If the process dies while an entry is appended, the incomplete last line of the index file is
+ * removed when the index is opened again.
+ */
+public final class ArchiveDeduplicationIndex implements Closeable {
+
+    private static final String REMOVED = "-";
+
+    /**
+     * Open an existing index file, or create a new one if it does not exist.
+     */
+    public static ArchiveDeduplicationIndex open(Path indexFile) {
+        Map<String, UUID> entries = new ConcurrentHashMap<>();
+        try {
+            if (Files.exists(indexFile)) {
+                truncateIncompleteLastLine(indexFile);
+                try (Stream<String> lines = Files.lines(indexFile, UTF_8)) {
+                    lines.map(line -> line.split(" ")).filter(entry -> entry.length == 2)
+                            .forEach(entry -> {
+                                if (REMOVED.equals(entry[1])) {
+                                    entries.remove(entry[0]);
+                                } else {
+                                    parseUuid(entry[1]).ifPresent(uuid -> entries.put(entry[0], uuid));
+                                }
+                            });
+                }
+            }
+            return new ArchiveDeduplicationIndex(entries, Files.newBufferedWriter(indexFile, UTF_8, CREATE, APPEND));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open archive deduplication index " + indexFile + ", because " + e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * Every entry is written with a terminating line break, so a last line without it was not completely
+     * written, and is removed to not have the next entry appended to it.
+     */
+    private static void truncateIncompleteLastLine(Path indexFile) throws IOException {
+        try (FileChannel index = FileChannel.open(indexFile, READ, WRITE)) {
+            ByteBuffer lastByte = ByteBuffer.allocate(1);
+            long end = index.size();
+            for (; end > 0; end--) {
+                lastByte.clear();
+                index.read(lastByte, end - 1);
+                if (lastByte.get(0) == '\n') {
+                    break;
+                }
+            }
+            if (end < index.size()) {
+                index.truncate(end);
+            }
+        }
+    }
+
+    private static Optional<UUID> parseUuid(String uuid) {
+        try {
+            return Optional.of(UUID.fromString(uuid));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+
+    private final Map<String, UUID> entries;
+    private final BufferedWriter writer;
+
+    private ArchiveDeduplicationIndex(Map<String, UUID> entries, BufferedWriter writer) {
+        this.entries = entries;
+        this.writer = writer;
+    }
+
+    /**
+     * @param contentKey identifies content and the archive it is archived in
+     * @return the UUID of the archive document which was uploaded with the content
+     */
+    public Optional<UUID> get(String contentKey) {
+        return Optional.ofNullable(entries.get(contentKey));
+    }
+
+    /**
+     * Record that content has been uploaded as the archive document with the given UUID.
+     */
+    public synchronized void put(String contentKey, UUID archiveDocumentUuid) {
+        if (contentKey.indexOf(' ') >= 0) {
+            throw new IllegalArgumentException("Content key can not contain space: '" + contentKey + "'");
+        }
+        try {
+            writer.write(contentKey + " " + archiveDocumentUuid);
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write to archive deduplication index, because " + e.getMessage(), e);
+        }
+        entries.put(contentKey, archiveDocumentUuid);
+    }
+
+    /**
+     * Remove an entry, e.g. if the archive document it refers to no longer exists.
+     */
+    public synchronized void remove(String contentKey) {
+        if (entries.remove(contentKey) != null) {
+            try {
+                writer.write(contentKey + " " + REMOVED);
+                writer.newLine();
+                writer.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to write to archive deduplication index, because " + e.getMessage(), e);
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
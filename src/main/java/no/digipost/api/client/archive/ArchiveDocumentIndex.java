@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.archive;
+
+import no.digipost.api.client.representations.archive.Archive;
+import no.digipost.api.client.representations.archive.ArchiveDocument;
+import no.digipost.api.client.representations.archive.ArchiveDocumentAttribute;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.stream.Collectors.toList;
+import static no.digipost.api.client.util.JAXBContextUtils.jaxbContext;
+import static no.digipost.api.client.util.JAXBContextUtils.marshal;
+import static no.digipost.api.client.util.JAXBContextUtils.unmarshal;
+
+/**
+ * A local index of the documents in an archive, which answers lookups by UUID, reference id and
+ * attributes without any requests to Digipost. The index holds the metadata and links of each
+ * {@link ArchiveDocument}, so the content of a document found in the index can be fetched directly.
+ * <p>
+ * The index is brought up to date with {@link #sync(Archive, Function)}, which fetches only
+ * documents archived since the latest archived time already in the index. Documents which are
+ * changed or deleted in Digipost after they were indexed are not updated in the index.
+ * <p>
+ * All lookups are served from memory. Synced documents are appended to the index file, which is
+ * read back when the index is opened again.
+ */
+public final class ArchiveDocumentIndex implements Closeable {
+
+    /**
+     * Open an existing index file, or create a new one if it does not exist. Use
+     * one index file per archive.
+     */
+    public static ArchiveDocumentIndex open(Path indexFile) {
+        return open(indexFile, Clock.systemDefaultZone());
+    }
+
+    static ArchiveDocumentIndex open(Path indexFile, Clock clock) {
+        try {
+            return new ArchiveDocumentIndex(indexFile, clock);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open archive document index " + indexFile + ", because " + e.getMessage(), e);
+        }
+    }
+
+
+    private final Clock clock;
+    private final Map<UUID, ArchiveDocument> byUuid = new ConcurrentHashMap<>();
+    private final Map<String, Set<UUID>> byReferenceId = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Set<UUID>>> byAttribute = new ConcurrentHashMap<>();
+    private final AtomicReference<ZonedDateTime> latestArchivedTime = new AtomicReference<>();
+    private final FileChannel channel;
+    private final DataOutputStream out;
+
+    private ArchiveDocumentIndex(Path indexFile, Clock clock) throws IOException {
+        this.clock = clock;
+        long validLength = 0;
+        if (Files.exists(indexFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+                while (true) {
+                    byte[] record;
+                    try {
+                        record = new byte[in.readInt()];
+                        in.readFully(record);
+                    } catch (EOFException endOrIncompleteRecord) {
+                        break;
+                    }
+                    index(unmarshal(jaxbContext, new ByteArrayInputStream(record), ArchiveDocument.class));
+                    validLength += Integer.BYTES + record.length;
+                }
+            }
+        }
+        this.channel = FileChannel.open(indexFile, CREATE, WRITE);
+        this.channel.truncate(validLength);
+        this.channel.position(validLength);
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    /**
+     * Fetch and index the documents archived since the last sync. The first sync fetches all documents
+     * of the archive.
+     *
+     * @param archive the archive this index is for, as given by
+     *                {@link no.digipost.api.client.DigipostClient#getArchives(no.digipost.api.client.SenderId)}
+     * @param fetchPage fetches a page of archive documents, e.g.
+     *                  {@link no.digipost.api.client.DigipostClient#getArchiveDocuments(URI) DigipostClient::getArchiveDocuments}
+     * @return the number of new or changed documents in the index
+     */
+    public synchronized int sync(Archive archive, Function<URI, Archive> fetchPage) {
+        Optional<OffsetDateTime> from = Optional.ofNullable(latestArchivedTime.get()).map(ZonedDateTime::toOffsetDateTime);
+        OffsetDateTime to = OffsetDateTime.now(clock);
+        Optional<URI> firstPage = from.isPresent() ? archive.getNextDocumentsByDate(from.get(), to) : archive.getNextDocuments();
+        Function<Archive, Optional<URI>> nextPage = from.isPresent()
+                ? page -> ArchivePages.nextPageByDate(page, from.get(), to)
+                : Archive::getNextDocuments;
+
+        int indexed = 0;
+        try (ArchivePages pages = new ArchivePages(firstPage, nextPage, fetchPage, 1)) {
+            while (pages.hasNext()) {
+                for (ArchiveDocument document : pages.next().getDocuments()) {
+                    if (!isIndexed(document)) {
+                        append(document);
+                        index(document);
+                        indexed++;
+                    }
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write to archive document index, because " + e.getMessage(), e);
+        }
+        return indexed;
+    }
+
+    public Optional<ArchiveDocument> byUuid(UUID uuid) {
+        return Optional.ofNullable(byUuid.get(uuid));
+    }
+
+    public List<ArchiveDocument> byReferenceId(String referenceId) {
+        return documents(byReferenceId.get(referenceId));
+    }
+
+    /**
+     * @return all documents with an attribute with the given key and value.
+     */
+    public List<ArchiveDocument> byAttribute(String key, String value) {
+        return documents(byAttribute.getOrDefault(key, Collections.emptyMap()).get(value));
+    }
+
+    /**
+     * @return the latest archived time of the indexed documents, which is where the next sync starts.
+     */
+    public Optional<ZonedDateTime> getLatestArchivedTime() {
+        return Optional.ofNullable(latestArchivedTime.get());
+    }
+
+    public int size() {
+        return byUuid.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        try (FileChannel autoClosed = channel) {
+            out.flush();
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    private boolean isIndexed(ArchiveDocument document) {
+        ArchiveDocument indexed = byUuid.get(document.getUuid());
+        return indexed != null && Objects.equals(indexed.getArchivedTime(), document.getArchivedTime())
+                && Objects.equals(indexed.getReferenceid(), document.getReferenceid())
+                && attributeValues(indexed).equals(attributeValues(document));
+    }
+
+    private void append(ArchiveDocument document) throws IOException {
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        marshal(jaxbContext, document, xml);
+        out.writeInt(xml.size());
+        xml.writeTo(out);
+    }
+
+    private void index(ArchiveDocument document) {
+        ArchiveDocument replaced = byUuid.put(document.getUuid(), document);
+        if (replaced != null) {
+            unindex(replaced);
+        }
+        if (document.getReferenceid() != null) {
+            byReferenceId.computeIfAbsent(document.getReferenceid(), id -> ConcurrentHashMap.newKeySet()).add(document.getUuid());
+        }
+        for (ArchiveDocumentAttribute attribute : attributes(document)) {
+            byAttribute.computeIfAbsent(attribute.getKey(), key -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(attribute.getValue(), value -> ConcurrentHashMap.newKeySet())
+                    .add(document.getUuid());
+        }
+        if (document.getArchivedTime() != null) {
+            latestArchivedTime.accumulateAndGet(document.getArchivedTime(), (latest, archived) -> latest == null || archived.isAfter(latest) ? archived : latest);
+        }
+    }
+
+    private void unindex(ArchiveDocument document) {
+        if (document.getReferenceid() != null) {
+            byReferenceId.getOrDefault(document.getReferenceid(), Collections.emptySet()).remove(document.getUuid());
+        }
+        for (ArchiveDocumentAttribute attribute : attributes(document)) {
+            byAttribute.getOrDefault(attribute.getKey(), Collections.emptyMap())
+                    .getOrDefault(attribute.getValue(), Collections.emptySet())
+                    .remove(document.getUuid());
+        }
+    }
+
+    private List<ArchiveDocument> documents(Collection<UUID> uuids) {
+        if (uuids == null) {
+            return Collections.emptyList();
+        }
+        return uuids.stream().map(byUuid::get).filter(Objects::nonNull).collect(toList());
+    }
+
+    private static List<String> attributeValues(ArchiveDocument document) {
+        return attributes(document).stream().map(attribute -> attribute.getKey() + "=" + attribute.getValue()).collect(toList());
+    }
+
+    private static List<ArchiveDocumentAttribute> attributes(ArchiveDocument document) {
+        return document.getAttributes() != null ? document.getAttributes() : Collections.emptyList();
+    }
+}
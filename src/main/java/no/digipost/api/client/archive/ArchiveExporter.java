@@ -0,0 +1,486 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.archive;
+
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import no.digipost.api.client.errorhandling.ErrorType;
+import no.digipost.api.client.representations.ContentHash;
+import no.digipost.api.client.representations.archive.Archive;
+import no.digipost.api.client.representations.archive.ArchiveDocument;
+import org.bouncycastle.util.encoders.Hex;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+/**
+ * Exports all documents of an archive to a directory or a ZIP file. The pages of the archive are
+ * fetched by following the {@code next-documents} links, and the next page is fetched while the
+ * content of the documents of the current page is downloaded concurrently.
+ * <p>
+ * The content of each document is digested while it is written, and verified against the
+ * {@link ArchiveDocument#getContentHash() content hash} given by Digipost, if present. A manifest
+ * with one line per document, including the SHA-256 digest of the exported content, is written
+ * as {@value #MANIFEST_NAME} in the directory or ZIP file. The cause of each failed document is
+ * recorded in the {@code error} column of the manifest.
+ * <p>
+ * A failure which is not specific to a single document, such as a server error or an error in the
+ * configuration of the client, aborts the export by throwing a {@link DigipostClientException},
+ * instead of failing every remaining document in turn.
+ * <p>
+ * If a {@link Builder#checkpoint(Path) checkpoint file} is used, the link to the next page is
+ * recorded each time all documents of a page have been attempted, and an interrupted export
+ * continues from the recorded link when started again. Documents which failed are recorded in the
+ * manifest, and are not attempted again by a resumed export. Documents of a partially exported page
+ * are exported again, and may appear twice in the manifest of a directory. When exporting to ZIP, the
+ * resumed export should be written to a new ZIP file.
+ *
+ * @see no.digipost.api.client.DigipostClient#archiveExporter()
+ */
+public final class ArchiveExporter {
+
+    public static final String MANIFEST_NAME = "manifest.tsv";
+    private static final String MANIFEST_HEADER = "uuid\tfile\tfile-name\treferenceid\tcontent-type\tarchived-time\tbytes\tsha256\tstatus\terror";
+    private static final String CHECKPOINT_COMPLETED = "completed";
+
+    public enum Status {
+        /**
+         * The digest of the exported content matches the content hash from Digipost.
+         */
+        VERIFIED,
+        /**
+         * Digipost did not provide a content hash in a supported algorithm to verify the content against.
+         */
+        UNVERIFIED,
+        FAILED
+    }
+
+    public static final class Summary {
+        public final long verified;
+        public final long unverified;
+        public final long failed;
+        public final long bytes;
+
+        private Summary(long verified, long unverified, long failed, long bytes) {
+            this.verified = verified;
+            this.unverified = unverified;
+            this.failed = failed;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String toString() {
+            return "exported " + (verified + unverified) + " documents (" + unverified + " unverified) with " + bytes + " bytes, " + failed + " failed";
+        }
+    }
+
+    public static class Builder {
+        private final ArchiveApi archiveApi;
+        private int maxConcurrentDownloads = 4;
+        private Optional<Path> checkpoint = Optional.empty();
+
+        public Builder(ArchiveApi archiveApi) {
+            this.archiveApi = archiveApi;
+        }
+
+        /**
+         * The maximum number of documents to download at the same time. Default is 4.
+         */
+        public Builder maxConcurrentDownloads(int maxConcurrentDownloads) {
+            if (maxConcurrentDownloads < 1) {
+                throw new IllegalArgumentException("maxConcurrentDownloads must be at least 1, but was " + maxConcurrentDownloads);
+            }
+            this.maxConcurrentDownloads = maxConcurrentDownloads;
+            return this;
+        }
+
+        /**
+         * Record the progress of the export in the given file, and resume from it if it exists.
+         */
+        public Builder checkpoint(Path checkpointFile) {
+            this.checkpoint = Optional.of(checkpointFile);
+            return this;
+        }
+
+        public ArchiveExporter build() {
+            return new ArchiveExporter(this);
+        }
+    }
+
+
+    private final ArchiveApi archiveApi;
+    private final int maxConcurrentDownloads;
+    private final Optional<Path> checkpoint;
+
+    private ArchiveExporter(Builder builder) {
+        this.archiveApi = builder.archiveApi;
+        this.maxConcurrentDownloads = builder.maxConcurrentDownloads;
+        this.checkpoint = builder.checkpoint;
+    }
+
+    /**
+     * Export all documents of an archive to files in a directory. Each document is written to a file
+     * named by its UUID and file type, and the original file name is found in the manifest.
+     *
+     * @param archive the archive to export, as given by {@link ArchiveApi#getArchives(no.digipost.api.client.SenderId)}
+     * @param directory the directory to export to. It is created if it does not exist.
+     */
+    public Summary exportToDirectory(Archive archive, Path directory) {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to create " + directory + ", because " + e.getMessage(), e);
+        }
+        return export(archive.getNextDocuments(), new DirectoryTarget(directory));
+    }
+
+    /**
+     * Export all documents of an archive to a new ZIP file.
+     *
+     * @param archive the archive to export, as given by {@link ArchiveApi#getArchives(no.digipost.api.client.SenderId)}
+     * @param zipFile the ZIP file to create
+     */
+    public Summary exportToZip(Archive archive, Path zipFile) {
+        return export(archive.getNextDocuments(), new ZipTarget(zipFile));
+    }
+
+
+    private Summary export(Optional<URI> firstPage, Target target) {
+        Optional<URI> nextPage = checkpoint.flatMap(ArchiveExporter::readCheckpoint).orElse(firstPage);
+        AtomicLong verified = new AtomicLong(), unverified = new AtomicLong(), failed = new AtomicLong(), bytes = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(maxConcurrentDownloads);
+        try (Target autoClosed = target; ArchivePages pages = new ArchivePages(nextPage, Archive::getNextDocuments, archiveApi::getArchiveDocuments, 1)) {
+            try {
+                exportPages(pages, target, executor, verified, unverified, failed, bytes);
+            } finally {
+                // the downloads must be stopped before the target is closed
+                shutdownAndAwait(executor);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to complete export, because " + e.getMessage(), e);
+        }
+        return new Summary(verified.get(), unverified.get(), failed.get(), bytes.get());
+    }
+
+    private void exportPages(ArchivePages pages, Target target, ExecutorService executor, AtomicLong verified, AtomicLong unverified, AtomicLong failed, AtomicLong bytes) {
+        while (pages.hasNext()) {
+            Archive current = pages.next();
+            Optional<URI> following = current.getDocuments().isEmpty() ? Optional.empty() : current.getNextDocuments();
+
+            List<CompletableFuture<Void>> downloads = new ArrayList<>();
+            CompletableFuture<Void> aborted = new CompletableFuture<>();
+            for (ArchiveDocument document : current.getDocuments()) {
+                downloads.add(CompletableFuture.runAsync(() -> {
+                    ManifestEntry exported = exportDocument(document, target);
+                    target.addToManifest(exported);
+                    (exported.status == Status.VERIFIED ? verified : exported.status == Status.UNVERIFIED ? unverified : failed).incrementAndGet();
+                    if (exported.status != Status.FAILED) {
+                        bytes.addAndGet(exported.bytes);
+                    }
+                }, executor).whenComplete((done, error) -> {
+                    if (error != null) {
+                        aborted.completeExceptionally(error);
+                    }
+                }));
+            }
+            // an error aborting the export is thrown without waiting for the other downloads of the page
+            joinUnwrapped(CompletableFuture.anyOf(CompletableFuture.allOf(downloads.toArray(new CompletableFuture[0])), aborted));
+            checkpoint.ifPresent(file -> writeCheckpoint(file, following));
+        }
+    }
+
+    private static void shutdownAndAwait(ExecutorService executor) {
+        executor.shutdownNow();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // a download which does not stop when interrupted is allowed to complete
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for downloads of archive documents to stop", e);
+        }
+    }
+
+    private ManifestEntry exportDocument(ArchiveDocument document, Target target) {
+        String fileName = document.getUuid() + (document.getFileType() != null ? "." + document.getFileType() : "");
+        try {
+            Path temporary = target.temporaryFile(document);
+            try {
+                MessageDigest sha256 = sha256();
+                Optional<MessageDigest> verification = Optional.ofNullable(document.getContentHash()).flatMap(ArchiveExporter::digestFor);
+                Optional<MessageDigest> additionalDigest = verification.filter(digest -> !"SHA-256".equals(digest.getAlgorithm()));
+                long size;
+                try (InputStream content = archiveApi.getArchiveDocumentContentStream(document.getDocumentContentStream())) {
+                    InputStream digesting = new DigestInputStream(content, sha256);
+                    if (additionalDigest.isPresent()) {
+                        digesting = new DigestInputStream(digesting, additionalDigest.get());
+                    }
+                    size = Files.copy(digesting, temporary, REPLACE_EXISTING);
+                }
+                byte[] digest = sha256.digest();
+                Status status;
+                if (verification.isPresent()) {
+                    byte[] verificationDigest = additionalDigest.map(MessageDigest::digest).orElse(digest);
+                    status = matches(document.getContentHash(), verificationDigest) ? Status.VERIFIED : Status.FAILED;
+                } else {
+                    status = Status.UNVERIFIED;
+                }
+                if (status == Status.FAILED) {
+                    return new ManifestEntry(document, fileName, size, Hex.toHexString(digest), status,
+                            "Content does not match the " + document.getContentHash().getHashAlgorithm() + " content hash from Digipost");
+                }
+                target.complete(temporary, fileName);
+                return new ManifestEntry(document, fileName, size, Hex.toHexString(digest), status, "");
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (DigipostClientException e) {
+            if (isNotSpecificToDocument(e)) {
+                throw e;
+            }
+            return new ManifestEntry(document, fileName, 0, "", Status.FAILED, e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            return new ManifestEntry(document, fileName, 0, "", Status.FAILED, e.getClass().getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Server errors and errors in the configuration of the client, e.g. a broker which is not
+     * authorized to access the archive, will fail every document, and aborts the export.
+     */
+    private static boolean isNotSpecificToDocument(DigipostClientException e) {
+        ErrorType errorType = e.getErrorType();
+        return errorType == ErrorType.SERVER || errorType == ErrorType.CONFIGURATION;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by the Java runtime", e);
+        }
+    }
+
+    private static Optional<MessageDigest> digestFor(ContentHash contentHash) {
+        if (contentHash.getHash() == null || contentHash.getHashAlgorithm() == null) {
+            return Optional.empty();
+        }
+        String algorithm = contentHash.getHashAlgorithm().toUpperCase(Locale.ROOT).replaceFirst("^SHA-?(\\d+)$", "SHA-$1");
+        try {
+            return Optional.of(MessageDigest.getInstance(algorithm));
+        } catch (NoSuchAlgorithmException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static boolean matches(ContentHash contentHash, byte[] digest) {
+        String expected = contentHash.getHash().trim();
+        return expected.equalsIgnoreCase(Hex.toHexString(digest)) || expected.equals(Base64.getEncoder().encodeToString(digest));
+    }
+
+    private static <T> T joinUnwrapped(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static Optional<Optional<URI>> readCheckpoint(Path checkpointFile) {
+        if (!Files.exists(checkpointFile)) {
+            return Optional.empty();
+        }
+        try {
+            String recorded = new String(Files.readAllBytes(checkpointFile), UTF_8).trim();
+            return Optional.of(CHECKPOINT_COMPLETED.equals(recorded) ? Optional.empty() : Optional.of(URI.create(recorded)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read checkpoint " + checkpointFile + ", because " + e.getMessage(), e);
+        }
+    }
+
+    private static void writeCheckpoint(Path checkpointFile, Optional<URI> nextPage) {
+        try {
+            Path written = Files.write(checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp"),
+                    nextPage.map(URI::toString).orElse(CHECKPOINT_COMPLETED).getBytes(UTF_8));
+            Files.move(written, checkpointFile, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write checkpoint " + checkpointFile + ", because " + e.getMessage(), e);
+        }
+    }
+
+
+    private static final class ManifestEntry {
+        final ArchiveDocument document;
+        final String file;
+        final long bytes;
+        final String sha256;
+        final Status status;
+        final String error;
+
+        ManifestEntry(ArchiveDocument document, String file, long bytes, String sha256, Status status, String error) {
+            this.document = document;
+            this.file = file;
+            this.bytes = bytes;
+            this.sha256 = sha256;
+            this.status = status;
+            this.error = error;
+        }
+
+        String toLine() {
+            return String.join("\t", String.valueOf(document.getUuid()), file, field(document.getFileName()), field(document.getReferenceid()),
+                    field(document.getContentType()), field(document.getArchivedTime()), String.valueOf(bytes), sha256, status.name(), field(error));
+        }
+
+        private static String field(Object value) {
+            return value == null ? "" : value.toString().replaceAll("[\\t\\r\\n]", " ");
+        }
+    }
+
+    private interface Target extends Closeable {
+        Path temporaryFile(ArchiveDocument document) throws IOException;
+        void complete(Path temporaryFile, String fileName) throws IOException;
+        void addToManifest(ManifestEntry entry);
+    }
+
+    private static final class DirectoryTarget implements Target {
+        private final Path directory;
+        private final BufferedWriter manifest;
+
+        DirectoryTarget(Path directory) {
+            this.directory = directory;
+            Path manifestFile = directory.resolve(MANIFEST_NAME);
+            try {
+                boolean newManifest = !Files.exists(manifestFile);
+                this.manifest = Files.newBufferedWriter(manifestFile, UTF_8, CREATE, APPEND);
+                if (newManifest) {
+                    manifest.write(MANIFEST_HEADER);
+                    manifest.newLine();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to write " + manifestFile + ", because " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public Path temporaryFile(ArchiveDocument document) {
+            return directory.resolve("." + document.getUuid() + ".part");
+        }
+
+        @Override
+        public void complete(Path temporaryFile, String fileName) throws IOException {
+            Files.move(temporaryFile, directory.resolve(fileName), REPLACE_EXISTING, ATOMIC_MOVE);
+        }
+
+        @Override
+        public synchronized void addToManifest(ManifestEntry entry) {
+            try {
+                manifest.write(entry.toLine());
+                manifest.newLine();
+                manifest.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to write manifest, because " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            manifest.close();
+        }
+    }
+
+    private static final class ZipTarget implements Target {
+        private final ZipOutputStream zip;
+        private final Path manifestFile;
+        private final BufferedWriter manifest;
+
+        ZipTarget(Path zipFile) {
+            try {
+                this.manifestFile = Files.createTempFile("digipost-export-", ".manifest");
+                this.manifest = Files.newBufferedWriter(manifestFile, UTF_8);
+                manifest.write(MANIFEST_HEADER);
+                manifest.newLine();
+                this.zip = new ZipOutputStream(Files.newOutputStream(zipFile));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to create " + zipFile + ", because " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public Path temporaryFile(ArchiveDocument document) throws IOException {
+            return Files.createTempFile("digipost-export-", ".part");
+        }
+
+        @Override
+        public synchronized void complete(Path temporaryFile, String fileName) throws IOException {
+            zip.putNextEntry(new ZipEntry(fileName));
+            Files.copy(temporaryFile, zip);
+            zip.closeEntry();
+        }
+
+        @Override
+        public synchronized void addToManifest(ManifestEntry entry) {
+            try {
+                manifest.write(entry.toLine());
+                manifest.newLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to write manifest, because " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            try (OutputStream autoClosed = zip) {
+                manifest.close();
+                zip.putNextEntry(new ZipEntry(MANIFEST_NAME));
+                Files.copy(manifestFile, zip);
+                zip.closeEntry();
+            } finally {
+                Files.deleteIfExists(manifestFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.archive;
+
+import no.digipost.api.client.representations.archive.Archive;
+
+import java.io.Closeable;
+import java.lang.ref.Cleaner;
+import java.net.URI;
+import java.time.OffsetDateTime;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Function;
+
+/**
+ * Iterates the pages of an archive by following the {@code next-documents} links. A background
+ * thread, started when the first page is requested, fetches up to a given number of pages ahead
+ * of the page being consumed. Iteration ends at the first page without documents or without a
+ * link to a next page.
+ * <p>
+ * The background thread is stopped when the pages are {@link #close() closed}, or when the
+ * pages are no longer referenced, e.g. by a stream which is abandoned without being closed.
+ */
+final class ArchivePages implements Iterator<Archive>, Closeable {
+
+    private static final Object END = new Object();
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final BlockingQueue<Object> fetched;
+    private final Runnable fetching;
+    private final Fetcher fetcher = new Fetcher();
+    private final Cleaner.Cleanable stopFetcher;
+    private Object next;
+
+    ArchivePages(Optional<URI> firstPage, Function<Archive, Optional<URI>> nextPage, Function<URI, Archive> fetchPage, int prefetchPages) {
+        if (prefetchPages < 1) {
+            throw new IllegalArgumentException("prefetchPages must be at least 1, but was " + prefetchPages);
+        }
+        // the fetching must not refer to this instance, as that would prevent it from being cleaned
+        BlockingQueue<Object> fetched = new ArrayBlockingQueue<>(prefetchPages);
+        this.fetched = fetched;
+        this.fetching = () -> {
+            try {
+                Optional<URI> uri = firstPage;
+                while (uri.isPresent()) {
+                    Archive page = fetchPage.apply(uri.get());
+                    fetched.put(page);
+                    uri = page.getDocuments() == null || page.getDocuments().isEmpty() ? Optional.empty() : nextPage.apply(page);
+                }
+                fetched.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                try {
+                    fetched.put(e);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        this.stopFetcher = CLEANER.register(this, fetcher);
+    }
+
+    /**
+     * The link to the page after the given page, which includes the given attributes.
+     */
+    static Optional<URI> nextPageWithAttributes(Archive page, Map<String, String> attributes) {
+        Optional<URI> next = page.getNextDocuments();
+        if (attributes.isEmpty() || hasQueryParameter(next, "attributes")) {
+            return next;
+        }
+        return page.getNextDocumentsWithAttributes(attributes);
+    }
+
+    /**
+     * The link to the page after the given page, which includes the given archived time range.
+     */
+    static Optional<URI> nextPageByDate(Archive page, OffsetDateTime from, OffsetDateTime to) {
+        Optional<URI> next = page.getNextDocuments();
+        if (hasQueryParameter(next, "fromDate")) {
+            return next;
+        }
+        return page.getNextDocumentsByDate(from, to);
+    }
+
+    private static boolean hasQueryParameter(Optional<URI> uri, String parameter) {
+        return uri.map(URI::getRawQuery).filter(query -> query.contains(parameter + "=")).isPresent();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            if (!fetcher.start(fetching)) {
+                return false;
+            }
+            try {
+                next = fetched.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for next page of archive documents", e);
+            }
+        }
+        if (next instanceof RuntimeException) {
+            throw (RuntimeException) next;
+        } else if (next instanceof Error) {
+            throw (Error) next;
+        } else if (next instanceof Throwable) {
+            throw new IllegalStateException("Unable to fetch page of archive documents, because " + ((Throwable) next).getMessage(), (Throwable) next);
+        }
+        return next != END;
+    }
+
+    @Override
+    public Archive next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Archive page = (Archive) next;
+        next = null;
+        return page;
+    }
+
+    /**
+     * Stop fetching pages.
+     */
+    @Override
+    public void close() {
+        stopFetcher.clean();
+    }
+
+
+    /**
+     * The background thread, which is started at most once, and never after it has been stopped.
+     */
+    private static final class Fetcher implements Runnable {
+        private Thread thread;
+        private boolean stopped;
+
+        /**
+         * @return {@code false} if the fetcher has been stopped
+         */
+        synchronized boolean start(Runnable fetching) {
+            if (!stopped && thread == null) {
+                thread = new Thread(fetching, "digipost-archive-pages");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            return !stopped;
+        }
+
+        /**
+         * Stop the fetcher.
+         */
+        @Override
+        public synchronized void run() {
+            stopped = true;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.archive;
+
+import no.digipost.api.client.delivery.ContentSource;
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import no.digipost.api.client.representations.archive.Archive;
+import no.digipost.api.client.representations.archive.ArchiveDocument;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * Archives a large number of documents by grouping them into requests of a bounded size,
+ * and sending several requests concurrently. Each request is limited both by
+ * {@link Builder#maxDocumentsPerRequest(int) number of documents} and by the
+ * {@link Builder#maxBytesPerRequest(long) sum of the lengths} of their content. Documents with
+ * content of unknown {@link ContentSource#length() length} are sent in a request of their own.
+ * <p>
+ * The outcome of each document is reported to a given {@link Consumer} as soon as the request
+ * containing the document has completed. If a {@link Builder#checkpoint(Path) checkpoint file}
+ * is used, the positions in the stream of the documents of each successful request are appended
+ * to it, and documents at these positions are skipped when archiving is resumed after an interruption.
+ *
+ * @see no.digipost.api.client.DigipostClient#bulkArchiver(Archive)
+ */
+public final class BulkArchiver {
+
+    /**
+     * A document to archive, with its content.
+     */
+    public static final class Item {
+        public final ArchiveDocument document;
+        public final ContentSource content;
+
+        public static Item of(ArchiveDocument document, ContentSource content) {
+            return new Item(document, content);
+        }
+
+        public static Item of(ArchiveDocument document, Path content) {
+            return new Item(document, ContentSource.of(content));
+        }
+
+        private Item(ArchiveDocument document, ContentSource content) {
+            this.document = document;
+            this.content = content;
+        }
+
+        private long budgetedSize(long maxBytesPerRequest) {
+            return content.length().orElse(maxBytesPerRequest);
+        }
+    }
+
+    public enum Status {
+        ARCHIVED, FAILED, SKIPPED
+    }
+
+    /**
+     * The outcome of archiving a single document.
+     */
+    public static final class Outcome {
+        public final ArchiveDocument document;
+        public final Status status;
+        private final ArchiveDocument archived;
+        private final DigipostClientException error;
+
+        private Outcome(ArchiveDocument document, Status status, ArchiveDocument archived, DigipostClientException error) {
+            this.document = document;
+            this.status = status;
+            this.archived = archived;
+            this.error = error;
+        }
+
+        /**
+         * @return the document as archived by Digipost, if it was archived by this run.
+         */
+        public Optional<ArchiveDocument> getArchived() {
+            return Optional.ofNullable(archived);
+        }
+
+        public Optional<DigipostClientException> getError() {
+            return Optional.ofNullable(error);
+        }
+
+        @Override
+        public String toString() {
+            return status + " " + document.uuid + getError().map(e -> ": " + e.getMessage()).orElse("");
+        }
+    }
+
+    /**
+     * The number of documents with each {@link Status status} after a completed run.
+     */
+    public static final class Summary {
+        public final long archived;
+        public final long failed;
+        public final long skipped;
+        public final long requests;
+
+        private Summary(long archived, long failed, long skipped, long requests) {
+            this.archived = archived;
+            this.failed = failed;
+            this.skipped = skipped;
+            this.requests = requests;
+        }
+
+        @Override
+        public String toString() {
+            return "archived " + archived + ", failed " + failed + ", skipped " + skipped + " documents in " + requests + " requests";
+        }
+    }
+
+
+    public static class Builder {
+        private final Archive archive;
+        private final Function<Archive, ArchiveApi.ArchivingDocuments> archiving;
+        private int maxDocumentsPerRequest = 100;
+        private long maxBytesPerRequest = 50 * 1024 * 1024;
+        private int maxConcurrentRequests = 4;
+        private Optional<Path> checkpoint = Optional.empty();
+
+        public Builder(Archive archive, Function<Archive, ArchiveApi.ArchivingDocuments> archiving) {
+            this.archive = archive;
+            this.archiving = archiving;
+        }
+
+        /**
+         * The maximum number of documents to send in one request. Default is 100.
+         */
+        public Builder maxDocumentsPerRequest(int maxDocumentsPerRequest) {
+            if (maxDocumentsPerRequest < 1) {
+                throw new IllegalArgumentException("maxDocumentsPerRequest must be at least 1, but was " + maxDocumentsPerRequest);
+            }
+            this.maxDocumentsPerRequest = maxDocumentsPerRequest;
+            return this;
+        }
+
+        /**
+         * The maximum sum of content lengths to send in one request. A single document larger than this
+         * is sent in a request of its own. Default is 50 MiB.
+         */
+        public Builder maxBytesPerRequest(long maxBytesPerRequest) {
+            if (maxBytesPerRequest < 1) {
+                throw new IllegalArgumentException("maxBytesPerRequest must be at least 1, but was " + maxBytesPerRequest);
+            }
+            this.maxBytesPerRequest = maxBytesPerRequest;
+            return this;
+        }
+
+        /**
+         * The maximum number of requests to have in flight at the same time. Default is 4.
+         * This should not exceed the number of connections available to the client.
+         */
+        public Builder maxConcurrentRequests(int maxConcurrentRequests) {
+            if (maxConcurrentRequests < 1) {
+                throw new IllegalArgumentException("maxConcurrentRequests must be at least 1, but was " + maxConcurrentRequests);
+            }
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        /**
+         * Record the positions in the stream of archived documents in the given file, and skip documents
+         * at positions already recorded in the file. The file is created if it does not exist. When resuming,
+         * the stream must give the same documents in the same order as the interrupted run.
+         */
+        public Builder checkpoint(Path checkpointFile) {
+            this.checkpoint = Optional.of(checkpointFile);
+            return this;
+        }
+
+        public BulkArchiver build() {
+            return new BulkArchiver(this);
+        }
+    }
+
+
+    private final Archive archive;
+    private final Function<Archive, ArchiveApi.ArchivingDocuments> archiving;
+    private final int maxDocumentsPerRequest;
+    private final long maxBytesPerRequest;
+    private final int maxConcurrentRequests;
+    private final Optional<Path> checkpoint;
+
+    private BulkArchiver(Builder builder) {
+        this.archive = builder.archive;
+        this.archiving = builder.archiving;
+        this.maxDocumentsPerRequest = builder.maxDocumentsPerRequest;
+        this.maxBytesPerRequest = builder.maxBytesPerRequest;
+        this.maxConcurrentRequests = builder.maxConcurrentRequests;
+        this.checkpoint = builder.checkpoint;
+    }
+
+    /**
+     * Archive all the given documents. This method returns when all requests have completed.
+     * The stream is consumed lazily, and at most {@link Builder#maxConcurrentRequests(int)} requests
+     * are held in memory at any time.
+     *
+     * @param items the documents to archive
+     * @param outcomes receives the outcome of each document. May be invoked concurrently from several threads.
+     * @return the number of documents archived, failed and skipped
+     */
+    public Summary archive(Stream<Item> items, Consumer<Outcome> outcomes) {
+        AtomicLong archived = new AtomicLong(), failed = new AtomicLong(), skipped = new AtomicLong(), requests = new AtomicLong();
+        Consumer<Outcome> counting = outcome -> {
+            (outcome.status == Status.ARCHIVED ? archived : outcome.status == Status.FAILED ? failed : skipped).incrementAndGet();
+            outcomes.accept(outcome);
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(maxConcurrentRequests);
+        Semaphore inFlight = new Semaphore(maxConcurrentRequests);
+        AtomicReference<Throwable> sendFailure = new AtomicReference<>();
+        try (Checkpoint archivedPositions = checkpoint.map(Checkpoint::open).orElseGet(Checkpoint::none)) {
+            List<Item> chunk = new ArrayList<>();
+            long chunkStart = 0, chunkBytes = 0, position = 0;
+            for (Iterator<Item> remaining = items.iterator(); remaining.hasNext(); position++) {
+                Item item = remaining.next();
+                if (archivedPositions.contains(position)) {
+                    counting.accept(new Outcome(item.document, Status.SKIPPED, null, null));
+                    continue;
+                }
+                long size = item.budgetedSize(maxBytesPerRequest);
+                if (!chunk.isEmpty() && (chunk.size() == maxDocumentsPerRequest || chunkBytes + size > maxBytesPerRequest)) {
+                    send(chunk, chunkStart, position, executor, inFlight, archivedPositions, counting, sendFailure);
+                    requests.incrementAndGet();
+                    chunk = new ArrayList<>();
+                    chunkBytes = 0;
+                }
+                if (chunk.isEmpty()) {
+                    chunkStart = position;
+                }
+                chunk.add(item);
+                chunkBytes += size;
+            }
+            if (!chunk.isEmpty()) {
+                send(chunk, chunkStart, position, executor, inFlight, archivedPositions, counting, sendFailure);
+                requests.incrementAndGet();
+            }
+            inFlight.acquire(maxConcurrentRequests);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to send archive documents", e);
+        } finally {
+            executor.shutdown();
+        }
+        Throwable failure = sendFailure.get();
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw (RuntimeException) failure;
+        }
+        return new Summary(archived.get(), failed.get(), skipped.get(), requests.get());
+    }
+
+    /**
+     * Sends a chunk of the documents at the positions from {@code start} (inclusive) to {@code end} (exclusive) of
+     * the stream. Documents in this range which are not in the chunk have already been archived.
+     */
+    private void send(List<Item> chunk, long start, long end, ExecutorService executor, Semaphore inFlight,
+                      Checkpoint archivedPositions, Consumer<Outcome> outcomes, AtomicReference<Throwable> sendFailure) throws InterruptedException {
+        inFlight.acquire();
+        executor.execute(() -> {
+            try {
+                Map<UUID, ArchiveDocument> archived;
+                try {
+                    archived = sendChunk(chunk);
+                } catch (RuntimeException e) {
+                    DigipostClientException error = DigipostClientException.from(e);
+                    chunk.forEach(item -> outcomes.accept(new Outcome(item.document, Status.FAILED, null, error)));
+                    return;
+                }
+                chunk.forEach(item -> outcomes.accept(new Outcome(item.document, Status.ARCHIVED, archived.get(item.document.uuid), null)));
+                archivedPositions.record(start, end);
+            } catch (RuntimeException | Error e) {
+                sendFailure.compareAndSet(null, e);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private Map<UUID, ArchiveDocument> sendChunk(List<Item> chunk) {
+        Archive chunkArchive = new Archive(archive.getSenderOrganization(), archive.getSenderId(), archive.getName(), null,
+                chunk.stream().map(item -> item.document).collect(toList()));
+        ArchiveApi.ArchivingDocuments archivingDocuments = archiving.apply(chunkArchive);
+        for (Item item : chunk) {
+            archivingDocuments = archivingDocuments.addFile(item.document, item.content);
+        }
+        Archive result = archivingDocuments.send();
+        return result.getDocuments().stream().collect(toMap(ArchiveDocument::getUuid, identity(), (first, second) -> first));
+    }
+
+
+    /**
+     * The ranges of positions in the stream of archived documents. Each successful request is appended
+     * to the checkpoint file as a range, and adjacent ranges are merged when the checkpoint is opened,
+     * so only the gaps left by failed requests take up memory, not each archived document.
+     */
+    private static final class Checkpoint implements Closeable {
+
+        static Checkpoint none() {
+            return new Checkpoint(new long[0][], null);
+        }
+
+        static Checkpoint open(Path checkpointFile) {
+            try {
+                List<long[]> ranges = new ArrayList<>();
+                if (Files.exists(checkpointFile)) {
+                    try (Stream<String> lines = Files.lines(checkpointFile, UTF_8)) {
+                        lines.map(Checkpoint::parseRange).flatMap(range -> range.map(Stream::of).orElseGet(Stream::empty)).forEach(ranges::add);
+                    }
+                }
+                ranges.sort(Comparator.comparingLong(range -> range[0]));
+                List<long[]> merged = new ArrayList<>();
+                for (long[] range : ranges) {
+                    long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+                    if (last != null && range[0] <= last[1]) {
+                        last[1] = Math.max(last[1], range[1]);
+                    } else {
+                        merged.add(range);
+                    }
+                }
+                Path compacted = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+                Files.write(compacted, merged.stream().map(range -> range[0] + " " + range[1]).collect(toList()), UTF_8);
+                Files.move(compacted, checkpointFile, REPLACE_EXISTING, ATOMIC_MOVE);
+                return new Checkpoint(merged.toArray(new long[0][]), Files.newBufferedWriter(checkpointFile, UTF_8, APPEND));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to open checkpoint " + checkpointFile + ", because " + e.getMessage(), e);
+            }
+        }
+
+        private static Optional<long[]> parseRange(String line) {
+            String[] range = line.split(" ");
+            try {
+                return range.length == 2 ? Optional.of(new long[] {Long.parseLong(range[0]), Long.parseLong(range[1])}) : Optional.empty();
+            } catch (NumberFormatException e) {
+                // an incomplete last line
+                return Optional.empty();
+            }
+        }
+
+        private final long[][] archived;
+        private final BufferedWriter writer;
+        private int nextRange = 0;
+
+        private Checkpoint(long[][] archived, BufferedWriter writer) {
+            this.archived = archived;
+            this.writer = writer;
+        }
+
+        /**
+         * @param position the position in the stream, which must be greater than the position given on
+         *                 the previous invocation
+         */
+        boolean contains(long position) {
+            while (nextRange < archived.length && archived[nextRange][1] <= position) {
+                nextRange++;
+            }
+            return nextRange < archived.length && archived[nextRange][0] <= position;
+        }
+
+        synchronized void record(long start, long end) {
+            if (writer == null) {
+                return;
+            }
+            try {
+                writer.write(start + " " + end);
+                writer.newLine();
+                writer.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to write checkpoint, because " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to close checkpoint, because " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.delivery;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * The content of a document which can be read as many times as needed, e.g. when the same
+ * content is used both for Digipost and print, or when a request must be sent again.
+ * Each call to {@link #openStream()} opens a new stream positioned at the start of the content.
+ * <p>
+ * A lambda which opens a new stream is a {@code ContentSource}, e.g.
+ * {@code () -> Files.newInputStream(file)}. Use the static factory methods for
+ * content which is already available in memory or in a file, as these also provide
+ * the {@link #length() length} of the content, which allows sending it without first
+ * copying it into memory.
+ */
+@FunctionalInterface
+public interface ContentSource {
+
+    /**
+     * Content which is already in memory. The array is not copied, and must not be
+     * modified after it is given to the client.
+     */
+    static ContentSource of(byte[] content) {
+        return new ContentSource() {
+            @Override
+            public InputStream openStream() {
+                return new ByteArrayInputStream(content);
+            }
+
+            @Override
+            public OptionalLong length() {
+                return OptionalLong.of(content.length);
+            }
+        };
+    }
+
+    /**
+     * Content of a file. The size of the file is read when this method is invoked, and the
+     * content is read when it is sent. The file must not be changed until the delivery is completed.
+     *
+     * @throws UncheckedIOException if the size of the file can not be read, e.g. if it does not exist
+     */
+    static ContentSource of(Path file) {
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read the size of " + file + ", because " + e.getClass().getSimpleName() + ": " + e.getMessage(), e);
+        }
+        return new ContentSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                return Files.newInputStream(file);
+            }
+
+            @Override
+            public OptionalLong length() {
+                return OptionalLong.of(size);
+            }
+
+            @Override
+            public Optional<Path> file() {
+                return Optional.of(file);
+            }
+        };
+    }
+
+    /**
+     * Content in a buffer, e.g. a segment of a memory-mapped file. The content is the
+     * remaining bytes of the buffer when this method is invoked, and the position of the
+     * given buffer is not changed by reading the content.
+     */
+    static ContentSource of(ByteBuffer content) {
+        ByteBuffer segment = content.slice().asReadOnlyBuffer();
+        return new ContentSource() {
+            @Override
+            public InputStream openStream() {
+                ByteBuffer remaining = segment.duplicate();
+                return new InputStream() {
+                    @Override
+                    public int read() {
+                        return remaining.hasRemaining() ? remaining.get() & 0xFF : -1;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) {
+                        if (len == 0) {
+                            return 0;
+                        } else if (!remaining.hasRemaining()) {
+                            return -1;
+                        }
+                        int read = Math.min(len, remaining.remaining());
+                        remaining.get(b, off, read);
+                        return read;
+                    }
+
+                    @Override
+                    public int available() {
+                        return remaining.remaining();
+                    }
+                };
+            }
+
+            @Override
+            public OptionalLong length() {
+                return OptionalLong.of(segment.remaining());
+            }
+        };
+    }
+
+    /**
+     * Content with a known length, where each stream is opened by the given source.
+     */
+    static ContentSource of(ContentSource source, long length) {
+        return new ContentSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                return source.openStream();
+            }
+
+            @Override
+            public OptionalLong length() {
+                return OptionalLong.of(length);
+            }
+        };
+    }
+
+    /**
+     * Content which can only be read once, from an already opened stream. This is how content given
+     * as an {@code InputStream} is handled, and it can not be sent more than once.
+     */
+    static ContentSource singleUse(InputStream content) {
+        return new ContentSource() {
+            @Override
+            public InputStream openStream() {
+                return content;
+            }
+
+            @Override
+            public boolean isRepeatable() {
+                return false;
+            }
+        };
+    }
+
+
+    /**
+     * Open a new stream of the content. The caller is responsible for closing the stream.
+     */
+    InputStream openStream() throws IOException;
+
+    /**
+     * @return the length of the content in bytes, if it is known without reading the content.
+     */
+    default OptionalLong length() {
+        return OptionalLong.empty();
+    }
+
+    /**
+     * @return {@code true} if {@link #openStream()} can be invoked more than once
+     *         to read the content again.
+     */
+    default boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * @return the file containing exactly this content, if the content is a whole file. This allows
+     *         the content to be transferred directly from the file channel.
+     */
+    default Optional<Path> file() {
+        return Optional.empty();
+    }
+
+}
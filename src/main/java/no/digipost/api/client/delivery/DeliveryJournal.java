@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.delivery;
+
+import no.digipost.api.client.errorhandling.ErrorCode;
+import no.digipost.api.client.representations.Channel;
+import no.digipost.api.client.representations.MessageDelivery;
+import no.digipost.api.client.representations.MessageStatus;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static no.digipost.api.client.util.JAXBContextUtils.jaxbContext;
+import static no.digipost.api.client.util.JAXBContextUtils.marshal;
+import static no.digipost.api.client.util.JAXBContextUtils.unmarshal;
+
+/**
+ * An append-only, memory-mapped journal of message deliveries. For each message the journal
+ * records the <em>intent</em> to send it (with a fingerprint of the message), and the outcome
+ * when the send has completed: either the {@link MessageDelivery} returned by Digipost, or the
+ * {@link ErrorCode} of a failed attempt.
+ * <p>
+ * Records are written directly to a memory-mapped region of the journal file, and will survive
+ * the JVM process dying. Use {@link #sync()} (or {@link #close()}) to also force the records to
+ * the storage device. When a journal is reopened, records are read back until the first
+ * incomplete or corrupt record, which is what a crash halfway through writing a record leaves.
+ * Only the state and fingerprint of each message is kept in memory, and the outcome of a delivery
+ * is read from the journal file when {@link Entry#getDelivery() requested}.
+ * <p>
+ * Use {@link no.digipost.api.client.DigipostClientConfig.Builder#deliveryJournal(DeliveryJournal)}
+ * to have the client journal its deliveries, and optionally resume a batch by skipping messages
+ * which already has been delivered.
+ */
+public final class DeliveryJournal implements Closeable {
+
+    public enum State {
+        INTENT, DELIVERED, FAILED,
+
+        /**
+         * The message was received by Digipost in an earlier attempt to send it, but the
+         * {@link MessageDelivery} of the attempt was never returned to the client.
+         */
+        RECEIVED
+    }
+
+    /**
+     * What is known about a message from the journal.
+     */
+    public static final class Entry {
+        public final String messageId;
+        public final State state;
+        public final String fingerprint;
+        private final DeliveryJournal journal;
+        private final long outcomePosition;
+        private final int outcomeLength;
+
+        private Entry(String messageId, State state, String fingerprint, DeliveryJournal journal, long outcomePosition, int outcomeLength) {
+            this.messageId = messageId;
+            this.state = state;
+            this.fingerprint = fingerprint;
+            this.journal = journal;
+            this.outcomePosition = outcomePosition;
+            this.outcomeLength = outcomeLength;
+        }
+
+        /**
+         * @return the delivery if the message has been delivered. For a message which was
+         *         {@link State#RECEIVED received} by Digipost in an earlier attempt, the delivery
+         *         has the status {@link MessageStatus#COMPLETE COMPLETE}, and no delivery time, as the
+         *         actual status is not known to the client. The delivery is read from the journal
+         *         file, which must still be open.
+         */
+        public Optional<MessageDelivery> getDelivery() {
+            switch (state) {
+                case DELIVERED: return Optional.of(unmarshal(jaxbContext, new ByteArrayInputStream(outcome()), MessageDelivery.class));
+                case RECEIVED: return Optional.of(new MessageDelivery(messageId, Channel.valueOf(new String(outcome(), UTF_8)), MessageStatus.COMPLETE, null));
+                default: return Optional.empty();
+            }
+        }
+
+        public Optional<ErrorCode> getErrorCode() {
+            return state == State.FAILED ? Optional.of(ErrorCode.resolve(new String(outcome(), UTF_8))) : Optional.empty();
+        }
+
+        private byte[] outcome() {
+            return journal.read(outcomePosition, outcomeLength);
+        }
+
+        @Override
+        public String toString() {
+            return "journal entry for message " + messageId + ": " + state;
+        }
+    }
+
+
+    private static final int MAGIC = 0x44504a31; // "DPJ1"
+    private static final int HEADER_SIZE = Integer.BYTES;
+    private static final int RECORD_OVERHEAD = Integer.BYTES + 1 + Integer.BYTES; // length + type + crc
+    private static final long DEFAULT_REGION_SIZE = 4 * 1024 * 1024;
+    private static final int RECOVERY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Open an existing journal file, or create a new one if it does not exist.
+     *
+     * @param journalFile the file to append to
+     * @return the opened journal
+     */
+    public static DeliveryJournal open(Path journalFile) {
+        return open(journalFile, DEFAULT_REGION_SIZE);
+    }
+
+    static DeliveryJournal open(Path journalFile, long regionSize) {
+        try {
+            return new DeliveryJournal(FileChannel.open(journalFile, CREATE, READ, WRITE), regionSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open delivery journal " + journalFile + ", because " + e.getMessage(), e);
+        }
+    }
+
+
+    private final FileChannel channel;
+    private final long regionSize;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private MappedByteBuffer region;
+    private long regionStart;
+
+    private DeliveryJournal(FileChannel channel, long regionSize) throws IOException {
+        this.channel = channel;
+        this.regionSize = regionSize;
+        long end = recover();
+        mapRegion(end, regionSize);
+    }
+
+    /**
+     * Record that a message is about to be sent.
+     *
+     * @param messageId the id of the message
+     * @param fingerprint a value identifying the contents of the message, used to determine if
+     *                    a later attempt to send a message with the same id is the identical message.
+     */
+    public void recordIntent(String messageId, String fingerprint) {
+        append(State.INTENT, messageId, fingerprint.getBytes(UTF_8));
+    }
+
+    /**
+     * Record that a message was successfully delivered.
+     */
+    public void recordDelivered(MessageDelivery delivery) {
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        marshal(jaxbContext, delivery, xml);
+        append(State.DELIVERED, delivery.getMessageId(), xml.toByteArray());
+    }
+
+    /**
+     * Record that a message was received by Digipost in an earlier attempt to send it, which
+     * was never confirmed delivered.
+     *
+     * @param channel the channel the message was sent to
+     */
+    public void recordReceived(String messageId, Channel channel) {
+        append(State.RECEIVED, messageId, channel.name().getBytes(UTF_8));
+    }
+
+    /**
+     * Record that sending a message failed.
+     */
+    public void recordFailed(String messageId, ErrorCode errorCode) {
+        append(State.FAILED, messageId, errorCode.name().getBytes(UTF_8));
+    }
+
+    /**
+     * @return the latest known state of the message with the given id, or {@link Optional#empty() empty}
+     *         if the journal has no records of the message.
+     */
+    public Optional<Entry> get(String messageId) {
+        return Optional.ofNullable(entries.get(messageId));
+    }
+
+    /**
+     * @return {@code true} if the message with the given id has been {@link State#DELIVERED delivered},
+     *         or {@link State#RECEIVED received} by Digipost in an earlier attempt.
+     */
+    public boolean isDelivered(String messageId) {
+        return get(messageId).filter(entry -> entry.state == State.DELIVERED || entry.state == State.RECEIVED).isPresent();
+    }
+
+    /**
+     * Force all written records to the storage device.
+     */
+    public synchronized void sync() {
+        region.force();
+    }
+
+    @Override
+    public synchronized void close() {
+        try (FileChannel autoClosed = channel) {
+            region.force();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    private synchronized void append(State state, String messageId, byte[] payload) {
+        byte[] id = messageId.getBytes(UTF_8);
+        int bodyLength = Short.BYTES + id.length + payload.length;
+        ByteBuffer body = ByteBuffer.allocate(1 + bodyLength)
+                .put((byte) state.ordinal())
+                .putShort((short) id.length).put(id)
+                .put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+
+        int recordSize = RECORD_OVERHEAD + bodyLength;
+        if (region.remaining() < recordSize + Integer.BYTES) {
+            try {
+                mapRegion(regionStart + region.position(), Math.max(regionSize, recordSize + Integer.BYTES));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to extend delivery journal, because " + e.getMessage(), e);
+            }
+        }
+        // the length is written last, so a partially written record is never read back as complete
+        int recordStart = region.position();
+        region.position(recordStart + Integer.BYTES);
+        region.put(body.array()).putInt((int) crc.getValue());
+        int recordEnd = region.position();
+        region.putInt(recordStart, bodyLength);
+        region.position(recordEnd);
+
+        long payloadPosition = regionStart + recordStart + Integer.BYTES + 1 + Short.BYTES + id.length;
+        index(state, messageId, state == State.INTENT ? new String(payload, UTF_8) : null, payloadPosition, payload.length);
+    }
+
+    private void index(State state, String messageId, String fingerprint, long payloadPosition, int payloadLength) {
+        String knownFingerprint = state == State.INTENT ? fingerprint : get(messageId).map(e -> e.fingerprint).orElse(null);
+        entries.put(messageId, new Entry(messageId, state, knownFingerprint, this, payloadPosition, payloadLength));
+    }
+
+    private synchronized byte[] read(long position, int length) {
+        byte[] bytes = new byte[length];
+        if (position >= regionStart) {
+            ByteBuffer current = region.duplicate();
+            current.position((int) (position - regionStart));
+            current.get(bytes);
+            return bytes;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Delivery journal ended before the end of the record at position " + position);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read from delivery journal, because " + e.getMessage(), e);
+        }
+        return bytes;
+    }
+
+    private void mapRegion(long position, long size) throws IOException {
+        if (region != null) {
+            region.force();
+        }
+        regionStart = position;
+        region = channel.map(READ_WRITE, position, size);
+        if (position == 0) {
+            region.putInt(MAGIC);
+        }
+    }
+
+    /**
+     * Read all complete records, and resolve the position to continue appending records.
+     * The journal file is read sequentially through a buffer, and is never mapped in full.
+     */
+    private long recover() throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            return 0;
+        }
+        // not closed, as that would close the channel
+        DataInputStream records = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0)), RECOVERY_BUFFER_SIZE));
+        if (size < HEADER_SIZE || records.readInt() != MAGIC) {
+            throw new IllegalStateException("Not a delivery journal, or the journal is corrupt");
+        }
+        long end = HEADER_SIZE;
+        while (size - end >= RECORD_OVERHEAD) {
+            int bodyLength = records.readInt();
+            if (bodyLength <= 0 || bodyLength + 1 + Integer.BYTES > size - end - Integer.BYTES) {
+                break;
+            }
+            byte[] body = new byte[1 + bodyLength];
+            records.readFully(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != records.readInt()) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.wrap(body);
+            State state = State.values()[record.get()];
+            byte[] id = new byte[record.getShort()];
+            record.get(id);
+            int payloadLength = record.remaining();
+            String fingerprint = state == State.INTENT ? new String(body, record.position(), payloadLength, UTF_8) : null;
+            index(state, new String(id, UTF_8), fingerprint, end + Integer.BYTES + record.position(), payloadLength);
+            end += RECORD_OVERHEAD + bodyLength;
+        }
+        if (size - end >= Integer.BYTES && readInt(end) != 0) {
+            // wipe the torn record, so it will not be mistaken for a complete record when written over
+            ByteBuffer zeros = ByteBuffer.allocate(RECOVERY_BUFFER_SIZE);
+            for (long position = end; position < size; position += zeros.position()) {
+                zeros.clear().limit((int) Math.min(zeros.capacity(), size - position));
+                channel.write(zeros, position);
+            }
+            channel.force(false);
+        }
+        return end;
+    }
+
+    private int readInt(long position) throws IOException {
+        ByteBuffer value = ByteBuffer.allocate(Integer.BYTES);
+        return channel.read(value, position) == Integer.BYTES ? value.getInt(0) : 0;
+    }
+
+}
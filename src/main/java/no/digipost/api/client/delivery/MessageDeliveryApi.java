@@ -51,6 +51,14 @@ public interface MessageDeliveryApi {
      */
     ClassicHttpResponse sendMultipartMessage(HttpEntity multipart);
 
+    /**
+     * Oppretter og sender en multipartforsendelse på vegne av en avsender. Avsenderen brukes til å
+     * begrense raten av forespørsler per avsender, se {@link no.digipost.api.client.RateLimitConfig}.
+     */
+    default ClassicHttpResponse sendMultipartMessage(SenderId onBehalfOf, HttpEntity multipart) {
+        return sendMultipartMessage(multipart);
+    }
+
     /**
      * Legger til ytterligere data til et dokument.
      * Det er en forutsetning at dokumentet har datatype fra tidligere.
@@ -19,8 +19,10 @@ import no.digipost.api.client.DigipostClient;
 import no.digipost.api.client.representations.Document;
 import no.digipost.api.client.representations.MessageDelivery;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 
 
 /**
@@ -47,13 +49,38 @@ public interface OngoingDelivery<OPERATIONS extends OngoingDelivery<OPERATIONS>
      */
     OPERATIONS addContent(Document document, InputStream content);
 
+    /**
+     * Laster opp innhold til et dokument. Innholdet kan leses flere ganger, og trenger
+     * ikke å kopieres til minnet dersom lengden er kjent. En implementasjon som ikke
+     * overstyrer denne leser innholdet som en {@link InputStream}.
+     *
+     * @return videre operasjoner for å fullføre leveransen.
+     * @see ContentSource
+     */
+    default OPERATIONS addContent(Document document, ContentSource content) {
+        try {
+            return addContent(document, content.openStream());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open content of document " + document.uuid + ", because " + e.getMessage(), e);
+        }
+    }
+
     /**
      * Laster opp innhold til et dokument.
      *
      * @return videre operasjoner for å fullføre leveransen.
      */
     default OPERATIONS addContent(Document document, byte[] content) {
-        return addContent(document, new ByteArrayInputStream(content));
+        return addContent(document, ContentSource.of(content));
+    }
+
+    /**
+     * Laster opp innholdet i en fil til et dokument. Filen leses når forsendelsen sendes.
+     *
+     * @return videre operasjoner for å fullføre leveransen.
+     */
+    default OPERATIONS addContent(Document document, Path content) {
+        return addContent(document, ContentSource.of(content));
     }
 
 
@@ -79,13 +106,34 @@ public interface OngoingDelivery<OPERATIONS extends OngoingDelivery<OPERATIONS>
          */
         SendableWithPrintFallback addContent(Document document, InputStream content, InputStream printContent);
 
+        /**
+         * Laster opp innhold til et dokument med alternativt innhold for print, hvor sistnevnte må være PDF.
+         * En implementasjon som ikke overstyrer denne leser innholdet som {@link InputStream}s.
+         *
+         * @return videre operasjoner for å fullføre leveransen.
+         * @see ContentSource
+         */
+        default SendableWithPrintFallback addContent(Document document, ContentSource content, ContentSource printContent) {
+            try {
+                InputStream contentStream = content.openStream();
+                try {
+                    return addContent(document, contentStream, printContent.openStream());
+                } catch (IOException e) {
+                    contentStream.close();
+                    throw e;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to open content of document " + document.uuid + ", because " + e.getMessage(), e);
+            }
+        }
+
         /**
          * Laster opp innhold til et dokument med alternativt innhold for print, hvor sistnevnte må være PDF.
          *
          * @return videre operasjoner for å fullføre leveransen.
          */
         default SendableWithPrintFallback addContent(Document document, byte[] content, byte[] printContent) {
-            return addContent(document, new ByteArrayInputStream(content), new ByteArrayInputStream(printContent));
+            return addContent(document, ContentSource.of(content), ContentSource.of(printContent));
         }
     }
 
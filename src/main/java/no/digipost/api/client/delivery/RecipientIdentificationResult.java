@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.delivery;
+
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import no.digipost.api.client.representations.Identification;
+import no.digipost.api.client.representations.IdentificationResult;
+
+import java.util.Optional;
+
+/**
+ * The result of identifying one recipient among many, which is either
+ * the {@link IdentificationResult} or the error from the failed identification.
+ *
+ * @see no.digipost.api.client.DigipostClient#identifyAll(java.util.stream.Stream)
+ */
+public final class RecipientIdentificationResult {
+
+    public static RecipientIdentificationResult success(Identification identification, IdentificationResult result, boolean cached) {
+        return new RecipientIdentificationResult(identification, result, cached, null);
+    }
+
+    public static RecipientIdentificationResult failure(Identification identification, DigipostClientException error) {
+        return new RecipientIdentificationResult(identification, null, false, error);
+    }
+
+    public final Identification identification;
+
+    /**
+     * Whether the result was found in the
+     * {@link no.digipost.api.client.DigipostClientConfig.Builder#identificationCache(int, java.time.Duration) cache},
+     * instead of being requested from Digipost.
+     */
+    public final boolean cached;
+    private final IdentificationResult result;
+    private final DigipostClientException error;
+
+    private RecipientIdentificationResult(Identification identification, IdentificationResult result, boolean cached, DigipostClientException error) {
+        this.identification = identification;
+        this.result = result;
+        this.cached = cached;
+        this.error = error;
+    }
+
+    public Optional<IdentificationResult> getResult() {
+        return Optional.ofNullable(result);
+    }
+
+    public Optional<DigipostClientException> getError() {
+        return Optional.ofNullable(error);
+    }
+
+    public boolean isSuccess() {
+        return result != null;
+    }
+
+    @Override
+    public String toString() {
+        return "identification of " + identification + ": " + (isSuccess() ? result.getResult() : error.getMessage());
+    }
+}
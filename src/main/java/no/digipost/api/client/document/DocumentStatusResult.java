@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.document;
+
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import no.digipost.api.client.representations.DocumentStatus;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * The result of looking up the status of one document among many, which is either
+ * the {@link DocumentStatus} or the error from the failed lookup.
+ *
+ * @see no.digipost.api.client.DigipostClient#getDocumentStatuses(no.digipost.api.client.SenderId, java.util.Collection)
+ */
+public final class DocumentStatusResult {
+
+    public static DocumentStatusResult success(UUID uuid, DocumentStatus status) {
+        return new DocumentStatusResult(uuid, status, null);
+    }
+
+    public static DocumentStatusResult failure(UUID uuid, DigipostClientException error) {
+        return new DocumentStatusResult(uuid, null, error);
+    }
+
+    public final UUID uuid;
+    private final DocumentStatus status;
+    private final DigipostClientException error;
+
+    private DocumentStatusResult(UUID uuid, DocumentStatus status, DigipostClientException error) {
+        this.uuid = uuid;
+        this.status = status;
+        this.error = error;
+    }
+
+    public Optional<DocumentStatus> getStatus() {
+        return Optional.ofNullable(status);
+    }
+
+    public Optional<DigipostClientException> getError() {
+        return Optional.ofNullable(error);
+    }
+
+    public boolean isSuccess() {
+        return status != null;
+    }
+
+    @Override
+    public String toString() {
+        return "status of document " + uuid + ": " + (isSuccess() ? status.status : error.getMessage());
+    }
+}
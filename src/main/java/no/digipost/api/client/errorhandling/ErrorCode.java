@@ -36,6 +36,7 @@ public enum ErrorCode {
     // Server errors
     GENERAL_ERROR(UNKNOWN),
     API_UNAVAILABLE(SERVER),
+    OVERLOAD_PROTECTION(SERVER),
     SERVER_ERROR(SERVER),
 
     SERVER_SIGNATURE_ERROR(SERVER),
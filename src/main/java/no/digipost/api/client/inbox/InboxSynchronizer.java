@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.inbox;
+
+import no.digipost.api.client.SenderId;
+import no.digipost.api.client.delivery.ContentSource;
+import no.digipost.api.client.representations.inbox.Inbox;
+import no.digipost.api.client.representations.inbox.InboxDocument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Collections.unmodifiableList;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Receives all new documents in the inbox of an organisation, and hands each of them to a
+ * {@link Handler}. The content of the next few documents, and the attachments of each document, are
+ * downloaded concurrently ahead of the handler, and the content is verified against the hash from
+ * Digipost while it is downloaded.
+ * <p>
+ * Documents are handed to the handler one at a time in order of delivery time, and a <em>watermark</em> of the latest
+ * document which has been handled, along with all documents delivered before it, is kept in
+ * memory and optionally in a {@link Builder#watermark(Path) watermark file}. Each call to
+ * {@link #synchronize(Handler)} only handles documents delivered after the watermark, which
+ * means a document is handled <em>at least once</em>: if the handler fails, or the process
+ * dies before the watermark is recorded, the document is handed to the handler again by
+ * the next synchronization. If {@link Builder#deleteAfterHandling(boolean) enabled}, each
+ * document is deleted from the inbox when it has been successfully handled.
+ * <p>
+ * The synchronizer does not poll by itself, but is intended to be run regularly,
+ * e.g. by a {@link java.util.concurrent.ScheduledExecutorService}.
+ *
+ * @see no.digipost.api.client.DigipostClient#inboxSynchronizer(SenderId)
+ */
+public final class InboxSynchronizer {
+
+    /**
+     * Receives documents from the inbox. The documents are handed to the handler one at a time,
+     * in order of delivery time, on the thread calling {@link InboxSynchronizer#synchronize(Handler)}.
+     * If the handler throws an exception, the document is neither deleted nor included in the
+     * watermark, and will be handled again.
+     */
+    @FunctionalInterface
+    public interface Handler {
+        void handle(ReceivedDocument document) throws Exception;
+    }
+
+    /**
+     * A document with its content, which has been downloaded and verified.
+     */
+    public static final class ReceivedDocument {
+        public final InboxDocument metadata;
+        public final List<ReceivedDocument> attachments;
+        private final byte[] content;
+
+        private ReceivedDocument(InboxDocument metadata, byte[] content, List<ReceivedDocument> attachments) {
+            this.metadata = metadata;
+            this.content = content;
+            this.attachments = unmodifiableList(attachments);
+        }
+
+        public ContentSource getContent() {
+            return ContentSource.of(content);
+        }
+
+        @Override
+        public String toString() {
+            return "inbox document " + metadata.getId() + " with " + content.length + " bytes and " + attachments.size() + " attachments";
+        }
+    }
+
+    public static final class Summary {
+        public final long handled;
+        public final long failed;
+        public final long deleted;
+
+        private Summary(long handled, long failed, long deleted) {
+            this.handled = handled;
+            this.failed = failed;
+            this.deleted = deleted;
+        }
+
+        @Override
+        public String toString() {
+            return "handled " + handled + " inbox documents (" + deleted + " deleted), " + failed + " failed";
+        }
+    }
+
+    public static class Builder {
+        private final InboxApi inboxApi;
+        private final SenderId senderId;
+        private int pageSize = 100;
+        private int maxConcurrentDownloads = 4;
+        private boolean deleteAfterHandling = false;
+        private Optional<Path> watermark = Optional.empty();
+
+        public Builder(InboxApi inboxApi, SenderId senderId) {
+            this.inboxApi = inboxApi;
+            this.senderId = senderId;
+        }
+
+        /**
+         * The number of documents to request for each page of the inbox. Default is 100, and the maximum is 1000.
+         */
+        public Builder pageSize(int pageSize) {
+            if (pageSize < 1 || pageSize > 1000) {
+                throw new IllegalArgumentException("pageSize must be between 1 and 1000, but was " + pageSize);
+            }
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * The maximum number of documents to download ahead of the handler, with their attachments. This
+         * also limits how many documents are held in memory at the same time. Default is 4.
+         */
+        public Builder maxConcurrentDownloads(int maxConcurrentDownloads) {
+            if (maxConcurrentDownloads < 1) {
+                throw new IllegalArgumentException("maxConcurrentDownloads must be at least 1, but was " + maxConcurrentDownloads);
+            }
+            this.maxConcurrentDownloads = maxConcurrentDownloads;
+            return this;
+        }
+
+        /**
+         * Delete each document from the inbox when it has been successfully handled. Default is {@code false}.
+         */
+        public Builder deleteAfterHandling(boolean deleteAfterHandling) {
+            this.deleteAfterHandling = deleteAfterHandling;
+            return this;
+        }
+
+        /**
+         * Record the watermark in the given file, and start from it if it exists.
+         */
+        public Builder watermark(Path watermarkFile) {
+            this.watermark = Optional.of(watermarkFile);
+            return this;
+        }
+
+        public InboxSynchronizer build() {
+            return new InboxSynchronizer(this);
+        }
+    }
+
+
+    private final InboxApi inboxApi;
+    private final SenderId senderId;
+    private final int pageSize;
+    private final int maxConcurrentDownloads;
+    private final boolean deleteAfterHandling;
+    private final Optional<Path> watermarkFile;
+
+    private Optional<Watermark> watermark;
+    private final Map<Long, Watermark> handledAfterWatermark = new HashMap<>();
+
+    private InboxSynchronizer(Builder builder) {
+        this.inboxApi = builder.inboxApi;
+        this.senderId = builder.senderId;
+        this.pageSize = builder.pageSize;
+        this.maxConcurrentDownloads = builder.maxConcurrentDownloads;
+        this.deleteAfterHandling = builder.deleteAfterHandling;
+        this.watermarkFile = builder.watermark;
+        this.watermark = watermarkFile.flatMap(Watermark::read);
+    }
+
+    /**
+     * Hand all documents delivered to the inbox after the watermark to the given handler, and
+     * advance the watermark past the documents which are successfully handled.
+     *
+     * @return a summary of the handled documents
+     */
+    public synchronized Summary synchronize(Handler handler) {
+        List<InboxDocument> newDocuments = listNewDocuments();
+        boolean[] handled = new boolean[newDocuments.size()];
+        long handledCount = 0, failedCount = 0, deletedCount = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(maxConcurrentDownloads);
+        Deque<CompletableFuture<ReceivedDocument>> downloading = new ArrayDeque<>();
+        try {
+            int nextDownload = 0;
+            for (int i = 0; i < newDocuments.size(); i++) {
+                while (nextDownload < newDocuments.size() && downloading.size() < maxConcurrentDownloads) {
+                    downloading.add(download(newDocuments.get(nextDownload++), executor));
+                }
+                InboxDocument document = newDocuments.get(i);
+                try {
+                    handler.handle(downloading.remove().join());
+                    if (deleteAfterHandling) {
+                        inboxApi.deleteInboxDocument(document);
+                        deletedCount++;
+                    }
+                    handled[i] = true;
+                    handledCount++;
+                } catch (Exception e) {
+                    failedCount++;
+                }
+            }
+        } finally {
+            downloading.forEach(download -> download.cancel(true));
+            executor.shutdownNow();
+            advanceWatermark(newDocuments, handled);
+        }
+        return new Summary(handledCount, failedCount, deletedCount);
+    }
+
+    /**
+     * @return the delivery time of the latest document which, along with all documents delivered
+     *         before it, has been handled.
+     */
+    public synchronized Optional<ZonedDateTime> getWatermark() {
+        return watermark.map(w -> w.deliveryTime);
+    }
+
+
+    private List<InboxDocument> listNewDocuments() {
+        List<InboxDocument> newDocuments = new ArrayList<>();
+        for (int offset = 0; ; offset += pageSize) {
+            Inbox page = inboxApi.getInbox(senderId, offset, pageSize);
+            page.documents.stream()
+                    .filter(document -> !watermark.filter(w -> w.isAtOrAfter(document)).isPresent())
+                    .filter(document -> !handledAfterWatermark.containsKey(document.getId()))
+                    .forEach(newDocuments::add);
+            if (page.documents.size() < pageSize) {
+                break;
+            }
+        }
+        newDocuments.sort(Comparator.comparing(InboxDocument::getDeliveryTime).thenComparingLong(InboxDocument::getId));
+        return newDocuments;
+    }
+
+    private CompletableFuture<ReceivedDocument> download(InboxDocument document, ExecutorService executor) {
+        CompletableFuture<byte[]> content = CompletableFuture.supplyAsync(() -> readContent(document), executor);
+        List<CompletableFuture<ReceivedDocument>> attachments = document.getAttachments().stream()
+                .map(attachment -> CompletableFuture.supplyAsync(() -> readContent(attachment), executor)
+                        .thenApply(attachmentContent -> new ReceivedDocument(attachment, attachmentContent, new ArrayList<>())))
+                .collect(toList());
+        return CompletableFuture.allOf(attachments.toArray(new CompletableFuture[0]))
+                .thenCombine(content, (done, documentContent) ->
+                        new ReceivedDocument(document, documentContent, attachments.stream().map(CompletableFuture::join).collect(toList())));
+    }
+
+    private byte[] readContent(InboxDocument document) {
+        try (InputStream content = inboxApi.getInboxDocumentContentStream(document)) {
+            return content.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to download content of inbox document " + document.getId() + ", because " + e.getMessage(), e);
+        }
+    }
+
+    private void advanceWatermark(List<InboxDocument> documents, boolean[] handled) {
+        for (int i = 0; i < documents.size(); i++) {
+            if (handled[i]) {
+                handledAfterWatermark.put(documents.get(i).getId(), new Watermark(documents.get(i)));
+            }
+        }
+        List<Watermark> pending = new ArrayList<>(handledAfterWatermark.values());
+        for (int i = 0; i < documents.size(); i++) {
+            if (!handled[i]) {
+                pending.add(new Watermark(documents.get(i)).unhandled());
+            }
+        }
+        pending.sort(Watermark.ORDER);
+        Optional<Watermark> advanced = watermark;
+        for (Watermark next : pending) {
+            if (next.unhandled) {
+                break;
+            }
+            advanced = Optional.of(next);
+        }
+        if (!advanced.equals(watermark)) {
+            Watermark current = advanced.get();
+            watermark = advanced;
+            handledAfterWatermark.values().removeIf(current::isAtOrAfter);
+            watermarkFile.ifPresent(current::write);
+        }
+    }
+
+
+    private static final class Watermark {
+        static final Comparator<Watermark> ORDER = Comparator.<Watermark, ZonedDateTime>comparing(w -> w.deliveryTime).thenComparingLong(w -> w.id);
+
+        final ZonedDateTime deliveryTime;
+        final long id;
+        final boolean unhandled;
+
+        Watermark(InboxDocument document) {
+            this(document.getDeliveryTime(), document.getId(), false);
+        }
+
+        Watermark(ZonedDateTime deliveryTime, long id, boolean unhandled) {
+            this.deliveryTime = deliveryTime;
+            this.id = id;
+            this.unhandled = unhandled;
+        }
+
+        Watermark unhandled() {
+            return new Watermark(deliveryTime, id, true);
+        }
+
+        boolean isAtOrAfter(InboxDocument document) {
+            return isAtOrAfter(new Watermark(document));
+        }
+
+        boolean isAtOrAfter(Watermark other) {
+            return ORDER.compare(this, other) >= 0;
+        }
+
+        static Optional<Watermark> read(Path watermarkFile) {
+            if (!Files.exists(watermarkFile)) {
+                return Optional.empty();
+            }
+            try {
+                String[] recorded = new String(Files.readAllBytes(watermarkFile), UTF_8).trim().split(" ");
+                return Optional.of(new Watermark(ZonedDateTime.parse(recorded[0]), Long.parseLong(recorded[1]), false));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to read watermark " + watermarkFile + ", because " + e.getMessage(), e);
+            }
+        }
+
+        void write(Path watermarkFile) {
+            try {
+                Path written = Files.write(watermarkFile.resolveSibling(watermarkFile.getFileName() + ".tmp"), (deliveryTime + " " + id).getBytes(UTF_8));
+                Files.move(written, watermarkFile, REPLACE_EXISTING, ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to write watermark " + watermarkFile + ", because " + e.getMessage(), e);
+            }
+        }
+    }
+}
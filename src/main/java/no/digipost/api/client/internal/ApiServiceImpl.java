@@ -18,6 +18,8 @@ package no.digipost.api.client.internal;
 import no.digipost.api.client.BrokerId;
 import no.digipost.api.client.DigipostClientConfig;
 import no.digipost.api.client.EventLogger;
+import no.digipost.api.client.Operation;
+import no.digipost.api.client.RateLimitStatistics;
 import no.digipost.api.client.SenderId;
 import no.digipost.api.client.archive.ArchiveApi;
 import no.digipost.api.client.batch.BatchApi;
@@ -27,8 +29,13 @@ import no.digipost.api.client.errorhandling.DigipostClientException;
 import no.digipost.api.client.errorhandling.ErrorCode;
 import no.digipost.api.client.inbox.InboxApi;
 import no.digipost.api.client.internal.http.Headers;
+import no.digipost.api.client.internal.http.Http2HttpClient;
 import no.digipost.api.client.internal.http.MultipartNoLengthCheckHttpEntity;
 import no.digipost.api.client.internal.http.request.interceptor.RequestContentHashFilter;
+import no.digipost.api.client.internal.http.OverloadProtection;
+import no.digipost.api.client.internal.http.RateLimiter;
+import no.digipost.api.client.internal.http.RequestHedger;
+import no.digipost.api.client.internal.http.RequestRetrier;
 import no.digipost.api.client.internal.http.request.interceptor.RequestDateInterceptor;
 import no.digipost.api.client.internal.http.request.interceptor.RequestSignatureInterceptor;
 import no.digipost.api.client.internal.http.request.interceptor.RequestUserAgentInterceptor;
@@ -63,6 +70,7 @@ import no.digipost.api.client.representations.sender.AuthorialSender.Type;
 import no.digipost.api.client.representations.sender.SenderInformation;
 import no.digipost.api.client.representations.shareddocuments.ShareDocumentsRequestState;
 import no.digipost.api.client.representations.shareddocuments.SharedDocumentContent;
+import no.digipost.api.client.security.CryptoUtil;
 import no.digipost.api.client.security.Digester;
 import no.digipost.api.client.security.Signer;
 import no.digipost.api.client.shareddocuments.SharedDocumentsApi;
@@ -70,11 +78,14 @@ import no.digipost.api.client.tag.TagApi;
 import no.digipost.api.client.util.JAXBContextUtils;
 import no.digipost.api.datatypes.DataType;
 import no.digipost.api.datatypes.types.share.ShareDocumentsRequestSharingStopped;
+import no.digipost.cache2.inmemory.Cache;
 import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.hc.client5.http.classic.methods.HttpDelete;
 import org.apache.hc.client5.http.classic.methods.HttpGet;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.apache.hc.client5.http.classic.methods.HttpPut;
+import org.apache.hc.client5.http.impl.ChainElement;
+import org.apache.hc.client5.http.impl.async.H2AsyncClientBuilder;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
 import org.apache.hc.core5.http.ClassicHttpRequest;
@@ -83,14 +94,18 @@ import org.apache.hc.core5.http.ContentType;
 import org.apache.hc.core5.http.Header;
 import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpRequestInterceptor;
+import org.apache.hc.core5.http.HttpResponseInterceptor;
 import org.apache.hc.core5.http.HttpStatus;
 import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.apache.hc.core5.http.protocol.HttpContext;
 import org.apache.hc.core5.http.protocol.HttpCoreContext;
 import org.apache.hc.core5.net.URIBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
@@ -98,15 +113,25 @@ import java.net.URISyntaxException;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static jakarta.xml.bind.JAXB.unmarshal;
+import static java.util.Arrays.asList;
 import static java.util.Optional.ofNullable;
+import static no.digipost.api.client.Operation.ARCHIVE;
+import static no.digipost.api.client.Operation.CREATE_MESSAGE;
+import static no.digipost.api.client.Operation.EVENTS;
+import static no.digipost.api.client.Operation.OTHER;
+import static no.digipost.api.client.Operation.STATUS;
 import static no.digipost.api.client.internal.ExceptionUtils.asUnchecked;
 import static no.digipost.api.client.internal.ExceptionUtils.exceptionNameAndMessage;
 import static no.digipost.api.client.internal.http.Headers.Accept_DIGIPOST_MEDIA_TYPE_V8;
+import static no.digipost.api.client.internal.http.Headers.Accept_Encoding_gzip_deflate;
+import static no.digipost.api.client.internal.http.Headers.Accept_Encoding_identity;
 import static no.digipost.api.client.internal.http.Headers.Content_Type_DIGIPOST_MEDIA_TYPE_V8;
 import static no.digipost.api.client.internal.http.Headers.X_Digipost_UserId;
 import static no.digipost.api.client.internal.http.UriUtils.withQueryParams;
@@ -123,31 +148,157 @@ public class ApiServiceImpl implements MessageDeliveryApi, InboxApi, DocumentApi
 
     private static final String ENTRY_POINT = "/";
     private final BrokerId brokerId;
+    private final Signer signer;
     private final CloseableHttpClient httpClient;
     private final URI digipostUrl;
 
+    private final Shared shared;
     private final Cached cached;
+    private final RateLimiter rateLimiter;
+    private final RequestHedger hedger;
     private final EventLogger eventLogger;
+    private final boolean responseCompression;
 
     // This pattern is hard to get right. The same pattern may not yield the same strings when formatting dates with Joda vs. Java time,
     // which was the case for the pattern "yyyy-MM-dd'T'HH:mm:ss.SSSZZ". See commit messages for 59caeb5737e45a15 and dcf41785a84f42caf935 for details.
     private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSxxx");
 
     public ApiServiceImpl(DigipostClientConfig config, HttpClientBuilder httpClientBuilder, BrokerId brokerId, Signer signer) {
+        this(new Shared(config, httpClientBuilder), brokerId, signer);
+    }
+
+    /**
+     * Create an API client which multiplexes concurrent requests over HTTP/2 connections.
+     */
+    public ApiServiceImpl(DigipostClientConfig config, H2AsyncClientBuilder http2ClientBuilder, BrokerId brokerId, Signer signer) {
+        this(new Shared(config, http2ClientBuilder), brokerId, signer);
+    }
+
+    /**
+     * Create an API client for a broker, which sends its requests with the HTTP client of the given
+     * {@link Shared shared state}, and shares the cached entry point with the other API clients
+     * created with the same shared state. Responses cached for the broker are not shared.
+     */
+    public ApiServiceImpl(Shared shared, BrokerId brokerId, Signer signer) {
+        this.shared = shared;
         this.brokerId = brokerId;
-        this.eventLogger = config.eventLogger.withDebugLogTo(LOG);
-        this.digipostUrl = config.digipostApiUri;
+        this.signer = signer;
+        this.eventLogger = shared.eventLogger;
+        this.digipostUrl = shared.digipostUrl;
+        this.responseCompression = shared.responseCompression;
+        this.httpClient = shared.httpClient;
+        this.rateLimiter = shared.rateLimiter;
+        this.hedger = shared.hedger;
+        this.cached = new Cached();
+        shared.brokers.put(brokerId, this);
+    }
+
+    /**
+     * The HTTP client, with its pool of connections, and the state which can be shared by the
+     * {@link ApiServiceImpl API clients} of several brokers using the same Digipost API.
+     * The HTTP client signs each request with the {@link Signer} of the API client sending it.
+     */
+    public static final class Shared implements Closeable {
+
+        private final CloseableHttpClient httpClient;
+        private final URI digipostUrl;
+        private final Cache<String, EntryPoint> entryPoint = Cached.sharedEntryPoint();
+        private final Map<BrokerId, ApiServiceImpl> brokers = new ConcurrentHashMap<>();
+        private final OverloadProtection overloadProtection;
+        private final RateLimiter rateLimiter;
+        private final RequestHedger hedger;
+        private final EventLogger eventLogger;
+        private final boolean responseCompression;
+
+        public Shared(DigipostClientConfig config, HttpClientBuilder httpClientBuilder) {
+            this(config, (requestInterceptors, responseInterceptors, retrier) -> {
+                requestInterceptors.forEach(httpClientBuilder::addRequestInterceptorLast);
+                responseInterceptors.forEach(httpClientBuilder::addResponseInterceptorLast);
+                httpClientBuilder.addExecInterceptorAfter(ChainElement.PROTOCOL.name(), "digipost-retry", retrier.asExecChainHandler(requestInterceptors));
+                if (config.retryPolicy.isEnabled()) {
+                    httpClientBuilder.disableAutomaticRetries();
+                }
+                if (!config.responseCompression) {
+                    httpClientBuilder.disableContentCompression();
+                }
+                return httpClientBuilder.build();
+            });
+        }
+
+        /**
+         * Create the shared state with an HTTP client which multiplexes concurrent requests over HTTP/2 connections.
+         */
+        public Shared(DigipostClientConfig config, H2AsyncClientBuilder http2ClientBuilder) {
+            this(config, (requestInterceptors, responseInterceptors, retrier) -> new Http2HttpClient(
+                    http2ClientBuilder.build(), requestInterceptors, responseInterceptors, retrier));
+        }
+
+        @FunctionalInterface
+        private interface HttpClientFactory {
+            CloseableHttpClient create(List<HttpRequestInterceptor> requestInterceptors, List<HttpResponseInterceptor> responseInterceptors, RequestRetrier retrier);
+        }
+
+        private Shared(DigipostClientConfig config, HttpClientFactory httpClientFactory) {
+            CryptoUtil.registerBouncyCastleProviderInBackground();
+            JAXBContextUtils.initializeInBackground();
+            this.eventLogger = config.eventLogger.withDebugLogTo(LOG);
+            this.digipostUrl = config.digipostApiUri;
+            this.responseCompression = config.responseCompression;
+
+            this.overloadProtection = new OverloadProtection(config.circuitBreaker, config.concurrencyLimit);
+            this.rateLimiter = new RateLimiter(config.rateLimit);
+            this.hedger = new RequestHedger(config.hedging);
+            this.httpClient = httpClientFactory.create(
+                    asList(
+                        new RequestDateInterceptor(config.eventLogger, config.clock),
+                        new RequestUserAgentInterceptor(),
+                        new RequestSignatureInterceptor(null, config.eventLogger, new RequestContentHashFilter(config.eventLogger, Digester.sha256, Headers.X_Content_SHA256))),
+                    asList(
+                        new ResponseDateInterceptor(config.clock),
+                        new ResponseContentSHA256Interceptor(),
+                        new ResponseSignatureInterceptor(this::entryPointOfAnyBroker)),
+                    new RequestRetrier(config.retryPolicy, config.clock, overloadProtection));
+            this.eventLogger.log("Initialiserte apache-klient mot " + config.digipostApiUri);
+        }
+
+        /**
+         * The entry point is the same for all brokers, and is fetched on behalf of the broker which
+         * asks for it when it is not cached.
+         */
+        private EntryPoint entryPoint(ApiServiceImpl broker) {
+            return entryPoint.get(ENTRY_POINT, () -> broker.fetchEntryPoint(Optional.empty()));
+        }
+
+        /**
+         * The certificate in the entry point is needed to verify responses, which are not verified on behalf
+         * of a particular broker, so the entry point is fetched on behalf of any registered broker.
+         */
+        private EntryPoint entryPointOfAnyBroker() {
+            ApiServiceImpl anyBroker = brokers.values().stream().findAny().orElseThrow(() -> new DigipostClientException(ErrorCode.GENERAL_ERROR,
+                    "No broker is registered to fetch the entry point of the Digipost API on behalf of"));
+            return entryPoint(anyBroker);
+        }
+
+        /**
+         * Stop using a broker to fetch the entry point on behalf of. API clients created for the broker can
+         * still be used, and fetch the entry point on behalf of the broker if they need to.
+         */
+        public void unregister(BrokerId brokerId) {
+            brokers.remove(brokerId);
+        }
+
+        public RateLimitStatistics getRateLimitStatistics() {
+            return rateLimiter.getStatistics();
+        }
 
-        this.cached = new Cached(() -> fetchEntryPoint(Optional.empty()));
-        this.httpClient = httpClientBuilder
-            .addRequestInterceptorLast(new RequestDateInterceptor(config.eventLogger, config.clock))
-            .addRequestInterceptorLast(new RequestUserAgentInterceptor())
-            .addRequestInterceptorLast(new RequestSignatureInterceptor(signer, config.eventLogger, new RequestContentHashFilter(config.eventLogger, Digester.sha256, Headers.X_Content_SHA256)))
-            .addResponseInterceptorLast(new ResponseDateInterceptor(config.clock))
-            .addResponseInterceptorLast(new ResponseContentSHA256Interceptor())
-            .addResponseInterceptorLast(new ResponseSignatureInterceptor(this::getEntryPoint))
-            .build();
-        this.eventLogger.log("Initialiserte apache-klient mot " + config.digipostApiUri);
+        @Override
+        public void close() throws IOException {
+            try {
+                httpClient.close();
+            } finally {
+                hedger.close();
+            }
+        }
     }
 
     //Kan sende inn null. Man får da det samme som getEntryPoint()
@@ -158,12 +309,21 @@ public class ApiServiceImpl implements MessageDeliveryApi, InboxApi, DocumentApi
     }
     
     public EntryPoint getEntryPoint() {
-        return cached.entryPoint.get();
+        return shared.entryPoint(this);
+    }
+
+    public RateLimitStatistics getRateLimitStatistics() {
+        return rateLimiter.getStatistics();
     }
 
 
     @Override
     public ClassicHttpResponse sendMultipartMessage(HttpEntity multipart) {
+        return sendMultipartMessage(null, multipart);
+    }
+
+    @Override
+    public ClassicHttpResponse sendMultipartMessage(SenderId onBehalfOf, HttpEntity multipart) {
         MultipartNoLengthCheckHttpEntity multipartLengthCheckHttpEntity = new MultipartNoLengthCheckHttpEntity(multipart);
 
         EntryPoint entryPoint = getEntryPoint();
@@ -171,14 +331,21 @@ public class ApiServiceImpl implements MessageDeliveryApi, InboxApi, DocumentApi
         HttpPost httpPost = new HttpPost(digipostUrl.resolve(entryPoint.getCreateMessageUri().getPath()));
         httpPost.setHeader(Accept_DIGIPOST_MEDIA_TYPE_V8);
         httpPost.setHeader("MIME-Version", "1.0");
-        httpPost.removeHeaders("Accept-Encoding");
         httpPost.setEntity(multipartLengthCheckHttpEntity);
-        return send(httpPost);
+        // Digipost will not deliver a message with the same id twice, so sending the message again is safe
+        HttpCoreContext httpCoreContext = HttpCoreContext.create();
+        httpCoreContext.setAttribute(RequestRetrier.RETRY_IF_NOT_PROCESSED, true);
+        return send(CREATE_MESSAGE, onBehalfOf, httpPost, httpCoreContext);
 
     }
 
     @Override
     public ClassicHttpResponse sendMultipartArchive(HttpEntity multipart) {
+        return sendMultipartArchive(null, multipart);
+    }
+
+    @Override
+    public ClassicHttpResponse sendMultipartArchive(SenderId onBehalfOf, HttpEntity multipart) {
         MultipartNoLengthCheckHttpEntity multipartLengthCheckHttpEntity = new MultipartNoLengthCheckHttpEntity(multipart);
 
         EntryPoint entryPoint = getEntryPoint();
@@ -186,20 +353,19 @@ public class ApiServiceImpl implements MessageDeliveryApi, InboxApi, DocumentApi
         HttpPost httpPost = new HttpPost(digipostUrl.resolve(entryPoint.getArchiveDocumentsUri().getPath()));
         httpPost.setHeader(Accept_DIGIPOST_MEDIA_TYPE_V8);
         httpPost.setHeader("MIME-Version", "1.0");
-        httpPost.removeHeaders("Accept-Encoding");
         httpPost.setEntity(multipartLengthCheckHttpEntity);
-        return send(httpPost);
+        return send(ARCHIVE, onBehalfOf, httpPost);
 
     }
 
     @Override
     public Archive getArchiveDocument(URI uri) {
-        return getEntity(Archive.class, uri.getPath());
+        return getEntity(ARCHIVE, null, Archive.class, uri.getPath());
     }
 
     @Override
     public ArchiveDocumentContent getArchiveDocumentContent(URI uri) {
-        return getEntity(ArchiveDocumentContent.class, uri.getPath());
+        return getEntity(ARCHIVE, null, ArchiveDocumentContent.class, uri.getPath());
     }
 
     @Override
@@ -208,7 +374,7 @@ public class ApiServiceImpl implements MessageDeliveryApi, InboxApi, DocumentApi
         httpGet.setHeader(HttpHeaders.ACCEPT, ContentType.WILDCARD.toString());
         final HttpCoreContext httpCoreContext = HttpCoreContext.create();
         httpCoreContext.setAttribute(ResponseSignatureInterceptor.NOT_SIGNED_RESPONSE, true);
-        return requestStream(httpGet);
+        return requestStream(ARCHIVE, null, httpGet);
     }
 
     @Override
@@ -259,7 +425,7 @@ public class ApiServiceImpl implements MessageDeliveryApi, InboxApi, DocumentApi
 
         try {
             HttpGet httpGet = new HttpGet(builder.build());
-            return requestEntity(httpGet, DocumentEvents.class);
+            return requestEntity(EVENTS, senderId, httpGet, DocumentEvents.class);
         } catch (URISyntaxException e) {
             throw asUnchecked(e);
         }
@@ -267,17 +433,17 @@ public class ApiServiceImpl implements MessageDeliveryApi, InboxApi, DocumentApi
 
     @Override
     public DocumentStatus getDocumentStatus(Link linkToDocumentStatus) {
-        return getDocumentStatus(linkToDocumentStatus.getUri().getPath());
+        return getDocumentStatus(null, linkToDocumentStatus.getUri().getPath());
     }
 
     @Override
     public DocumentStatus getDocumentStatus(SenderId senderId, UUID uuid) {
-        return getDocumentStatus("/documents/" + senderId.stringValue() + "/" + uuid + "/status");
+        return getDocumentStatus(senderId, "/documents/" + senderId.stringValue() + "/" + uuid + "/status");
     }
 
-    private DocumentStatus getDocumentStatus(String path) {
-        HttpGet httpGet = new HttpGet(digipostUrl.resolve(path));
-        return requestEntity(httpGet, DocumentStatus.class);
+    private DocumentStatus getDocumentStatus(SenderId senderId, String path) {
+        URI uri = digipostUrl.resolve(path);
+        return hedger.execute("document-status", () -> new HttpGet(uri), httpGet -> requestEntity(STATUS, senderId, httpGet, DocumentStatus.class));
     }
 
     @Override
@@ -288,19 +454,20 @@ public class ApiServiceImpl implements MessageDeliveryApi, InboxApi, DocumentApi
 
     @Override
     public Recipients search(String searchString) {
-        HttpGet httpGet = new HttpGet(digipostUrl.resolve(createEncodedURIPath(getEntryPoint().getSearchUri().getPath() + "/" + searchString)));
-        return requestEntity(httpGet, Recipients.class);
+        URI uri = digipostUrl.resolve(createEncodedURIPath(getEntryPoint().getSearchUri().getPath() + "/" + searchString));
+        return hedger.execute("search", () -> new HttpGet(uri), httpGet -> requestEntity(httpGet, Recipients.class));
     }
 
     @Override
     public Autocomplete searchSuggest(String searchString) {
-        HttpGet httpGet = new HttpGet(digipostUrl.resolve(createEncodedURIPath(getEntryPoint().getAutocompleteUri().getPath() + "/" + searchString)));
-        return requestEntity(httpGet, Autocomplete.class);
+        URI uri = digipostUrl.resolve(createEncodedURIPath(getEntryPoint().getAutocompleteUri().getPath() + "/" + searchString));
+        return hedger.execute("search-suggest", () -> new HttpGet(uri), httpGet -> requestEntity(httpGet, Autocomplete.class));
     }
 
     @Override
     public ClassicHttpResponse identifyRecipient(Identification identification) {
-        return sendDigipostMedia(identification, getEntryPoint().getIdentificationUri().getPath());
+        String uri = getEntryPoint().getIdentificationUri().getPath();
+        return hedger.execute("identify-recipient", () -> digipostMediaRequest(identification, uri), this::send);
     }
 
     private EntryPoint fetchEntryPoint(Optional<SenderId> senderId) throws IOException {
@@ -308,7 +475,7 @@ public class ApiServiceImpl implements MessageDeliveryApi, InboxApi, DocumentApi
         httpGet.setHeader(Accept_DIGIPOST_MEDIA_TYPE_V8);
         final HttpCoreContext httpCoreContext = HttpCoreContext.create();
         httpCoreContext.setAttribute(ResponseSignatureInterceptor.NOT_SIGNED_RESPONSE, true);
-        try (ClassicHttpResponse response = send(httpGet, httpCoreContext)) {
+        try (ClassicHttpResponse response = send(OTHER, senderId.orElse(null), httpGet, httpCoreContext)) {
 
             if (response.getCode() == HttpStatus.SC_OK) {
                 return unmarshal(jaxbContext, response.getEntity().getContent(), EntryPoint.class);
@@ -352,35 +519,35 @@ public class ApiServiceImpl implements MessageDeliveryApi, InboxApi, DocumentApi
     @Override
     public Archives getArchives(SenderId senderId) {
         final URI uri = getEntryPoint(senderId).getArchivesUri();
-        return getEntity(Archives.class, uri.getPath());
+        return getEntity(ARCHIVE, senderId, Archives.class, uri.getPath());
     }
 
     @Override
     public Archive getArchiveDocuments(URI uri) {
-        return getEntity(Archive.class, pathWithQuery(uri));
+        return getEntity(ARCHIVE, null, Archive.class, pathWithQuery(uri));
     }
     
     @Override
     public Archives getArchiveDocumentsByReferenceId(SenderId senderId, String referenceId) {
         final URI uri = getEntryPoint(senderId).getArchiveDocumentByReferenceUri(referenceId);
-        return getEntity(Archives.class, uri.getPath());
+        return getEntity(ARCHIVE, senderId, Archives.class, uri.getPath());
     }
     
     @Override
     public Archive getArchiveDocumentByUUID(SenderId senderId, UUID uuid) {
         final URI uri = getEntryPoint(senderId).getArchiveDocumentByUUIDUri(uuid);
-        return getEntity(Archive.class, uri.getPath());
+        return getEntity(ARCHIVE, senderId, Archive.class, uri.getPath());
     }
 
     @Override
     public void deleteArchiveDocumentByUUID(URI deleteArchiveDocumentUri) {
-        send(new HttpDelete(digipostUrl.resolve(deleteArchiveDocumentUri.getPath())));
+        EntityUtils.consumeQuietly(send(ARCHIVE, null, new HttpDelete(digipostUrl.resolve(deleteArchiveDocumentUri.getPath()))).getEntity());
     }
 
     @Override
     public Archive addUniqueUUIDToArchiveDocument(SenderId senderId, UUID uuid, UUID newuuid) {
         final URI uri = getEntryPoint(senderId).getArchiveDocumentByUUIDUri(uuid);
-        final Archive archive = getEntity(Archive.class, uri.getPath());
+        final Archive archive = getEntity(ARCHIVE, senderId, Archive.class, uri.getPath());
 
         // Det er alltid en unik referanse
         final ArchiveDocument document = archive.getDocuments().get(0);
@@ -390,7 +557,7 @@ public class ApiServiceImpl implements MessageDeliveryApi, InboxApi, DocumentApi
                 newuuid, document.getFileName(), document.getFileType(), document.getContentType()
         );
 
-        try (ClassicHttpResponse response = sendDigipostMedia(nyttDokument, addUniqeUUIDUri.getPath())) {
+        try (ClassicHttpResponse response = sendDigipostMedia(ARCHIVE, senderId, nyttDokument, addUniqeUUIDUri.getPath())) {
             checkResponse(response, eventLogger);
             
             archive.getDocuments().addAll(unmarshal(jaxbContext, response.getEntity().getContent(), Archive.class).getDocuments());
@@ -409,7 +576,7 @@ public class ApiServiceImpl implements MessageDeliveryApi, InboxApi, DocumentApi
         marshal(jaxbContext, archiveDocument, bao);
         httpPut.setEntity(new ByteArrayEntity(bao.toByteArray(), ContentType.create(DIGIPOST_MEDIA_TYPE_V8)));
         
-        return requestEntity(httpPut, ArchiveDocument.class);
+        return requestEntity(ARCHIVE, null, httpPut, ArchiveDocument.class);
     }
 
     @Override
@@ -418,7 +585,7 @@ public class ApiServiceImpl implements MessageDeliveryApi, InboxApi, DocumentApi
         queryParams.put("offset", String.valueOf(offset));
         queryParams.put("limit", String.valueOf(limit));
         
-        return getEntity(Inbox.class, getEntryPoint(senderId).getInboxUri().getPath(), queryParams);
+        return getEntity(OTHER, senderId, Inbox.class, getEntryPoint(senderId).getInboxUri().getPath(), queryParams);
     }
 
     @Override
@@ -432,7 +599,7 @@ public class ApiServiceImpl implements MessageDeliveryApi, InboxApi, DocumentApi
 
     @Override
     public void deleteInboxDocument(InboxDocument inboxDocument) {
-        send(new HttpDelete(inboxDocument.getDeleteUri()));
+        EntityUtils.consumeQuietly(send(new HttpDelete(inboxDocument.getDeleteUri())).getEntity());
     }
 
     @Override
@@ -471,7 +638,7 @@ public class ApiServiceImpl implements MessageDeliveryApi, InboxApi, DocumentApi
 
     @Override
     public void cancelBatch(Batch batch) {
-        send(new HttpDelete(batch.getCancelBatch()));
+        EntityUtils.consumeQuietly(send(new HttpDelete(batch.getCancelBatch())).getEntity());
     }
 
     @Override
@@ -503,7 +670,7 @@ public class ApiServiceImpl implements MessageDeliveryApi, InboxApi, DocumentApi
 
     @Override
     public ShareDocumentsRequestState getShareDocumentsRequestState(SenderId senderId, UUID shareDocumentsRequestUuid) {
-        return getEntity(ShareDocumentsRequestState.class, getEntryPoint(senderId).getShareDocumentsRequestStateUri().getPath() + shareDocumentsRequestUuid.toString());
+        return getEntity(OTHER, senderId, ShareDocumentsRequestState.class, getEntryPoint(senderId).getShareDocumentsRequestStateUri().getPath() + shareDocumentsRequestUuid.toString());
     }
 
     @Override
@@ -543,33 +710,49 @@ public class ApiServiceImpl implements MessageDeliveryApi, InboxApi, DocumentApi
     }
 
     private <R> R getEntity(Class<R> entityType, String resourcePath) {
-        return requestEntity(new HttpGet(digipostUrl.resolve(resourcePath)), entityType);
+        return getEntity(OTHER, null, entityType, resourcePath);
+    }
+
+    private <R> R getEntity(Operation operation, SenderId onBehalfOf, Class<R> entityType, String resourcePath) {
+        return requestEntity(operation, onBehalfOf, new HttpGet(digipostUrl.resolve(resourcePath)), entityType);
     }
 
     private <R> R getEntity(Class<R> entityType, String resourcePath, Map<String, ?> queryParams) {
+        return getEntity(OTHER, null, entityType, resourcePath, queryParams);
+    }
+
+    private <R> R getEntity(Operation operation, SenderId onBehalfOf, Class<R> entityType, String resourcePath, Map<String, ?> queryParams) {
         HttpGet httpGet = new HttpGet(withQueryParams(digipostUrl.resolve(resourcePath), queryParams));
-        return requestEntity(httpGet, entityType);
+        return requestEntity(operation, onBehalfOf, httpGet, entityType);
     }
 
     private <R> InputStream requestStream(ClassicHttpRequest request) {
-        return request(request, InputStream.class, new Header[0]);
+        return requestStream(OTHER, null, request);
+    }
+
+    private <R> InputStream requestStream(Operation operation, SenderId onBehalfOf, ClassicHttpRequest request) {
+        return request(operation, onBehalfOf, request, InputStream.class, new Header[0]);
     }
 
     private <R> R requestEntity(ClassicHttpRequest request, Class<R> entityType) {
-        return request(request, entityType, Accept_DIGIPOST_MEDIA_TYPE_V8);
+        return requestEntity(OTHER, null, request, entityType);
+    }
+
+    private <R> R requestEntity(Operation operation, SenderId onBehalfOf, ClassicHttpRequest request, Class<R> entityType) {
+        return request(operation, onBehalfOf, request, entityType, Accept_DIGIPOST_MEDIA_TYPE_V8);
     }
 
-    private <R> R request(ClassicHttpRequest request, Class<R> entityType, Header ... headers) {
+    private <R> R request(Operation operation, SenderId onBehalfOf, ClassicHttpRequest request, Class<R> entityType, Header ... headers) {
         for (Header header : headers) {
             request.setHeader(header);
         }
 
         if (entityType == InputStream.class) {
             @SuppressWarnings("unchecked")
-            R responseStream = (R) safelyOfferEntityStreamExternally(send(request), eventLogger);
+            R responseStream = (R) safelyOfferEntityStreamExternally(send(operation, onBehalfOf, request), eventLogger);
             return responseStream;
         } else {
-            try (ClassicHttpResponse response = send(request)) {
+            try (ClassicHttpResponse response = send(operation, onBehalfOf, request)) {
                 checkResponse(response, eventLogger);
                 return unmarshal(response.getEntity().getContent(), entityType);
             } catch (IOException e) {
@@ -580,25 +763,60 @@ public class ApiServiceImpl implements MessageDeliveryApi, InboxApi, DocumentApi
     }
 
     private ClassicHttpResponse send(ClassicHttpRequest request) {
-        return send(request, null);
+        return send(OTHER, null, request, null);
+    }
+
+    private ClassicHttpResponse send(Operation operation, SenderId onBehalfOf, ClassicHttpRequest request) {
+        return send(operation, onBehalfOf, request, null);
     }
 
     private ClassicHttpResponse send(ClassicHttpRequest request, HttpContext context) {
+        return send(OTHER, null, request, context);
+    }
+
+    /**
+     * @param onBehalfOf the sender the request is on behalf of, or {@code null} if the
+     *                   request is on behalf of the broker itself.
+     */
+    private ClassicHttpResponse send(Operation operation, SenderId onBehalfOf, ClassicHttpRequest request, HttpContext context) {
+        request.setHeader(X_Digipost_UserId, brokerId.stringValue());
+        request.setHeader(acceptEncoding(request));
+        HttpContext signedContext = context != null ? context : HttpCoreContext.create();
+        signedContext.setAttribute(RequestSignatureInterceptor.SIGNER, signer);
+        signedContext.setAttribute(OverloadProtection.OPERATION, operation);
+        rateLimiter.acquire(operation, onBehalfOf != null ? onBehalfOf : brokerId.asSenderId());
         try {
-            request.setHeader(X_Digipost_UserId, brokerId.stringValue());
-            return httpClient.executeOpen(null, request, context);
+            return httpClient.executeOpen(null, request, signedContext);
         } catch (IOException e) {
             throw asUnchecked(e);
         }
     }
 
+    /**
+     * Only the XML responses from Digipost are negotiated to be compressed. Documents are downloaded
+     * as they are, as they usually are of already compressed formats.
+     */
+    private Header acceptEncoding(ClassicHttpRequest request) {
+        Header accept = request.getFirstHeader(HttpHeaders.ACCEPT);
+        boolean acceptsXml = accept != null && DIGIPOST_MEDIA_TYPE_V8.equals(accept.getValue());
+        return responseCompression && acceptsXml ? Accept_Encoding_gzip_deflate : Accept_Encoding_identity;
+    }
+
     private ClassicHttpResponse sendDigipostMedia(Object data, String uri) {
+        return sendDigipostMedia(OTHER, null, data, uri);
+    }
+
+    private ClassicHttpResponse sendDigipostMedia(Operation operation, SenderId onBehalfOf, Object data, String uri) {
+        return send(operation, onBehalfOf, digipostMediaRequest(data, uri));
+    }
+
+    private HttpPost digipostMediaRequest(Object data, String uri) {
         HttpPost httpPost = new HttpPost(digipostUrl.resolve(uri));
         httpPost.setHeader(Accept_DIGIPOST_MEDIA_TYPE_V8);
         httpPost.setHeader(Content_Type_DIGIPOST_MEDIA_TYPE_V8);
         ByteArrayOutputStream bao = new ByteArrayOutputStream();
         marshal(jaxbContext, data, bao);
         httpPost.setEntity(new ByteArrayEntity(bao.toByteArray(), ContentType.create(DIGIPOST_MEDIA_TYPE_V8)));
-        return send(httpPost);
+        return httpPost;
     }
 }
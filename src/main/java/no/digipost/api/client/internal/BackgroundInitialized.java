@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static no.digipost.api.client.internal.ExceptionUtils.exceptionNameAndMessage;
+
+/**
+ * A value which is expensive to initialize, and is initialized once, either when it is first
+ * needed, or {@link #startInBackground() ahead of time} on a background thread. Getting the value
+ * while it is being initialized in the background waits for the initialization to complete,
+ * instead of initializing it again.
+ */
+public final class BackgroundInitialized<T> implements Supplier<T> {
+
+    private final String name;
+    private final FutureTask<T> initialization;
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    public BackgroundInitialized(String name, Callable<T> initializer) {
+        this.name = name;
+        this.initialization = new FutureTask<>(initializer);
+    }
+
+    /**
+     * Start the initialization on a background thread, unless it has already been started.
+     */
+    public void startInBackground() {
+        if (started.compareAndSet(false, true) && !initialization.isDone()) {
+            Thread thread = new Thread(initialization, "digipost-init-" + name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Get the value, initializing it on the calling thread if the initialization has not been started.
+     */
+    @Override
+    public T get() {
+        initialization.run();
+        try {
+            return initialization.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + name + " to be initialized", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Failed to initialize " + name + ", because " + exceptionNameAndMessage(cause), cause);
+        }
+    }
+
+    public boolean isInitialized() {
+        return initialization.isDone();
+    }
+
+    @Override
+    public String toString() {
+        return name + (isInitialized() ? " (initialized)" : "");
+    }
+}
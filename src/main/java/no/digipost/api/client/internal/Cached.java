@@ -19,25 +19,29 @@ import no.digipost.api.client.SenderId;
 import no.digipost.api.client.representations.EntryPoint;
 import no.digipost.api.client.representations.sender.SenderInformation;
 import no.digipost.cache2.inmemory.Cache;
-import no.digipost.cache2.inmemory.SingleCached;
 
 import java.time.Duration;
-import java.util.concurrent.Callable;
 
 import static no.digipost.cache2.inmemory.CacheConfig.expireAfterAccess;
 import static no.digipost.cache2.inmemory.CacheConfig.expireAfterWrite;
 import static no.digipost.cache2.inmemory.CacheConfig.useSoftValues;
 
+/**
+ * The cached responses for one broker. The {@link #sharedEntryPoint() entry point} of the
+ * API is the same for all brokers, and may be shared by the API clients of several brokers.
+ */
 final class Cached {
 
-    final SingleCached<EntryPoint> entryPoint;
     final Cache<SenderId, EntryPoint> senderEntryPoint;
     final Cache<String, SenderInformation> senderInformation;
 
-    Cached(Callable<EntryPoint> entryPointFetcher) {
-        this.entryPoint = new SingleCached<>("digipost-entrypoint", entryPointFetcher, expireAfterAccess(Duration.ofMinutes(5)), expireAfterWrite(Duration.ofHours(1)), useSoftValues);
+    Cached() {
         this.senderInformation = Cache.create("sender-information", expireAfterAccess(Duration.ofMinutes(5)), expireAfterWrite(Duration.ofHours(1)), useSoftValues);
         this.senderEntryPoint = Cache.create("digipost-sender-information", expireAfterAccess(Duration.ofMinutes(5)), expireAfterWrite(Duration.ofHours(1)), useSoftValues);
     }
 
+    static Cache<String, EntryPoint> sharedEntryPoint() {
+        return Cache.create("digipost-entrypoint", expireAfterAccess(Duration.ofMinutes(5)), expireAfterWrite(Duration.ofHours(1)), useSoftValues);
+    }
+
 }
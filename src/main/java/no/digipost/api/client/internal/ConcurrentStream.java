@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal;
+
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import no.digipost.api.client.errorhandling.ErrorCode;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Runs a task, typically a request to Digipost, for each element of a stream, with a bounded number
+ * of tasks in progress.
+ */
+public final class ConcurrentStream {
+
+    /**
+     * The elements are consumed from the given stream as the results are consumed from the returned stream,
+     * so at most {@code maxConcurrentTasks} tasks are in progress, and only their elements are held in memory.
+     * The results are available in the order the tasks complete.
+     * <p>
+     * The threads running the tasks are stopped when all the results have been consumed, or the returned
+     * stream is closed, which also interrupts the tasks in progress. The threads of a stream which is
+     * abandoned before either happens are stopped when they have been idle for a second.
+     *
+     * @param available gives the result of an element without running the task, e.g. from a cache, if it is available.
+     *                  Such results are available immediately.
+     * @param task gives the result of an element, and should give failures as results, as an exception
+     *             thrown by a task is thrown from the returned stream.
+     * @param threadName the prefix of the names of the threads running the tasks
+     */
+    public static <T, R> Stream<R> map(Stream<T> elements, Function<? super T, Optional<R>> available, Function<? super T, ? extends R> task, int maxConcurrentTasks, String threadName) {
+        if (maxConcurrentTasks < 1) {
+            throw new IllegalArgumentException("maxConcurrentRequests must be at least 1, was " + maxConcurrentTasks);
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxConcurrentTasks, maxConcurrentTasks, 1, SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, threadName + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        CompletionService<R> completed = new ExecutorCompletionService<>(executor);
+        Iterator<T> remaining = elements.iterator();
+
+        Iterator<R> results = new Iterator<R>() {
+            int inProgress = 0;
+            R availableResult;
+
+            @Override
+            public boolean hasNext() {
+                startTasks();
+                if (availableResult == null && inProgress == 0) {
+                    executor.shutdown();
+                    return false;
+                }
+                return true;
+            }
+
+            @Override
+            public R next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (availableResult != null) {
+                    R result = availableResult;
+                    availableResult = null;
+                    return result;
+                }
+                try {
+                    R result = completed.take().get();
+                    inProgress--;
+                    return result;
+                } catch (InterruptedException e) {
+                    executor.shutdownNow();
+                    Thread.currentThread().interrupt();
+                    throw new DigipostClientException(ErrorCode.GENERAL_ERROR, "Interrupted while waiting for results of concurrent requests", e);
+                } catch (ExecutionException e) {
+                    throw DigipostClientException.from(e.getCause());
+                }
+            }
+
+            private void startTasks() {
+                while (availableResult == null && inProgress < maxConcurrentTasks && !executor.isShutdown() && remaining.hasNext()) {
+                    T element = remaining.next();
+                    Optional<R> result = available.apply(element);
+                    if (result.isPresent()) {
+                        availableResult = result.get();
+                    } else {
+                        completed.submit(() -> task.apply(element));
+                        inProgress++;
+                    }
+                }
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(results, Spliterator.NONNULL), false)
+                .onClose(executor::shutdownNow)
+                .onClose(elements::close);
+    }
+
+    private ConcurrentStream() {
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal;
+
+import no.digipost.api.client.document.DocumentStatusResult;
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import no.digipost.api.client.representations.DocumentStatus;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Looks up the status of many documents concurrently, with a bounded number of lookups in progress.
+ */
+public final class DocumentStatusLookup {
+
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+
+    /**
+     * A new lookup is started each time a result is consumed from the returned stream, so at most
+     * {@code maxConcurrentRequests} lookups are in progress, and the results are available in the order
+     * the lookups complete. Closing the stream cancels the lookups in progress, and no more are started.
+     *
+     * @see ConcurrentStream#map
+     */
+    public static Stream<DocumentStatusResult> lookupAll(Collection<UUID> uuids, Function<UUID, DocumentStatus> getDocumentStatus, int maxConcurrentRequests) {
+        return ConcurrentStream.map(uuids.stream(), uuid -> Optional.empty(), uuid -> lookup(uuid, getDocumentStatus), maxConcurrentRequests, "digipost-document-status");
+    }
+
+    private static DocumentStatusResult lookup(UUID uuid, Function<UUID, DocumentStatus> getDocumentStatus) {
+        try {
+            return DocumentStatusResult.success(uuid, getDocumentStatus.apply(uuid));
+        } catch (RuntimeException e) {
+            return DocumentStatusResult.failure(uuid, DigipostClientException.from(e));
+        }
+    }
+
+    private DocumentStatusLookup() {
+    }
+}
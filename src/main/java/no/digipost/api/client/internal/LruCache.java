@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal;
+
+import no.digipost.api.client.CacheStatistics;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A size-bounded cache evicting the least recently used entry, and optionally
+ * entries which have been cached longer than a given time to live.
+ * Values are computed outside of any lock, so a value may be computed more
+ * than once if requested concurrently before it is cached.
+ */
+public final class LruCache<K, V> {
+
+    private final Map<K, CachedValue<V>> entries;
+    private final Duration timeToLive;
+    private final Clock clock;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public LruCache(int maxEntries) {
+        this(maxEntries, null, null);
+    }
+
+    /**
+     * @param timeToLive how long a value is kept after it was cached
+     * @param clock the clock to determine the age of cached values
+     */
+    public LruCache(int maxEntries, Duration timeToLive, Clock clock) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive, was " + maxEntries);
+        }
+        if (timeToLive != null && (timeToLive.isZero() || timeToLive.isNegative())) {
+            throw new IllegalArgumentException("timeToLive must be positive, was " + timeToLive);
+        }
+        this.timeToLive = timeToLive;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<K, CachedValue<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CachedValue<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public V get(K key, Supplier<V> valueResolver) {
+        return getIfPresent(key).orElseGet(() -> {
+            V resolved = valueResolver.get();
+            put(key, resolved);
+            return resolved;
+        });
+    }
+
+    /**
+     * @return the cached value, or {@link Optional#empty() empty} if the key is not cached or has expired
+     */
+    public Optional<V> getIfPresent(K key) {
+        Instant now = timeToLive != null ? clock.instant() : null;
+        CachedValue<V> cached;
+        synchronized (entries) {
+            cached = entries.get(key);
+            if (cached != null && cached.isExpiredAt(now)) {
+                entries.remove(key);
+                cached = null;
+            }
+        }
+        if (cached != null) {
+            hits.increment();
+            return Optional.of(cached.value);
+        }
+        misses.increment();
+        return Optional.empty();
+    }
+
+    public void put(K key, V value) {
+        CachedValue<V> entry = new CachedValue<>(value, timeToLive != null ? clock.instant().plus(timeToLive) : null);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public CacheStatistics statistics(String name) {
+        return new CacheStatistics(name, hits(), misses(), size());
+    }
+
+    private static final class CachedValue<V> {
+        final V value;
+        final Instant expires;
+
+        CachedValue(V value, Instant expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+
+        boolean isExpiredAt(Instant now) {
+            return expires != null && !now.isBefore(expires);
+        }
+    }
+}
@@ -17,33 +17,46 @@ package no.digipost.api.client.internal.delivery;
 
 import no.digipost.api.client.DigipostClientConfig;
 import no.digipost.api.client.EventLogger;
+import no.digipost.api.client.SenderId;
 import no.digipost.api.client.archive.ArchiveApi;
+import no.digipost.api.client.archive.ArchiveDeduplicationIndex;
+import no.digipost.api.client.delivery.ContentSource;
 import no.digipost.api.client.errorhandling.DigipostClientException;
 import no.digipost.api.client.errorhandling.ErrorCode;
 import no.digipost.api.client.representations.MediaTypes;
 import no.digipost.api.client.representations.archive.Archive;
 import no.digipost.api.client.representations.archive.ArchiveDocument;
+import no.digipost.api.client.security.Digester;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.hc.client5.http.entity.mime.ByteArrayBody;
+import org.apache.hc.client5.http.entity.mime.ContentBody;
 import org.apache.hc.client5.http.entity.mime.FormBodyPartBuilder;
 import org.apache.hc.client5.http.entity.mime.HttpMultipartMode;
 import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
 import org.apache.hc.core5.http.ClassicHttpResponse;
 import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.UUID;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static java.util.function.Function.identity;
-import static java.util.stream.Collectors.toMap;
+import static java.util.Collections.singletonList;
 import static no.digipost.api.client.internal.http.response.HttpResponseUtils.checkResponse;
 import static no.digipost.api.client.representations.MediaTypes.DIGIPOST_MULTI_MEDIA_SUB_TYPE_V8;
 import static no.digipost.api.client.util.JAXBContextUtils.jaxbContext;
@@ -57,10 +70,12 @@ public class ArchiveDeliverer {
 
     private final ArchiveApi apiService;
     private final EventLogger eventLogger;
+    private final Optional<ArchiveDeduplicationIndex> deduplicationIndex;
 
     public ArchiveDeliverer(DigipostClientConfig config, ArchiveApi apiService) {
         this.eventLogger = config.eventLogger.withDebugLogTo(LOG);
         this.apiService  = apiService;
+        this.deduplicationIndex = config.archiveDeduplicationIndex;
     }
 
     public ArchiveApi.ArchivingDocuments createArchive(Archive archive) {
@@ -69,12 +84,68 @@ public class ArchiveDeliverer {
 
     /**
      * Sender melding med alle dokumenter og innhold med én API-forespørsel (HTTP multipart request).
+     * Dersom deduplisering er slått på, lastes bare dokumenter med nytt innhold opp, mens dokumenter
+     * med innhold som allerede er arkivert legges til som referanser til det eksisterende arkivdokumentet.
+     * Arkiv for en {@link Archive#getSenderOrganization() avsenderorganisasjon} dedupliseres ikke, fordi
+     * referanser bare kan legges til på vegne av en {@link SenderId}.
      */
     public Archive sendMultipartMessage(Archive archive, Map<UUID, DocumentContent> documentsAndContent) {
+        if (deduplicationIndex.isPresent() && archive.getSenderOrganization() == null) {
+            return sendDeduplicated(archive, documentsAndContent, deduplicationIndex.get());
+        }
+        return upload(archive, documentsAndContent);
+    }
 
-        final Map<ArchiveDocument, InputStream> documentInputStream = archive.getDocuments().stream()
-                .collect(toMap(identity(), (doc) -> documentsAndContent.get(doc.getUuid()).getDigipostContent()));
+    private Archive sendDeduplicated(Archive archive, Map<UUID, DocumentContent> documentsAndContent, ArchiveDeduplicationIndex index) {
+        SenderId senderId = archive.getSenderId() != null ? SenderId.of(archive.getSenderId()) : null;
+        Map<UUID, DocumentContent> spooledContent = new HashMap<>();
+        Map<UUID, String> contentKeys = new HashMap<>();
+        Map<String, ArchiveDocument> uploadedByKey = new LinkedHashMap<>();
+        List<ArchiveDocument> references = new ArrayList<>();
+        for (ArchiveDocument document : archive.getDocuments()) {
+            ContentSource content = spool(documentsAndContent.get(document.getUuid()).getDigipostSource());
+            spooledContent.put(document.getUuid(), DocumentContent.CreateDigiPostContent(content));
+            String key = contentKey(archive, content);
+            contentKeys.put(document.getUuid(), key);
+            if (index.get(key).isPresent() || uploadedByKey.containsKey(key)) {
+                references.add(document);
+            } else {
+                uploadedByKey.put(key, document);
+            }
+        }
 
+        List<ArchiveDocument> archived = new ArrayList<>();
+        if (!uploadedByKey.isEmpty()) {
+            Archive uploaded = upload(withDocuments(archive, new ArrayList<>(uploadedByKey.values())), spooledContent);
+            uploadedByKey.forEach((key, document) -> index.put(key, document.getUuid()));
+            archived.addAll(uploaded.getDocuments());
+        }
+        for (ArchiveDocument document : references) {
+            String key = contentKeys.get(document.getUuid());
+            UUID existing = index.get(key).get();
+            Optional<ArchiveDocument> referenced;
+            try {
+                referenced = apiService.addUniqueUUIDToArchiveDocument(senderId, existing, document.getUuid()).getDocuments().stream()
+                        .filter(d -> document.getUuid().equals(d.getUuid())).findFirst();
+                eventLogger.log("Innholdet i arkivdokument " + document.getUuid() + " er allerede arkivert som " + existing + ", og ble lagt til som referanse");
+            } catch (DigipostClientException e) {
+                eventLogger.log("Kunne ikke legge til " + document.getUuid() + " som referanse til " + existing + ", laster opp innholdet. " + e.getMessage());
+                index.remove(key);
+                Archive uploaded = upload(withDocuments(archive, singletonList(document)), spooledContent);
+                index.put(key, document.getUuid());
+                archived.addAll(uploaded.getDocuments());
+                continue;
+            }
+            if (referenced.isPresent() && differsFromReference(document, referenced.get())) {
+                archived.add(apiService.saveArchiveDocument(document, referenced.get().getUpdate()));
+            } else {
+                referenced.ifPresent(archived::add);
+            }
+        }
+        return new Archive(archive.getSenderOrganization(), archive.getSenderId(), archive.getName(), null, archived);
+    }
+
+    private Archive upload(Archive archive, Map<UUID, DocumentContent> documentsAndContent) {
         try {
             ByteArrayOutputStream bao = new ByteArrayOutputStream();
             marshal(jaxbContext, archive, bao);
@@ -88,19 +159,19 @@ public class ArchiveDeliverer {
                             .addField("Content-Disposition", "attachment;" + " filename=\"archive\"")
                             .build());
 
-            for (Entry<ArchiveDocument, InputStream> documentAndContent : documentInputStream.entrySet()) {
-                ArchiveDocument document = documentAndContent.getKey();
-                InputStream content = documentAndContent.getValue();
-
-
-                byte[] bytes = IOUtils.toByteArray(content);
+            for (ArchiveDocument document : archive.getDocuments()) {
+                ContentSource content = documentsAndContent.get(document.getUuid()).getDigipostSource();
+                ContentType contentType = ContentType.create(defaultIfBlank(document.getContentType(), "application/octet-stream"));
                 multipartEntity = multipartEntity
                         .addPart(FormBodyPartBuilder
-                                .create("application", new ByteArrayBody(bytes, ContentType.create(defaultIfBlank(document.getContentType(), "application/octet-stream")), document.uuid.toString()))
+                                .create("application", contentBody(content, contentType, document.uuid.toString()))
                                 .addField("Content-Disposition", "attachment;" + " filename=\"" + document.uuid.toString() + "\"").build());
             }
             eventLogger.log("*** STARTER INTERAKSJON MED API: Arkiverer filer ***");
-            try (ClassicHttpResponse response = apiService.sendMultipartArchive(multipartEntity.build())) {
+            HttpEntity multipart = multipartEntity.build();
+            try (ClassicHttpResponse response = archive.getSenderId() != null
+                    ? apiService.sendMultipartArchive(SenderId.of(archive.getSenderId()), multipart)
+                    : apiService.sendMultipartArchive(multipart)) {
                 checkResponse(response, eventLogger);
 
                 eventLogger.log("Arkivdokumentet ble sendt. Status: [" + response + "]");
@@ -116,5 +187,66 @@ public class ArchiveDeliverer {
         }
     }
 
+    /**
+     * Innhold som bare kan leses én gang må leses inn i minnet, slik at det både kan
+     * beregnes digest av og lastes opp.
+     */
+    private static ContentSource spool(ContentSource content) {
+        if (content.isRepeatable()) {
+            return content;
+        }
+        try (InputStream stream = content.openStream()) {
+            return ContentSource.of(IOUtils.toByteArray(stream));
+        } catch (IOException e) {
+            throw new DigipostClientException(ErrorCode.GENERAL_ERROR, e);
+        }
+    }
+
+    private static String contentKey(Archive archive, ContentSource content) {
+        byte[] digest;
+        try {
+            digest = Digester.sha256.createDigest(out -> {
+                try (InputStream stream = content.openStream()) {
+                    stream.transferTo(out);
+                }
+            });
+        } catch (IOException e) {
+            throw new DigipostClientException(ErrorCode.GENERAL_ERROR, e);
+        }
+        String sender = archive.getSenderId() != null ? String.valueOf(archive.getSenderId()) : "-";
+        String archiveName = archive.getName() != null ? URLEncoder.encode(archive.getName(), UTF_8) : "-";
+        return sender + "/" + archiveName + "/" + Base64.getEncoder().encodeToString(digest);
+    }
+
+    private static Archive withDocuments(Archive archive, List<ArchiveDocument> documents) {
+        return new Archive(archive.getSenderOrganization(), archive.getSenderId(), archive.getName(), null, documents);
+    }
+
+    /**
+     * En referanse får filnavnet og filtypen til dokumentet den refererer til, så disse må
+     * lagres på referansen om de er forskjellige, i tillegg til eventuelle metadata.
+     */
+    private static boolean differsFromReference(ArchiveDocument document, ArchiveDocument reference) {
+        return document.getReferenceid() != null || document.getDeletionTime() != null
+                || (document.getAttributes() != null && !document.getAttributes().isEmpty())
+                || !Objects.equals(document.getFileName(), reference.getFileName())
+                || !Objects.equals(document.getFileType(), reference.getFileType());
+    }
+
+    /**
+     * Innhold med kjent lengde strømmes fra kilden, slik at det ikke må holdes i minnet.
+     */
+    private static ContentBody contentBody(ContentSource content, ContentType contentType, String filename) throws IOException {
+        Optional<Path> file = content.file();
+        if (file.isPresent()) {
+            return new FileChannelBody(file.get(), contentType, filename);
+        }
+        if (content.isRepeatable() && content.length().isPresent()) {
+            return new ContentSourceBody(content, content.length().getAsLong(), contentType, filename);
+        }
+        try (InputStream stream = content.openStream()) {
+            return new ByteArrayBody(IOUtils.toByteArray(stream), contentType, filename);
+        }
+    }
 
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.delivery;
+
+import no.digipost.api.client.security.Digester;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Identifies document content by its SHA-256 digest, together with the settings the
+ * content is validated with.
+ */
+final class ContentDigestKey {
+
+    static ContentDigestKey forPdf(byte[] content, PdfValidationOptions options) {
+        return new ContentDigestKey(Digester.sha256.createDigest(content), options, false);
+    }
+
+    static ContentDigestKey forHtml(byte[] content, boolean failOnHtmlDiff) {
+        return new ContentDigestKey(Digester.sha256.createDigest(content), null, failOnHtmlDiff);
+    }
+
+    private final byte[] digest;
+    private final PdfValidationOptions pdfValidationOptions;
+    private final boolean failOnHtmlDiff;
+    private final int hashCode;
+
+    private ContentDigestKey(byte[] digest, PdfValidationOptions pdfValidationOptions, boolean failOnHtmlDiff) {
+        this.digest = digest;
+        this.pdfValidationOptions = pdfValidationOptions;
+        this.failOnHtmlDiff = failOnHtmlDiff;
+        this.hashCode = 31 * Arrays.hashCode(digest) + Objects.hash(pdfValidationOptions, failOnHtmlDiff);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof ContentDigestKey) {
+            ContentDigestKey that = (ContentDigestKey) obj;
+            return Arrays.equals(this.digest, that.digest)
+                    && Objects.equals(this.pdfValidationOptions, that.pdfValidationOptions)
+                    && this.failOnHtmlDiff == that.failOnHtmlDiff;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
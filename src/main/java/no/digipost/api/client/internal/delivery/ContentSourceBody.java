@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.delivery;
+
+import no.digipost.api.client.delivery.ContentSource;
+import org.apache.hc.client5.http.entity.mime.AbstractContentBody;
+import org.apache.hc.core5.http.ContentType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A multipart body part which streams its content from a {@link ContentSource} of known length.
+ * As the length is known, the multipart entity is repeatable, and the content is read again
+ * each time the entity is written, instead of being kept in memory.
+ */
+final class ContentSourceBody extends AbstractContentBody {
+
+    private final ContentSource content;
+    private final long length;
+    private final String filename;
+
+    ContentSourceBody(ContentSource content, long length, ContentType contentType, String filename) {
+        super(contentType);
+        this.content = content;
+        this.length = length;
+        this.filename = filename;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        try (InputStream in = content.openStream()) {
+            in.transferTo(out);
+        }
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+}
@@ -15,18 +15,30 @@
  */
 package no.digipost.api.client.internal.delivery;
 
+import no.digipost.api.client.delivery.ContentSource;
+
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 
 final class DocumentContent {
-    private final InputStream digipostContent;
-    private final InputStream printContent;
+    private final ContentSource digipostContent;
+    private final ContentSource printContent;
 
-    private DocumentContent(InputStream digipostContent, InputStream printContent){
+    private DocumentContent(ContentSource digipostContent, ContentSource printContent){
         this.digipostContent = digipostContent;
         this.printContent = printContent;
     }
 
     public InputStream getPrintContent(){
+        return open(getPrintSource());
+    }
+
+    public InputStream getDigipostContent(){
+        return open(getDigipostSource());
+    }
+
+    public ContentSource getPrintSource(){
         if(printContent == null){
             throw new IllegalAccessError("Content ikke tilgjengelig, dette er et digipost DocumentContent");
         }
@@ -34,7 +46,7 @@ final class DocumentContent {
         return printContent;
     }
 
-    public InputStream getDigipostContent(){
+    public ContentSource getDigipostSource(){
         if(digipostContent == null){
             throw new IllegalAccessError("Content ikke tilgjengelig, dette er et print DocumentContent");
         }
@@ -42,19 +54,47 @@ final class DocumentContent {
         return digipostContent;
     }
 
+    private static InputStream open(ContentSource content) {
+        try {
+            return content.openStream();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Kunne ikke lese innhold, fordi " + e.getMessage(), e);
+        }
+    }
+
     public static DocumentContent CreateDigiPostContent(InputStream content){
+        return CreateDigiPostContent(ContentSource.singleUse(content));
+    }
+
+    public static DocumentContent CreateDigiPostContent(ContentSource content){
         return new DocumentContent(content, null);
     }
 
     public static DocumentContent CreatePrintContent(InputStream content){
+        return CreatePrintContent(ContentSource.singleUse(content));
+    }
+
+    public static DocumentContent CreatePrintContent(ContentSource content){
         return new DocumentContent(null, content);
     }
 
     public static DocumentContent CreateMultiStreamContent(InputStream digipostContent, InputStream printContent){
+        return CreateMultiStreamContent(ContentSource.singleUse(digipostContent), ContentSource.singleUse(printContent));
+    }
+
+    public static DocumentContent CreateMultiStreamContent(ContentSource digipostContent, ContentSource printContent){
         return new DocumentContent(digipostContent, printContent);
     }
 
     public static DocumentContent CreateBothStreamContent(InputStream content){
+        return CreateBothStreamContent(ContentSource.singleUse(content));
+    }
+
+    /**
+     * Unlike a single {@code InputStream}, the same {@link ContentSource} can be
+     * read for both channels, as each read opens a new stream.
+     */
+    public static DocumentContent CreateBothStreamContent(ContentSource content){
         return new DocumentContent(content, content);
     }
 }
@@ -15,15 +15,16 @@
  */
 package no.digipost.api.client.internal.delivery;
 
+import no.digipost.api.client.CacheStatistics;
 import no.digipost.api.client.DigipostClientConfig;
 import no.digipost.api.client.errorhandling.DigipostClientException;
 import no.digipost.api.client.errorhandling.ErrorCode;
+import no.digipost.api.client.internal.LruCache;
 import no.digipost.api.client.representations.Channel;
 import no.digipost.api.client.representations.Document;
 import no.digipost.api.client.representations.Message;
 import no.digipost.api.client.security.Encrypter;
 import no.digipost.print.validate.PdfValidationResult;
-import no.digipost.print.validate.PdfValidationSettings;
 import no.digipost.print.validate.PdfValidator;
 import no.digipost.sanitizing.HtmlValidationResult;
 import no.digipost.sanitizing.HtmlValidator;
@@ -33,9 +34,12 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Supplier;
 
 import static java.util.Optional.empty;
@@ -54,37 +58,104 @@ class DocumentsPreparer {
 
     private final PdfValidator pdfValidator;
     private final HtmlValidator htmlValidator;
+    private final Optional<LruCache<ContentDigestKey, PdfValidationResult>> pdfValidationCache;
+    private final Optional<LruCache<ContentDigestKey, HtmlValidationResult>> htmlValidationCache;
+
+    DocumentsPreparer(DigipostClientConfig config) {
+        this(new PdfValidator(), new HtmlValidator(), config.pdfValidationCacheSize, config.htmlValidationCacheSize);
+    }
 
     DocumentsPreparer(PdfValidator pdfValidator, HtmlValidator htmlValidator) {
+        this(pdfValidator, htmlValidator, 0, 0);
+    }
+
+    DocumentsPreparer(PdfValidator pdfValidator, HtmlValidator htmlValidator, int pdfValidationCacheSize, int htmlValidationCacheSize) {
         this.pdfValidator = pdfValidator;
         this.htmlValidator = htmlValidator;
+        this.pdfValidationCache = pdfValidationCacheSize > 0 ? Optional.of(new LruCache<>(pdfValidationCacheSize)) : empty();
+        this.htmlValidationCache = htmlValidationCacheSize > 0 ? Optional.of(new LruCache<>(htmlValidationCacheSize)) : empty();
+    }
+
+    Optional<CacheStatistics> getPdfValidationCacheStatistics() {
+        return pdfValidationCache.map(cache -> cache.statistics("pdf-validation"));
+    }
+
+    Optional<CacheStatistics> getHtmlValidationCacheStatistics() {
+        return htmlValidationCache.map(cache -> cache.statistics("html-validation"));
     }
 
     Map<Document, InputStream> prepare(
             Map<Document, InputStream> documentsAndContent, Message message,
-            Encrypter encrypter, Supplier<PdfValidationSettings> pdfValidationSettings, DigipostClientConfig config) throws IOException {
-
-        final Map<Document, InputStream> prepared = new LinkedHashMap<>();
+            Encrypter encrypter, Supplier<PdfValidationOptions> pdfValidationSettings, DigipostClientConfig config) throws IOException {
 
+        final Supplier<PdfValidationOptions> resolvedOnce = resolvedOnce(pdfValidationSettings);
+        final Map<Document, CompletableFuture<InputStream>> preparing = new LinkedHashMap<>();
         for (Document document : (Iterable<Document>) documentsAndContent.keySet().stream().sorted(message.documentOrder())::iterator) {
+            InputStream content = documentsAndContent.get(document);
             if (document.willBeEncrypted()) {
-                byte[] byteContent = toByteArray(documentsAndContent.get(document));
-                LOG.debug("Validerer dokument med uuid '{}' før kryptering", document.uuid);
-                validateAndSetNrOfPages(message.getChannel(), document, byteContent, pdfValidationSettings);
-                validateHtml(document, byteContent, config);
-                LOG.debug("Krypterer innhold for dokument med uuid '{}'", document.uuid);
-                prepared.put(document, encrypter.encrypt(byteContent));
+                preparing.put(document, CompletableFuture.supplyAsync(
+                        () -> validateAndEncrypt(document, content, message, encrypter, resolvedOnce, config), config.documentPreparationExecutor));
             } else {
-                prepared.put(document, documentsAndContent.get(document));
+                preparing.put(document, CompletableFuture.completedFuture(content));
+            }
+        }
+
+        final Map<Document, InputStream> prepared = new LinkedHashMap<>();
+        for (Map.Entry<Document, CompletableFuture<InputStream>> preparedDocument : preparing.entrySet()) {
+            try {
+                prepared.put(preparedDocument.getKey(), preparedDocument.getValue().join());
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) cause).getCause();
+                }
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : e;
             }
         }
         return prepared;
     }
 
+    private InputStream validateAndEncrypt(
+            Document document, InputStream content, Message message,
+            Encrypter encrypter, Supplier<PdfValidationOptions> pdfValidationSettings, DigipostClientConfig config) {
+
+        byte[] byteContent;
+        try {
+            byteContent = toByteArray(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        LOG.debug("Validerer dokument med uuid '{}' før kryptering", document.uuid);
+        validateAndSetNrOfPages(message.getChannel(), document, byteContent, pdfValidationSettings);
+        validateHtml(document, byteContent, config);
+        LOG.debug("Krypterer innhold for dokument med uuid '{}'", document.uuid);
+        return encrypter.encrypt(byteContent);
+    }
+
+    /**
+     * The settings may require a request to the API, which should be done at most once
+     * even if several documents are validated concurrently.
+     */
+    private static <T> Supplier<T> resolvedOnce(Supplier<T> supplier) {
+        return new Supplier<T>() {
+            private T resolved;
+
+            @Override
+            public synchronized T get() {
+                if (resolved == null) {
+                    resolved = supplier.get();
+                }
+                return resolved;
+            }
+        };
+    }
+
     void validateHtml(Document document, byte[] content, DigipostClientConfig config) {
         HtmlValidationResult htmlValidation = HTML_EVERYTHING_OK;
         if (document.is(HTML) || document.is(HTM)) {
-            htmlValidation = htmlValidator.valider(content);
+            htmlValidation = htmlValidationCache
+                    .map(cache -> cache.get(ContentDigestKey.forHtml(content, config.failOnHtmlDiff), () -> htmlValidator.valider(content)))
+                    .orElseGet(() -> htmlValidator.valider(content));
         }
 
         if (!htmlValidation.okForWeb) {
@@ -99,7 +170,7 @@ class DocumentsPreparer {
         }
     }
 
-    Optional<PdfInfo> validateAndSetNrOfPages(Channel channel, Document document, byte[] content, Supplier<PdfValidationSettings> pdfValidationSettings) {
+    Optional<PdfInfo> validateAndSetNrOfPages(Channel channel, Document document, byte[] content, Supplier<PdfValidationOptions> pdfValidationSettings) {
         if (channel == PRINT && !document.is(PDF)) {
             throw new DigipostClientException(ErrorCode.INVALID_PDF_CONTENT,
                     "PDF is required for direct-to-print messages. Document with uuid " + document.uuid + " had filetype " + document.getDigipostFileType());
@@ -109,7 +180,10 @@ class DocumentsPreparer {
         Optional<PdfInfo> pdfInfo;
         if (document.is(PDF)) {
             LOG.debug("Validerer PDF-dokument med uuid '{}'", document.uuid);
-            pdfValidation = pdfValidator.validate(content, pdfValidationSettings.get());
+            PdfValidationOptions options = pdfValidationSettings.get();
+            pdfValidation = pdfValidationCache
+                    .map(cache -> cache.get(ContentDigestKey.forPdf(content, options), () -> pdfValidator.validate(content, options.toSettings())))
+                    .orElseGet(() -> pdfValidator.validate(content, options.toSettings()));
             if (document.willBeEncrypted()) {
                 document.setNumberOfEncryptedPages(pdfValidation.pages);
             }
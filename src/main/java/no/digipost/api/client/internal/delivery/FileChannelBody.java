@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.delivery;
+
+import org.apache.hc.client5.http.entity.mime.AbstractContentBody;
+import org.apache.hc.core5.http.ContentType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * A multipart body part with the content of a file, which is transferred from the file
+ * channel each time the body is written, and is never read into memory as a whole.
+ */
+final class FileChannelBody extends AbstractContentBody {
+
+    private final Path file;
+    private final long length;
+    private final String filename;
+
+    FileChannelBody(Path file, ContentType contentType, String filename) {
+        super(contentType);
+        this.file = file;
+        this.filename = filename;
+        try {
+            this.length = Files.size(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Kunne ikke lese størrelsen på " + file + ", fordi " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        try (FileChannel source = FileChannel.open(file, READ)) {
+            long position = 0;
+            while (position < length) {
+                long transferred = source.transferTo(position, length - position, target);
+                if (transferred <= 0) {
+                    throw new IOException(file + " ble endret under overføring, forventet " + length + " bytes, men fikk " + position);
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+}
@@ -15,8 +15,11 @@
  */
 package no.digipost.api.client.internal.delivery;
 
+import no.digipost.api.client.CacheStatistics;
 import no.digipost.api.client.DigipostClientConfig;
 import no.digipost.api.client.EventLogger;
+import no.digipost.api.client.SenderId;
+import no.digipost.api.client.delivery.DeliveryJournal;
 import no.digipost.api.client.delivery.MessageDeliveryApi;
 import no.digipost.api.client.delivery.OngoingDelivery;
 import no.digipost.api.client.errorhandling.DigipostClientException;
@@ -33,10 +36,10 @@ import no.digipost.api.client.representations.Link;
 import no.digipost.api.client.representations.MediaTypes;
 import no.digipost.api.client.representations.Message;
 import no.digipost.api.client.representations.MessageDelivery;
+import no.digipost.api.client.representations.MessageStatus;
+import no.digipost.api.client.security.Digester;
 import no.digipost.api.client.security.DigipostPublicKey;
 import no.digipost.api.client.security.Encrypter;
-import no.digipost.print.validate.PdfValidator;
-import no.digipost.sanitizing.HtmlValidator;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.ByteArrayOutputStream;
@@ -46,6 +49,7 @@ import org.apache.hc.client5.http.entity.mime.HttpMultipartMode;
 import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
 import org.apache.hc.core5.http.ClassicHttpResponse;
 import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,9 +58,12 @@ import java.io.InputStream;
 import java.security.cert.X509Certificate;
 import java.time.Clock;
 import java.time.Instant;
+import java.util.Base64;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Stream;
@@ -64,9 +71,11 @@ import java.util.stream.Stream;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.time.Duration.ZERO;
 import static java.time.Duration.between;
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 import static no.digipost.api.client.internal.ExceptionUtils.asUnchecked;
 import static no.digipost.api.client.internal.http.response.HttpResponseUtils.checkResponse;
+import static no.digipost.api.client.internal.http.response.HttpResponseUtils.resourceAlreadyExists;
 import static no.digipost.api.client.representations.MediaTypes.DIGIPOST_MULTI_MEDIA_SUB_TYPE_V8;
 import static no.digipost.api.client.security.Encrypter.FAIL_IF_TRYING_TO_ENCRYPT;
 import static no.digipost.api.client.util.JAXBContextUtils.jaxbContext;
@@ -89,7 +98,11 @@ public class MessageDeliverer {
 
 
     public MessageDeliverer(DigipostClientConfig config, MessageDeliveryApi apiService) {
-        this(config, apiService, new DocumentsPreparer(new PdfValidator(), new HtmlValidator()));
+        this(config, apiService, new DocumentsPreparer(config));
+    }
+
+    public MessageDeliverer(DigipostClientConfig config, MessageDeliveryApi apiService, SharedDelivery shared) {
+        this(config, apiService, shared.documentsPreparer);
     }
 
     public MessageDeliverer(DigipostClientConfig config, MessageDeliveryApi apiService, DocumentsPreparer documentsPreparer) {
@@ -100,6 +113,15 @@ public class MessageDeliverer {
         this.clock = config.clock;
     }
 
+    /**
+     * @return usage statistics of the enabled caches of document validation results.
+     */
+    public List<CacheStatistics> getValidationCacheStatistics() {
+        return Stream.of(documentsPreparer.getPdfValidationCacheStatistics(), documentsPreparer.getHtmlValidationCacheStatistics())
+                .flatMap(statistics -> statistics.map(Stream::of).orElseGet(Stream::empty))
+                .collect(toList());
+    }
+
     public OngoingDelivery.WithPrintFallback createMessage(Message message) {
         return new WithPrintFallback(message, this);
     }
@@ -116,6 +138,31 @@ public class MessageDeliverer {
      * krypteringsnøkkel.
      */
     public MessageDelivery sendMultipartMessage(Message message, Map<UUID, DocumentContent> documentsAndContent) {
+        if (!config.deliveryJournal.isPresent()) {
+            return sendMultipartMessage(message, documentsAndContent, Optional.empty(), false);
+        }
+        DeliveryJournal journal = config.deliveryJournal.get();
+        Optional<DeliveryJournal.Entry> journalEntry = journal.get(message.messageId);
+        if (config.resumeFromDeliveryJournal) {
+            Optional<MessageDelivery> alreadyDelivered = journalEntry.flatMap(DeliveryJournal.Entry::getDelivery);
+            if (alreadyDelivered.isPresent()) {
+                eventLogger.log("Melding med ID " + message.messageId + " er allerede levert i følge journalen, og blir ikke sendt på nytt");
+                return alreadyDelivered.get();
+            }
+        }
+
+        String fingerprint = fingerprint(message);
+        boolean identicalToJournaled = journalEntry.map(entry -> fingerprint.equals(entry.fingerprint)).orElse(false);
+        journal.recordIntent(message.messageId, fingerprint);
+        try {
+            return sendMultipartMessage(message, documentsAndContent, Optional.of(journal), config.resumeFromDeliveryJournal && identicalToJournaled);
+        } catch (RuntimeException e) {
+            journal.recordFailed(message.messageId, DigipostClientException.from(e).getErrorCode());
+            throw e;
+        }
+    }
+
+    private MessageDelivery sendMultipartMessage(Message message, Map<UUID, DocumentContent> documentsAndContent, Optional<DeliveryJournal> journal, boolean conflictMeansAlreadyReceived) {
         EncrypterAndDocsWithInputstream encryptionAndInputStream = createEncrypterIfNecessaryAndMapContentToInputstream(message, documentsAndContent);
         final Set<UUID> picketUp = encryptionAndInputStream.documentsAndInputstream.keySet().stream().map(e -> e.uuid).collect(toSet());
         final Set<UUID> given = documentsAndContent.keySet().stream().filter(g -> !picketUp.contains(g)).collect(toSet());
@@ -129,7 +176,7 @@ public class MessageDeliverer {
 
         try {
             Map<Document, InputStream> preparedDocuments = documentsPreparer.prepare(
-                    documentInputStream, singleChannelMessage, encryptionAndInputStream.encrypter, () -> apiService.getSenderInformation(message).getPdfValidationSettings(), config);
+                    documentInputStream, singleChannelMessage, encryptionAndInputStream.encrypter, () -> PdfValidationOptions.of(apiService.getSenderInformation(message)), config);
 
             ByteArrayOutputStream bao = new ByteArrayOutputStream();
             marshal(jaxbContext, singleChannelMessage, bao);
@@ -155,12 +202,22 @@ public class MessageDeliverer {
                         .addField("Content-Disposition", "attachment;" + " filename=\"" + document.uuid.toString() + "\"").build());
             }
             eventLogger.log("*** STARTER INTERAKSJON MED API: SENDER MELDING MED ID " + singleChannelMessage.messageId + " ***");
-            try (ClassicHttpResponse response = apiService.sendMultipartMessage(multipartEntity.build())) {
+            HttpEntity multipart = multipartEntity.build();
+            try (ClassicHttpResponse response = singleChannelMessage.senderId != null
+                    ? apiService.sendMultipartMessage(SenderId.of(singleChannelMessage.senderId), multipart)
+                    : apiService.sendMultipartMessage(multipart)) {
+                if (conflictMeansAlreadyReceived && resourceAlreadyExists(response)) {
+                    eventLogger.log("Brevet med ID " + singleChannelMessage.messageId + " er allerede mottatt av Digipost i et tidligere forsøk. Status: [" + response + "]");
+                    journal.ifPresent(j -> j.recordReceived(singleChannelMessage.messageId, singleChannelMessage.getChannel()));
+                    return new MessageDelivery(singleChannelMessage.messageId, singleChannelMessage.getChannel(), MessageStatus.COMPLETE, null);
+                }
                 checkResponse(response, eventLogger);
 
                 eventLogger.log("Brevet ble sendt. Status: [" + response + "]");
 
-                return unmarshal(jaxbContext, response.getEntity().getContent(), MessageDelivery.class);
+                MessageDelivery delivery = unmarshal(jaxbContext, response.getEntity().getContent(), MessageDelivery.class);
+                journal.ifPresent(j -> j.recordDelivered(delivery));
+                return delivery;
 
             } catch (IOException e) {
                 throw new DigipostClientException(ErrorCode.GENERAL_ERROR, e.getMessage());
@@ -172,6 +229,13 @@ public class MessageDeliverer {
     }
 
 
+    private static String fingerprint(Message message) {
+        ByteArrayOutputStream bao = new ByteArrayOutputStream();
+        marshal(jaxbContext, message, bao);
+        return Base64.getEncoder().encodeToString(Digester.sha256.createDigest(bao.toByteArray()));
+    }
+
+
     public void addData(AddDataLink addDataLink, AdditionalData data) {
         eventLogger.log("*** STARTER INTERAKSJON MED API: LEGGER TIL DATA PÅ DOKUMENT ***");
         try (ClassicHttpResponse response = apiService.addData(addDataLink, data)) {
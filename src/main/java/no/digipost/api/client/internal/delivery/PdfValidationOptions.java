@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.delivery;
+
+import no.digipost.api.client.representations.sender.SenderFeature;
+import no.digipost.api.client.representations.sender.SenderInformation;
+import no.digipost.print.validate.PdfValidationSettings;
+
+import java.util.Objects;
+
+import static no.digipost.api.client.representations.sender.SenderFeatureName.PRINTVALIDATION_FONTS;
+import static no.digipost.api.client.representations.sender.SenderFeatureName.PRINTVALIDATION_MARGINS_LEFT;
+import static no.digipost.api.client.representations.sender.SenderFeatureName.PRINTVALIDATION_NEGATIVE_BLEED;
+import static no.digipost.api.client.representations.sender.SenderFeatureName.PRINTVALIDATION_PAGEAMOUNT;
+import static no.digipost.api.client.representations.sender.SenderFeatureName.PRINTVALIDATION_PDFVERSION;
+import static no.digipost.api.client.representations.sender.SenderFeatureName.PRINTVALIDATION_POSITIVE_BLEED;
+import static no.digipost.print.validate.PdfValidationSettings.DEFAULT_NEGATIVE_BLEED_MM;
+import static no.digipost.print.validate.PdfValidationSettings.DEFAULT_POSITIVE_BLEED_MM;
+
+/**
+ * The options to validate PDF documents with, as a value which can be compared and used as
+ * part of a cache key, as {@link PdfValidationSettings} does not implement equals, nor expose
+ * the options it is created with. The {@link SenderInformation#getPdfValidationSettings() settings of a sender}
+ * are created from these options, so that they are derived from the sender features in one place only.
+ */
+public final class PdfValidationOptions {
+
+    static final PdfValidationOptions CHECK_ALL = new PdfValidationOptions(true, true, true, true, DEFAULT_POSITIVE_BLEED_MM, DEFAULT_NEGATIVE_BLEED_MM);
+
+    public static PdfValidationOptions of(SenderInformation senderInformation) {
+        SenderFeature positiveBleed = senderInformation.get(PRINTVALIDATION_POSITIVE_BLEED);
+        SenderFeature negativeBleed = senderInformation.get(PRINTVALIDATION_NEGATIVE_BLEED);
+        return new PdfValidationOptions(
+                senderInformation.hasEnabled(PRINTVALIDATION_MARGINS_LEFT),
+                senderInformation.hasEnabled(PRINTVALIDATION_FONTS),
+                senderInformation.hasEnabled(PRINTVALIDATION_PAGEAMOUNT),
+                senderInformation.hasEnabled(PRINTVALIDATION_PDFVERSION),
+                positiveBleed != null ? positiveBleed.getIntParam() : DEFAULT_POSITIVE_BLEED_MM,
+                negativeBleed != null ? negativeBleed.getIntParam() : DEFAULT_NEGATIVE_BLEED_MM);
+    }
+
+    final boolean validateLeftMargin;
+    final boolean validateFonts;
+    final boolean validateNumberOfPages;
+    final boolean validatePdfVersion;
+    final int positiveBleedMm;
+    final int negativeBleedMm;
+    private final PdfValidationSettings settings;
+
+    PdfValidationOptions(boolean validateLeftMargin, boolean validateFonts, boolean validateNumberOfPages, boolean validatePdfVersion,
+                         int positiveBleedMm, int negativeBleedMm) {
+        this.validateLeftMargin = validateLeftMargin;
+        this.validateFonts = validateFonts;
+        this.validateNumberOfPages = validateNumberOfPages;
+        this.validatePdfVersion = validatePdfVersion;
+        this.positiveBleedMm = positiveBleedMm;
+        this.negativeBleedMm = negativeBleedMm;
+        this.settings = new PdfValidationSettings(validateLeftMargin, validateFonts, validateNumberOfPages, validatePdfVersion, positiveBleedMm, negativeBleedMm);
+    }
+
+    public PdfValidationSettings toSettings() {
+        return settings;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof PdfValidationOptions) {
+            PdfValidationOptions that = (PdfValidationOptions) obj;
+            return this.validateLeftMargin == that.validateLeftMargin
+                    && this.validateFonts == that.validateFonts
+                    && this.validateNumberOfPages == that.validateNumberOfPages
+                    && this.validatePdfVersion == that.validatePdfVersion
+                    && this.positiveBleedMm == that.positiveBleedMm
+                    && this.negativeBleedMm == that.negativeBleedMm;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(validateLeftMargin, validateFonts, validateNumberOfPages, validatePdfVersion, positiveBleedMm, negativeBleedMm);
+    }
+
+    @Override
+    public String toString() {
+        return "PDF validation of left margin: " + validateLeftMargin + ", fonts: " + validateFonts + ", number of pages: " + validateNumberOfPages
+                + ", PDF version: " + validatePdfVersion + ", bleed: +" + positiveBleedMm + "/-" + negativeBleedMm + " mm";
+    }
+}
@@ -16,6 +16,7 @@
 package no.digipost.api.client.internal.delivery;
 
 import no.digipost.api.client.archive.ArchiveApi;
+import no.digipost.api.client.delivery.ContentSource;
 import no.digipost.api.client.representations.archive.Archive;
 import no.digipost.api.client.representations.archive.ArchiveDocument;
 
@@ -36,6 +37,11 @@ public class PerformingArchivingDocuments implements ArchiveApi.ArchivingDocumen
 
     @Override
     public ArchiveApi.ArchivingDocuments addFile(ArchiveDocument document, InputStream content) {
+        return addFile(document, ContentSource.singleUse(content));
+    }
+
+    @Override
+    public ArchiveApi.ArchivingDocuments addFile(ArchiveDocument document, ContentSource content) {
         documents.put(document.uuid, DocumentContent.CreateBothStreamContent(content));
         return this;
     }
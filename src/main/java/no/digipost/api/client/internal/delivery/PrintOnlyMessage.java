@@ -15,6 +15,7 @@
  */
 package no.digipost.api.client.internal.delivery;
 
+import no.digipost.api.client.delivery.ContentSource;
 import no.digipost.api.client.delivery.OngoingDelivery;
 import no.digipost.api.client.representations.Document;
 import no.digipost.api.client.representations.Message;
@@ -53,6 +54,16 @@ final class PrintOnlyMessage implements OngoingDelivery.SendableForPrintOnly {
      */
     @Override
     public PrintOnlyMessage addContent(Document document, InputStream content) {
+        return addContent(document, ContentSource.singleUse(content));
+    }
+
+    /**
+     * Laster opp innhold til et dokument. Merk: må være PDF-format.
+     *
+     * @return videre operasjoner for å fullføre leveransen.
+     */
+    @Override
+    public PrintOnlyMessage addContent(Document document, ContentSource content) {
         documents.put(document.uuid, DocumentContent.CreatePrintContent(content));
         return this;
     }
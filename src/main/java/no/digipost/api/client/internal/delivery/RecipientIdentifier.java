@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.delivery;
+
+import no.digipost.api.client.CacheStatistics;
+import no.digipost.api.client.DigipostClientConfig;
+import no.digipost.api.client.delivery.RecipientIdentificationResult;
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import no.digipost.api.client.internal.ConcurrentStream;
+import no.digipost.api.client.internal.LruCache;
+import no.digipost.api.client.representations.Identification;
+import no.digipost.api.client.representations.IdentificationResult;
+
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Identifies many recipients concurrently, with a bounded number of identifications in progress,
+ * and optionally caches the results.
+ */
+public final class RecipientIdentifier {
+
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+
+    private final Function<Identification, IdentificationResult> identifyRecipient;
+    private final Optional<LruCache<Identification, IdentificationResult>> cache;
+
+    public RecipientIdentifier(DigipostClientConfig config, Function<Identification, IdentificationResult> identifyRecipient) {
+        this(identificationCache(config), identifyRecipient);
+    }
+
+    public RecipientIdentifier(SharedDelivery shared, Function<Identification, IdentificationResult> identifyRecipient) {
+        this(shared.identificationCache, identifyRecipient);
+    }
+
+    private RecipientIdentifier(Optional<LruCache<Identification, IdentificationResult>> cache, Function<Identification, IdentificationResult> identifyRecipient) {
+        this.identifyRecipient = identifyRecipient;
+        this.cache = cache;
+    }
+
+    static Optional<LruCache<Identification, IdentificationResult>> identificationCache(DigipostClientConfig config) {
+        return config.identificationCacheSize > 0
+                ? Optional.of(new LruCache<>(config.identificationCacheSize, config.identificationCacheTimeToLive, config.clock))
+                : Optional.empty();
+    }
+
+    public Optional<CacheStatistics> getCacheStatistics() {
+        return cache.map(c -> c.statistics("identification"));
+    }
+
+    /**
+     * The identifications are consumed from the given stream as the results are consumed from the
+     * returned stream, so only the identifications in progress are held in memory. Results found in the
+     * cache are available immediately, and the others in the order the identifications complete.
+     *
+     * @see ConcurrentStream#map
+     */
+    public Stream<RecipientIdentificationResult> identifyAll(Stream<Identification> identifications, int maxConcurrentRequests) {
+        return ConcurrentStream.map(identifications, this::cached, this::identify, maxConcurrentRequests, "digipost-identification");
+    }
+
+    private Optional<RecipientIdentificationResult> cached(Identification identification) {
+        return cache.flatMap(c -> c.getIfPresent(identification.normalized()))
+                .map(result -> RecipientIdentificationResult.success(identification, result, true));
+    }
+
+    private RecipientIdentificationResult identify(Identification identification) {
+        try {
+            IdentificationResult result = identifyRecipient.apply(identification);
+            cache.ifPresent(c -> c.put(identification.normalized(), result));
+            return RecipientIdentificationResult.success(identification, result, false);
+        } catch (RuntimeException e) {
+            return RecipientIdentificationResult.failure(identification, DigipostClientException.from(e));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.delivery;
+
+import no.digipost.api.client.DigipostClientConfig;
+import no.digipost.api.client.internal.LruCache;
+import no.digipost.api.client.representations.Identification;
+import no.digipost.api.client.representations.IdentificationResult;
+
+import java.util.Optional;
+
+/**
+ * The validators of documents, and the caches of validation and identification results, which can be
+ * shared by the clients of several brokers, as the results do not depend on who is sending.
+ */
+public final class SharedDelivery {
+
+    final DocumentsPreparer documentsPreparer;
+    final Optional<LruCache<Identification, IdentificationResult>> identificationCache;
+
+    public SharedDelivery(DigipostClientConfig config) {
+        this.documentsPreparer = new DocumentsPreparer(config);
+        this.identificationCache = RecipientIdentifier.identificationCache(config);
+    }
+}
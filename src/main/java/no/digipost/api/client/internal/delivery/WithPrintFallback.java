@@ -15,6 +15,7 @@
  */
 package no.digipost.api.client.internal.delivery;
 
+import no.digipost.api.client.delivery.ContentSource;
 import no.digipost.api.client.delivery.OngoingDelivery;
 import no.digipost.api.client.representations.Document;
 import no.digipost.api.client.representations.Message;
@@ -50,12 +51,22 @@ final class WithPrintFallback implements OngoingDelivery.SendableWithPrintFallba
      */
     @Override
     public OngoingDelivery.SendableWithPrintFallback addContent(Document document, InputStream content) {
+        return addContent(document, ContentSource.singleUse(content));
+    }
+
+    @Override
+    public OngoingDelivery.SendableWithPrintFallback addContent(Document document, ContentSource content) {
         documents.put(document.uuid, DocumentContent.CreateBothStreamContent(content));
         return this;
     }
 
     @Override
     public OngoingDelivery.SendableWithPrintFallback addContent(Document document, InputStream content, InputStream printContent) {
+        return addContent(document, ContentSource.singleUse(content), ContentSource.singleUse(printContent));
+    }
+
+    @Override
+    public OngoingDelivery.SendableWithPrintFallback addContent(Document document, ContentSource content, ContentSource printContent) {
         documents.put(document.uuid, DocumentContent.CreateMultiStreamContent(content, printContent));
         return this;
     }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.http;
+
+import no.digipost.api.client.ConcurrencyLimitConfig;
+
+/**
+ * Limits the number of requests in progress, using additive increase and multiplicative decrease (AIMD)
+ * of the limit.
+ *
+ * @see ConcurrencyLimitConfig
+ */
+final class AdaptiveConcurrencyLimiter {
+
+    private final ConcurrencyLimitConfig config;
+    private double limit;
+    private int inProgress;
+
+    AdaptiveConcurrencyLimiter(ConcurrencyLimitConfig config) {
+        this.config = config;
+        this.limit = config.initialLimit;
+    }
+
+    /**
+     * @return {@code true} if a request may be sent, in which case the limiter must be {@link #release(boolean, long) released}
+     *         when the request has completed.
+     */
+    synchronized boolean tryAcquire() {
+        if (inProgress >= (int) limit) {
+            return false;
+        }
+        inProgress++;
+        return true;
+    }
+
+    synchronized void release(boolean overloaded, long durationNanos) {
+        int inProgressWhenCompleted = inProgress--;
+        if (overloaded || durationNanos > config.latencyThreshold.toNanos()) {
+            limit = Math.max(config.minLimit, limit * config.backoffRatio);
+        } else if (inProgressWhenCompleted * 2 >= limit) {
+            // only grow the limit when it is actually being used, not when the application sends few requests
+            limit = Math.min(config.maxLimit, limit + 1 / limit);
+        }
+    }
+
+    /**
+     * Release a request which was not sent after all, without adapting the limit.
+     */
+    synchronized void cancel() {
+        inProgress--;
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized int getInProgress() {
+        return inProgress;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.http;
+
+import no.digipost.api.client.CircuitBreakerConfig;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A circuit breaker with a count-based sliding window of the outcome of the latest requests.
+ *
+ * @see CircuitBreakerConfig
+ */
+final class CircuitBreaker {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final CircuitBreakerConfig config;
+    private final LongSupplier nanoTime;
+
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private int next;
+    private int recorded;
+    private int failures;
+    private int slowRequests;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int trialsStarted;
+    private int trialsSucceeded;
+
+    CircuitBreaker(String name, CircuitBreakerConfig config, LongSupplier nanoTime) {
+        this.name = name;
+        this.config = config;
+        this.nanoTime = nanoTime;
+        this.failed = new boolean[config.slidingWindowSize];
+        this.slow = new boolean[config.slidingWindowSize];
+    }
+
+    /**
+     * @return {@code true} if a request may be sent, in which case the outcome must be {@link #record(boolean, long) recorded}.
+     */
+    synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (nanoTime.getAsLong() - openedAt < config.openDuration.toNanos()) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            trialsStarted = 0;
+            trialsSucceeded = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialsStarted >= config.trialRequests) {
+                return false;
+            }
+            trialsStarted++;
+        }
+        return true;
+    }
+
+    synchronized void record(boolean failure, long durationNanos) {
+        boolean slowRequest = durationNanos >= config.slowRequestDuration.toNanos();
+        switch (state) {
+            case HALF_OPEN:
+                if (failure || slowRequest) {
+                    open();
+                } else if (++trialsSucceeded >= config.trialRequests) {
+                    close();
+                }
+                break;
+            case CLOSED:
+                if (recorded == failed.length) {
+                    failures -= failed[next] ? 1 : 0;
+                    slowRequests -= slow[next] ? 1 : 0;
+                } else {
+                    recorded++;
+                }
+                failed[next] = failure;
+                slow[next] = slowRequest;
+                failures += failure ? 1 : 0;
+                slowRequests += slowRequest ? 1 : 0;
+                next = (next + 1) % failed.length;
+                if (recorded >= config.minimumNumberOfRequests
+                        && (failures >= config.failureRateThreshold * recorded || slowRequests >= config.slowRequestRateThreshold * recorded)) {
+                    open();
+                }
+                break;
+            case OPEN:
+                // outcome of a request sent before the breaker opened
+                break;
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    private void open() {
+        OverloadProtection.LOG.warn("Circuit breaker for {} requests opens for {} ms, after {} failed and {} slow of the latest {} requests",
+                name, config.openDuration.toMillis(), failures, slowRequests, recorded);
+        state = State.OPEN;
+        openedAt = nanoTime.getAsLong();
+    }
+
+    private void close() {
+        OverloadProtection.LOG.info("Circuit breaker for {} requests closes, after {} successful trial requests", name, trialsSucceeded);
+        state = State.CLOSED;
+        next = 0;
+        recorded = 0;
+        failures = 0;
+        slowRequests = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "circuit breaker for " + name + " requests, " + getState();
+    }
+}
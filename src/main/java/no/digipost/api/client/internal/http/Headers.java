@@ -21,6 +21,7 @@ import org.apache.hc.core5.http.message.BasicHeader;
 
 import static no.digipost.api.client.representations.MediaTypes.DIGIPOST_MEDIA_TYPE_V8;
 import static org.apache.hc.core5.http.HttpHeaders.ACCEPT;
+import static org.apache.hc.core5.http.HttpHeaders.ACCEPT_ENCODING;
 import static org.apache.hc.core5.http.HttpHeaders.CONTENT_TYPE;
 
 public final class Headers {
@@ -36,4 +37,7 @@ public final class Headers {
     public static final Header Accept_DIGIPOST_MEDIA_TYPE_V8 = new BasicHeader(ACCEPT, DIGIPOST_MEDIA_TYPE_V8);
     public static final Header Content_Type_DIGIPOST_MEDIA_TYPE_V8 = new BasicHeader(CONTENT_TYPE, DIGIPOST_MEDIA_TYPE_V8);
 
+    public static final Header Accept_Encoding_gzip_deflate = new BasicHeader(ACCEPT_ENCODING, "gzip, deflate");
+    public static final Header Accept_Encoding_identity = new BasicHeader(ACCEPT_ENCODING, "identity");
+
 }
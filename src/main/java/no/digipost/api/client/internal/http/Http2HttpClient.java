@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.http;
+
+import no.digipost.api.client.RetryPolicy;
+import org.apache.hc.client5.http.entity.DeflateDecompressingEntity;
+import org.apache.hc.client5.http.entity.GzipDecompressingEntity;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.concurrent.CancellableDependency;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpRequestInterceptor;
+import org.apache.hc.core5.http.HttpResponseInterceptor;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
+import org.apache.hc.core5.http.nio.support.classic.AbstractClassicEntityProducer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.io.CloseMode;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.time.Clock;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Executes classic (blocking) requests over an asynchronous HTTP/2 client, which multiplexes
+ * concurrent requests as streams over one connection per host, instead of needing one connection
+ * for each request in progress.
+ * <p>
+ * The request and response interceptors are run by this client on the classic request and response,
+ * as they would be by a classic client, so that e.g. the content hash and signature of a request is
+ * calculated from the request entity before it is sent. Request entities are streamed to the
+ * connection, and the response is returned as soon as its head is received, with an entity which
+ * streams the content as it is received. At most {@value #RESPONSE_BUFFER_SIZE} bytes of the content
+ * of each response are held in memory, as the flow control of HTTP/2 holds back the server until
+ * the content is read. Closing the content of a response before it has been read to the end discards
+ * the rest of the content as it is received, and the connection is kept for the other requests in progress on it.
+ * <p>
+ * A response entity compressed with gzip or deflate is decompressed when it is read, after the
+ * response interceptors have been run on the entity as it was received, in the same way as
+ * by a classic client.
+ */
+public final class Http2HttpClient extends CloseableHttpClient {
+
+    private static final int REQUEST_BUFFER_SIZE = 8192;
+    private static final int RESPONSE_BUFFER_SIZE = 64 * 1024;
+
+    private final CloseableHttpAsyncClient asyncClient;
+    private final List<HttpRequestInterceptor> requestInterceptors;
+    private final List<HttpResponseInterceptor> responseInterceptors;
+    private final RequestRetrier retrier;
+    private final ExecutorService requestEntityWriters;
+
+    public Http2HttpClient(CloseableHttpAsyncClient asyncClient, List<HttpRequestInterceptor> requestInterceptors, List<HttpResponseInterceptor> responseInterceptors) {
+        this(asyncClient, requestInterceptors, responseInterceptors, new RequestRetrier(RetryPolicy.NO_RETRIES, Clock.systemDefaultZone()));
+    }
+
+    /**
+     * @param retrier retries requests before the responses are given to the response interceptors.
+     *                The request interceptors are run again for each retry.
+     */
+    public Http2HttpClient(CloseableHttpAsyncClient asyncClient, List<HttpRequestInterceptor> requestInterceptors, List<HttpResponseInterceptor> responseInterceptors, RequestRetrier retrier) {
+        this.asyncClient = asyncClient;
+        this.retrier = retrier;
+        this.requestInterceptors = unmodifiableList(requestInterceptors);
+        this.responseInterceptors = unmodifiableList(responseInterceptors);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.requestEntityWriters = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "digipost-http2-request-writer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        asyncClient.start();
+    }
+
+    @Override
+    protected CloseableHttpResponse doExecute(HttpHost target, ClassicHttpRequest request, HttpContext context) throws IOException {
+        HttpContext exchangeContext = context != null ? context : HttpClientContext.create();
+        try {
+            ClassicHttpResponse response = retrier.execute(request, exchangeContext, retry -> exchange(request, exchangeContext));
+            for (HttpResponseInterceptor interceptor : responseInterceptors) {
+                interceptor.process(response, response.getEntity(), exchangeContext);
+            }
+            decompress(response);
+            return CloseableHttpResponse.adapt(response);
+        } catch (HttpException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private ClassicHttpResponse exchange(ClassicHttpRequest request, HttpContext context) throws IOException, HttpException {
+        for (HttpRequestInterceptor interceptor : requestInterceptors) {
+            interceptor.process(request, request.getEntity(), context);
+        }
+        StreamingResponseConsumer responseConsumer = new StreamingResponseConsumer(RESPONSE_BUFFER_SIZE);
+        Future<Void> exchange = asyncClient.execute(
+                new BasicRequestProducer(request, entityProducer(request.getEntity())), responseConsumer, context, new FutureCallback<Void>() {
+                    @Override
+                    public void completed(Void result) {
+                    }
+
+                    @Override
+                    public void failed(Exception cause) {
+                        responseConsumer.failed(cause);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        responseConsumer.failed(new CancellationException("Cancelled " + request));
+                    }
+                });
+        if (request instanceof CancellableDependency) {
+            ((CancellableDependency) request).setDependency(() -> exchange.cancel(true));
+        }
+        try {
+            return responseConsumer.response().get();
+        } catch (InterruptedException e) {
+            exchange.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for response to " + request);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CancellationException) {
+                throw new InterruptedIOException("Cancelled " + request);
+            } else if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static void decompress(ClassicHttpResponse response) throws HttpException {
+        HttpEntity entity = response.getEntity();
+        if (entity == null || entity.getContentEncoding() == null) {
+            return;
+        }
+        String contentEncoding = entity.getContentEncoding().trim().toLowerCase(Locale.ROOT);
+        if (contentEncoding.equals("gzip") || contentEncoding.equals("x-gzip")) {
+            response.setEntity(new GzipDecompressingEntity(entity));
+        } else if (contentEncoding.equals("deflate")) {
+            response.setEntity(new DeflateDecompressingEntity(entity));
+        } else if (contentEncoding.equals("identity")) {
+            return;
+        } else {
+            throw new HttpException("Unsupported Content-Encoding: " + entity.getContentEncoding());
+        }
+        response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+        response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+        response.removeHeaders(HttpHeaders.CONTENT_MD5);
+    }
+
+    private AsyncEntityProducer entityProducer(HttpEntity entity) {
+        if (entity == null) {
+            return null;
+        }
+        return new AbstractClassicEntityProducer(REQUEST_BUFFER_SIZE, Optional.ofNullable(entity.getContentType()).map(ContentType::parseLenient).orElse(null), requestEntityWriters) {
+            @Override
+            protected void produceData(ContentType contentType, OutputStream outputStream) throws IOException {
+                entity.writeTo(outputStream);
+            }
+
+            @Override
+            public String getContentEncoding() {
+                return entity.getContentEncoding();
+            }
+        };
+    }
+
+    @Override
+    public void close(CloseMode closeMode) {
+        try {
+            asyncClient.close(closeMode);
+        } finally {
+            requestEntityWriters.shutdown();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        close(CloseMode.GRACEFUL);
+    }
+}
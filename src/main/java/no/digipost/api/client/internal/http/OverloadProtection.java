@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.http;
+
+import no.digipost.api.client.CircuitBreakerConfig;
+import no.digipost.api.client.ConcurrencyLimitConfig;
+import no.digipost.api.client.Operation;
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import no.digipost.api.client.errorhandling.ErrorCode;
+import no.digipost.api.client.errorhandling.ErrorType;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.io.entity.HttpEntityWrapper;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Protects Digipost, and the application using the client, from piling up requests when Digipost is degraded,
+ * by rejecting requests with {@link ErrorCode#OVERLOAD_PROTECTION} when a {@link CircuitBreakerConfig circuit breaker}
+ * is open, or the {@link ConcurrencyLimitConfig concurrency limit} is reached.
+ * <p>
+ * Each attempt of a request is protected on its own, by the {@link RequestRetrier}, so that the backoff between
+ * attempts neither holds a share of the concurrency limit nor counts as a slow request. An attempt holds its share
+ * of the concurrency limit, and is measured, until the content of the response has been read to the end or is closed.
+ */
+public final class OverloadProtection {
+
+    static final Logger LOG = LoggerFactory.getLogger(OverloadProtection.class);
+
+    /**
+     * Context attribute with the {@link Operation} a request is sent for. A request without it is
+     * protected as {@link Operation#OTHER}.
+     */
+    public static final String OPERATION = OverloadProtection.class.getName() + ".OPERATION";
+
+    static final OverloadProtection DISABLED = new OverloadProtection(CircuitBreakerConfig.DISABLED, ConcurrencyLimitConfig.DISABLED);
+
+    @FunctionalInterface
+    public interface Request {
+        ClassicHttpResponse send() throws IOException, HttpException;
+    }
+
+    private final Map<Operation, CircuitBreaker> circuitBreakers = new EnumMap<>(Operation.class);
+    private final Optional<AdaptiveConcurrencyLimiter> limiter;
+    private final LongSupplier nanoTime;
+
+    public OverloadProtection(CircuitBreakerConfig circuitBreakerConfig, ConcurrencyLimitConfig concurrencyLimitConfig) {
+        this(circuitBreakerConfig, concurrencyLimitConfig, System::nanoTime);
+    }
+
+    OverloadProtection(CircuitBreakerConfig circuitBreakerConfig, ConcurrencyLimitConfig concurrencyLimitConfig, LongSupplier nanoTime) {
+        if (circuitBreakerConfig.enabled) {
+            for (Operation operation : Operation.values()) {
+                circuitBreakers.put(operation, new CircuitBreaker(operation.name().toLowerCase().replace('_', '-'), circuitBreakerConfig, nanoTime));
+            }
+        }
+        this.limiter = concurrencyLimitConfig.enabled ? Optional.of(new AdaptiveConcurrencyLimiter(concurrencyLimitConfig)) : Optional.empty();
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Send an attempt of a request for the {@link #OPERATION operation given in the context}, unless it is rejected because of overload.
+     *
+     * @throws DigipostClientException with {@link ErrorCode#OVERLOAD_PROTECTION} if the request is rejected.
+     */
+    ClassicHttpResponse send(HttpContext context, Request request) throws IOException, HttpException {
+        Object operation = context != null ? context.getAttribute(OPERATION) : null;
+        return send(operation instanceof Operation ? (Operation) operation : Operation.OTHER, request);
+    }
+
+    /**
+     * Send an attempt of a request, unless it is rejected because of overload.
+     *
+     * @throws DigipostClientException with {@link ErrorCode#OVERLOAD_PROTECTION} if the request is rejected.
+     */
+    ClassicHttpResponse send(Operation operation, Request request) throws IOException, HttpException {
+        if (circuitBreakers.isEmpty() && !limiter.isPresent()) {
+            return request.send();
+        }
+
+        if (limiter.isPresent() && !limiter.get().tryAcquire()) {
+            throw new DigipostClientException(ErrorCode.OVERLOAD_PROTECTION,
+                    "Rejected " + operation + " request, because the limit of " + limiter.get().getLimit() + " concurrent requests is reached");
+        }
+        CircuitBreaker circuitBreaker = circuitBreakers.get(operation);
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            limiter.ifPresent(AdaptiveConcurrencyLimiter::cancel);
+            throw new DigipostClientException(ErrorCode.OVERLOAD_PROTECTION, "Rejected " + operation + " request, because the circuit breaker is open");
+        }
+
+        InFlight inFlight = new InFlight(circuitBreaker, nanoTime.getAsLong());
+        boolean overloaded = true;
+        boolean endsWithContent = false;
+        try {
+            ClassicHttpResponse response = request.send();
+            overloaded = response.getCode() >= HttpStatus.SC_SERVER_ERROR || response.getCode() == HttpStatus.SC_TOO_MANY_REQUESTS;
+            HttpEntity entity = response.getEntity();
+            if (entity != null && entity.getContentLength() != 0) {
+                response.setEntity(new ContentInFlight(entity, inFlight, overloaded));
+                endsWithContent = true;
+            }
+            return response;
+        } catch (DigipostClientException e) {
+            // e.g. an unsigned error response from a proxy in front of Digipost
+            overloaded = e.getErrorType() == ErrorType.SERVER && e.getErrorCode() != ErrorCode.OVERLOAD_PROTECTION;
+            throw e;
+        } catch (HttpException | RuntimeException | Error e) {
+            overloaded = false;
+            throw e;
+        } finally {
+            if (!endsWithContent) {
+                inFlight.end(overloaded);
+            }
+        }
+    }
+
+    /**
+     * @return the current concurrency limit, if the concurrency limit is enabled.
+     */
+    public Optional<Integer> getConcurrencyLimit() {
+        return limiter.map(AdaptiveConcurrencyLimiter::getLimit);
+    }
+
+    CircuitBreaker.State getCircuitBreakerState(Operation operation) {
+        return Optional.ofNullable(circuitBreakers.get(operation)).map(CircuitBreaker::getState).orElse(CircuitBreaker.State.CLOSED);
+    }
+
+
+    /**
+     * An attempt which has been let through, and is recorded once when it ends.
+     */
+    private final class InFlight {
+        private final CircuitBreaker circuitBreaker;
+        private final long start;
+        private final AtomicBoolean ended = new AtomicBoolean();
+
+        InFlight(CircuitBreaker circuitBreaker, long start) {
+            this.circuitBreaker = circuitBreaker;
+            this.start = start;
+        }
+
+        void end(boolean overloaded) {
+            if (ended.compareAndSet(false, true)) {
+                long duration = nanoTime.getAsLong() - start;
+                if (circuitBreaker != null) {
+                    circuitBreaker.record(overloaded, duration);
+                }
+                limiter.ifPresent(l -> l.release(overloaded, duration));
+            }
+        }
+    }
+
+    /**
+     * Ends the attempt when the content has been read to the end or is closed. Failing to read the content,
+     * e.g. because of a timeout, counts as overload.
+     */
+    private static final class ContentInFlight extends HttpEntityWrapper {
+        private final InFlight inFlight;
+        private final boolean overloaded;
+
+        ContentInFlight(HttpEntity entity, InFlight inFlight, boolean overloaded) {
+            super(entity);
+            this.inFlight = inFlight;
+            this.overloaded = overloaded;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            InputStream content;
+            try {
+                content = super.getContent();
+            } catch (IOException | RuntimeException e) {
+                inFlight.end(true);
+                throw e;
+            }
+            return new FilterInputStream(content) {
+                @Override
+                public int read() throws IOException {
+                    try {
+                        return ended(super.read());
+                    } catch (IOException e) {
+                        inFlight.end(true);
+                        throw e;
+                    }
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    try {
+                        return ended(super.read(b, off, len));
+                    } catch (IOException e) {
+                        inFlight.end(true);
+                        throw e;
+                    }
+                }
+
+                private int ended(int read) {
+                    if (read < 0) {
+                        inFlight.end(overloaded);
+                    }
+                    return read;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inFlight.end(overloaded);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream) throws IOException {
+            try {
+                super.writeTo(outStream);
+            } catch (IOException e) {
+                inFlight.end(true);
+                throw e;
+            }
+            inFlight.end(overloaded);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inFlight.end(overloaded);
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.http;
+
+import no.digipost.api.client.Operation;
+import no.digipost.api.client.RateLimitConfig;
+import no.digipost.api.client.RateLimitConfig.Limit;
+import no.digipost.api.client.RateLimitStatistics;
+import no.digipost.api.client.SenderId;
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import no.digipost.api.client.errorhandling.ErrorCode;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Delays requests according to the {@link RateLimitConfig rate limits} for senders and kinds of requests.
+ */
+public final class RateLimiter {
+
+    @FunctionalInterface
+    interface Sleeper {
+        void sleep(long nanos) throws InterruptedException;
+    }
+
+    private static final long REJECTED = -1;
+
+    private final RateLimitConfig config;
+    private final LongSupplier nanoTime;
+    private final Sleeper sleeper;
+    private final Map<SenderId, TokenBucket> senderBuckets = new ConcurrentHashMap<>();
+    private final Map<Operation, TokenBucket> operationBuckets = new EnumMap<>(Operation.class);
+
+    private final LongAdder permitted = new LongAdder();
+    private final LongAdder delayed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public RateLimiter(RateLimitConfig config) {
+        this(config, System::nanoTime, TimeUnit.NANOSECONDS::sleep);
+    }
+
+    RateLimiter(RateLimitConfig config, LongSupplier nanoTime, Sleeper sleeper) {
+        this.config = config;
+        this.nanoTime = nanoTime;
+        this.sleeper = sleeper;
+        long now = nanoTime.getAsLong();
+        config.operations.forEach((operation, limit) -> operationBuckets.put(operation, new TokenBucket(limit, now)));
+    }
+
+    /**
+     * Wait until a request may be sent.
+     *
+     * @param operation the kind of request
+     * @param sender the sender the request is on behalf of, or the broker itself
+     *
+     * @throws DigipostClientException with {@link ErrorCode#OVERLOAD_PROTECTION} if the request would have to wait
+     *                                 longer than the {@link RateLimitConfig#maxWait max wait}.
+     */
+    public void acquire(Operation operation, SenderId sender) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        long now = nanoTime.getAsLong();
+        long maxWait = config.maxWait.toNanos();
+        Optional<TokenBucket> senderBucket = config.getLimit(sender).map(limit -> senderBuckets.computeIfAbsent(sender, s -> new TokenBucket(limit, now)));
+        Optional<TokenBucket> operationBucket = Optional.ofNullable(operationBuckets.get(operation));
+
+        long senderWait = senderBucket.map(bucket -> bucket.reserve(now, maxWait)).orElse(0L);
+        if (senderWait == REJECTED) {
+            throw rejected(operation + " request on behalf of sender " + sender);
+        }
+        long operationWait = operationBucket.map(bucket -> bucket.reserve(now, maxWait)).orElse(0L);
+        if (operationWait == REJECTED) {
+            senderBucket.ifPresent(TokenBucket::cancel);
+            throw rejected(operation + " request");
+        }
+
+        long wait = Math.max(senderWait, operationWait);
+        permitted.increment();
+        if (wait > 0) {
+            delayed.increment();
+            totalWaitNanos.add(wait);
+            maxWaitNanos.accumulateAndGet(wait, Math::max);
+            try {
+                sleeper.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DigipostClientException(ErrorCode.GENERAL_ERROR, "Interrupted while waiting for rate limit of " + operation + " request on behalf of sender " + sender, e);
+            }
+        }
+    }
+
+    public RateLimitStatistics getStatistics() {
+        return new RateLimitStatistics(permitted.sum(), delayed.sum(), rejected.sum(), Duration.ofNanos(totalWaitNanos.sum()), Duration.ofNanos(maxWaitNanos.get()));
+    }
+
+    private DigipostClientException rejected(String request) {
+        rejected.increment();
+        return new DigipostClientException(ErrorCode.OVERLOAD_PROTECTION,
+                "Rejected " + request + ", because it would have to wait more than " + config.maxWait.toMillis() + " ms for the rate limit");
+    }
+
+
+    /**
+     * A token bucket where requests reserve tokens in advance. When the bucket is empty, the tokens
+     * are reserved from the future, so requests are given tokens in the order they arrive.
+     */
+    static final class TokenBucket {
+        private final double tokensPerNano;
+        private final double capacity;
+        private final ReentrantLock lock = new ReentrantLock(true);
+        private double tokens;
+        private long refilledAt;
+
+        TokenBucket(Limit limit, long now) {
+            this.tokensPerNano = limit.requestsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = limit.burst;
+            this.tokens = capacity;
+            this.refilledAt = now;
+        }
+
+        /**
+         * @return the nanoseconds to wait until the reserved token is available, or {@link #REJECTED} if
+         *         the wait would be longer than the given max wait, in which case no token is reserved.
+         */
+        long reserve(long now, long maxWait) {
+            lock.lock();
+            try {
+                if (now > refilledAt) {
+                    tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+                    refilledAt = now;
+                }
+                long wait = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano) + (refilledAt - now);
+                if (wait > maxWait) {
+                    return REJECTED;
+                }
+                tokens -= 1;
+                return wait;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void cancel() {
+            lock.lock();
+            try {
+                tokens = Math.min(capacity, tokens + 1);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.http;
+
+import no.digipost.api.client.HedgingPolicy;
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import no.digipost.api.client.errorhandling.ErrorCode;
+import org.apache.hc.core5.concurrent.Cancellable;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Sends a duplicate of a request which has not been answered within the usual response time,
+ * according to a {@link HedgingPolicy}, and uses the first successful response.
+ * <p>
+ * The request is sent on the calling thread, and only a duplicate is sent on another thread.
+ */
+public final class RequestHedger implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequestHedger.class);
+
+    private static final int MAX_SAVED_HEDGES = 10;
+    private static final int LATENCY_SAMPLES = 200;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    private final HedgingPolicy policy;
+    private final LongSupplier nanoTime;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService executor;
+    private final Map<String, LatencyTracker> latencies = new ConcurrentHashMap<>();
+    private double hedgeBudget = MAX_SAVED_HEDGES;
+
+    public RequestHedger(HedgingPolicy policy) {
+        this(policy, System::nanoTime);
+    }
+
+    RequestHedger(HedgingPolicy policy, LongSupplier nanoTime) {
+        this.policy = policy;
+        this.nanoTime = nanoTime;
+        if (policy.enabled) {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, daemonThreads("digipost-hedge-scheduler-"));
+            scheduler.setRemoveOnCancelPolicy(true);
+            this.scheduler = scheduler;
+            this.executor = Executors.newCachedThreadPool(daemonThreads("digipost-hedged-request-"));
+        } else {
+            this.scheduler = null;
+            this.executor = null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String namePrefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, namePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Send a request, and a duplicate if it is not answered within the usual response time for
+     * the given kind of request.
+     *
+     * @param name the kind of request, which the usual response time is tracked for
+     * @param newRequest creates a new request for each attempt
+     * @param send sends the request, and verifies and reads the response. If the result is {@link AutoCloseable},
+     *             the result of the slower request is closed.
+     */
+    public <T> T execute(String name, Supplier<? extends ClassicHttpRequest> newRequest, Function<ClassicHttpRequest, T> send) {
+        if (!policy.enabled) {
+            return send.apply(newRequest.get());
+        }
+        earnHedge();
+        LatencyTracker latency = latencies.computeIfAbsent(name, n -> new LatencyTracker());
+        Race<T> race = new Race<>(send, latency);
+        long hedgeDelay = hedgeDelayNanos(latency);
+        ScheduledFuture<?> hedge;
+        try {
+            hedge = scheduler.schedule(() -> {
+                if (race.hedge(newRequest)) {
+                    LOG.debug("Hedged {} request, because it has not been answered within {} ms", name, TimeUnit.NANOSECONDS.toMillis(hedgeDelay));
+                }
+            }, hedgeDelay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException closed) {
+            return send.apply(newRequest.get());
+        }
+        race.run(race.started(newRequest.get()));
+        hedge.cancel(false);
+
+        try {
+            Attempt<T> first = race.outcomes.take();
+            Attempt<T> winner = first;
+            if (first.failure != null && race.started() > 1) {
+                Attempt<T> second = race.outcomes.take();
+                winner = second.failure == null ? second : first;
+            }
+            race.finish(winner);
+            if (winner.failure instanceof RuntimeException) {
+                throw (RuntimeException) winner.failure;
+            } else if (winner.failure != null) {
+                throw (Error) winner.failure;
+            }
+            return winner.result;
+        } catch (InterruptedException e) {
+            race.finish(null);
+            Thread.currentThread().interrupt();
+            throw new DigipostClientException(ErrorCode.GENERAL_ERROR, "Interrupted while waiting for response to " + name + " request", e);
+        }
+    }
+
+    long hedgeDelayNanos(LatencyTracker latency) {
+        long min = policy.minDelay.toNanos();
+        long max = policy.maxDelay.toNanos();
+        return latency.percentile(policy.percentile).map(p -> Math.max(min, Math.min(max, p))).orElse(max);
+    }
+
+    private synchronized void earnHedge() {
+        hedgeBudget = Math.min(MAX_SAVED_HEDGES, hedgeBudget + policy.budget);
+    }
+
+    private synchronized boolean spendHedge() {
+        if (hedgeBudget < 1) {
+            return false;
+        }
+        hedgeBudget -= 1;
+        return true;
+    }
+
+
+    private static final class Attempt<T> {
+        final ClassicHttpRequest request;
+        final T result;
+        final Throwable failure;
+
+        Attempt(ClassicHttpRequest request, T result, Throwable failure) {
+            this.request = request;
+            this.result = result;
+            this.failure = failure;
+        }
+    }
+
+    private final class Race<T> {
+        final BlockingQueue<Attempt<T>> outcomes = new LinkedBlockingQueue<>();
+        private final Function<ClassicHttpRequest, T> send;
+        private final LatencyTracker latency;
+        private final List<ClassicHttpRequest> requests = new ArrayList<>();
+        private boolean finished = false;
+
+        Race(Function<ClassicHttpRequest, T> send, LatencyTracker latency) {
+            this.send = send;
+            this.latency = latency;
+        }
+
+        synchronized ClassicHttpRequest started(ClassicHttpRequest request) {
+            requests.add(request);
+            return request;
+        }
+
+        /**
+         * Send the request on the calling thread.
+         */
+        void run(ClassicHttpRequest request) {
+            long start = nanoTime.getAsLong();
+            Attempt<T> attempt;
+            try {
+                attempt = new Attempt<>(request, send.apply(request), null);
+                latency.record(nanoTime.getAsLong() - start);
+            } catch (RuntimeException | Error e) {
+                attempt = new Attempt<>(request, null, e);
+            }
+            completed(attempt);
+        }
+
+        /**
+         * Send a duplicate of the request on another thread, if the request has not been answered, and the budget allows it.
+         */
+        synchronized boolean hedge(Supplier<? extends ClassicHttpRequest> newRequest) {
+            if (finished || !outcomes.isEmpty() || !spendHedge()) {
+                return false;
+            }
+            ClassicHttpRequest request = newRequest.get();
+            try {
+                executor.execute(() -> run(request));
+            } catch (RejectedExecutionException closed) {
+                return false;
+            }
+            requests.add(request);
+            return true;
+        }
+
+        synchronized int started() {
+            return requests.size();
+        }
+
+        /**
+         * The first successful attempt cancels the others, so that the calling thread does not wait for
+         * its request when a duplicate has been answered.
+         */
+        private synchronized void completed(Attempt<T> attempt) {
+            if (finished) {
+                closeQuietly(attempt.result);
+                return;
+            }
+            if (attempt.failure == null && outcomes.stream().allMatch(outcome -> outcome.failure != null)) {
+                cancelAllBut(attempt);
+            }
+            outcomes.add(attempt);
+        }
+
+        private void cancelAllBut(Attempt<T> winner) {
+            for (ClassicHttpRequest request : requests) {
+                if ((winner == null || request != winner.request) && request instanceof Cancellable) {
+                    ((Cancellable) request).cancel();
+                }
+            }
+        }
+
+        /**
+         * Cancel the requests which did not win, and close any results not taken.
+         */
+        synchronized void finish(Attempt<T> winner) {
+            finished = true;
+            cancelAllBut(winner);
+            for (Attempt<T> notTaken; (notTaken = outcomes.poll()) != null; ) {
+                closeQuietly(notTaken.result);
+            }
+        }
+    }
+
+    /**
+     * Stop the threads sending duplicate requests. Requests which are sent after the hedger is closed are not hedged.
+     */
+    @Override
+    public void close() {
+        if (policy.enabled) {
+            scheduler.shutdownNow();
+            executor.shutdownNow();
+        }
+    }
+
+    private static void closeQuietly(Object result) {
+        if (result instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) result).close();
+            } catch (Exception e) {
+                LOG.debug("Unable to close result of slower hedged request, because {}", e.getMessage(), e);
+            }
+        }
+    }
+
+
+    /**
+     * The latest response times of a kind of request.
+     */
+    static final class LatencyTracker {
+        private final long[] samples = new long[LATENCY_SAMPLES];
+        private int next;
+        private int recorded;
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            recorded = Math.min(samples.length, recorded + 1);
+        }
+
+        synchronized Optional<Long> percentile(double percentile) {
+            if (recorded < MIN_LATENCY_SAMPLES) {
+                return Optional.empty();
+            }
+            long[] sorted = Arrays.copyOf(samples, recorded);
+            Arrays.sort(sorted);
+            return Optional.of(sorted[Math.min(recorded - 1, (int) Math.ceil(percentile * recorded) - 1)]);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.http;
+
+import no.digipost.api.client.RetryPolicy;
+import no.digipost.api.client.util.DateUtils;
+import org.apache.hc.client5.http.ConnectTimeoutException;
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.core5.concurrent.CancellableDependency;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpRequestInterceptor;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Retries requests according to a {@link RetryPolicy}. The retries are done beneath the
+ * verification of responses, so that e.g. a {@code 503} response from a proxy, which
+ * is not signed by Digipost, can be retried instead of failing verification. The given
+ * request interceptors are run again before each retry, to sign the request anew.
+ * <p>
+ * Each attempt is sent through the {@link OverloadProtection}, so that the backoff before a retry
+ * is not measured as part of the latency of a request.
+ */
+public final class RequestRetrier {
+
+    /**
+     * Context attribute which marks a request as safe to send again if Digipost did not process it, even if
+     * it is not a {@code GET} request.
+     */
+    public static final String RETRY_IF_NOT_PROCESSED = RequestRetrier.class.getName() + ".RETRY_IF_NOT_PROCESSED";
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequestRetrier.class);
+
+    /**
+     * Executes an attempt of a request, given the number of the retry, which is {@code 0} for the first attempt.
+     */
+    @FunctionalInterface
+    public interface Attempt {
+        ClassicHttpResponse execute(int retry) throws IOException, HttpException;
+    }
+
+    @FunctionalInterface
+    interface Sleeper {
+        void sleep(Duration duration) throws InterruptedException;
+    }
+
+    private final RetryPolicy policy;
+    private final Clock clock;
+    private final Sleeper sleeper;
+    private final DoubleSupplier random;
+    private final OverloadProtection overloadProtection;
+    private double retryBudget;
+
+    public RequestRetrier(RetryPolicy policy, Clock clock) {
+        this(policy, clock, OverloadProtection.DISABLED);
+    }
+
+    public RequestRetrier(RetryPolicy policy, Clock clock, OverloadProtection overloadProtection) {
+        this(policy, clock, duration -> Thread.sleep(duration.toMillis()), () -> ThreadLocalRandom.current().nextDouble(), overloadProtection);
+    }
+
+    RequestRetrier(RetryPolicy policy, Clock clock, Sleeper sleeper, DoubleSupplier random) {
+        this(policy, clock, sleeper, random, OverloadProtection.DISABLED);
+    }
+
+    RequestRetrier(RetryPolicy policy, Clock clock, Sleeper sleeper, DoubleSupplier random, OverloadProtection overloadProtection) {
+        this.policy = policy;
+        this.clock = clock;
+        this.sleeper = sleeper;
+        this.random = random;
+        this.overloadProtection = overloadProtection;
+        this.retryBudget = policy.maxRetryBudget;
+    }
+
+    /**
+     * @param resigningInterceptors the interceptors to run on the request before each retry
+     * @return a handler to add to the exec chain of a classic client, after the protocol handling
+     *         which runs the request and response interceptors.
+     */
+    public ExecChainHandler asExecChainHandler(List<HttpRequestInterceptor> resigningInterceptors) {
+        return (request, scope, chain) -> execute(request, scope.clientContext, retry -> {
+            if (retry > 0) {
+                for (HttpRequestInterceptor interceptor : resigningInterceptors) {
+                    interceptor.process(request, request.getEntity(), scope.clientContext);
+                }
+            }
+            return chain.proceed(request, scope);
+        });
+    }
+
+    /**
+     * Execute the request, and retry it if allowed by the policy.
+     *
+     * @param attempt executes the request
+     */
+    public ClassicHttpResponse execute(ClassicHttpRequest request, HttpContext context, Attempt attempt) throws IOException, HttpException {
+        boolean idempotent = "GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod());
+        boolean retryIfNotProcessed = idempotent || (context != null && Boolean.TRUE.equals(context.getAttribute(RETRY_IF_NOT_PROCESSED)));
+        boolean retryable = policy.isEnabled() && retryIfNotProcessed && (request.getEntity() == null || request.getEntity().isRepeatable());
+        if (retryable) {
+            earnRetry();
+        }
+        for (int retry = 0; ; retry++) {
+            int nextRetry = retry + 1;
+            boolean mayRetry = retryable && nextRetry < policy.maxAttempts;
+            ClassicHttpResponse response;
+            int attemptRetry = retry;
+            try {
+                response = overloadProtection.send(context, () -> attempt.execute(attemptRetry));
+            } catch (IOException e) {
+                if (mayRetry && (idempotent || notConnected(e)) && !isCancelled(request, e) && spendRetry()) {
+                    Duration backoff = policy.backoff(nextRetry, random.getAsDouble());
+                    LOG.info("Retrying {} {} in {} ms, because {}", request.getMethod(), request.getRequestUri(), backoff.toMillis(), e.toString());
+                    sleep(request, backoff);
+                    continue;
+                }
+                throw e;
+            }
+            if (mayRetry && (response.getCode() == HttpStatus.SC_SERVICE_UNAVAILABLE || response.getCode() == HttpStatus.SC_TOO_MANY_REQUESTS) && !isCancelled(request, null)) {
+                Duration delay = retryAfter(response).orElseGet(() -> policy.backoff(nextRetry, random.getAsDouble()));
+                if (delay.compareTo(policy.maxBackoff) <= 0 && spendRetry()) {
+                    LOG.info("Retrying {} {} in {} ms, because of status {}", request.getMethod(), request.getRequestUri(), delay.toMillis(), response.getCode());
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    response.close();
+                    sleep(request, delay);
+                    continue;
+                }
+            }
+            return response;
+        }
+    }
+
+    private static boolean notConnected(IOException e) {
+        return e instanceof ConnectException || e instanceof ConnectTimeoutException;
+    }
+
+    /**
+     * A cancelled request, e.g. the slower of two {@link RequestHedger hedged} requests, is not retried.
+     */
+    private static boolean isCancelled(ClassicHttpRequest request, Throwable failure) {
+        if (request instanceof CancellableDependency && ((CancellableDependency) request).isCancelled()) {
+            return true;
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CancellationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Optional<Duration> retryAfter(ClassicHttpResponse response) {
+        return Optional.ofNullable(response.getFirstHeader(HttpHeaders.RETRY_AFTER)).map(Header::getValue).map(String::trim).flatMap(value -> {
+            try {
+                return Optional.of(Duration.ofSeconds(Long.parseLong(value)));
+            } catch (NumberFormatException notSeconds) {
+                try {
+                    Duration untilDate = Duration.between(ZonedDateTime.now(clock), DateUtils.parseDate(value));
+                    return Optional.of(untilDate.isNegative() ? Duration.ZERO : untilDate);
+                } catch (DateTimeParseException notDate) {
+                    return Optional.empty();
+                }
+            }
+        });
+    }
+
+    private synchronized void earnRetry() {
+        retryBudget = Math.min(policy.maxRetryBudget, retryBudget + policy.retryBudgetRatio);
+    }
+
+    private synchronized boolean spendRetry() {
+        if (retryBudget < 1) {
+            LOG.warn("Retry budget is exhausted, not retrying request");
+            return false;
+        }
+        retryBudget -= 1;
+        return true;
+    }
+
+    private void sleep(ClassicHttpRequest request, Duration delay) throws InterruptedIOException {
+        try {
+            sleeper.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry request");
+        }
+        if (isCancelled(request, null)) {
+            throw new InterruptedIOException("Cancelled while waiting to retry request");
+        }
+    }
+}
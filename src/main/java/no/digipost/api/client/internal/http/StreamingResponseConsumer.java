@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.http;
+
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.io.entity.InputStreamEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.CapacityChannel;
+import org.apache.hc.core5.http.nio.support.classic.SharedInputBuffer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Gives the response as a classic response as soon as the head of the response is received,
+ * with an entity which streams the content as it is received. At most {@code bufferSize} bytes
+ * of the content are held in memory, as the flow control of the connection holds back the server
+ * until the content is read.
+ * <p>
+ * Closing the content before it has been read to the end does not cancel the exchange, as the HTTP client
+ * would then discard the connection, and with it every other exchange in progress on the same connection.
+ * The stream of the response can not be reset on its own, as a stream is not reset once the request has
+ * been sent in full. Instead, the rest of the content is discarded as it is received, with the flow control
+ * of the stream kept open, so that the stream ends and the connection is left as it is for other exchanges.
+ */
+final class StreamingResponseConsumer implements AsyncResponseConsumer<Void> {
+
+    private final SharedInputBuffer buffer;
+    private final CompletableFuture<ClassicHttpResponse> response = new CompletableFuture<>();
+    private volatile Exception failure;
+    private volatile FutureCallback<Void> completion;
+    private CapacityChannel capacityChannel;
+    private boolean discarding;
+
+    StreamingResponseConsumer(int bufferSize) {
+        this.buffer = new SharedInputBuffer(bufferSize);
+    }
+
+    /**
+     * @return the response, which is available when the head of the response has been received
+     */
+    CompletableFuture<ClassicHttpResponse> response() {
+        return response;
+    }
+
+    @Override
+    public void consumeResponse(HttpResponse head, EntityDetails entityDetails, HttpContext context, FutureCallback<Void> resultCallback) {
+        BasicClassicHttpResponse received = new BasicClassicHttpResponse(head.getCode(), head.getReasonPhrase());
+        received.setVersion(head.getVersion());
+        received.setHeaders(head.getHeaders());
+        if (entityDetails != null) {
+            this.completion = resultCallback;
+            received.setEntity(new InputStreamEntity(new Content(), entityDetails.getContentLength(),
+                    entityDetails.getContentType() != null ? ContentType.parseLenient(entityDetails.getContentType()) : null, entityDetails.getContentEncoding()));
+        } else {
+            resultCallback.completed(null);
+        }
+        response.complete(received);
+    }
+
+    @Override
+    public void informationResponse(HttpResponse response, HttpContext context) {
+    }
+
+    @Override
+    public synchronized void updateCapacity(CapacityChannel capacityChannel) throws IOException {
+        this.capacityChannel = capacityChannel;
+        if (!discarding) {
+            buffer.updateCapacity(capacityChannel);
+        }
+    }
+
+    @Override
+    public synchronized void consume(ByteBuffer src) throws IOException {
+        if (discarding) {
+            int discarded = src.remaining();
+            src.position(src.limit());
+            capacityChannel.update(discarded);
+        } else {
+            buffer.fill(src);
+        }
+    }
+
+    /**
+     * Discard the rest of the content as it is received, including what is already buffered,
+     * instead of holding it for the reader.
+     */
+    private synchronized void discardRest() throws IOException {
+        discarding = true;
+        byte[] buffered = new byte[8192];
+        while (buffer.length() > 0) {
+            buffer.read(buffered, 0, buffered.length);
+        }
+        buffer.abort();
+    }
+
+    @Override
+    public void streamEnd(List<? extends Header> trailers) {
+        buffer.markEndStream();
+        FutureCallback<Void> completed = completion;
+        if (completed != null) {
+            completed.completed(null);
+        }
+    }
+
+    @Override
+    public void failed(Exception cause) {
+        failure = cause;
+        buffer.abort();
+        response.completeExceptionally(cause);
+    }
+
+    @Override
+    public void releaseResources() {
+    }
+
+
+    private final class Content extends InputStream {
+        private boolean endOfStream;
+        private boolean closed;
+
+        @Override
+        public int read() throws IOException {
+            return ended(buffer.read());
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            return ended(buffer.read(b, off, len));
+        }
+
+        @Override
+        public int available() {
+            return buffer.length();
+        }
+
+        private int ended(int read) throws IOException {
+            if (read < 0) {
+                if (failure != null) {
+                    throw new IOException("Response content was not received in full, because " + failure.getMessage(), failure);
+                } else if (closed) {
+                    throw new IOException("Response content is closed");
+                }
+                endOfStream = true;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!endOfStream) {
+                discardRest();
+            }
+        }
+    }
+}
@@ -17,11 +17,14 @@ package no.digipost.api.client.internal.http.request.interceptor;
 
 import no.digipost.api.client.EventLogger;
 import no.digipost.api.client.security.Digester;
+import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.HttpRequest;
 import org.bouncycastle.util.encoders.Base64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+
 public class RequestContentHashFilter {
 
     private static final Logger LOG = LoggerFactory.getLogger(RequestContentHashFilter.class);
@@ -41,7 +44,17 @@ public class RequestContentHashFilter {
     }
 
     public void settContentHashHeader(final byte[] data, final HttpRequest httpRequest) {
-        byte[] result = digester.createDigest(data);
+        setHashHeader(digester.createDigest(data), httpRequest);
+    }
+
+    /**
+     * Beregner hash av en entitet som kan skrives flere ganger, uten å først lese hele innholdet inn i minnet.
+     */
+    public void settContentHashHeader(final HttpEntity repeatableEntity, final HttpRequest httpRequest) throws IOException {
+        setHashHeader(digester.createDigest(repeatableEntity::writeTo), httpRequest);
+    }
+
+    private void setHashHeader(byte[] result, HttpRequest httpRequest) {
         String hash = new String(Base64.encode(result));
         httpRequest.setHeader(header, hash);
         eventLogger.log(RequestContentHashFilter.class.getSimpleName() + " satt headeren " + header + "=" + hash);
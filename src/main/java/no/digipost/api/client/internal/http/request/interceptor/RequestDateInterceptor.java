@@ -25,7 +25,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Clock;
-import java.time.ZonedDateTime;
 
 import static org.apache.hc.core5.http.HttpHeaders.DATE;
 
@@ -47,7 +46,7 @@ public class RequestDateInterceptor implements HttpRequestInterceptor {
     }
 
     private void modifyRequest(final HttpRequest httpRequest) {
-        String dateOnRFC1123Format = DateUtils.formatDate(ZonedDateTime.now(clock));
+        String dateOnRFC1123Format = DateUtils.formatDate(clock.instant());
         httpRequest.setHeader(DATE, dateOnRFC1123Format);
         eventLogger.log(getClass().getSimpleName() + " satt headeren " + DATE + "=" + dateOnRFC1123Format);
     }
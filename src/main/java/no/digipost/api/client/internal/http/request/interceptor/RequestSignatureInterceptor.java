@@ -37,6 +37,12 @@ public class RequestSignatureInterceptor implements HttpRequestInterceptor {
 
     private static final Logger LOG = LoggerFactory.getLogger(RequestSignatureInterceptor.class);
 
+    /**
+     * Context attribute with the {@link Signer} to sign the request with, instead of the signer
+     * given to the interceptor. This enables one HTTP client to send requests signed by different signers.
+     */
+    public static final String SIGNER = "digipost-signer";
+
     private final Signer signer;
     private final RequestContentHashFilter hashFilter;
     private final EventLogger eventLogger;
@@ -51,7 +57,7 @@ public class RequestSignatureInterceptor implements HttpRequestInterceptor {
         this.hashFilter = hashFilter;
     }
 
-    private void setSignatureHeader(HttpRequest httpRequest) {
+    private void setSignatureHeader(HttpRequest httpRequest, Signer signer) {
         String stringToSign = RequestMessageSignatureUtil.getCanonicalRequestRepresentation(new ApacheHttpRequestToSign(httpRequest));
         eventLogger.log(getClass().getSimpleName() + " beregnet streng som skal signeres:\n" +
                         "===START SIGNATURSTRENG===\n" +
@@ -66,20 +72,27 @@ public class RequestSignatureInterceptor implements HttpRequestInterceptor {
 
     @Override
     public void process(HttpRequest httpRequest, EntityDetails entityDetails, HttpContext httpContext) throws IOException {
+        Signer signer = Optional.ofNullable((Signer) httpContext.getAttribute(SIGNER)).orElse(this.signer);
+        if (signer == null) {
+            throw new IllegalStateException("No " + Signer.class.getSimpleName() + " to sign " + httpRequest + " with");
+        }
 
         if(httpRequest instanceof ClassicHttpRequest) {
             ClassicHttpRequest request = (ClassicHttpRequest) httpRequest;
             HttpEntity rqEntity = request.getEntity();
 
             if (rqEntity == null) {
-                setSignatureHeader(httpRequest);
+                setSignatureHeader(httpRequest, signer);
+            } else if (rqEntity.isRepeatable()) {
+                hashFilter.settContentHashHeader(rqEntity, request);
+                setSignatureHeader(httpRequest, signer);
             } else {
                 byte[] entityBytes = Optional.ofNullable(EntityUtils.toByteArray(rqEntity)).orElseGet(() -> new byte[0]);
                 hashFilter.settContentHashHeader(entityBytes, request);
-                setSignatureHeader(httpRequest);
+                setSignatureHeader(httpRequest, signer);
             }
         } else {
-            setSignatureHeader(httpRequest);
+            setSignatureHeader(httpRequest, signer);
         }
         httpContext.setAttribute("request-path", httpRequest.getPath());
 
@@ -37,22 +37,46 @@ import java.util.Optional;
 import static no.digipost.api.client.errorhandling.ErrorCode.SERVER_SIGNATURE_ERROR;
 import static no.digipost.api.client.internal.http.Headers.X_Content_SHA256;
 
+/**
+ * Verifies the content of responses against the {@value no.digipost.api.client.internal.http.Headers#X_Content_SHA256}
+ * header from the server. The header is required for every response with a known, non-empty length. XML responses are read
+ * into memory and verified in full before they are handed over to be parsed. Other content, e.g. the content of documents,
+ * which is larger than {@value #MAX_BUFFERED_CONTENT_LENGTH} bytes or of unknown length, is verified while it is read by
+ * the receiver.
+ */
 public class ResponseContentSHA256Interceptor implements HttpResponseInterceptor {
 
+    /**
+     * Response bodies, other than XML, larger than this or of unknown length are not read into memory to be verified.
+     */
+    static final long MAX_BUFFERED_CONTENT_LENGTH = 1024 * 1024;
+
     @Override
     public void process(HttpResponse response, EntityDetails entityDetails, HttpContext context) throws HttpException, IOException {
         ClassicHttpResponse classicHttpResponse = (ClassicHttpResponse) response;
         final HttpEntity entity = classicHttpResponse.getEntity();
-        if (entity != null && entity.getContent() != null && entity.getContentLength() > 0) {
-            String hashHeaderValue = Optional.ofNullable(response.getFirstHeader(X_Content_SHA256))
-                    .map(NameValuePair::getValue)
-                    .filter(StringUtils::isNoneBlank)
-                    .orElseThrow(() -> new DigipostClientException(SERVER_SIGNATURE_ERROR,
-                            String.format("Missing %s header in response. This header is expected when a response body is present. Http status was %s",
-                                    X_Content_SHA256, response.getCode())));
+        if (entity == null || entity.getContent() == null || entity.getContentLength() == 0) {
+            return;
+        }
+        Optional<String> hashHeaderValue = Optional.ofNullable(response.getFirstHeader(X_Content_SHA256))
+                .map(NameValuePair::getValue)
+                .filter(StringUtils::isNoneBlank);
+        if (!hashHeaderValue.isPresent()) {
+            if (entity.getContentLength() > 0) {
+                throw new DigipostClientException(SERVER_SIGNATURE_ERROR,
+                        String.format("Missing %s header in response. This header is expected when a response body is present. Http status was %s",
+                                X_Content_SHA256, response.getCode()));
+            }
+            return;
+        }
+        String serverHash = hashHeaderValue.get();
+        boolean fitsInMemory = entity.getContentLength() > 0 && entity.getContentLength() <= MAX_BUFFERED_CONTENT_LENGTH;
+        if (fitsInMemory || StringUtils.containsIgnoreCase(entity.getContentType(), "xml")) {
             byte[] entityBytes = EntityUtils.toByteArray(entity);
-            validerBytesMotHashHeader(hashHeaderValue, entityBytes);
+            validerBytesMotHashHeader(serverHash, entityBytes);
             classicHttpResponse.setEntity(new ByteArrayEntity(entityBytes, ContentType.parse(entityDetails.getContentType()), entityDetails.getContentEncoding()));
+        } else {
+            classicHttpResponse.setEntity(new SHA256VerifyingEntity(entity, serverHash));
         }
     }
 
@@ -17,6 +17,7 @@ package no.digipost.api.client.internal.http.response.interceptor;
 
 import no.digipost.api.client.errorhandling.DigipostClientException;
 import no.digipost.api.client.representations.EntryPoint;
+import no.digipost.api.client.security.CryptoUtil;
 import no.digipost.api.client.security.ResponseMessageSignatureUtil;
 import org.apache.hc.core5.http.EntityDetails;
 import org.apache.hc.core5.http.Header;
@@ -42,6 +43,7 @@ public class ResponseSignatureInterceptor implements HttpResponseInterceptor {
 
     public static final String NOT_SIGNED_RESPONSE = "NOT_SIGNED_RESPONSE";
     private final Supplier<EntryPoint> entryPointResolver;
+    private volatile ParsedCertificate lastCertificate;
 
     public ResponseSignatureInterceptor(final Supplier<EntryPoint> entryPointResolver) {
         this.entryPointResolver = entryPointResolver;
@@ -54,6 +56,7 @@ public class ResponseSignatureInterceptor implements HttpResponseInterceptor {
             return;
         }
 
+        CryptoUtil.ensureBouncyCastleProviderIsRegistered();
         try {
             String serverSignaturBase64 = getServerSignaturFromResponse(response);
             byte[] serverSignaturBytes = Base64.decode(serverSignaturBase64.getBytes());
@@ -94,8 +97,13 @@ public class ResponseSignatureInterceptor implements HttpResponseInterceptor {
     }
 
     public X509Certificate lastSertifikat() {
+        String certificate = entryPointResolver.get().getCertificate();
+        ParsedCertificate parsed = lastCertificate;
+        if (parsed != null && parsed.certificate.equals(certificate)) {
+            return parsed.x509Certificate;
+        }
         try {
-            InputStream certStream = new ByteArrayInputStream(entryPointResolver.get().getCertificate().getBytes());
+            InputStream certStream = new ByteArrayInputStream(certificate.getBytes());
 
             CertificateFactory cf = CertificateFactory.getInstance("X.509", BouncyCastleProvider.PROVIDER_NAME);
             X509Certificate sertifikat = (X509Certificate) cf.generateCertificate(certStream);
@@ -103,10 +111,21 @@ public class ResponseSignatureInterceptor implements HttpResponseInterceptor {
                 throw new DigipostClientException(SERVER_SIGNATURE_ERROR,
                         "Unable to load Digipost's public key. Signature from server could not be validated");
             }
+            lastCertificate = new ParsedCertificate(certificate, sertifikat);
             return sertifikat;
         } catch (GeneralSecurityException e) {
             throw new DigipostClientException(SERVER_SIGNATURE_ERROR,
                     "Unable to load Digipost's public key. Signature from server could not be validated");
         }
     }
+
+    private static final class ParsedCertificate {
+        final String certificate;
+        final X509Certificate x509Certificate;
+
+        ParsedCertificate(String certificate, X509Certificate x509Certificate) {
+            this.certificate = certificate;
+            this.x509Certificate = x509Certificate;
+        }
+    }
 }
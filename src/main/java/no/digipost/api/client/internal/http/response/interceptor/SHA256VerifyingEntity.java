@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.http.response.interceptor;
+
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.EofSensorInputStream;
+import org.apache.hc.core5.http.io.entity.HttpEntityWrapper;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.util.encoders.Base64;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static no.digipost.api.client.errorhandling.ErrorCode.SERVER_SIGNATURE_ERROR;
+import static no.digipost.api.client.internal.http.Headers.X_Content_SHA256;
+
+/**
+ * Verifies the content of a response against the hash from the server while the content is
+ * read, instead of reading the entire content into memory before handing it to the caller.
+ * A mismatch is reported when the end of the content is reached, or when the content or the
+ * entity is closed with only a small remainder of the content left unread. Content which is
+ * abandoned with more left unread is not verified, and its connection is aborted.
+ */
+final class SHA256VerifyingEntity extends HttpEntityWrapper {
+
+    static final int MAX_DRAINED_ON_CLOSE = 64 * 1024;
+
+    private final String serverHash;
+    private InputStream verifying;
+
+    SHA256VerifyingEntity(HttpEntity wrapped, String serverHash) {
+        super(wrapped);
+        this.serverHash = serverHash;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    @Override
+    public synchronized InputStream getContent() throws IOException {
+        if (verifying == null) {
+            verifying = new VerifyingInputStream(super.getContent());
+        }
+        return verifying;
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        try (InputStream content = getContent()) {
+            content.transferTo(outStream);
+        }
+    }
+
+    /**
+     * Closing the entity, e.g. by closing the response, closes the content given to the receiver,
+     * so partially read content is verified as well.
+     */
+    @Override
+    public void close() throws IOException {
+        InputStream content;
+        synchronized (this) {
+            content = verifying;
+        }
+        try {
+            if (content != null) {
+                content.close();
+            }
+        } finally {
+            super.close();
+        }
+    }
+
+
+    private final class VerifyingInputStream extends FilterInputStream {
+        private final SHA256Digest digest = new SHA256Digest();
+        private boolean verified;
+        private boolean started;
+
+        VerifyingInputStream(InputStream content) {
+            super(content);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                verify();
+            } else {
+                started = true;
+                digest.update((byte) b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read < 0) {
+                verify();
+            } else {
+                started = true;
+                digest.update(b, off, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] skipped = new byte[(int) Math.min(n, 8192)];
+            int read = read(skipped, 0, skipped.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * A reader may stop right before the end of the content, e.g. a decompressing stream
+         * which has read the trailer of gzip-compressed content, so up to
+         * {@value #MAX_DRAINED_ON_CLOSE} bytes of remaining content are read to be able to verify it.
+         * If more content remains, the reader has abandoned the content, and the connection is
+         * aborted instead of being drained of the rest.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                if (started && !verified) {
+                    byte[] remaining = new byte[8192];
+                    long drained = 0;
+                    for (int read = 0; read >= 0 && drained <= MAX_DRAINED_ON_CLOSE; read = read(remaining, 0, remaining.length)) {
+                        drained += read;
+                    }
+                }
+            } finally {
+                if (!verified && in instanceof EofSensorInputStream) {
+                    ((EofSensorInputStream) in).abort();
+                }
+                super.close();
+            }
+        }
+
+        private void verify() {
+            if (!verified) {
+                verified = true;
+                byte[] result = new byte[digest.getDigestSize()];
+                digest.doFinal(result, 0);
+                if (!serverHash.equals(new String(Base64.encode(result)))) {
+                    throw new DigipostClientException(SERVER_SIGNATURE_ERROR, X_Content_SHA256 + " header did not match actual response body");
+                }
+            }
+        }
+    }
+}
@@ -16,6 +16,7 @@
 package no.digipost.api.client.representations;
 
 import jakarta.xml.bind.annotation.*;
+import java.util.Locale;
 import java.util.Objects;
 
 
@@ -96,6 +97,29 @@ public class Identification {
         return personalIdentificationNumber;
     }
 
+    /**
+     * Get a copy of this identification in a normalized form, which is equal to the
+     * normalized form of other identifications of the same recipient written differently,
+     * e.g. with spaces or periods in numbers, or with different case in names and addresses.
+     * It is meant for comparing identifications, and not for being sent to Digipost.
+     *
+     * @return the normalized identification
+     */
+    public Identification normalized() {
+        Identification normalized = new Identification();
+        normalized.includePersonaliasForDigipostUser = includePersonaliasForDigipostUser;
+        normalized.nameAndAddress = nameAndAddress != null ? nameAndAddress.normalized() : null;
+        normalized.digipostAddress = digipostAddress != null ? digipostAddress.trim().toLowerCase(Locale.ROOT) : null;
+        normalized.bankAccountNumber = removeSeparators(bankAccountNumber);
+        normalized.personalIdentificationNumber = removeSeparators(personalIdentificationNumber);
+        normalized.organisationNumber = removeSeparators(organisationNumber);
+        return normalized;
+    }
+
+    private static String removeSeparators(String number) {
+        return number != null ? number.replaceAll("[\\s.-]", "") : null;
+    }
+
     @Override
     public String toString() {
         if (digipostAddress != null) {
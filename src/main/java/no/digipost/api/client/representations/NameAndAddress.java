@@ -25,6 +25,7 @@ import jakarta.xml.bind.annotation.XmlType;
 import jakarta.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 
 import java.time.LocalDate;
+import java.util.Locale;
 import java.util.Objects;
 
 @XmlAccessorType(XmlAccessType.FIELD)
@@ -81,6 +82,23 @@ public final class NameAndAddress {
         this.emailAddress = emailAddress;
     }
 
+    /**
+     * @return a copy with the fields in a normalized form, where differences in case and
+     *         whitespace are removed.
+     */
+    NameAndAddress normalized() {
+        return new NameAndAddress(normalizeText(fullname), normalizeText(addressline1), normalizeText(addressline2),
+                removeWhitespace(postalcode), normalizeText(city), birthDate, removeWhitespace(phoneNumber), normalizeText(emailAddress));
+    }
+
+    private static String normalizeText(String text) {
+        return text != null ? text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT) : null;
+    }
+
+    private static String removeWhitespace(String text) {
+        return text != null ? text.replaceAll("\\s", "") : null;
+    }
+
     @Override
     public String toString() {
         return "NameAndAddress{" +
@@ -16,6 +16,7 @@
 package no.digipost.api.client.representations.sender;
 
 import no.digipost.api.client.SenderId;
+import no.digipost.api.client.internal.delivery.PdfValidationOptions;
 import no.digipost.print.validate.PdfValidationSettings;
 
 import jakarta.xml.bind.annotation.XmlAccessType;
@@ -29,14 +30,6 @@ import jakarta.xml.bind.annotation.XmlType;
 import java.util.List;
 
 import static java.util.stream.Collectors.joining;
-import static no.digipost.api.client.representations.sender.SenderFeatureName.PRINTVALIDATION_FONTS;
-import static no.digipost.api.client.representations.sender.SenderFeatureName.PRINTVALIDATION_MARGINS_LEFT;
-import static no.digipost.api.client.representations.sender.SenderFeatureName.PRINTVALIDATION_NEGATIVE_BLEED;
-import static no.digipost.api.client.representations.sender.SenderFeatureName.PRINTVALIDATION_PAGEAMOUNT;
-import static no.digipost.api.client.representations.sender.SenderFeatureName.PRINTVALIDATION_PDFVERSION;
-import static no.digipost.api.client.representations.sender.SenderFeatureName.PRINTVALIDATION_POSITIVE_BLEED;
-import static no.digipost.print.validate.PdfValidationSettings.DEFAULT_NEGATIVE_BLEED_MM;
-import static no.digipost.print.validate.PdfValidationSettings.DEFAULT_POSITIVE_BLEED_MM;
 
 /**
  * Informasjon om en avsender. Bruk
@@ -116,15 +109,6 @@ public class SenderInformation
     }
 
     public PdfValidationSettings getPdfValidationSettings() {
-        SenderFeature positiveBleed = get(PRINTVALIDATION_POSITIVE_BLEED);
-        SenderFeature negativeBleed = get(PRINTVALIDATION_NEGATIVE_BLEED);
-        return new PdfValidationSettings(
-                hasEnabled(PRINTVALIDATION_MARGINS_LEFT),
-                hasEnabled(PRINTVALIDATION_FONTS),
-                hasEnabled(PRINTVALIDATION_PAGEAMOUNT),
-                hasEnabled(PRINTVALIDATION_PDFVERSION),
-                positiveBleed != null ? positiveBleed.getIntParam() : DEFAULT_POSITIVE_BLEED_MM,
-                negativeBleed != null ? negativeBleed.getIntParam() : DEFAULT_NEGATIVE_BLEED_MM
-        );
+        return PdfValidationOptions.of(this).toSettings();
     }
 }
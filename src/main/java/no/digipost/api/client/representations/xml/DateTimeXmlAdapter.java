@@ -19,19 +19,40 @@ import jakarta.xml.bind.DatatypeConverter;
 import jakarta.xml.bind.annotation.XmlTransient;
 import jakarta.xml.bind.annotation.adapters.XmlAdapter;
 
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 
+/**
+ * Converts between {@code xsd:dateTime} and {@link ZonedDateTime}, with the same results as
+ * converting through a {@link GregorianCalendar} with {@link DatatypeConverter}.
+ * <p>
+ * The common layout {@code yyyy-MM-ddTHH:mm:ss[.fraction](Z|+hh:mm|-hh:mm)} is converted directly,
+ * while any other value is converted through a {@code GregorianCalendar}.
+ */
 @XmlTransient
 public class DateTimeXmlAdapter extends XmlAdapter<String, ZonedDateTime> {
 
+    private static final int MAX_OFFSET_MINUTES = 14 * 60;
+
+    /**
+     * The zones of parsed dates, indexed by the offset in minutes. A date parsed through a
+     * {@code GregorianCalendar} gets a zone with an ID like "GMT+02:00", and these are cached
+     * as they are resolved.
+     */
+    private static final ZoneId[] zonesByOffsetMinutes = new ZoneId[2 * MAX_OFFSET_MINUTES + 1];
+
     @Override
     public String marshal(ZonedDateTime v) {
         if (v == null) {
             return null;
         }
-        return DatatypeConverter.printDateTime(GregorianCalendar.from(v));
+        String formatted = formatCommonLayout(v);
+        return formatted != null ? formatted : DatatypeConverter.printDateTime(GregorianCalendar.from(v));
     }
 
     @Override
@@ -39,8 +60,144 @@ public class DateTimeXmlAdapter extends XmlAdapter<String, ZonedDateTime> {
         if (s == null) {
             return null;
         }
-        Calendar parsed = DatatypeConverter.parseDate(s);
-        return ZonedDateTime.ofInstant(parsed.toInstant(), parsed.getTimeZone().toZoneId());
+        ZonedDateTime parsed = parseCommonLayout(s);
+        if (parsed != null) {
+            return parsed;
+        }
+        Calendar calendar = DatatypeConverter.parseDate(s);
+        return ZonedDateTime.ofInstant(calendar.toInstant(), calendar.getTimeZone().toZoneId());
+    }
+
+
+    /**
+     * @return the formatted date, or {@code null} if the date must be formatted through
+     *         a {@code GregorianCalendar}, i.e. for years outside 1-9999, or offsets with seconds.
+     */
+    private static String formatCommonLayout(ZonedDateTime dateTime) {
+        int year = dateTime.getYear();
+        int offsetSeconds = dateTime.getOffset().getTotalSeconds();
+        if (year < 1 || year > 9999 || offsetSeconds % 60 != 0) {
+            return null;
+        }
+        StringBuilder formatted = new StringBuilder(29);
+        appendDigits(formatted, year, 4).append('-');
+        appendDigits(formatted, dateTime.getMonthValue(), 2).append('-');
+        appendDigits(formatted, dateTime.getDayOfMonth(), 2).append('T');
+        appendDigits(formatted, dateTime.getHour(), 2).append(':');
+        appendDigits(formatted, dateTime.getMinute(), 2).append(':');
+        appendDigits(formatted, dateTime.getSecond(), 2);
+        int millis = dateTime.getNano() / 1_000_000;
+        if (millis != 0) {
+            appendDigits(formatted.append('.'), millis, 3);
+        }
+        if (offsetSeconds == 0) {
+            formatted.append('Z');
+        } else {
+            int offsetMinutes = Math.abs(offsetSeconds / 60);
+            formatted.append(offsetSeconds < 0 ? '-' : '+');
+            appendDigits(formatted, offsetMinutes / 60, 2).append(':');
+            appendDigits(formatted, offsetMinutes % 60, 2);
+        }
+        return formatted.toString();
+    }
+
+    private static StringBuilder appendDigits(StringBuilder s, int value, int digits) {
+        for (int i = 1, bound = 10; i < digits; i++, bound *= 10) {
+            if (value < bound) {
+                s.append('0');
+            }
+        }
+        return s.append(value);
+    }
+
+    /**
+     * @return the parsed date, or {@code null} if the date must be parsed through a {@code GregorianCalendar}
+     *         to get the same result (or error), e.g. if it has no offset, or is not of the common layout.
+     */
+    private static ZonedDateTime parseCommonLayout(String s) {
+        int length = s.length();
+        if (length < 20 || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T' || s.charAt(13) != ':' || s.charAt(16) != ':') {
+            return null;
+        }
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 2);
+        int day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2);
+        int minute = digits(s, 14, 2);
+        int second = digits(s, 17, 2);
+        if (year < 1 || month < 0 || day < 0 || hour < 0 || hour > 23 || minute < 0 || second < 0 || second > 59) {
+            return null;
+        }
+
+        int position = 19;
+        int millis = 0;
+        if (s.charAt(position) == '.') {
+            int fractionStart = ++position;
+            while (position < length && isDigit(s.charAt(position))) {
+                if (position - fractionStart < 3) {
+                    millis = millis * 10 + (s.charAt(position) - '0');
+                }
+                position++;
+            }
+            int fractionDigits = position - fractionStart;
+            if (fractionDigits == 0) {
+                return null;
+            }
+            for (int i = fractionDigits; i < 3; i++) {
+                millis *= 10;
+            }
+        }
+
+        int offsetMinutes;
+        if (position == length - 1 && s.charAt(position) == 'Z') {
+            offsetMinutes = 0;
+        } else if (position == length - 6 && (s.charAt(position) == '+' || s.charAt(position) == '-') && s.charAt(position + 3) == ':') {
+            int offsetHours = digits(s, position + 1, 2);
+            int offsetMinutesOfHour = digits(s, position + 4, 2);
+            if (offsetHours < 0 || offsetMinutesOfHour < 0 || offsetMinutesOfHour > 59) {
+                return null;
+            }
+            offsetMinutes = (s.charAt(position) == '-' ? -1 : 1) * (offsetHours * 60 + offsetMinutesOfHour);
+            if (Math.abs(offsetMinutes) > MAX_OFFSET_MINUTES) {
+                return null;
+            }
+        } else {
+            return null;
+        }
+
+        try {
+            LocalDateTime localDateTime = LocalDateTime.of(year, month, day, hour, minute, second, millis * 1_000_000);
+            return ZonedDateTime.ofInstant(localDateTime.toInstant(ZoneOffset.ofTotalSeconds(offsetMinutes * 60)), zone(offsetMinutes));
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    private static ZoneId zone(int offsetMinutes) {
+        int index = offsetMinutes + MAX_OFFSET_MINUTES;
+        ZoneId zone = zonesByOffsetMinutes[index];
+        if (zone == null) {
+            // ZoneIds are immutable, so a zone resolved concurrently by several threads is just resolved more than once
+            zone = ZoneId.ofOffset("GMT", ZoneOffset.ofTotalSeconds(offsetMinutes * 60));
+            zonesByOffsetMinutes[index] = zone;
+        }
+        return zone;
+    }
+
+    private static int digits(String s, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = s.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 
 }
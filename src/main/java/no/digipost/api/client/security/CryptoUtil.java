@@ -15,6 +15,7 @@
  */
 package no.digipost.api.client.security;
 
+import no.digipost.api.client.internal.BackgroundInitialized;
 import org.bouncycastle.cms.CMSAlgorithm;
 import org.bouncycastle.cms.CMSException;
 import org.bouncycastle.cms.jcajce.JceCMSContentEncryptorBuilder;
@@ -33,6 +34,11 @@ import java.util.Enumeration;
 public final class CryptoUtil {
     private static final Logger LOG = LoggerFactory.getLogger(CryptoUtil.class);
 
+    private static final BackgroundInitialized<Void> bouncyCastle = new BackgroundInitialized<>("bouncycastle", () -> {
+        addBouncyCastleProviderAndVerify_AES256_CBC_Support();
+        return null;
+    });
+
     public static PrivateKey loadKeyFromP12(final InputStream certificateStream, final String passord) {
         try {
             KeyStore keyStore = KeyStore.getInstance("PKCS12");
@@ -56,6 +62,7 @@ public final class CryptoUtil {
     }
 
     public static byte[] sign(final PrivateKey privateKey, final String messageToSign) {
+        ensureBouncyCastleProviderIsRegistered();
         Signature instance;
         try {
             instance = Signature.getInstance("SHA256WithRSAEncryption");
@@ -78,6 +85,21 @@ public final class CryptoUtil {
         }
     }
 
+    /**
+     * Start registering the BouncyCastle provider on a background thread, unless it has already been started.
+     */
+    public static void registerBouncyCastleProviderInBackground() {
+        bouncyCastle.startInBackground();
+    }
+
+    /**
+     * Register the BouncyCastle provider and verify AES256_CBC support, unless it has already been done,
+     * or wait for the registration to complete if it is in progress.
+     */
+    public static void ensureBouncyCastleProviderIsRegistered() {
+        bouncyCastle.get();
+    }
+
     private CryptoUtil() {
     }
 }
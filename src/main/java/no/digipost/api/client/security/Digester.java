@@ -17,18 +17,49 @@ package no.digipost.api.client.security;
 
 import org.bouncycastle.crypto.ExtendedDigest;
 import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.io.DigestOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 
 @FunctionalInterface
 public interface Digester {
 
-    final static Digester sha256 = data -> {
-        ExtendedDigest instance = new SHA256Digest();
-        byte[] result = new byte[instance.getDigestSize()];
-        instance.update(data, 0, data.length);
-        instance.doFinal(result, 0);
-        return result;
+    final static Digester sha256 = new Digester() {
+        @Override
+        public byte[] createDigest(byte[] data) {
+            ExtendedDigest instance = new SHA256Digest();
+            byte[] result = new byte[instance.getDigestSize()];
+            instance.update(data, 0, data.length);
+            instance.doFinal(result, 0);
+            return result;
+        }
+
+        @Override
+        public byte[] createDigest(ContentWriter content) throws IOException {
+            DigestOutputStream digestStream = new DigestOutputStream(new SHA256Digest());
+            content.writeTo(digestStream);
+            return digestStream.getDigest();
+        }
     };
 
     byte[] createDigest(byte[] data);
 
+    /**
+     * Create the digest of content which is written to a stream, e.g. by
+     * {@code HttpEntity.writeTo(OutputStream)}. Digesters which support it
+     * will consume the content as it is written, instead of collecting it in memory first.
+     */
+    default byte[] createDigest(ContentWriter content) throws IOException {
+        ByteArrayOutputStream collected = new ByteArrayOutputStream();
+        content.writeTo(collected);
+        return createDigest(collected.toByteArray());
+    }
+
+    @FunctionalInterface
+    interface ContentWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
 }
@@ -83,6 +83,7 @@ public final class Encrypter {
             throw new DigipostClientException(ENCRYPTION_KEY_NOT_FOUND, "Trying to preencrypt but have no encryption key.");
         }
 
+        CryptoUtil.ensureBouncyCastleProviderIsRegistered();
         try {
             CMSEnvelopedDataGenerator gen = new CMSEnvelopedDataGenerator();
             gen.addRecipientInfoGenerator(keyInfoGenerator);
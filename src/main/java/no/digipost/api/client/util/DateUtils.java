@@ -14,6 +14,9 @@
  * limitations under the License.
  */
 package no.digipost.api.client.util;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
@@ -22,20 +25,111 @@ import java.util.Locale;
 public class DateUtils {
 
     public static final String RFC_1123_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss 'GMT'";
-    private static final DateTimeFormatter fmt = DateTimeFormatter.ofPattern(RFC_1123_DATE_FORMAT).withZone(ZoneId.of("GMT")).withLocale(Locale.ENGLISH);
+    private static final ZoneId GMT = ZoneId.of("GMT");
+    private static final DateTimeFormatter fmt = DateTimeFormatter.ofPattern(RFC_1123_DATE_FORMAT).withZone(GMT).withLocale(Locale.ENGLISH);
+
+    private static final String[] DAYS_OF_WEEK = {"Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"};
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+    private static final int RFC_1123_DATE_LENGTH = "Sun, 06 Nov 1994 08:49:37 GMT".length();
+
+    /**
+     * The last formatted date. A date is formatted with a precision of seconds, so all
+     * the dates within the same second are formatted to this value.
+     */
+    private static volatile FormattedSecond lastFormatted = new FormattedSecond(Long.MIN_VALUE, null);
 
     /**
      * Returns an RFC 1123 date format used in HTTP
      */
     public static String formatDate(ZonedDateTime dateTime) {
-        return dateTime.format(fmt);
+        return formatDate(dateTime.toInstant());
+    }
+
+    /**
+     * Returns an RFC 1123 date format used in HTTP
+     */
+    public static String formatDate(Instant instant) {
+        FormattedSecond last = lastFormatted;
+        if (last.epochSecond == instant.getEpochSecond()) {
+            return last.formatted;
+        }
+        FormattedSecond formatted = new FormattedSecond(instant.getEpochSecond(), fmt.format(instant));
+        lastFormatted = formatted;
+        return formatted.formatted;
     }
 
     /**
      * Return a {@link ZonedDateTime} parsed from an RFC 1123 compliant string
      */
     public static ZonedDateTime parseDate(String dateTime) {
-        return ZonedDateTime.parse(dateTime, fmt);
+        ZonedDateTime parsed = parseFixedLayout(dateTime);
+        return parsed != null ? parsed : ZonedDateTime.parse(dateTime, fmt);
+    }
+
+    /**
+     * Parse the date as it is formatted by {@link #formatDate(Instant)}, which is the layout
+     * of all dates in the Date header sent by Digipost, without resolving it through a
+     * {@link DateTimeFormatter}.
+     *
+     * @return the parsed date, or {@code null} if the date could not be parsed this way,
+     *         and must be parsed with the formatter to get the same result, or the same error.
+     */
+    private static ZonedDateTime parseFixedLayout(String dateTime) {
+        if (dateTime.length() != RFC_1123_DATE_LENGTH
+                || dateTime.charAt(3) != ',' || dateTime.charAt(4) != ' ' || dateTime.charAt(7) != ' ' || dateTime.charAt(11) != ' '
+                || dateTime.charAt(16) != ' ' || dateTime.charAt(19) != ':' || dateTime.charAt(22) != ':' || !dateTime.endsWith(" GMT")) {
+            return null;
+        }
+        int month = month(dateTime);
+        int dayOfMonth = digits(dateTime, 5, 2);
+        int year = digits(dateTime, 12, 4);
+        int hour = digits(dateTime, 17, 2);
+        int minute = digits(dateTime, 20, 2);
+        int second = digits(dateTime, 23, 2);
+        if (month < 0 || dayOfMonth < 0 || year < 1 || hour < 0 || minute < 0 || second < 0) {
+            return null;
+        }
+        try {
+            LocalDate date = LocalDate.of(year, month, dayOfMonth);
+            if (!dateTime.regionMatches(0, DAYS_OF_WEEK[date.getDayOfWeek().ordinal()], 0, 3)) {
+                return null;
+            }
+            return ZonedDateTime.of(date.atTime(hour, minute, second), GMT);
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    private static int month(String dateTime) {
+        for (int i = 0; i < MONTHS.length; i++) {
+            if (dateTime.regionMatches(8, MONTHS[i], 0, 3)) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int digits(String s, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+
+    private static final class FormattedSecond {
+        final long epochSecond;
+        final String formatted;
+
+        FormattedSecond(long epochSecond, String formatted) {
+            this.epochSecond = epochSecond;
+            this.formatted = formatted;
+        }
     }
 
 }
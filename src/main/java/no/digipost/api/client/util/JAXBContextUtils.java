@@ -15,6 +15,7 @@
  */
 package no.digipost.api.client.util;
 
+import no.digipost.api.client.internal.BackgroundInitialized;
 import no.digipost.api.client.representations.AdditionalData;
 import no.digipost.api.client.representations.Autocomplete;
 import no.digipost.api.client.representations.DocumentEvents;
@@ -40,21 +41,46 @@ import no.digipost.api.client.representations.sender.SenderInformation;
 import no.digipost.api.client.representations.shareddocuments.SharedDocument;
 import no.digipost.api.client.representations.shareddocuments.ShareDocumentsRequestState;
 
+import jakarta.xml.bind.Binder;
 import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.JAXBIntrospector;
+import jakarta.xml.bind.Marshaller;
+import jakarta.xml.bind.SchemaOutputResolver;
+import jakarta.xml.bind.Unmarshaller;
+import org.w3c.dom.Node;
+
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.function.Supplier;
 
 import static no.digipost.api.client.internal.ExceptionUtils.exceptionNameAndMessage;
 
 public class JAXBContextUtils {
-    public static final JAXBContext jaxbContext = initContext(
+
+    private static final BackgroundInitialized<JAXBContext> initializedContext = new BackgroundInitialized<>("jaxb-context", () -> initContext(
             EntryPoint.class, ErrorMessage.class, Identification.class, IdentificationResult.class, Message.class, Recipients.class,
             Autocomplete.class, DocumentEvents.class, DocumentStatus.class, MessageDelivery.class, EncryptionKey.class,
             IdentificationResultWithEncryptionKey.class, SenderInformation.class, UserInformation.class, UserAccount.class,
             AdditionalData.class, EncryptionCertificate.class, Archives.class, Archive.class, ArchiveDocument.class,
             Tag.class, PublicMailboxTag.class, ShareDocumentsRequestState.class, SharedDocument.class
-    );
+    ));
+
+    /**
+     * The context for all the representations of the Digipost API. Creating the context is expensive,
+     * and it is not created until it is first used, unless {@link #initializeInBackground() initialization
+     * in the background} has been started.
+     */
+    public static final JAXBContext jaxbContext = new LazyJAXBContext(initializedContext);
+
+    /**
+     * Start creating the {@link #jaxbContext} on a background thread, so that it is likely to be ready
+     * when it is first used.
+     */
+    public static void initializeInBackground() {
+        initializedContext.startInBackground();
+    }
 
     private static JAXBContext initContext(Class<?>... clazz) {
         try {
@@ -79,4 +105,44 @@ public class JAXBContextUtils {
             throw new RuntimeException("Failed when trying to unmarshal inputstream to object. Cause: " + exceptionNameAndMessage(e), e);
         }
     }
+
+
+    private static final class LazyJAXBContext extends JAXBContext {
+
+        private final Supplier<JAXBContext> context;
+
+        LazyJAXBContext(Supplier<JAXBContext> context) {
+            this.context = context;
+        }
+
+        @Override
+        public Unmarshaller createUnmarshaller() throws JAXBException {
+            return context.get().createUnmarshaller();
+        }
+
+        @Override
+        public Marshaller createMarshaller() throws JAXBException {
+            return context.get().createMarshaller();
+        }
+
+        @Override
+        public <T> Binder<T> createBinder(Class<T> domType) {
+            return context.get().createBinder(domType);
+        }
+
+        @Override
+        public Binder<Node> createBinder() {
+            return context.get().createBinder();
+        }
+
+        @Override
+        public JAXBIntrospector createJAXBIntrospector() {
+            return context.get().createJAXBIntrospector();
+        }
+
+        @Override
+        public void generateSchema(SchemaOutputResolver outputResolver) throws IOException {
+            context.get().generateSchema(outputResolver);
+        }
+    }
 }
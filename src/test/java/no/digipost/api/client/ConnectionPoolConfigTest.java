@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client;
+
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class ConnectionPoolConfigTest {
+
+    @Test
+    void createsConnectionManagerWithConfiguredLimits() {
+        ConnectionPoolConfig config = ConnectionPoolConfig.newConfiguration()
+                .maxConnections(40)
+                .maxConnectionsPerRoute(30)
+                .socketTimeout(Duration.ofSeconds(30))
+                .build();
+
+        try (PoolingHttpClientConnectionManager connectionManager = config.createConnectionManager()) {
+            assertThat(connectionManager.getMaxTotal(), is(40));
+            assertThat(connectionManager.getDefaultMaxPerRoute(), is(30));
+            assertThat(connectionManager.getTotalStats().getLeased(), is(0));
+        }
+    }
+
+    @Test
+    void connectionsPerRouteIsLimitedByTotalConnections() {
+        ConnectionPoolConfig config = ConnectionPoolConfig.newConfiguration().maxConnections(5).build();
+        assertThat(config.maxConnectionsPerRoute, is(5));
+    }
+
+    @Test
+    void defaultAllowsManyConcurrentRequestsToDigipost() {
+        assertThat(ConnectionPoolConfig.DEFAULT.maxConnectionsPerRoute, is(50));
+        assertThat(DigipostClientConfig.newConfiguration().build().connectionPool, is(ConnectionPoolConfig.DEFAULT));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client;
+
+import no.digipost.api.client.internal.ApiServiceImpl;
+import no.digipost.api.client.security.Signer;
+import no.digipost.http.client.HttpClientFactory;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.impl.bootstrap.HttpServer;
+import org.apache.hc.core5.http.impl.bootstrap.ServerBootstrap;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.io.CloseMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static no.digipost.api.client.internal.http.Headers.X_Content_SHA256;
+import static no.digipost.api.client.internal.http.Headers.X_Digipost_Signature;
+import static no.digipost.api.client.internal.http.Headers.X_Digipost_UserId;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DigipostBrokerClientTest {
+
+    private static final BrokerId BROKER_1 = BrokerId.of(1);
+    private static final BrokerId BROKER_2 = BrokerId.of(2);
+
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    private HttpServer server;
+    private DigipostClientConfig config;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = ServerBootstrap.bootstrap()
+                .register("*", (request, response, context) -> {
+                    requests.add(request.getPath() + " " + request.getFirstHeader(X_Digipost_UserId).getValue()
+                            + " " + new String(Base64.getDecoder().decode(request.getFirstHeader(X_Digipost_Signature).getValue()), UTF_8));
+                    byte[] entryPoint = ("<entrypoint xmlns=\"http://api.digipost.no/schema/v8\">"
+                            + "<certificate>certificate for " + request.getPath() + "</certificate></entrypoint>").getBytes(UTF_8);
+                    response.setHeader(X_Content_SHA256, sha256(entryPoint));
+                    response.setEntity(new ByteArrayEntity(entryPoint, ContentType.APPLICATION_XML));
+                })
+                .create();
+        server.start();
+        config = DigipostClientConfig.newConfiguration().digipostApiUri(URI.create("http://localhost:" + server.getLocalPort())).build();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.close(CloseMode.IMMEDIATE);
+    }
+
+    @Test
+    void fetchesEntryPointOnceForAllBrokers() throws IOException {
+        try (ApiServiceImpl.Shared shared = new ApiServiceImpl.Shared(config, HttpClientFactory.createDefaultBuilder())) {
+            ApiServiceImpl broker1 = new ApiServiceImpl(shared, BROKER_1, signedBy("broker 1"));
+            ApiServiceImpl broker2 = new ApiServiceImpl(shared, BROKER_2, signedBy("broker 2"));
+
+            assertThat(broker1.getEntryPoint().getCertificate(), is("certificate for /"));
+            assertThat(broker2.getEntryPoint(), sameInstance(broker1.getEntryPoint()));
+            assertThat(requests, containsInAnyOrder("/ 1 signed by broker 1"));
+        }
+    }
+
+    @Test
+    void fetchesEntryPointWithRenewedCertificateOfBroker() throws IOException {
+        try (ApiServiceImpl.Shared shared = new ApiServiceImpl.Shared(config, HttpClientFactory.createDefaultBuilder())) {
+            new ApiServiceImpl(shared, BROKER_1, signedBy("broker 1"));
+            ApiServiceImpl renewed = new ApiServiceImpl(shared, BROKER_1, signedBy("broker 1 renewed"));
+
+            renewed.getEntryPoint();
+            assertThat(requests, containsInAnyOrder("/ 1 signed by broker 1 renewed"));
+        }
+    }
+
+    @Test
+    void fetchesEntryPointOnBehalfOfBrokerWhichIsStillRegistered() throws IOException {
+        try (ApiServiceImpl.Shared shared = new ApiServiceImpl.Shared(config, HttpClientFactory.createDefaultBuilder())) {
+            new ApiServiceImpl(shared, BROKER_1, signedBy("broker 1"));
+            ApiServiceImpl broker2 = new ApiServiceImpl(shared, BROKER_2, signedBy("broker 2"));
+            shared.unregister(BROKER_1);
+
+            broker2.getEntryPoint();
+            assertThat(requests, containsInAnyOrder("/ 2 signed by broker 2"));
+        }
+    }
+
+    @Test
+    void fetchesEntryPointOfSenderSignedByEachBroker() throws IOException {
+        try (ApiServiceImpl.Shared shared = new ApiServiceImpl.Shared(config, HttpClientFactory.createDefaultBuilder())) {
+            ApiServiceImpl broker1 = new ApiServiceImpl(shared, BROKER_1, signedBy("broker 1"));
+            ApiServiceImpl broker2 = new ApiServiceImpl(shared, BROKER_2, signedBy("broker 2"));
+            SenderId sender = SenderId.of(42);
+
+            broker1.getEntryPoint(sender);
+            broker2.getEntryPoint(sender);
+            broker1.getEntryPoint(sender);
+            broker2.getEntryPoint(sender);
+
+            assertThat(requests, containsInAnyOrder("/ 1 signed by broker 1", "/42 1 signed by broker 1", "/42 2 signed by broker 2"));
+        }
+    }
+
+    @Test
+    void dispatchesToRegisteredBroker() throws IOException {
+        try (DigipostBrokerClient brokerClient = new DigipostBrokerClient(config, HttpClientFactory.createDefaultBuilder())) {
+            DigipostClient client1 = brokerClient.register(BROKER_1, signedBy("broker 1"));
+            DigipostClient client2 = brokerClient.register(BROKER_2, signedBy("broker 2"));
+
+            assertThat(brokerClient.forBroker(BROKER_1), sameInstance(client1));
+            assertThat(brokerClient.forBroker(BROKER_2), sameInstance(client2));
+            assertThat(brokerClient.getBrokers(), containsInAnyOrder(BROKER_1, BROKER_2));
+
+            DigipostClient renewed = brokerClient.register(BROKER_1, signedBy("broker 1 renewed"));
+            assertThat(brokerClient.forBroker(BROKER_1), sameInstance(renewed));
+            assertThat(renewed, not(sameInstance(client1)));
+
+            assertTrue(brokerClient.unregister(BROKER_2));
+            assertFalse(brokerClient.unregister(BROKER_2));
+            assertThrows(IllegalArgumentException.class, () -> brokerClient.forBroker(BROKER_2));
+        }
+    }
+
+    @Test
+    void sharesConnectionPoolOfOwnHttpClient() throws IOException {
+        try (DigipostBrokerClient brokerClient = new DigipostBrokerClient(config)) {
+            DigipostClient client1 = brokerClient.register(BROKER_1, signedBy("broker 1"));
+            DigipostClient client2 = brokerClient.register(BROKER_2, signedBy("broker 2"));
+
+            int maxConnections = brokerClient.getConnectionPoolStatistics().get().max;
+            assertThat(maxConnections, is(config.connectionPool.maxConnections));
+            assertThat(client1.getConnectionPoolStatistics().get().max, is(maxConnections));
+            assertThat(client2.getConnectionPoolStatistics().get().max, is(maxConnections));
+        }
+    }
+
+
+    private static Signer signedBy(String broker) {
+        return dataToSign -> ("signed by " + broker).getBytes(UTF_8);
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client;
+
+import no.digipost.api.client.internal.ApiServiceImpl;
+import no.digipost.api.client.representations.EntryPoint;
+import no.digipost.api.client.security.Signer;
+import no.digipost.http.client.HttpClientFactory;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.impl.bootstrap.HttpServer;
+import org.apache.hc.core5.http.impl.bootstrap.ServerBootstrap;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.io.CloseMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Measures the time from a cold JVM until the client has fetched the {@link EntryPoint} from
+ * a stub server, which includes loading and initializing the client, registering BouncyCastle,
+ * signing the request, and creating the JAXB context. Each measurement is done in a new JVM.
+ * Run with the {@link #main(String[]) main method} from the test classpath.
+ * <p>
+ * Nothing from the client itself is used when starting the stub server, so that it is not
+ * initialized ahead of the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class StartupBenchmark {
+
+    private static final String ENTRY_POINT = "<entrypoint xmlns=\"http://api.digipost.no/schema/v8\"><certificate>not used</certificate></entrypoint>";
+
+    private HttpServer server;
+    private URI serverUri;
+    private Signer signer;
+
+    @Setup
+    public void startStubServer() throws IOException, NoSuchAlgorithmException {
+        byte[] entryPoint = ENTRY_POINT.getBytes(UTF_8);
+        String entryPointHash = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(entryPoint));
+        server = ServerBootstrap.bootstrap()
+                .register("*", (request, response, context) -> {
+                    response.setHeader("X-Content-SHA256", entryPointHash);
+                    response.setEntity(new ByteArrayEntity(entryPoint, ContentType.create("application/vnd.digipost-v8+xml")));
+                })
+                .create();
+        server.start();
+        serverUri = URI.create("http://localhost:" + server.getLocalPort() + "/");
+
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        signer = Signer.using(keyPairGenerator.generateKeyPair().getPrivate());
+    }
+
+    @TearDown
+    public void stopStubServer() {
+        server.close(CloseMode.IMMEDIATE);
+    }
+
+    @Benchmark
+    public EntryPoint timeToFirstEntryPoint() {
+        DigipostClientConfig config = DigipostClientConfig.newConfiguration().digipostApiUri(serverUri).build();
+        return new ApiServiceImpl(config, HttpClientFactory.createDefaultBuilder(), BrokerId.of(1), signer).getEntryPoint();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(StartupBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.archive;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class ArchiveDeduplicationIndexTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void entriesAreReadBackWhenReopeningIndex() {
+        UUID first = UUID.randomUUID(), second = UUID.randomUUID();
+        try (ArchiveDeduplicationIndex index = ArchiveDeduplicationIndex.open(dir.resolve("index"))) {
+            index.put("key-1", first);
+            index.put("key-2", second);
+            index.remove("key-2");
+        }
+
+        try (ArchiveDeduplicationIndex index = ArchiveDeduplicationIndex.open(dir.resolve("index"))) {
+            assertThat(index.get("key-1").get(), is(first));
+            assertFalse(index.get("key-2").isPresent());
+        }
+    }
+
+    @Test
+    void removesIncompleteLastLineLeftByCrashWhenReopeningIndex() throws IOException {
+        Path indexFile = dir.resolve("index");
+        UUID archived = UUID.randomUUID();
+        try (ArchiveDeduplicationIndex index = ArchiveDeduplicationIndex.open(indexFile)) {
+            index.put("key-1", archived);
+        }
+        Files.write(indexFile, "key-2 1234-ab".getBytes(UTF_8), APPEND);
+
+        UUID archivedAfterCrash = UUID.randomUUID();
+        try (ArchiveDeduplicationIndex index = ArchiveDeduplicationIndex.open(indexFile)) {
+            assertThat(index.size(), is(1));
+            assertThat(index.get("key-1").get(), is(archived));
+            index.put("key-3", archivedAfterCrash);
+        }
+
+        try (ArchiveDeduplicationIndex index = ArchiveDeduplicationIndex.open(indexFile)) {
+            assertThat(index.size(), is(2));
+            assertThat(index.get("key-3").get(), is(archivedAfterCrash));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.archive;
+
+import no.digipost.api.client.representations.DigipostUri;
+import no.digipost.api.client.representations.Link;
+import no.digipost.api.client.representations.archive.Archive;
+import no.digipost.api.client.representations.archive.ArchiveDocument;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+import static no.digipost.api.client.representations.Relation.GET_ARCHIVE_DOCUMENT_CONTENT_STREAM;
+import static no.digipost.api.client.representations.Relation.NEXT_DOCUMENTS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+class ArchiveDocumentIndexTest {
+
+    private static final ZonedDateTime NOW = ZonedDateTime.of(2024, 5, 1, 12, 0, 0, 0, ZoneId.of("Europe/Oslo"));
+    private final Clock clock = Clock.fixed(Instant.from(NOW), NOW.getZone());
+
+    private final URI page1 = URI.create("https://api.digipost.no/archive/documents?offset=0");
+    private final URI page2 = URI.create("https://api.digipost.no/archive/documents?offset=100");
+    private final Archive archive = page(page1);
+
+    private final ArchiveDocument invoice = document("faktura-1", NOW.minusDays(3)).withAttribute("kunde", "1234");
+    private final ArchiveDocument contract = document("kontrakt-1", NOW.minusDays(2)).withAttribute("kunde", "1234");
+    private final ArchiveDocument other = document("faktura-2", NOW.minusDays(1)).withAttribute("kunde", "5678");
+
+    @Test
+    void answersLookupsAfterSyncAndAfterReopening(@TempDir Path dir) {
+        Function<URI, Archive> fetchPage = uri -> uri.equals(page1) ? page(page2, invoice, contract) : page(null, other);
+
+        try (ArchiveDocumentIndex index = ArchiveDocumentIndex.open(dir.resolve("index"), clock)) {
+            assertThat(index.sync(archive, fetchPage), is(3));
+            assertIndexed(index);
+        }
+        try (ArchiveDocumentIndex reopened = ArchiveDocumentIndex.open(dir.resolve("index"), clock)) {
+            assertIndexed(reopened);
+            assertThat(reopened.byUuid(invoice.getUuid()).get().getDocumentContentStream(), is(contentUri(invoice)));
+            assertThat(reopened.getLatestArchivedTime().get().toInstant(), is(other.getArchivedTime().toInstant()));
+        }
+    }
+
+    @Test
+    void syncsOnlyDocumentsArchivedSinceLatestIndexedDocument(@TempDir Path dir) {
+        ArchiveDocument newer = document("faktura-3", NOW.minusHours(1)).withAttribute("kunde", "1234");
+        List<URI> fetched = new ArrayList<>();
+
+        try (ArchiveDocumentIndex index = ArchiveDocumentIndex.open(dir.resolve("index"), clock)) {
+            index.sync(archive, uri -> page(null, invoice, contract, other));
+
+            int synced = index.sync(archive, uri -> {
+                fetched.add(uri);
+                return page(null, other, newer);
+            });
+
+            assertThat(synced, is(1));
+            assertThat(fetched.get(0).getQuery(), containsString("fromDate="));
+            assertThat(index.byAttribute("kunde", "1234"), containsInAnyOrder(invoice, contract, newer));
+        }
+    }
+
+    private void assertIndexed(ArchiveDocumentIndex index) {
+        assertThat(index.size(), is(3));
+        assertThat(index.byReferenceId("faktura-1").get(0).getUuid(), is(invoice.getUuid()));
+        assertThat(uuids(index.byAttribute("kunde", "1234")), containsInAnyOrder(invoice.getUuid(), contract.getUuid()));
+        assertThat(uuids(index.byAttribute("kunde", "5678")), contains(other.getUuid()));
+        assertThat(index.byAttribute("kunde", "0000"), empty());
+    }
+
+    private static List<UUID> uuids(List<ArchiveDocument> documents) {
+        List<UUID> uuids = new ArrayList<>();
+        documents.forEach(document -> uuids.add(document.getUuid()));
+        return uuids;
+    }
+
+    private static Archive page(URI next, ArchiveDocument ... documents) {
+        List<Link> links = new ArrayList<>();
+        if (next != null) {
+            links.add(new Link(NEXT_DOCUMENTS, new DigipostUri(next)));
+        }
+        List<ArchiveDocument> documentList = new ArrayList<>();
+        Collections.addAll(documentList, documents);
+        return new Archive(null, null, "arkiv", links, documentList);
+    }
+
+    private static ArchiveDocument document(String referenceId, ZonedDateTime archivedTime) {
+        ArchiveDocument document = new ArchiveDocument(UUID.randomUUID(), referenceId + ".pdf", "pdf", "application/pdf").withReferenceId(referenceId);
+        document.addLink(new Link(GET_ARCHIVE_DOCUMENT_CONTENT_STREAM, new DigipostUri(contentUri(document))));
+        try {
+            FieldUtils.writeField(document, "archivedTime", archivedTime, true);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        return document;
+    }
+
+    private static URI contentUri(ArchiveDocument document) {
+        return URI.create("https://api.digipost.no/archive/content/" + document.getUuid());
+    }
+}
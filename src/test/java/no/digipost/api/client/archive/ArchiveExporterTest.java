@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.archive;
+
+import no.digipost.api.client.archive.ArchiveExporter.Summary;
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import no.digipost.api.client.errorhandling.ErrorCode;
+import no.digipost.api.client.representations.ContentHash;
+import no.digipost.api.client.representations.DigipostUri;
+import no.digipost.api.client.representations.Link;
+import no.digipost.api.client.representations.archive.Archive;
+import no.digipost.api.client.representations.archive.ArchiveDocument;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static no.digipost.api.client.representations.Relation.GET_ARCHIVE_DOCUMENT_CONTENT_STREAM;
+import static no.digipost.api.client.representations.Relation.NEXT_DOCUMENTS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeout;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ArchiveExporterTest {
+
+    private final ArchiveApi archiveApi = mock(ArchiveApi.class);
+
+    private final ArchiveDocument verifiable = document("faktura", "SHA256", sha256Hex("faktura"));
+    private final ArchiveDocument withoutHash = document("vedlegg", null, null);
+    private final ArchiveDocument corrupt = document("kontrakt", "SHA256", sha256Hex("noe annet"));
+
+    private final URI page1 = URI.create("https://api.digipost.no/archive/documents?offset=0");
+    private final URI page2 = URI.create("https://api.digipost.no/archive/documents?offset=100");
+    private final URI page3 = URI.create("https://api.digipost.no/archive/documents?offset=200");
+
+    ArchiveExporterTest() {
+        when(archiveApi.getArchiveDocuments(page1)).thenReturn(page(page2, verifiable, withoutHash));
+        when(archiveApi.getArchiveDocuments(page2)).thenReturn(page(page3, corrupt));
+        when(archiveApi.getArchiveDocuments(page3)).thenReturn(page(null));
+    }
+
+    @Test
+    void exportsAllPagesToDirectoryAndVerifiesContent(@TempDir Path dir) throws IOException {
+        Summary summary = exporter().build().exportToDirectory(page(page1), dir);
+
+        assertThat(summary.verified, is(1L));
+        assertThat(summary.unverified, is(1L));
+        assertThat(summary.failed, is(1L));
+        assertThat(new String(Files.readAllBytes(dir.resolve(verifiable.getUuid() + ".pdf")), UTF_8), is("faktura"));
+        assertThat(new String(Files.readAllBytes(dir.resolve(withoutHash.getUuid() + ".pdf")), UTF_8), is("vedlegg"));
+        assertFalse(Files.exists(dir.resolve(corrupt.getUuid() + ".pdf")));
+
+        List<String> manifest = Files.readAllLines(dir.resolve(ArchiveExporter.MANIFEST_NAME));
+        assertThat(manifest, hasSize(4));
+        assertThat(manifest, hasItem(verifiable.getUuid() + "\t" + verifiable.getUuid() + ".pdf\tfaktura.pdf\t\tapplication/pdf\t\t7\t" + sha256Hex("faktura") + "\tVERIFIED\t"));
+        assertThat(manifest.get(3), endsWith("FAILED\tContent does not match the SHA256 content hash from Digipost"));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files.filter(file -> file.getFileName().toString().endsWith(".part")).count(), is(0L));
+        }
+    }
+
+    @Test
+    void exportsToZipWithManifest(@TempDir Path dir) throws IOException {
+        Path zipFile = dir.resolve("export.zip");
+        exporter().build().exportToZip(page(page1), zipFile);
+
+        try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+            List<String> entries = Collections.list(zip.entries()).stream().map(ZipEntry::getName).collect(toList());
+            assertThat(entries, containsInAnyOrder(verifiable.getUuid() + ".pdf", withoutHash.getUuid() + ".pdf", ArchiveExporter.MANIFEST_NAME));
+        }
+    }
+
+    @Test
+    void resumesFromCheckpointedPage(@TempDir Path dir) throws IOException {
+        Path checkpoint = dir.resolve("checkpoint");
+        Files.write(checkpoint, page2.toString().getBytes(UTF_8));
+
+        Summary summary = exporter().checkpoint(checkpoint).build().exportToDirectory(page(page1), dir.resolve("export"));
+
+        assertThat(summary.failed, is(1L));
+        verify(archiveApi, never()).getArchiveDocuments(page1);
+    }
+
+    @Test
+    void recordsCompletedExportInCheckpoint(@TempDir Path dir) throws IOException {
+        when(archiveApi.getArchiveDocuments(page2)).thenReturn(page(page3));
+        Path checkpoint = dir.resolve("checkpoint");
+
+        exporter().checkpoint(checkpoint).build().exportToDirectory(page(page1), dir.resolve("export"));
+        assertThat(new String(Files.readAllBytes(checkpoint), UTF_8), is("completed"));
+
+        Summary again = exporter().checkpoint(checkpoint).build().exportToDirectory(page(page1), dir.resolve("export"));
+        assertThat(again.verified + again.unverified, is(0L));
+    }
+
+    @Test
+    void recordsCauseOfFailedDocumentInManifest(@TempDir Path dir) throws IOException {
+        when(archiveApi.getArchiveDocumentContentStream(contentUri(withoutHash)))
+            .thenThrow(new DigipostClientException(ErrorCode.GENERAL_ERROR, "Dokumentet finnes ikke"));
+
+        Summary summary = exporter().build().exportToDirectory(page(page1), dir);
+
+        assertThat(summary.failed, is(2L));
+        List<String> manifest = Files.readAllLines(dir.resolve(ArchiveExporter.MANIFEST_NAME));
+        assertThat(manifest, hasItem(startsWith(withoutHash.getUuid() + "\t")));
+        assertThat(manifest.stream().filter(line -> line.startsWith(withoutHash.getUuid().toString())).findFirst().get(),
+                endsWith("\t0\t\tFAILED\tDokumentet finnes ikke"));
+    }
+
+    @Test
+    void abortsExportOnErrorWhichIsNotSpecificToDocument(@TempDir Path dir) throws IOException {
+        when(archiveApi.getArchiveDocumentContentStream(contentUri(verifiable)))
+            .thenThrow(new DigipostClientException(ErrorCode.BROKER_NOT_AUTHORIZED, "Ikke tilgang til arkivet"));
+        Path checkpoint = dir.resolve("checkpoint");
+
+        DigipostClientException thrown = assertThrows(DigipostClientException.class,
+                () -> exporter().checkpoint(checkpoint).build().exportToZip(page(page1), dir.resolve("export.zip")));
+
+        assertThat(thrown.getErrorCode(), is(ErrorCode.BROKER_NOT_AUTHORIZED));
+        verify(archiveApi, never()).getArchiveDocumentContentStream(contentUri(corrupt));
+        assertFalse(Files.exists(checkpoint));
+    }
+
+    @Test
+    void advancesCheckpointPastPageWithFailedDocument(@TempDir Path dir) throws IOException {
+        Path checkpoint = dir.resolve("checkpoint");
+
+        Summary summary = exporter().checkpoint(checkpoint).build().exportToDirectory(page(page1), dir.resolve("export"));
+
+        assertThat(summary.failed, is(1L));
+        assertThat(new String(Files.readAllBytes(checkpoint), UTF_8), is("completed"));
+    }
+
+    @Test
+    void stopsOtherDownloadsOfPageBeforeClosingExportWhenAborted(@TempDir Path dir) {
+        AtomicBoolean slowDownloadStarted = new AtomicBoolean(), slowDownloadClosed = new AtomicBoolean();
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        when(archiveApi.getArchiveDocumentContentStream(contentUri(verifiable))).thenAnswer(invocation -> {
+            bothStarted.countDown();
+            bothStarted.await(5, SECONDS);
+            throw new DigipostClientException(ErrorCode.BROKER_NOT_AUTHORIZED, "Ikke tilgang til arkivet");
+        });
+        when(archiveApi.getArchiveDocumentContentStream(contentUri(withoutHash))).thenAnswer(invocation -> {
+            slowDownloadStarted.set(true);
+            bothStarted.countDown();
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    try {
+                        Thread.sleep(10_000);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("download stopped");
+                    }
+                    return -1;
+                }
+
+                @Override
+                public void close() {
+                    slowDownloadClosed.set(true);
+                }
+            };
+        });
+
+        assertTimeout(Duration.ofSeconds(5), () ->
+                assertThrows(DigipostClientException.class, () -> exporter().build().exportToZip(page(page1), dir.resolve("export.zip"))));
+
+        assertThat(slowDownloadStarted.get(), is(true));
+        assertThat(slowDownloadClosed.get(), is(true));
+    }
+
+    private ArchiveExporter.Builder exporter() {
+        return new ArchiveExporter.Builder(archiveApi).maxConcurrentDownloads(2);
+    }
+
+    private static Archive page(URI next, ArchiveDocument ... documents) {
+        List<Link> links = new ArrayList<>();
+        if (next != null) {
+            links.add(new Link(NEXT_DOCUMENTS, new DigipostUri(next)));
+        }
+        List<ArchiveDocument> documentList = new ArrayList<>();
+        Collections.addAll(documentList, documents);
+        return new Archive(null, null, "arkiv", links, documentList);
+    }
+
+    private ArchiveDocument document(String content, String hashAlgorithm, String hash) {
+        ArchiveDocument document = new ArchiveDocument(UUID.randomUUID(), content + ".pdf", "pdf", "application/pdf");
+        URI contentUri = contentUri(document);
+        document.addLink(new Link(GET_ARCHIVE_DOCUMENT_CONTENT_STREAM, new DigipostUri(contentUri)));
+        when(archiveApi.getArchiveDocumentContentStream(contentUri)).thenAnswer(invocation -> new ByteArrayInputStream(content.getBytes(UTF_8)));
+        if (hash != null) {
+            try {
+                ContentHash contentHash = new ContentHash();
+                FieldUtils.writeField(contentHash, "value", hash, true);
+                FieldUtils.writeField(contentHash, "hashAlgorithm", hashAlgorithm, true);
+                document.setContentHash(contentHash);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return document;
+    }
+
+    private static URI contentUri(ArchiveDocument document) {
+        return URI.create("https://api.digipost.no/archive/content/" + document.getUuid());
+    }
+
+    private static String sha256Hex(String content) {
+        try {
+            return Hex.toHexString(MessageDigest.getInstance("SHA-256").digest(content.getBytes(UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.archive;
+
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import no.digipost.api.client.errorhandling.ErrorCode;
+import no.digipost.api.client.representations.DigipostUri;
+import no.digipost.api.client.representations.Link;
+import no.digipost.api.client.representations.archive.Archive;
+import no.digipost.api.client.representations.archive.ArchiveDocument;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.toList;
+import static no.digipost.api.client.representations.Relation.NEXT_DOCUMENTS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ArchivePagesTest {
+
+    private final ArchiveApi archiveApi = mock(ArchiveApi.class);
+
+    private final ArchiveDocument first = document(), second = document(), third = document();
+    private final URI page1 = URI.create("https://api.digipost.no/archive/documents?offset=0");
+    private final URI page2 = URI.create("https://api.digipost.no/archive/documents?offset=100");
+    private final URI page3 = URI.create("https://api.digipost.no/archive/documents?offset=200");
+
+    ArchivePagesTest() {
+        when(archiveApi.streamDocuments(any(), anyMap())).thenCallRealMethod();
+        when(archiveApi.streamDocuments(any(), anyMap(), anyInt())).thenCallRealMethod();
+    }
+
+    @Test
+    void streamsDocumentsOfAllPagesInOrder() {
+        when(archiveApi.getArchiveDocuments(page1)).thenReturn(page(page2, first, second));
+        when(archiveApi.getArchiveDocuments(page2)).thenReturn(page(page3, third));
+        when(archiveApi.getArchiveDocuments(page3)).thenReturn(page(null));
+
+        try (Stream<ArchiveDocument> documents = archiveApi.streamDocuments(page(page1), emptyMap(), 2)) {
+            assertThat(documents.collect(toList()), contains(first, second, third));
+        }
+    }
+
+    @Test
+    void addsAttributesToEachPageLink() {
+        Map<String, String> attributes = singletonMap("kunde", "1234");
+        List<URI> fetched = Collections.synchronizedList(new ArrayList<>());
+        when(archiveApi.getArchiveDocuments(any(URI.class))).thenAnswer(invocation -> {
+            URI uri = invocation.getArgument(0);
+            fetched.add(uri);
+            return uri.getQuery().startsWith("offset=0") ? page(page2, first) : page(null);
+        });
+
+        try (Stream<ArchiveDocument> documents = archiveApi.streamDocuments(page(page1), attributes)) {
+            assertThat(documents.count(), is(1L));
+        }
+        assertThat(fetched.size(), is(2));
+        fetched.forEach(uri -> assertThat(uri.getQuery(), containsString("attributes=")));
+    }
+
+    @Test
+    void failureToFetchPageIsThrownWhenConsumingThePage() {
+        when(archiveApi.getArchiveDocuments(page1)).thenReturn(page(page2, first));
+        when(archiveApi.getArchiveDocuments(page2)).thenThrow(new DigipostClientException(ErrorCode.SERVER_ERROR, "nope"));
+
+        try (Stream<ArchiveDocument> documents = archiveApi.streamDocuments(page(page1), emptyMap())) {
+            DigipostClientException thrown = assertThrows(DigipostClientException.class, () -> documents.collect(toList()));
+            assertThat(thrown.getErrorCode(), is(ErrorCode.SERVER_ERROR));
+        }
+    }
+
+    @Test
+    void startsFetchingPagesWhenStreamIsConsumed() {
+        when(archiveApi.getArchiveDocuments(page1)).thenReturn(page(null, first));
+
+        try (Stream<ArchiveDocument> documents = archiveApi.streamDocuments(page(page1), emptyMap())) {
+            verify(archiveApi, after(100).never()).getArchiveDocuments(any(URI.class));
+            assertThat(documents.collect(toList()), contains(first));
+        }
+    }
+
+    @Test
+    void errorWhenFetchingPageIsThrownWhenConsumingThePage() {
+        when(archiveApi.getArchiveDocuments(page1)).thenThrow(new StackOverflowError());
+
+        try (Stream<ArchiveDocument> documents = archiveApi.streamDocuments(page(page1), emptyMap())) {
+            assertThrows(StackOverflowError.class, () -> documents.collect(toList()));
+        }
+    }
+
+    @Test
+    void stopsFetchingPagesOfAbandonedStream() throws InterruptedException {
+        when(archiveApi.getArchiveDocuments(any(URI.class))).thenReturn(page(page2, first));
+        abandonStreamAfterFirstDocument();
+
+        for (int attempt = 0; attempt < 100 && fetcherIsRunning(); attempt++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        assertFalse(fetcherIsRunning());
+    }
+
+    private void abandonStreamAfterFirstDocument() {
+        Iterator<ArchiveDocument> documents = archiveApi.streamDocuments(page(page1), emptyMap()).iterator();
+        assertThat(documents.next(), is(first));
+    }
+
+    private static boolean fetcherIsRunning() {
+        return Thread.getAllStackTraces().keySet().stream().anyMatch(thread -> thread.getName().equals("digipost-archive-pages"));
+    }
+
+    private static Archive page(URI next, ArchiveDocument ... documents) {
+        List<Link> links = new ArrayList<>();
+        if (next != null) {
+            links.add(new Link(NEXT_DOCUMENTS, new DigipostUri(next)));
+        }
+        List<ArchiveDocument> documentList = new ArrayList<>();
+        Collections.addAll(documentList, documents);
+        return new Archive(null, null, "arkiv", links, documentList);
+    }
+
+    private static ArchiveDocument document() {
+        return new ArchiveDocument(UUID.randomUUID(), "dokument.pdf", "pdf", "application/pdf");
+    }
+}
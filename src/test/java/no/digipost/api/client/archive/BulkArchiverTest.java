@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.archive;
+
+import no.digipost.api.client.archive.BulkArchiver.Item;
+import no.digipost.api.client.archive.BulkArchiver.Outcome;
+import no.digipost.api.client.archive.BulkArchiver.Status;
+import no.digipost.api.client.archive.BulkArchiver.Summary;
+import no.digipost.api.client.delivery.ContentSource;
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import no.digipost.api.client.errorhandling.ErrorCode;
+import no.digipost.api.client.representations.archive.Archive;
+import no.digipost.api.client.representations.archive.ArchiveDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+class BulkArchiverTest {
+
+    private final Archive archive = Archive.namedArchive("migrering").build();
+    private final Queue<List<UUID>> sentRequests = new ConcurrentLinkedQueue<>();
+    private final Map<UUID, Outcome> outcomes = new ConcurrentHashMap<>();
+
+    @Test
+    void groupsDocumentsByCountAndByteBudget() {
+        List<Item> items = IntStream.range(0, 25).mapToObj(i -> item(100)).collect(toList());
+
+        Summary summary = new BulkArchiver.Builder(archive, fakeArchiving(Function.identity()))
+                .maxDocumentsPerRequest(10)
+                .maxBytesPerRequest(500)
+                .maxConcurrentRequests(3)
+                .build()
+                .archive(items.stream(), outcome -> outcomes.put(outcome.document.uuid, outcome));
+
+        assertThat(summary.archived, is(25L));
+        assertThat(summary.requests, is(5L));
+        assertThat(sentRequests.stream().map(List::size).collect(toList()), everyItem(lessThanOrEqualTo(5)));
+        assertThat(outcomes.values().stream().map(o -> o.status).collect(toList()), everyItem(is(Status.ARCHIVED)));
+        assertThat(outcomes.get(items.get(0).document.uuid).getArchived().get().uuid, is(items.get(0).document.uuid));
+    }
+
+    @Test
+    void documentsOfUnknownLengthAreSentAlone() {
+        Item unknownLength = Item.of(document(), () -> new ByteArrayInputStream(new byte[10]));
+
+        Summary summary = new BulkArchiver.Builder(archive, fakeArchiving(Function.identity()))
+                .maxDocumentsPerRequest(10)
+                .build()
+                .archive(Stream.of(item(10), unknownLength, item(10)), outcome -> {});
+
+        assertThat(summary.requests, is(3L));
+    }
+
+    @Test
+    void reportsAllDocumentsInFailedRequestAsFailed() {
+        Function<Archive, Archive> failing = sent -> {
+            throw new DigipostClientException(ErrorCode.SERVER_ERROR, "nope");
+        };
+
+        Summary summary = new BulkArchiver.Builder(archive, fakeArchiving(failing))
+                .maxDocumentsPerRequest(2)
+                .build()
+                .archive(Stream.of(item(1), item(1), item(1)), outcome -> outcomes.put(outcome.document.uuid, outcome));
+
+        assertThat(summary.failed, is(3L));
+        assertThat(outcomes.values().stream().map(o -> o.getError().get().getErrorCode()).collect(toList()), everyItem(is(ErrorCode.SERVER_ERROR)));
+    }
+
+    @Test
+    void resumesFromCheckpointBySkippingArchivedDocuments(@TempDir Path dir) {
+        Path checkpoint = dir.resolve("checkpoint");
+        List<Item> items = IntStream.range(0, 6).mapToObj(i -> item(1)).collect(toList());
+
+        new BulkArchiver.Builder(archive, fakeArchiving(Function.identity()))
+                .maxDocumentsPerRequest(2).checkpoint(checkpoint).build()
+                .archive(items.stream().limit(4), outcome -> {});
+        sentRequests.clear();
+
+        Summary resumed = new BulkArchiver.Builder(archive, fakeArchiving(Function.identity()))
+                .maxDocumentsPerRequest(2).checkpoint(checkpoint).build()
+                .archive(items.stream(), outcome -> {});
+
+        assertThat(resumed.skipped, is(4L));
+        assertThat(resumed.archived, is(2L));
+        assertThat(sentRequests, hasSize(1));
+        assertThat(sentRequests.peek(), containsInAnyOrder(items.get(4).document.uuid, items.get(5).document.uuid));
+    }
+
+    @Test
+    void resumesFromCheckpointBySendingOnlyDocumentsOfFailedRequests(@TempDir Path dir) {
+        Path checkpoint = dir.resolve("checkpoint");
+        List<Item> items = IntStream.range(0, 6).mapToObj(i -> item(1)).collect(toList());
+        UUID failing = items.get(2).document.uuid;
+
+        Summary interrupted = new BulkArchiver.Builder(archive, fakeArchiving(sent -> {
+                    if (sent.getDocuments().stream().anyMatch(document -> document.uuid.equals(failing))) {
+                        throw new DigipostClientException(ErrorCode.SERVER_ERROR, "nope");
+                    }
+                    return sent;
+                }))
+                .maxDocumentsPerRequest(2).checkpoint(checkpoint).build()
+                .archive(items.stream(), outcome -> {});
+        assertThat(interrupted.failed, is(2L));
+        sentRequests.clear();
+
+        Summary resumed = new BulkArchiver.Builder(archive, fakeArchiving(Function.identity()))
+                .maxDocumentsPerRequest(2).checkpoint(checkpoint).build()
+                .archive(items.stream(), outcome -> {});
+
+        assertThat(resumed.skipped, is(4L));
+        assertThat(resumed.archived, is(2L));
+        assertThat(sentRequests, hasSize(1));
+        assertThat(sentRequests.peek(), containsInAnyOrder(items.get(2).document.uuid, items.get(3).document.uuid));
+    }
+
+    private Function<Archive, ArchiveApi.ArchivingDocuments> fakeArchiving(Function<Archive, Archive> response) {
+        return sent -> new ArchiveApi.ArchivingDocuments() {
+            @Override
+            public ArchiveApi.ArchivingDocuments addFile(ArchiveDocument document, InputStream content) {
+                return this;
+            }
+
+            @Override
+            public Archive send() {
+                sentRequests.add(sent.getDocuments().stream().map(ArchiveDocument::getUuid).collect(toList()));
+                return response.apply(sent);
+            }
+        };
+    }
+
+    private static Item item(int length) {
+        return Item.of(document(), ContentSource.of(new byte[length]));
+    }
+
+    private static ArchiveDocument document() {
+        return new ArchiveDocument(UUID.randomUUID(), "dokument.pdf", "pdf", "application/pdf");
+    }
+}
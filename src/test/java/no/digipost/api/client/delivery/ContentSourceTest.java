@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.delivery;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.OptionalLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContentSourceTest {
+
+    private static final byte[] CONTENT = "innhold".getBytes(UTF_8);
+
+    @Test
+    void byteArrayContentCanBeReadRepeatedly() throws IOException {
+        ContentSource source = ContentSource.of(CONTENT);
+        assertThat(readAll(source), is(CONTENT));
+        assertThat(readAll(source), is(CONTENT));
+        assertThat(source.length(), is(OptionalLong.of(CONTENT.length)));
+    }
+
+    @Test
+    void fileContentCanBeReadRepeatedly(@TempDir Path dir) throws IOException {
+        Path file = Files.write(dir.resolve("document.pdf"), CONTENT);
+        ContentSource source = ContentSource.of(file);
+        assertThat(readAll(source), is(CONTENT));
+        assertThat(readAll(source), is(CONTENT));
+        assertThat(source.length(), is(OptionalLong.of(CONTENT.length)));
+    }
+
+    @Test
+    void missingFileFailsWhenCreatingContent(@TempDir Path dir) {
+        assertThrows(UncheckedIOException.class, () -> ContentSource.of(dir.resolve("missing.pdf")));
+    }
+
+    @Test
+    void bufferContentIsTheRemainingBytesAndDoesNotMoveTheBuffer() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap("xxinnhold".getBytes(UTF_8));
+        buffer.position(2);
+        ContentSource source = ContentSource.of(buffer);
+        assertThat(readAll(source), is(CONTENT));
+        assertThat(readAll(source), is(CONTENT));
+        assertThat(buffer.position(), is(2));
+        assertThat(source.length(), is(OptionalLong.of(CONTENT.length)));
+    }
+
+    @Test
+    void lambdaOpensNewStreamForEachRead() throws IOException {
+        ContentSource source = () -> new ByteArrayInputStream(CONTENT);
+        assertThat(readAll(source), is(CONTENT));
+        assertThat(readAll(source), is(CONTENT));
+        assertFalse(source.length().isPresent());
+        assertThat(ContentSource.of(source, CONTENT.length).length(), is(OptionalLong.of(CONTENT.length)));
+    }
+
+    @Test
+    void streamIsNotRepeatable() {
+        assertFalse(ContentSource.singleUse(new ByteArrayInputStream(CONTENT)).isRepeatable());
+        assertTrue(ContentSource.of(CONTENT).isRepeatable());
+    }
+
+    private static byte[] readAll(ContentSource source) throws IOException {
+        try (InputStream in = source.openStream()) {
+            return in.readAllBytes();
+        }
+    }
+}
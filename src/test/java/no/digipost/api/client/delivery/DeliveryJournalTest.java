@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.delivery;
+
+import no.digipost.api.client.delivery.DeliveryJournal.State;
+import no.digipost.api.client.errorhandling.ErrorCode;
+import no.digipost.api.client.representations.MessageDelivery;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+
+import static no.digipost.api.client.representations.Channel.DIGIPOST;
+import static no.digipost.api.client.representations.MessageStatus.DELIVERED;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DeliveryJournalTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void recordsAreReadBackWhenReopeningJournal() {
+        Path file = tempDir.resolve("journal");
+        try (DeliveryJournal journal = DeliveryJournal.open(file)) {
+            journal.recordIntent("msg-1", "fingerprint-1");
+            journal.recordDelivered(new MessageDelivery("msg-1", DIGIPOST, DELIVERED, ZonedDateTime.now()));
+            journal.recordIntent("msg-2", "fingerprint-2");
+            journal.recordFailed("msg-2", ErrorCode.API_UNAVAILABLE);
+            journal.recordIntent("msg-3", "fingerprint-3");
+        }
+
+        try (DeliveryJournal journal = DeliveryJournal.open(file)) {
+            assertTrue(journal.isDelivered("msg-1"));
+            assertThat(journal.get("msg-1").get().fingerprint, is("fingerprint-1"));
+            assertThat(journal.get("msg-1").get().getDelivery().get().getStatus(), is(DELIVERED));
+            assertThat(journal.get("msg-2").get().getErrorCode().get(), is(ErrorCode.API_UNAVAILABLE));
+            assertThat(journal.get("msg-3").get().state, is(State.INTENT));
+            assertFalse(journal.get("msg-4").isPresent());
+        }
+    }
+
+    @Test
+    void extendsJournalBeyondOneMappedRegion() {
+        Path file = tempDir.resolve("journal");
+        try (DeliveryJournal journal = DeliveryJournal.open(file, 64)) {
+            for (int i = 0; i < 100; i++) {
+                journal.recordIntent("msg-" + i, "fingerprint-" + i);
+            }
+        }
+        try (DeliveryJournal journal = DeliveryJournal.open(file, 64)) {
+            for (int i = 0; i < 100; i++) {
+                assertThat(journal.get("msg-" + i).get().fingerprint, is("fingerprint-" + i));
+            }
+            journal.recordIntent("msg-100", "fingerprint-100");
+        }
+        try (DeliveryJournal journal = DeliveryJournal.open(file, 64)) {
+            assertThat(journal.get("msg-100").get().fingerprint, is("fingerprint-100"));
+        }
+    }
+
+    @Test
+    void readsOutcomesFromEarlierRegionsOfJournal() {
+        Path file = tempDir.resolve("journal");
+        try (DeliveryJournal journal = DeliveryJournal.open(file, 256)) {
+            for (int i = 0; i < 20; i++) {
+                journal.recordIntent("msg-" + i, "fingerprint-" + i);
+                journal.recordDelivered(new MessageDelivery("msg-" + i, DIGIPOST, DELIVERED, ZonedDateTime.now()));
+            }
+            journal.recordFailed("msg-0", ErrorCode.API_UNAVAILABLE);
+            assertThat(journal.get("msg-1").get().getDelivery().get().getMessageId(), is("msg-1"));
+            assertThat(journal.get("msg-0").get().getErrorCode().get(), is(ErrorCode.API_UNAVAILABLE));
+        }
+        try (DeliveryJournal journal = DeliveryJournal.open(file, 256)) {
+            for (int i = 1; i < 20; i++) {
+                assertThat(journal.get("msg-" + i).get().getDelivery().get().getMessageId(), is("msg-" + i));
+                assertThat(journal.get("msg-" + i).get().fingerprint, is("fingerprint-" + i));
+            }
+            assertThat(journal.get("msg-0").get().getErrorCode().get(), is(ErrorCode.API_UNAVAILABLE));
+        }
+    }
+
+    @Test
+    void ignoresTornRecordAtEndOfJournal() throws IOException {
+        Path file = tempDir.resolve("journal");
+        try (DeliveryJournal journal = DeliveryJournal.open(file)) {
+            journal.recordIntent("msg-1", "fingerprint-1");
+            journal.recordIntent("msg-2", "fingerprint-2");
+        }
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            // corrupt the last byte of the fingerprint of the second record
+            long secondRecordEnd = 4 + 2 * (4 + 1 + 2 + "msg-1".length() + "fingerprint-1".length() + 4);
+            raw.seek(secondRecordEnd - 5);
+            raw.write('X');
+        }
+
+        try (DeliveryJournal journal = DeliveryJournal.open(file)) {
+            assertTrue(journal.get("msg-1").isPresent());
+            assertFalse(journal.get("msg-2").isPresent());
+            journal.recordIntent("msg-3", "fingerprint-3");
+        }
+        try (DeliveryJournal journal = DeliveryJournal.open(file)) {
+            assertThat(journal.get("msg-3").get().fingerprint, is("fingerprint-3"));
+        }
+    }
+}
@@ -15,6 +15,7 @@
  */
 package no.digipost.api.client.eksempelkode;
 
+import no.digipost.api.client.ConnectionPoolConfig;
 import no.digipost.api.client.DigipostClient;
 import no.digipost.api.client.DigipostClientConfig;
 import no.digipost.api.client.SenderId;
@@ -24,11 +25,6 @@ import no.digipost.api.client.representations.Message;
 import no.digipost.api.client.representations.SmsNotification;
 import no.digipost.api.client.representations.batch.Batch;
 import no.digipost.api.client.security.Signer;
-import org.apache.hc.client5.http.config.ConnectionConfig;
-import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
-import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
-import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
-import org.apache.hc.core5.util.TimeValue;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -36,6 +32,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.time.Duration;
 import java.util.UUID;
 
 import static no.digipost.api.client.representations.AuthenticationLevel.PASSWORD;
@@ -60,16 +57,14 @@ public class BatchSendMessagesEksempel {
 		}
 
 		// 2. Vi oppretter en DigipostClient
-        ConnectionConfig config = ConnectionConfig.custom()
-                .setTimeToLive(TimeValue.ofMinutes(2))
+        ConnectionPoolConfig connectionPool = ConnectionPoolConfig.newConfiguration()
+                .maxConnectionsTotalAndPerRoute(20)
+                .timeToLive(Duration.ofMinutes(2))
                 .build();
-        DigipostClient client;
-        try (PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
-                .setDefaultConnectionConfig(config)
-                .build()) {
-            client = new DigipostClient(DigipostClientConfig.newConfiguration().digipostApiUri(URI.create("http://localhost:8282")).build(),
-                    AVSENDERS_KONTOID.asBrokerId(), signer, HttpClientBuilder.create().setConnectionManager(connectionManager));
-        }
+        DigipostClient client = new DigipostClient(DigipostClientConfig.newConfiguration()
+                .digipostApiUri(URI.create("http://localhost:8282"))
+                .connectionPool(connectionPool)
+                .build(), AVSENDERS_KONTOID.asBrokerId(), signer);
 
 		// 3. Vi må ha en unik id for batchen som skal gå gjennom helle prosessen. Lag deg en og ta var på den!
 		final UUID batchUUID = UUID.randomUUID();
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.inbox;
+
+import no.digipost.api.client.SenderId;
+import no.digipost.api.client.inbox.InboxSynchronizer.ReceivedDocument;
+import no.digipost.api.client.inbox.InboxSynchronizer.Summary;
+import no.digipost.api.client.representations.inbox.Inbox;
+import no.digipost.api.client.representations.inbox.InboxDocument;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class InboxSynchronizerTest {
+
+    private static final SenderId SENDER = SenderId.of(1234);
+    private static final ZonedDateTime START = ZonedDateTime.parse("2024-03-01T10:00:00+01:00");
+
+    private final InboxApi inboxApi = mock(InboxApi.class);
+    private final List<InboxDocument> inbox = new ArrayList<>();
+
+    private final InboxDocument first = document(3, 0);
+    private final InboxDocument second = document(1, 1, document(2, 1));
+    private final InboxDocument third = document(4, 2);
+
+    InboxSynchronizerTest() {
+        when(inboxApi.getInbox(eq(SENDER), anyInt(), anyInt())).thenAnswer(invocation -> {
+            int offset = invocation.getArgument(1), limit = invocation.getArgument(2);
+            return new Inbox(new ArrayList<>(inbox.subList(Math.min(offset, inbox.size()), Math.min(offset + limit, inbox.size()))));
+        });
+        when(inboxApi.getInboxDocumentContentStream(any())).thenAnswer(invocation ->
+                new ByteArrayInputStream(("content " + invocation.<InboxDocument>getArgument(0).getId()).getBytes(UTF_8)));
+    }
+
+    @Test
+    void handsNewDocumentsWithAttachmentsToHandlerInDeliveryOrder(@TempDir Path dir) {
+        inbox.addAll(Arrays.asList(third, second, first));
+        List<ReceivedDocument> received = new ArrayList<>();
+        Thread synchronizing = Thread.currentThread();
+
+        Summary summary = synchronizer(dir).pageSize(2).build().synchronize(document -> {
+            assertThat(Thread.currentThread(), is(synchronizing));
+            received.add(document);
+        });
+
+        assertThat(summary.handled, is(3L));
+        assertThat(received.stream().map(d -> d.metadata.getId()).collect(toList()), contains(3L, 1L, 4L));
+        assertThat(content(received.get(1)), is("content 1"));
+        assertThat(content(received.get(1).attachments.get(0)), is("content 2"));
+        verify(inboxApi, never()).deleteInboxDocument(any());
+    }
+
+    @Test
+    void onlyHandsDocumentsAfterWatermarkToHandler(@TempDir Path dir) {
+        inbox.addAll(Arrays.asList(second, first));
+        synchronizer(dir).build().synchronize(document -> {});
+
+        inbox.add(0, third);
+        List<Long> received = new CopyOnWriteArrayList<>();
+        Summary summary = synchronizer(dir).build().synchronize(document -> received.add(document.metadata.getId()));
+
+        assertThat(summary.handled, is(1L));
+        assertThat(received, contains(4L));
+    }
+
+    @Test
+    void failedDocumentIsHandedToHandlerAgainAndNotDeleted(@TempDir Path dir) {
+        inbox.addAll(Arrays.asList(third, second, first));
+        InboxSynchronizer synchronizer = synchronizer(dir).deleteAfterHandling(true).build();
+
+        Summary summary = synchronizer.synchronize(document -> {
+            if (document.metadata.getId() == 1) {
+                throw new IOException("unable to store document");
+            }
+        });
+        assertThat(summary.handled, is(2L));
+        assertThat(summary.failed, is(1L));
+        assertThat(summary.deleted, is(2L));
+        verify(inboxApi, never()).deleteInboxDocument(second);
+        assertThat(synchronizer.getWatermark().get(), is(first.getDeliveryTime()));
+
+        List<Long> retried = new CopyOnWriteArrayList<>();
+        synchronizer.synchronize(document -> retried.add(document.metadata.getId()));
+        assertThat(retried, contains(1L));
+        assertThat(synchronizer.getWatermark().get(), is(third.getDeliveryTime()));
+
+        List<Long> afterRestart = new CopyOnWriteArrayList<>();
+        synchronizer(dir).build().synchronize(document -> afterRestart.add(document.metadata.getId()));
+        assertThat(afterRestart, is(empty()));
+    }
+
+
+    private InboxSynchronizer.Builder synchronizer(Path dir) {
+        return new InboxSynchronizer.Builder(inboxApi, SENDER).watermark(dir.resolve("watermark"));
+    }
+
+    private static String content(ReceivedDocument document) {
+        try (InputStream content = document.getContent().openStream()) {
+            return new String(content.readAllBytes(), UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static InboxDocument document(long id, int minutesAfterStart, InboxDocument ... attachments) {
+        InboxDocument document = new InboxDocument();
+        try {
+            FieldUtils.writeField(document, "id", id, true);
+            FieldUtils.writeField(document, "deliveryTime", START.plusMinutes(minutesAfterStart), true);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        document.getAttachments().addAll(Arrays.asList(attachments));
+        return document;
+    }
+}
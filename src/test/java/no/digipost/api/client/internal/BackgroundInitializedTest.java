@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BackgroundInitializedTest {
+
+    private final AtomicInteger initializations = new AtomicInteger();
+
+    @Test
+    void initializesOnCallingThreadWhenNotStartedInBackground() {
+        BackgroundInitialized<String> value = new BackgroundInitialized<>("test", () -> initializations.incrementAndGet() + " " + Thread.currentThread().getName());
+
+        assertThat(value.get(), is("1 " + Thread.currentThread().getName()));
+        value.startInBackground();
+        assertThat(value.get(), is("1 " + Thread.currentThread().getName()));
+        assertThat(initializations.get(), is(1));
+    }
+
+    @Test
+    void waitsForInitializationInProgressInBackground() throws InterruptedException {
+        CountDownLatch initializing = new CountDownLatch(1);
+        CountDownLatch mayComplete = new CountDownLatch(1);
+        BackgroundInitialized<String> value = new BackgroundInitialized<>("test", () -> {
+            initializations.incrementAndGet();
+            initializing.countDown();
+            assertTrue(mayComplete.await(5, SECONDS));
+            return Thread.currentThread().getName();
+        });
+
+        value.startInBackground();
+        assertTrue(initializing.await(5, SECONDS));
+        mayComplete.countDown();
+        assertThat(value.get(), is("digipost-init-test"));
+        assertThat(initializations.get(), is(1));
+    }
+
+    @Test
+    void failedInitializationIsRethrownForEveryGet() {
+        BackgroundInitialized<String> value = new BackgroundInitialized<>("test", () -> {
+            initializations.incrementAndGet();
+            throw new IllegalArgumentException("failed");
+        });
+
+        assertThrows(IllegalArgumentException.class, value::get);
+        assertThrows(IllegalArgumentException.class, value::get);
+        assertThat(initializations.get(), is(1));
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+class ConcurrentStreamTest {
+
+    @Test
+    void availableResultsAreGivenWithoutRunningTheTask() {
+        Stream<Integer> results = ConcurrentStream.map(Stream.of(1, 2, 3),
+                i -> i % 2 == 0 ? Optional.of(-i) : Optional.empty(), i -> i, 1, "concurrent-stream-test");
+
+        assertThat(results.collect(toList()), contains(1, -2, 3));
+    }
+
+    @Test
+    void stopsThreadsOfAbandonedStreamWhenIdle() throws InterruptedException {
+        Iterator<Integer> abandoned = ConcurrentStream.map(IntStream.range(0, 10).boxed(), i -> Optional.empty(), i -> i, 3, "abandoned-stream").iterator();
+        assertThat(abandoned.next(), lessThan(3));
+        assertThat(threadsNamed("abandoned-stream").size(), is(3));
+
+        for (int i = 0; i < 50 && !threadsNamed("abandoned-stream").isEmpty(); i++) {
+            Thread.sleep(100);
+        }
+        assertThat(threadsNamed("abandoned-stream"), empty());
+    }
+
+    private static List<Thread> threadsNamed(String prefix) {
+        return Thread.getAllStackTraces().keySet().stream().filter(thread -> thread.getName().startsWith(prefix)).collect(toList());
+    }
+}
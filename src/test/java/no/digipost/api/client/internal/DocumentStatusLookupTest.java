@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal;
+
+import no.digipost.api.client.document.DocumentStatusResult;
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import no.digipost.api.client.errorhandling.ErrorCode;
+import no.digipost.api.client.representations.DocumentStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DocumentStatusLookupTest {
+
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger inProgress = new AtomicInteger();
+    private final AtomicInteger maxInProgress = new AtomicInteger();
+
+    @Test
+    void resultsAreAvailableInTheOrderTheLookupsComplete() {
+        UUID slow = UUID.randomUUID(), fast = UUID.randomUUID();
+        CountDownLatch fastConsumed = new CountDownLatch(1);
+
+        List<UUID> completed = DocumentStatusLookup.lookupAll(asList(slow, fast), uuid -> {
+            if (uuid.equals(slow)) {
+                await(fastConsumed);
+            }
+            return status(uuid);
+        }, 2).map(result -> result.uuid).peek(uuid -> fastConsumed.countDown()).collect(toList());
+
+        assertThat(completed, contains(fast, slow));
+    }
+
+    @Test
+    void failedLookupGivesResultWithErrorWithoutAbortingTheOthers() {
+        List<UUID> uuids = IntStream.range(0, 5).mapToObj(i -> UUID.randomUUID()).collect(toList());
+        UUID unlucky = uuids.get(2);
+
+        Map<UUID, DocumentStatusResult> results = DocumentStatusLookup.lookupAll(uuids, uuid -> {
+            if (uuid.equals(unlucky)) {
+                throw new DigipostClientException(ErrorCode.PROBLEM_WITH_REQUEST, "unlucky");
+            }
+            return status(uuid);
+        }, 2).collect(toMap(result -> result.uuid, result -> result));
+
+        assertThat(results.size(), is(5));
+        assertFalse(results.get(unlucky).isSuccess());
+        assertThat(results.get(unlucky).getError().get().getErrorCode(), is(ErrorCode.PROBLEM_WITH_REQUEST));
+        assertThat(results.get(uuids.get(3)).getStatus().get().uuid, is(uuids.get(3)));
+    }
+
+    @Test
+    void startsLookupsAsResultsAreConsumedWithBoundedConcurrency() {
+        List<UUID> uuids = IntStream.range(0, 50).mapToObj(i -> UUID.randomUUID()).collect(toList());
+
+        try (Stream<DocumentStatusResult> results = DocumentStatusLookup.lookupAll(uuids, uuid -> {
+            maxInProgress.accumulateAndGet(inProgress.incrementAndGet(), Math::max);
+            started.incrementAndGet();
+            try {
+                Thread.sleep(5);
+                return status(uuid);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                inProgress.decrementAndGet();
+            }
+        }, 3)) {
+            assertThat(results.limit(10).count(), is(10L));
+        }
+
+        assertThat(maxInProgress.get(), lessThanOrEqualTo(3));
+        assertThat(started.get(), lessThanOrEqualTo(10 + 3));
+    }
+
+    @Test
+    void closingTheStreamCancelsLookupsInProgress() throws InterruptedException {
+        List<UUID> uuids = IntStream.range(0, 10).mapToObj(i -> UUID.randomUUID()).collect(toList());
+        UUID first = uuids.get(0);
+        CountDownLatch interrupted = new CountDownLatch(2);
+
+        Stream<DocumentStatusResult> results = DocumentStatusLookup.lookupAll(uuids, uuid -> {
+            started.incrementAndGet();
+            if (!uuid.equals(first)) {
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw new DigipostClientException(ErrorCode.GENERAL_ERROR, "Interrupted", e);
+                }
+            }
+            return status(uuid);
+        }, 3);
+        Iterator<DocumentStatusResult> iterator = results.iterator();
+        assertThat(iterator.next().uuid, is(first));
+
+        results.close();
+
+        assertTrue(interrupted.await(5, SECONDS));
+        assertThat(started.get(), is(3));
+    }
+
+    private static DocumentStatus status(UUID uuid) {
+        return new DocumentStatus(uuid, null, null, null, null, null, true, null, null, null, null);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
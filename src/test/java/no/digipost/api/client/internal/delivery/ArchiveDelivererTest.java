@@ -16,33 +16,52 @@
 package no.digipost.api.client.internal.delivery;
 
 import no.digipost.api.client.archive.ArchiveApi;
+import no.digipost.api.client.archive.ArchiveDeduplicationIndex;
+import no.digipost.api.client.delivery.ContentSource;
 import no.digipost.api.client.pdf.EksempelPdf;
+import no.digipost.api.client.representations.DigipostUri;
+import no.digipost.api.client.representations.Link;
 import no.digipost.api.client.representations.archive.Archive;
 import no.digipost.api.client.representations.archive.ArchiveDocument;
 import no.digipost.time.ControllableClock;
 import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
 import org.apache.hc.core5.http.ContentType;
 import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static no.digipost.api.client.DigipostClientConfig.newConfiguration;
 import static no.digipost.api.client.representations.MediaTypes.DIGIPOST_MEDIA_TYPE_V8;
+import static no.digipost.api.client.representations.Relation.SELF_UPDATE;
 import static no.digipost.api.client.util.JAXBContextUtils.jaxbContext;
 import static no.digipost.api.client.util.JAXBContextUtils.marshal;
+import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -83,4 +102,133 @@ class ArchiveDelivererTest {
         assertThat(archive, not(sameInstance(archiveResponse)));
         verify(archiveApi).sendMultipartArchive(any(HttpEntity.class));
     }
+
+    @Test
+    void content_with_known_length_is_streamed_from_source_each_time_the_request_is_written() throws IOException {
+        final ArchiveDocument document = new ArchiveDocument(UUID.randomUUID(), "dokument.pdf", "pdf", "application/pdf");
+        final Archive archive = Archive.defaultArchive().documents(document).build();
+
+        CloseableHttpResponse response = Mockito.mock(CloseableHttpResponse.class);
+        ByteArrayOutputStream responseXml = new ByteArrayOutputStream();
+        marshal(jaxbContext, archive, responseXml);
+        when(response.getEntity()).thenReturn(new ByteArrayEntity(responseXml.toByteArray(), ContentType.create(DIGIPOST_MEDIA_TYPE_V8)));
+        when(response.getCode()).thenReturn(200);
+        ArgumentCaptor<HttpEntity> sentEntity = ArgumentCaptor.forClass(HttpEntity.class);
+        when(archiveApi.sendMultipartArchive(sentEntity.capture())).thenReturn(response);
+
+        byte[] pdf = EksempelPdf.pdf20Pages().readAllBytes();
+        AtomicInteger timesRead = new AtomicInteger();
+        ContentSource content = ContentSource.of(() -> {
+            timesRead.incrementAndGet();
+            return new ByteArrayInputStream(pdf);
+        }, pdf.length);
+
+        new ArchiveDeliverer(newConfiguration().clock(clock).build(), archiveApi)
+                .createArchive(archive).addFile(document, content)
+                .send();
+
+        assertThat(timesRead.get(), is(0));
+        assertTrue(sentEntity.getValue().isRepeatable());
+        sentEntity.getValue().writeTo(new ByteArrayOutputStream());
+        sentEntity.getValue().writeTo(new ByteArrayOutputStream());
+        assertThat(timesRead.get(), is(2));
+    }
+
+    @Test
+    void file_content_is_transferred_from_disk_when_request_is_written(@TempDir Path dir) throws IOException {
+        final ArchiveDocument document = new ArchiveDocument(UUID.randomUUID(), "dokument.pdf", "pdf", "application/pdf");
+        final Archive archive = Archive.defaultArchive().documents(document).build();
+
+        CloseableHttpResponse response = Mockito.mock(CloseableHttpResponse.class);
+        ByteArrayOutputStream responseXml = new ByteArrayOutputStream();
+        marshal(jaxbContext, archive, responseXml);
+        when(response.getEntity()).thenReturn(new ByteArrayEntity(responseXml.toByteArray(), ContentType.create(DIGIPOST_MEDIA_TYPE_V8)));
+        when(response.getCode()).thenReturn(200);
+        ArgumentCaptor<HttpEntity> sentEntity = ArgumentCaptor.forClass(HttpEntity.class);
+        when(archiveApi.sendMultipartArchive(sentEntity.capture())).thenReturn(response);
+
+        byte[] pdf = EksempelPdf.pdf20Pages().readAllBytes();
+        Path file = Files.write(dir.resolve("dokument.pdf"), pdf);
+
+        new ArchiveDeliverer(newConfiguration().clock(clock).build(), archiveApi)
+                .createArchive(archive).addFile(document, file)
+                .send();
+
+        HttpEntity entity = sentEntity.getValue();
+        assertTrue(entity.isRepeatable());
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        entity.writeTo(written);
+        assertThat((long) written.size(), is(entity.getContentLength()));
+        assertTrue(Collections.indexOfSubList(Arrays.asList(ArrayUtils.toObject(written.toByteArray())), Arrays.asList(ArrayUtils.toObject(pdf))) > 0);
+    }
+
+    @Test
+    void identical_content_is_only_uploaded_once_when_deduplicating(@TempDir Path dir) throws IOException {
+        final ArchiveDocument original = new ArchiveDocument(UUID.randomUUID(), "vedlegg.pdf", "pdf", "application/pdf");
+        final ArchiveDocument duplicateInSameRequest = new ArchiveDocument(UUID.randomUUID(), "vedlegg.pdf", "pdf", "application/pdf");
+        final ArchiveDocument duplicateInLaterRequest = new ArchiveDocument(UUID.randomUUID(), "vedlegg.pdf", "pdf", "application/pdf");
+        byte[] pdf = EksempelPdf.pdf20Pages().readAllBytes();
+
+        CloseableHttpResponse response = Mockito.mock(CloseableHttpResponse.class);
+        ByteArrayOutputStream responseXml = new ByteArrayOutputStream();
+        marshal(jaxbContext, Archive.defaultArchive().documents(original).build(), responseXml);
+        when(response.getEntity()).thenReturn(new ByteArrayEntity(responseXml.toByteArray(), ContentType.create(DIGIPOST_MEDIA_TYPE_V8)));
+        when(response.getCode()).thenReturn(200);
+        when(archiveApi.sendMultipartArchive(any(HttpEntity.class))).thenReturn(response);
+        when(archiveApi.addUniqueUUIDToArchiveDocument(any(), any(UUID.class), any(UUID.class)))
+                .thenAnswer(invocation -> Archive.defaultArchive().documents(new ArchiveDocument(invocation.getArgument(2), "vedlegg.pdf", "pdf", "application/pdf")).build());
+
+        try (ArchiveDeduplicationIndex index = ArchiveDeduplicationIndex.open(dir.resolve("index"))) {
+            ArchiveDeliverer deliverer = new ArchiveDeliverer(newConfiguration().clock(clock).archiveDeduplicationIndex(index).build(), archiveApi);
+
+            Archive firstResponse = deliverer.createArchive(Archive.defaultArchive().documents(original, duplicateInSameRequest).build())
+                    .addFile(original, pdf)
+                    .addFile(duplicateInSameRequest, new ByteArrayInputStream(pdf))
+                    .send();
+            deliverer.createArchive(Archive.defaultArchive().documents(duplicateInLaterRequest).build())
+                    .addFile(duplicateInLaterRequest, pdf)
+                    .send();
+
+            assertThat(firstResponse.getDocuments().size(), is(2));
+            verify(archiveApi, times(1)).sendMultipartArchive(any(HttpEntity.class));
+            verify(archiveApi).addUniqueUUIDToArchiveDocument(null, original.uuid, duplicateInSameRequest.uuid);
+            verify(archiveApi).addUniqueUUIDToArchiveDocument(null, original.uuid, duplicateInLaterRequest.uuid);
+        }
+
+        try (ArchiveDeduplicationIndex reopened = ArchiveDeduplicationIndex.open(dir.resolve("index"))) {
+            assertThat(reopened.size(), is(1));
+        }
+    }
+
+    @Test
+    void reference_to_identical_content_keeps_its_own_file_name(@TempDir Path dir) throws IOException {
+        final ArchiveDocument original = new ArchiveDocument(UUID.randomUUID(), "vedlegg.pdf", "pdf", "application/pdf");
+        final ArchiveDocument renamedDuplicate = new ArchiveDocument(UUID.randomUUID(), "kopi.pdf", "pdf", "application/pdf");
+        byte[] pdf = EksempelPdf.pdf20Pages().readAllBytes();
+
+        CloseableHttpResponse response = Mockito.mock(CloseableHttpResponse.class);
+        ByteArrayOutputStream responseXml = new ByteArrayOutputStream();
+        marshal(jaxbContext, Archive.defaultArchive().documents(original).build(), responseXml);
+        when(response.getEntity()).thenReturn(new ByteArrayEntity(responseXml.toByteArray(), ContentType.create(DIGIPOST_MEDIA_TYPE_V8)));
+        when(response.getCode()).thenReturn(200);
+        when(archiveApi.sendMultipartArchive(any(HttpEntity.class))).thenReturn(response);
+        when(archiveApi.addUniqueUUIDToArchiveDocument(any(), any(UUID.class), any(UUID.class))).thenAnswer(invocation -> {
+            ArchiveDocument reference = new ArchiveDocument(invocation.getArgument(2), "vedlegg.pdf", "pdf", "application/pdf");
+            reference.addLink(new Link(SELF_UPDATE, new DigipostUri("/archive/document/update")));
+            return Archive.defaultArchive().documents(reference).build();
+        });
+        when(archiveApi.saveArchiveDocument(any(ArchiveDocument.class), any())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        try (ArchiveDeduplicationIndex index = ArchiveDeduplicationIndex.open(dir.resolve("index"))) {
+            ArchiveDeliverer deliverer = new ArchiveDeliverer(newConfiguration().clock(clock).archiveDeduplicationIndex(index).build(), archiveApi);
+
+            Archive archived = deliverer.createArchive(Archive.defaultArchive().documents(original, renamedDuplicate).build())
+                    .addFile(original, pdf)
+                    .addFile(renamedDuplicate, pdf)
+                    .send();
+
+            verify(archiveApi).saveArchiveDocument(renamedDuplicate, URI.create("/archive/document/update"));
+            assertThat(archived.getDocuments().get(1).getFileName(), is("kopi.pdf"));
+        }
+    }
 }
@@ -15,6 +15,7 @@
  */
 package no.digipost.api.client.internal.delivery;
 
+import no.digipost.api.client.CacheStatistics;
 import no.digipost.api.client.DigipostClientConfig;
 import no.digipost.api.client.errorhandling.DigipostClientException;
 import no.digipost.api.client.html.EksempelHtml;
@@ -40,14 +41,18 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static co.unruly.matchers.Java8Matchers.where;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
 import static no.digipost.api.client.pdf.EksempelPdf.pdf30Pages;
 import static no.digipost.api.client.pdf.EksempelPdf.printablePdf1Page;
 import static no.digipost.api.client.pdf.EksempelPdf.printablePdf2Pages;
@@ -67,9 +72,10 @@ import static org.hamcrest.Matchers.matchesPattern;
 import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
-import static org.mockito.Answers.RETURNS_SMART_NULLS;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.withSettings;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 public class DocumentsPreparerTest {
 
@@ -97,7 +103,7 @@ public class DocumentsPreparerTest {
         primaryDocument.encrypt();
 
         DigipostClientException thrown = assertThrows(DigipostClientException.class,
-                () -> preparer.prepare(documents, messageBuilder.build(), FAIL_IF_TRYING_TO_ENCRYPT, () -> PdfValidationSettings.CHECK_ALL, DigipostClientConfig.newConfiguration().build()));
+                () -> preparer.prepare(documents, messageBuilder.build(), FAIL_IF_TRYING_TO_ENCRYPT, () -> PdfValidationOptions.CHECK_ALL, DigipostClientConfig.newConfiguration().build()));
         assertThat(thrown, where(Exception::getMessage, containsString("no encryption key")));
     }
 
@@ -106,7 +112,7 @@ public class DocumentsPreparerTest {
         addAttachment("funny animated gif", GIF, toInputStream("content doesn't matter", UTF_8)).encrypt();
 
         DigipostClientException thrown = assertThrows(DigipostClientException.class,
-                () -> preparer.prepare(documents, messageBuilder.build(), encrypter, () -> mock(PdfValidationSettings.class, withSettings().defaultAnswer(RETURNS_SMART_NULLS)), DigipostClientConfig.newConfiguration().build()));
+                () -> preparer.prepare(documents, messageBuilder.build(), encrypter, () -> PdfValidationOptions.CHECK_ALL, DigipostClientConfig.newConfiguration().build()));
         assertThat(thrown, where(Exception::getMessage, containsString("filetype gif")));
     }
 
@@ -114,7 +120,7 @@ public class DocumentsPreparerTest {
     public void deniesNonValidatingPdfForBothPrintAndWeb() {
         for (Channel deliveryMethod : Channel.values()) {
             try {
-                preparer.validateAndSetNrOfPages(deliveryMethod, new Document(UUID.randomUUID(), null, PDF), new byte[]{65, 65, 65, 65}, () -> mock(PdfValidationSettings.class, withSettings().defaultAnswer(RETURNS_SMART_NULLS)));
+                preparer.validateAndSetNrOfPages(deliveryMethod, new Document(UUID.randomUUID(), null, PDF), new byte[]{65, 65, 65, 65}, () -> PdfValidationOptions.CHECK_ALL);
             } catch (DigipostClientException e) {
                 assertThat(e.getMessage(), containsString("Could not parse"));
                 continue;
@@ -125,10 +131,10 @@ public class DocumentsPreparerTest {
 
     @Test
     public void passesDocumentForWebWhichWouldNotBeOkForPrint() throws IOException {
-        preparer.validateAndSetNrOfPages(DIGIPOST, new Document(UUID.randomUUID(), null, PDF), pdf30Pages, () -> PdfValidationSettings.CHECK_ALL);
+        preparer.validateAndSetNrOfPages(DIGIPOST, new Document(UUID.randomUUID(), null, PDF), pdf30Pages, () -> PdfValidationOptions.CHECK_ALL);
 
         DigipostClientException thrown = assertThrows(DigipostClientException.class,
-                () -> preparer.validateAndSetNrOfPages(PRINT, new Document(UUID.randomUUID(), null, PDF), pdf30Pages, () -> PdfValidationSettings.CHECK_ALL));
+                () -> preparer.validateAndSetNrOfPages(PRINT, new Document(UUID.randomUUID(), null, PDF), pdf30Pages, () -> PdfValidationOptions.CHECK_ALL));
         assertThat(thrown, where(Exception::getMessage, containsString("too many pages")));
     }
 
@@ -143,7 +149,7 @@ public class DocumentsPreparerTest {
 
         final DigipostClientConfig config = DigipostClientConfig.newConfiguration().build();
 
-        preparer.prepare(documents, messageBuilder.build(), encrypter, () -> PdfValidationSettings.CHECK_ALL, config);
+        preparer.prepare(documents, messageBuilder.build(), encrypter, () -> PdfValidationOptions.CHECK_ALL, config);
     }
 
     @Test
@@ -155,7 +161,7 @@ public class DocumentsPreparerTest {
                 .build();
 
         DigipostClientException thrown = assertThrows(DigipostClientException.class,
-                () -> preparer.prepare(documents, message, encrypter, () -> PdfValidationSettings.CHECK_ALL, config)
+                () -> preparer.prepare(documents, message, encrypter, () -> PdfValidationOptions.CHECK_ALL, config)
         );
         assertThat(thrown, where(Exception::getMessage, containsString("HTML_CONTENT_SANITIZED: Kjør DigipostValidatingHtmlSanitizer")));
     }
@@ -170,7 +176,7 @@ public class DocumentsPreparerTest {
         PrintStream stdOut = System.err;
         try {
             System.setErr(new PrintStream(baos));
-            preparer.prepare(documents, message, encrypter, () -> PdfValidationSettings.CHECK_ALL, config);
+            preparer.prepare(documents, message, encrypter, () -> PdfValidationOptions.CHECK_ALL, config);
             System.err.flush();
         } finally {
             System.setErr(stdOut);
@@ -206,13 +212,13 @@ public class DocumentsPreparerTest {
                 .build();
 
         DigipostClientException thrown = assertThrows(DigipostClientException.class,
-                () -> preparer.prepare(documents, messageBuilder.build(), encrypter, () -> PdfValidationSettings.CHECK_ALL, config));
+                () -> preparer.prepare(documents, messageBuilder.build(), encrypter, () -> PdfValidationOptions.CHECK_ALL, config));
         assertThat(thrown, where(Exception::getMessage, allOf(containsString("INVALID_HTML_CONTENT"), containsString("Tag name: script"))));
     }
 
     @Test
     public void doesNothingForNonPreEncryptedDocuments() throws IOException {
-        Map<Document, InputStream> preparedDocuments = preparer.prepare(documents, messageBuilder.build(), FAIL_IF_TRYING_TO_ENCRYPT, () -> PdfValidationSettings.CHECK_ALL, DigipostClientConfig.newConfiguration().build());
+        Map<Document, InputStream> preparedDocuments = preparer.prepare(documents, messageBuilder.build(), FAIL_IF_TRYING_TO_ENCRYPT, () -> PdfValidationOptions.CHECK_ALL, DigipostClientConfig.newConfiguration().build());
 
         assertThat(documents.keySet(), contains(primaryDocument));
         assertThat(documents.get(primaryDocument), sameInstance(preparedDocuments.get(primaryDocument)));
@@ -223,11 +229,81 @@ public class DocumentsPreparerTest {
         primaryDocument.encrypt();
         addAttachment("attachment", PDF, printablePdf2Pages()).encrypt();
         Message message = messageBuilder.build();
-        Map<Document, InputStream> preparedDocuments = preparer.prepare(documents, message, encrypter, () -> PdfValidationSettings.CHECK_ALL, DigipostClientConfig.newConfiguration().build());
+        Map<Document, InputStream> preparedDocuments = preparer.prepare(documents, message, encrypter, () -> PdfValidationOptions.CHECK_ALL, DigipostClientConfig.newConfiguration().build());
 
         assertThat(preparedDocuments.size(), is(2));
     }
 
+    @Test
+    public void preparesDocumentsConcurrentlyAndKeepsDocumentOrder() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            primaryDocument.encrypt();
+            for (int i = 0; i < 10; i++) {
+                addAttachment("attachment " + i, PDF, printablePdf2Pages()).encrypt();
+            }
+            Message message = messageBuilder.build();
+            DigipostClientConfig config = DigipostClientConfig.newConfiguration().documentPreparationExecutor(executor).build();
+
+            Map<Document, InputStream> preparedDocuments = preparer.prepare(documents, message, encrypter, () -> PdfValidationOptions.CHECK_ALL, config);
+
+            assertThat(new ArrayList<>(preparedDocuments.keySet()), is(message.getAllDocuments().collect(toList())));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void validatesIdenticalPdfContentOnlyOnceWhenCachingValidationResults() {
+        PdfValidator pdfValidator = spy(new PdfValidator());
+        DocumentsPreparer cachingPreparer = new DocumentsPreparer(pdfValidator, new HtmlValidator(), 10, 0);
+
+        for (int i = 0; i < 3; i++) {
+            cachingPreparer.validateAndSetNrOfPages(DIGIPOST, new Document(UUID.randomUUID(), "terms", PDF), pdf30Pages, () -> PdfValidationOptions.CHECK_ALL);
+        }
+        cachingPreparer.validateAndSetNrOfPages(DIGIPOST, new Document(UUID.randomUUID(), "other", PDF), printablePdf2PagesBytes(), () -> PdfValidationOptions.CHECK_ALL);
+
+        verify(pdfValidator, times(2)).validate(any(byte[].class), any(PdfValidationSettings.class));
+    }
+
+    @Test
+    public void cachesPdfValidationResultsPerValidationOptions() {
+        PdfValidator pdfValidator = spy(new PdfValidator());
+        DocumentsPreparer cachingPreparer = new DocumentsPreparer(pdfValidator, new HtmlValidator(), 10, 0);
+        PdfValidationOptions noPageLimit = new PdfValidationOptions(true, true, false, true, 0, 0);
+
+        cachingPreparer.validateAndSetNrOfPages(DIGIPOST, new Document(UUID.randomUUID(), "terms", PDF), pdf30Pages, () -> PdfValidationOptions.CHECK_ALL);
+        cachingPreparer.validateAndSetNrOfPages(DIGIPOST, new Document(UUID.randomUUID(), "terms", PDF), pdf30Pages, () -> noPageLimit);
+        cachingPreparer.validateAndSetNrOfPages(DIGIPOST, new Document(UUID.randomUUID(), "terms", PDF), pdf30Pages, () -> new PdfValidationOptions(true, true, false, true, 0, 0));
+
+        verify(pdfValidator, times(2)).validate(any(byte[].class), any(PdfValidationSettings.class));
+    }
+
+    @Test
+    public void validatesIdenticalHtmlContentOnlyOnceWhenCachingValidationResults() throws IOException {
+        HtmlValidator htmlValidator = spy(new HtmlValidator());
+        DocumentsPreparer cachingPreparer = new DocumentsPreparer(new PdfValidator(), htmlValidator, 0, 10);
+        DigipostClientConfig config = DigipostClientConfig.newConfiguration().build();
+        byte[] html = EksempelHtml.validHtml().readAllBytes();
+
+        for (int i = 0; i < 3; i++) {
+            cachingPreparer.validateHtml(new Document(UUID.randomUUID(), "newsletter", HTML), html, config);
+        }
+
+        verify(htmlValidator, times(1)).valider(any(byte[].class));
+        CacheStatistics statistics = cachingPreparer.getHtmlValidationCacheStatistics().get();
+        assertThat(statistics, where(s -> s.hits, is(2L)));
+        assertThat(statistics, where(s -> s.misses, is(1L)));
+    }
+
+    private static byte[] printablePdf2PagesBytes() {
+        try (InputStream pdf = printablePdf2Pages()) {
+            return pdf.readAllBytes();
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
     private Document addAttachment(String subject, FileType fileType, InputStream content) {
         Document document = new Document(UUID.randomUUID(), subject, fileType);
         documents.put(document, content);
@@ -16,6 +16,8 @@
 package no.digipost.api.client.internal.delivery;
 
 import no.digipost.api.client.SenderId;
+import no.digipost.api.client.delivery.DeliveryJournal;
+import no.digipost.api.client.errorhandling.DigipostClientException;
 import no.digipost.api.client.delivery.MessageDeliveryApi;
 import no.digipost.api.client.delivery.OngoingDelivery.SendableForPrintOnly;
 import no.digipost.api.client.delivery.OngoingDelivery.SendableWithPrintFallback;
@@ -58,6 +60,7 @@ import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -69,6 +72,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.util.Collections;
 import java.util.HashMap;
@@ -104,6 +108,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.then;
@@ -296,6 +301,63 @@ public class MessageDelivererTest {
         assertThat(printCopyMessage.recipient.hasDigipostIdentification(),is(true));
     }
 
+    @Test
+    public void resuming_from_journal_does_not_resend_delivered_message(@TempDir Path tempDir) {
+        when(api.sendMultipartMessage(any(HttpEntity.class))).thenReturn(mockClientResponse);
+        when(mockClientResponse.getCode()).thenReturn(200);
+        UUID messageId = UUID.randomUUID();
+        ByteArrayOutputStream bao = new ByteArrayOutputStream();
+        marshal(jaxbContext, new MessageDelivery(messageId.toString(), Channel.DIGIPOST, MessageStatus.DELIVERED, now()), bao);
+        when(mockClientResponse.getEntity()).thenReturn(new ByteArrayEntity(bao.toByteArray(), ContentType.create(DIGIPOST_MEDIA_TYPE_V8)));
+
+        try (DeliveryJournal journal = DeliveryJournal.open(tempDir.resolve("journal"))) {
+            MessageDeliverer resumingSender = new MessageDeliverer(newConfiguration().clock(clock).resumeFromDeliveryJournal(journal).build(), api, new DocumentsPreparer(pdfValidator, htmlValidator));
+            Document document = new Document(UUID.randomUUID(), "subject", FileType.PDF);
+            Message message = Message.newMessage(messageId, document).recipient(new DigipostAddress("test.testson#1234")).build();
+
+            MessageDelivery first = resumingSender.createMessage(message).addContent(document, printablePdf1Page()).send();
+            MessageDelivery second = resumingSender.createMessage(message).addContent(document, printablePdf1Page()).send();
+
+            assertThat(first.getStatus(), is(MessageStatus.DELIVERED));
+            assertThat(second.getStatus(), is(MessageStatus.DELIVERED));
+            assertTrue(journal.isDelivered(messageId.toString()));
+            then(api).should(times(1)).sendMultipartMessage(any(HttpEntity.class));
+        }
+    }
+
+    @Test
+    public void resuming_from_journal_records_message_received_in_interrupted_attempt_and_skips_it_when_resuming_again(@TempDir Path tempDir) {
+        when(api.sendMultipartMessage(any(HttpEntity.class)))
+                .thenThrow(new IllegalStateException("connection lost"))
+                .thenReturn(mockClientResponse);
+        when(mockClientResponse.getCode()).thenReturn(409);
+        Path journalFile = tempDir.resolve("journal");
+        UUID messageId = UUID.randomUUID();
+        Document document = new Document(UUID.randomUUID(), "subject", FileType.PDF);
+        Message message = Message.newMessage(messageId, document).recipient(new DigipostAddress("test.testson#1234")).build();
+
+        try (DeliveryJournal journal = DeliveryJournal.open(journalFile)) {
+            MessageDeliverer resumingSender = new MessageDeliverer(newConfiguration().clock(clock).resumeFromDeliveryJournal(journal).build(), api, new DocumentsPreparer(pdfValidator, htmlValidator));
+            assertThrows(DigipostClientException.class, () -> resumingSender.createMessage(message).addContent(document, printablePdf1Page()).send());
+            assertThat(journal.get(messageId.toString()).get().state, is(DeliveryJournal.State.FAILED));
+
+            MessageDelivery received = resumingSender.createMessage(message).addContent(document, printablePdf1Page()).send();
+            assertThat(received.getMessageId(), is(messageId.toString()));
+            assertThat(received.getStatus(), is(MessageStatus.COMPLETE));
+            assertThat(journal.get(messageId.toString()).get().state, is(DeliveryJournal.State.RECEIVED));
+        }
+
+        try (DeliveryJournal journal = DeliveryJournal.open(journalFile)) {
+            MessageDeliverer resumingSender = new MessageDeliverer(newConfiguration().clock(clock).resumeFromDeliveryJournal(journal).build(), api, new DocumentsPreparer(pdfValidator, htmlValidator));
+            MessageDelivery resumedAgain = resumingSender.createMessage(message).addContent(document, printablePdf1Page()).send();
+
+            assertThat(resumedAgain.getMessageId(), is(messageId.toString()));
+            assertThat(resumedAgain.getChannel(), is(Channel.DIGIPOST));
+            assertTrue(journal.isDelivered(messageId.toString()));
+            then(api).should(times(2)).sendMultipartMessage(any(HttpEntity.class));
+        }
+    }
+
     @Test
     public void passes_pdf_validation_for_printonly_message() {
         UUID messageId = UUID.randomUUID();
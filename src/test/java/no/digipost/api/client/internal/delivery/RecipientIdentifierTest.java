@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.delivery;
+
+import no.digipost.api.client.DigipostClientConfig;
+import no.digipost.api.client.delivery.RecipientIdentificationResult;
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import no.digipost.api.client.errorhandling.ErrorCode;
+import no.digipost.api.client.representations.Identification;
+import no.digipost.api.client.representations.IdentificationResult;
+import no.digipost.api.client.representations.NameAndAddress;
+import no.digipost.api.client.representations.PersonalIdentificationNumber;
+import no.digipost.time.ControllableClock;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.time.Duration.ofMinutes;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+import static no.digipost.api.client.DigipostClientConfig.newConfiguration;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class RecipientIdentifierTest {
+
+    private final ControllableClock clock = ControllableClock.freezedAt(Instant.now());
+    private final Map<Identification, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private final AtomicInteger inProgress = new AtomicInteger();
+    private final AtomicInteger maxInProgress = new AtomicInteger();
+
+    private final Function<Identification, IdentificationResult> identifyRecipient = identification -> {
+        maxInProgress.accumulateAndGet(inProgress.incrementAndGet(), Math::max);
+        try {
+            requests.computeIfAbsent(identification, i -> new AtomicInteger()).incrementAndGet();
+            Thread.sleep(5);
+            if (identification.getPersonalIdentificationNumber().endsWith("13")) {
+                throw new DigipostClientException(ErrorCode.PROBLEM_WITH_REQUEST, "unlucky");
+            }
+            return IdentificationResult.digipost(identification.getPersonalIdentificationNumber());
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            inProgress.decrementAndGet();
+        }
+    };
+
+    @Test
+    void identifiesAllRecipientsWithBoundedConcurrency() {
+        RecipientIdentifier identifier = new RecipientIdentifier(newConfiguration().build(), identifyRecipient);
+
+        List<RecipientIdentificationResult> results;
+        try (Stream<RecipientIdentificationResult> identified = identifier.identifyAll(IntStream.range(0, 50).mapToObj(RecipientIdentifierTest::pin), 4)) {
+            results = identified.collect(toList());
+        }
+
+        assertThat(results.size(), is(50));
+        assertThat(maxInProgress.get(), lessThanOrEqualTo(4));
+        Map<String, RecipientIdentificationResult> byPin = results.stream().collect(toMap(r -> r.identification.getPersonalIdentificationNumber(), r -> r));
+        assertThat(byPin.get("010190000" + 12).getResult().get().getDigipostAddress(), is("01019000012"));
+        assertFalse(byPin.get("010190000" + 13).isSuccess());
+        assertThat(byPin.get("010190000" + 13).getError().get().getErrorCode(), is(ErrorCode.PROBLEM_WITH_REQUEST));
+    }
+
+    @Test
+    void consumesIdentificationsLazily() {
+        RecipientIdentifier identifier = new RecipientIdentifier(newConfiguration().build(), identifyRecipient);
+        AtomicInteger counter = new AtomicInteger(100);
+
+        try (Stream<RecipientIdentificationResult> identified = identifier.identifyAll(Stream.generate(() -> pin(counter.getAndIncrement())), 3)) {
+            assertThat(identified.limit(10).count(), is(10L));
+        }
+        assertThat(counter.get(), lessThanOrEqualTo(100 + 10 + 3));
+    }
+
+    @Test
+    void usesCachedResultsOfNormalizedIdentificationsUntilTheyExpire() {
+        DigipostClientConfig config = newConfiguration().identificationCache(100, ofMinutes(10)).clock(clock).build();
+        RecipientIdentifier identifier = new RecipientIdentifier(config, identifyRecipient);
+
+        List<Boolean> cached = identifier.identifyAll(Stream.of(pin("01019000001"), pin("010190 00001"), pin("01019000013"), pin("01019000013")), 1)
+                .map(result -> result.cached).collect(toList());
+        assertThat(cached, contains(false, true, false, false));
+
+        clock.timePasses(Duration.ofMinutes(10));
+        assertThat(identifier.identifyAll(Stream.of(pin("01019000001")), 1).findFirst().get().cached, is(false));
+        assertThat(requests.get(pin("01019000001")).get(), is(2));
+        assertThat(identifier.getCacheStatistics().get().hits, is(1L));
+    }
+
+    @Test
+    void identifiersOfSeveralBrokersShareCachedResults() {
+        SharedDelivery shared = new SharedDelivery(newConfiguration().identificationCache(100, ofMinutes(10)).clock(clock).build());
+        RecipientIdentifier broker1 = new RecipientIdentifier(shared, identifyRecipient);
+        RecipientIdentifier broker2 = new RecipientIdentifier(shared, identifyRecipient);
+
+        assertThat(broker1.identifyAll(Stream.of(pin("01019000001")), 1).findFirst().get().cached, is(false));
+        assertThat(broker2.identifyAll(Stream.of(pin("01019000001")), 1).findFirst().get().cached, is(true));
+        assertThat(requests.get(pin("01019000001")).get(), is(1));
+    }
+
+    @Test
+    void normalizedIdentificationsOfSameRecipientAreEqual() {
+        assertThat(pin("010190 00001").normalized(), is(pin("01019000001").normalized()));
+        assertThat(
+                new Identification(new NameAndAddress(" Ola  Nordmann", "Storgata 1", null, "0 123", "OSLO")).normalized(),
+                is(new Identification(new NameAndAddress("ola nordmann", "storgata 1", null, "0123", "Oslo ")).normalized()));
+        assertThat(pin("01019000001").normalized(), not(pin("01019000002").normalized()));
+    }
+
+    private static Identification pin(int number) {
+        return pin(String.format("010190%05d", number));
+    }
+
+    private static Identification pin(String pin) {
+        return new Identification(new PersonalIdentificationNumber(pin));
+    }
+}
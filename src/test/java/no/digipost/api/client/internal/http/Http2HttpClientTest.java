@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.http;
+
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.impl.async.H2AsyncClientBuilder;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.HttpVersion;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.InputStreamEntity;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.AsyncEntityProducerWrapper;
+import org.apache.hc.core5.http.nio.entity.AsyncEntityProducers;
+import org.apache.hc.core5.http.nio.entity.BasicAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.AsyncResponseBuilder;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http.protocol.HttpCoreContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class Http2HttpClientTest {
+
+    private static final int LARGE_CONTENT_LENGTH = 8 * 1024 * 1024;
+
+    private final List<HttpVersion> receivedVersions = new CopyOnWriteArrayList<>();
+    private final Set<String> clientAddresses = ConcurrentHashMap.newKeySet();
+    private final List<String> responseHeadersSeenByInterceptor = new CopyOnWriteArrayList<>();
+    private final Semaphore largeResponsesEnded = new Semaphore(0);
+
+    private HttpAsyncServer server;
+    private URI serverUri;
+    private Http2HttpClient client;
+
+    @BeforeEach
+    void startServerAndClient() throws Exception {
+        server = H2ServerBootstrap.bootstrap()
+                .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_2)
+                .register("*", new EchoHandler())
+                .create();
+        server.start();
+        ListenerEndpoint endpoint = server.listen(new InetSocketAddress("localhost", 0)).get();
+        serverUri = URI.create("http://localhost:" + ((InetSocketAddress) endpoint.getAddress()).getPort());
+
+        client = new Http2HttpClient(H2AsyncClientBuilder.create().disableAutomaticRetries().build(),
+                singletonList((request, entity, context) -> request.setHeader("X-Signed", "signed " + request.getPath())),
+                singletonList((response, entity, context) -> responseHeadersSeenByInterceptor.add(response.getFirstHeader("X-Echo").getValue())));
+    }
+
+    @AfterEach
+    void stop() {
+        client.close(CloseMode.IMMEDIATE);
+        server.close(CloseMode.IMMEDIATE);
+    }
+
+    @Test
+    void sendsRequestWithStreamedEntityAndInterceptedHeadersOverHttp2() throws Exception {
+        HttpPost post = new HttpPost(serverUri.resolve("/upload"));
+        post.setEntity(new InputStreamEntity(new ByteArrayInputStream("streamed body".getBytes(UTF_8)), -1, ContentType.TEXT_PLAIN));
+
+        try (ClassicHttpResponse response = client.executeOpen(null, post, null)) {
+            assertThat(response.getCode(), is(200));
+            assertThat(response.getFirstHeader("X-Echo").getValue(), is("signed /upload"));
+            assertThat(EntityUtils.toString(response.getEntity()), is("streamed body"));
+        }
+        assertThat(receivedVersions, everyItem(is(HttpVersion.HTTP_2)));
+        assertThat(responseHeadersSeenByInterceptor, is(singletonList("signed /upload")));
+    }
+
+    @Test
+    void decompressesGzippedResponseAfterResponseInterceptors() throws Exception {
+        HttpPost post = new HttpPost(serverUri.resolve("/gzip"));
+        post.setHeader(Headers.Accept_Encoding_gzip_deflate);
+        post.setEntity(new InputStreamEntity(new ByteArrayInputStream("compressed body".getBytes(UTF_8)), -1, ContentType.TEXT_PLAIN));
+
+        try (ClassicHttpResponse response = client.executeOpen(null, post, null)) {
+            assertThat(response.getCode(), is(200));
+            assertThat(response.containsHeader(HttpHeaders.CONTENT_ENCODING), is(false));
+            assertThat(EntityUtils.toString(response.getEntity()), is("compressed body"));
+        }
+    }
+
+    @Test
+    void streamsResponseContentAsItIsReceived() throws Exception {
+        try (ClassicHttpResponse response = client.executeOpen(null, new HttpGet(serverUri.resolve("/large")), null)) {
+            InputStream content = response.getEntity().getContent();
+            assertThat(content.read(), is(0));
+            Thread.sleep(100);
+            assertThat(content.available(), lessThanOrEqualTo(LARGE_CONTENT_LENGTH / 10));
+            assertThat(1 + content.transferTo(OutputStream.nullOutputStream()), is((long) LARGE_CONTENT_LENGTH));
+        }
+    }
+
+    @Test
+    void closingPartiallyReadResponseMakesFurtherReadsFail() throws Exception {
+        InputStream content;
+        try (ClassicHttpResponse response = client.executeOpen(null, new HttpGet(serverUri.resolve("/large")), null)) {
+            content = response.getEntity().getContent();
+            assertThat(content.read(new byte[100]), is(100));
+        }
+        assertThrows(IOException.class, content::read);
+
+        try (ClassicHttpResponse response = client.executeOpen(null, new HttpGet(serverUri.resolve("/status/1")), null)) {
+            assertThat(response.getCode(), is(200));
+        }
+    }
+
+    @Test
+    void closingPartiallyReadResponseResetsOnlyItsStreamAndKeepsTheConnection() throws Exception {
+        try (ClassicHttpResponse other = client.executeOpen(null, new HttpGet(serverUri.resolve("/large")), null)) {
+            InputStream otherContent = other.getEntity().getContent();
+            assertThat(otherContent.read(), is(0));
+
+            try (ClassicHttpResponse closed = client.executeOpen(null, new HttpGet(serverUri.resolve("/large")), null)) {
+                assertThat(closed.getEntity().getContent().read(new byte[100]), is(100));
+            }
+
+            assertThat(1 + otherContent.transferTo(OutputStream.nullOutputStream()), is((long) LARGE_CONTENT_LENGTH));
+        }
+        try (ClassicHttpResponse response = client.executeOpen(null, new HttpGet(serverUri.resolve("/status/1")), null)) {
+            assertThat(response.getCode(), is(200));
+        }
+        assertThat(receivedVersions, hasSize(3));
+        assertThat(clientAddresses, hasSize(1));
+    }
+
+    @Test
+    void closingPartiallyReadResponseEndsItsStreamWithoutAffectingOthersOnTheConnection() throws Exception {
+        try (ClassicHttpResponse other = client.executeOpen(null, new HttpGet(serverUri.resolve("/large")), null)) {
+            InputStream otherContent = other.getEntity().getContent();
+            assertThat(otherContent.read(), is(0));
+
+            try (ClassicHttpResponse closed = client.executeOpen(null, new HttpGet(serverUri.resolve("/large")), null)) {
+                assertThat(closed.getEntity().getContent().read(new byte[100]), is(100));
+            }
+            assertThat(largeResponsesEnded.tryAcquire(5, SECONDS), is(true));
+
+            assertThat(1 + otherContent.transferTo(OutputStream.nullOutputStream()), is((long) LARGE_CONTENT_LENGTH));
+        }
+        try (ClassicHttpResponse response = client.executeOpen(null, new HttpGet(serverUri.resolve("/status/1")), null)) {
+            assertThat(response.getCode(), is(200));
+        }
+        assertThat(receivedVersions, hasSize(3));
+        assertThat(clientAddresses, hasSize(1));
+    }
+
+    @Test
+    void multiplexesConcurrentRequestsOverOneConnection() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(20);
+        try {
+            List<Future<Integer>> responses = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                HttpGet get = new HttpGet(serverUri.resolve("/status/" + i));
+                responses.add(executor.submit(() -> {
+                    try (ClassicHttpResponse response = client.executeOpen(null, get, null)) {
+                        return response.getCode();
+                    }
+                }));
+            }
+            for (Future<Integer> response : responses) {
+                assertThat(response.get(), is(200));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(receivedVersions, hasSize(100));
+        assertThat(clientAddresses, hasSize(1));
+    }
+
+
+    private final class EchoHandler implements AsyncServerRequestHandler<Message<HttpRequest, byte[]>> {
+
+        @Override
+        public AsyncRequestConsumer<Message<HttpRequest, byte[]>> prepare(HttpRequest request, EntityDetails entityDetails, HttpContext context) {
+            return new BasicRequestConsumer<>(entityDetails != null ? new BasicAsyncEntityConsumer() : null);
+        }
+
+        @Override
+        public void handle(Message<HttpRequest, byte[]> message, ResponseTrigger responseTrigger, HttpContext context) throws HttpException, IOException {
+            receivedVersions.add((HttpVersion) context.getProtocolVersion());
+            clientAddresses.add(String.valueOf(((HttpCoreContext) context).getEndpointDetails().getRemoteAddress()));
+            byte[] body = message.getBody() != null ? message.getBody() : new byte[0];
+            AsyncResponseBuilder response = AsyncResponseBuilder.create(200)
+                    .setHeader("X-Echo", message.getHead().getFirstHeader("X-Signed").getValue());
+            if (message.getHead().getPath().equals("/large")) {
+                response.setEntity(new AsyncEntityProducerWrapper(AsyncEntityProducers.create(new byte[LARGE_CONTENT_LENGTH], ContentType.APPLICATION_OCTET_STREAM)) {
+                    @Override
+                    public void releaseResources() {
+                        super.releaseResources();
+                        largeResponsesEnded.release();
+                    }
+                });
+            } else if (message.getHead().getPath().equals("/gzip")) {
+                ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+                try (OutputStream gzip = new GZIPOutputStream(gzipped)) {
+                    gzip.write(body);
+                }
+                response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip")
+                        .setEntity(AsyncEntityProducers.create(gzipped.toByteArray(), ContentType.TEXT_PLAIN));
+            } else {
+                response.setEntity(AsyncEntityProducers.create(body, ContentType.TEXT_PLAIN));
+            }
+            responseTrigger.submitResponse(response.build(), context);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.http;
+
+import no.digipost.api.client.CircuitBreakerConfig;
+import no.digipost.api.client.ConcurrencyLimitConfig;
+import no.digipost.api.client.Operation;
+import no.digipost.api.client.RetryPolicy;
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import no.digipost.api.client.errorhandling.ErrorCode;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.http.protocol.BasicHttpContext;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.junit.jupiter.api.Test;
+
+import java.net.SocketTimeoutException;
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.time.Duration.ofSeconds;
+import static no.digipost.api.client.Operation.ARCHIVE;
+import static no.digipost.api.client.Operation.CREATE_MESSAGE;
+import static no.digipost.api.client.internal.http.CircuitBreaker.State.CLOSED;
+import static no.digipost.api.client.internal.http.CircuitBreaker.State.HALF_OPEN;
+import static no.digipost.api.client.internal.http.CircuitBreaker.State.OPEN;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class OverloadProtectionTest {
+
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    private final CircuitBreakerConfig circuitBreaker = CircuitBreakerConfig.newConfiguration()
+            .slidingWindow(10, 4).failureRateThreshold(0.5).slowRequests(ofSeconds(2), 0.8)
+            .openDuration(ofSeconds(30)).trialRequests(2).build();
+
+    @Test
+    void opensCircuitBreakerOnHighFailureRateAndClosesAfterSuccessfulTrials() throws Exception {
+        OverloadProtection protection = new OverloadProtection(circuitBreaker, ConcurrencyLimitConfig.DISABLED, nanoTime::get);
+        respond(protection, CREATE_MESSAGE, 200);
+        respond(protection, CREATE_MESSAGE, 200);
+        respond(protection, CREATE_MESSAGE, 503);
+        assertThat(protection.getCircuitBreakerState(CREATE_MESSAGE), is(CLOSED));
+        assertThrows(SocketTimeoutException.class, () -> protection.send(CREATE_MESSAGE, () -> { throw new SocketTimeoutException(); }));
+        assertThat(protection.getCircuitBreakerState(CREATE_MESSAGE), is(OPEN));
+
+        DigipostClientException rejected = assertThrows(DigipostClientException.class, () -> respond(protection, CREATE_MESSAGE, 200));
+        assertThat(rejected.getErrorCode(), is(ErrorCode.OVERLOAD_PROTECTION));
+        respond(protection, ARCHIVE, 200);
+
+        nanoTime.addAndGet(ofSeconds(30).toNanos());
+        respond(protection, CREATE_MESSAGE, 200);
+        assertThat(protection.getCircuitBreakerState(CREATE_MESSAGE), is(HALF_OPEN));
+        respond(protection, CREATE_MESSAGE, 200);
+        assertThat(protection.getCircuitBreakerState(CREATE_MESSAGE), is(CLOSED));
+    }
+
+    @Test
+    void opensCircuitBreakerOnSlowRequestsAndReopensOnFailedTrial() throws Exception {
+        OverloadProtection protection = new OverloadProtection(circuitBreaker, ConcurrencyLimitConfig.DISABLED, nanoTime::get);
+        for (int i = 0; i < 4; i++) {
+            protection.send(ARCHIVE, () -> {
+                nanoTime.addAndGet(ofSeconds(3).toNanos());
+                return new BasicClassicHttpResponse(200);
+            });
+        }
+        assertThat(protection.getCircuitBreakerState(ARCHIVE), is(OPEN));
+
+        nanoTime.addAndGet(ofSeconds(30).toNanos());
+        respond(protection, ARCHIVE, 500);
+        assertThat(protection.getCircuitBreakerState(ARCHIVE), is(OPEN));
+    }
+
+    @Test
+    void rejectsRequestsExceedingConcurrencyLimitAndAdaptsLimit() throws Exception {
+        OverloadProtection protection = new OverloadProtection(
+                CircuitBreakerConfig.DISABLED, ConcurrencyLimitConfig.newConfiguration().limit(2, 1, 10).backoffRatio(0.5).build(), nanoTime::get);
+
+        DigipostClientException rejected = assertThrows(DigipostClientException.class, () -> protection.send(Operation.OTHER, () ->
+                protection.send(Operation.OTHER, () ->
+                        protection.send(Operation.OTHER, () -> new BasicClassicHttpResponse(200)))));
+        assertThat(rejected.getErrorCode(), is(ErrorCode.OVERLOAD_PROTECTION));
+        assertThat(protection.getConcurrencyLimit().get(), is(2));
+
+        respond(protection, Operation.OTHER, 429);
+        assertThat(protection.getConcurrencyLimit().get(), is(1));
+
+        for (int i = 0; i < 10; i++) {
+            respond(protection, Operation.OTHER, 200);
+        }
+        assertThat("grows only while the limit is being used", protection.getConcurrencyLimit().get(), is(2));
+    }
+
+    @Test
+    void holdsConcurrencyLimitUntilContentIsReadToTheEndOrClosed() throws Exception {
+        OverloadProtection protection = new OverloadProtection(
+                CircuitBreakerConfig.DISABLED, ConcurrencyLimitConfig.newConfiguration().limit(1, 1, 1).build(), nanoTime::get);
+
+        ClassicHttpResponse readToTheEnd = respondWithContent(protection);
+        assertThrows(DigipostClientException.class, () -> respond(protection, Operation.OTHER, 200));
+        assertThat(EntityUtils.toString(readToTheEnd.getEntity()), is("content"));
+        respond(protection, Operation.OTHER, 200);
+
+        ClassicHttpResponse closed = respondWithContent(protection);
+        assertThrows(DigipostClientException.class, () -> respond(protection, Operation.OTHER, 200));
+        closed.close();
+        respond(protection, Operation.OTHER, 200);
+    }
+
+    @Test
+    void measuresEachAttemptOfRetriedRequestWithoutTheBackoff() throws Exception {
+        OverloadProtection protection = new OverloadProtection(CircuitBreakerConfig.newConfiguration()
+                .slidingWindow(10, 4).failureRateThreshold(1).slowRequests(ofSeconds(2), 0.5).build(), ConcurrencyLimitConfig.DISABLED, nanoTime::get);
+        RetryPolicy policy = RetryPolicy.newPolicy().maxAttempts(2).initialBackoff(ofSeconds(3)).maxBackoff(ofSeconds(5)).build();
+        RequestRetrier retrier = new RequestRetrier(policy, Clock.systemUTC(), backoff -> nanoTime.addAndGet(backoff.toNanos()), () -> 1.0, protection);
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(OverloadProtection.OPERATION, ARCHIVE);
+
+        for (int i = 0; i < 4; i++) {
+            ClassicHttpResponse response = retrier.execute(new HttpGet("/documents"), context, retry -> new BasicClassicHttpResponse(retry == 0 ? 503 : 200));
+            assertThat(response.getCode(), is(200));
+        }
+        assertThat(protection.getCircuitBreakerState(ARCHIVE), is(CLOSED));
+    }
+
+    private static ClassicHttpResponse respondWithContent(OverloadProtection protection) throws Exception {
+        return protection.send(Operation.OTHER, () -> {
+            BasicClassicHttpResponse response = new BasicClassicHttpResponse(200);
+            response.setEntity(new StringEntity("content"));
+            return response;
+        });
+    }
+
+    private static ClassicHttpResponse respond(OverloadProtection protection, Operation operation, int status) throws Exception {
+        return protection.send(operation, () -> new BasicClassicHttpResponse(status));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.http;
+
+import no.digipost.api.client.RateLimitConfig;
+import no.digipost.api.client.RateLimitStatistics;
+import no.digipost.api.client.SenderId;
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import no.digipost.api.client.errorhandling.ErrorCode;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.time.Duration.ofMillis;
+import static java.time.Duration.ofSeconds;
+import static no.digipost.api.client.Operation.ARCHIVE;
+import static no.digipost.api.client.Operation.CREATE_MESSAGE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RateLimiterTest {
+
+    private static final SenderId SENDER = SenderId.of(1);
+    private static final SenderId OTHER_SENDER = SenderId.of(2);
+
+    private final AtomicLong nanoTime = new AtomicLong();
+    private final List<Long> sleeps = new ArrayList<>();
+
+    private RateLimiter rateLimiter(RateLimitConfig config) {
+        return new RateLimiter(config, nanoTime::get, sleeps::add);
+    }
+
+    @Test
+    void allowsBurstAndThenSpacesOutRequestsPerSender() {
+        RateLimiter limiter = rateLimiter(RateLimitConfig.newConfiguration().perSender(10, 2).build());
+
+        limiter.acquire(CREATE_MESSAGE, SENDER);
+        limiter.acquire(CREATE_MESSAGE, SENDER);
+        limiter.acquire(CREATE_MESSAGE, OTHER_SENDER);
+        assertThat(sleeps, empty());
+
+        limiter.acquire(CREATE_MESSAGE, SENDER);
+        limiter.acquire(CREATE_MESSAGE, SENDER);
+        assertThat("queued callers wait in turn", sleeps, contains(ofMillis(100).toNanos(), ofMillis(200).toNanos()));
+
+        RateLimitStatistics statistics = limiter.getStatistics();
+        assertThat(statistics.permitted, is(5L));
+        assertThat(statistics.delayed, is(2L));
+        assertThat(statistics.maxWait, is(ofMillis(200)));
+        assertThat(statistics.totalWait, is(ofMillis(300)));
+    }
+
+    @Test
+    void refillsTokensOverTime() {
+        RateLimiter limiter = rateLimiter(RateLimitConfig.newConfiguration().perSender(10, 1).build());
+
+        limiter.acquire(CREATE_MESSAGE, SENDER);
+        nanoTime.addAndGet(ofMillis(100).toNanos());
+        limiter.acquire(CREATE_MESSAGE, SENDER);
+        assertThat(sleeps, empty());
+    }
+
+    @Test
+    void specificSenderAndOperationLimitsApply() {
+        RateLimiter limiter = rateLimiter(RateLimitConfig.newConfiguration()
+                .sender(SENDER, 1, 1)
+                .operation(ARCHIVE, 2, 1)
+                .build());
+
+        limiter.acquire(ARCHIVE, OTHER_SENDER);
+        limiter.acquire(ARCHIVE, SENDER);
+        assertThat(sleeps, contains(ofMillis(500).toNanos()));
+
+        limiter.acquire(CREATE_MESSAGE, SENDER);
+        assertThat(sleeps, contains(ofMillis(500).toNanos(), ofSeconds(1).toNanos()));
+    }
+
+    @Test
+    void rejectsRequestWhichWouldWaitLongerThanMaxWait() {
+        RateLimiter limiter = rateLimiter(RateLimitConfig.newConfiguration().perSender(1, 1).maxWait(ofMillis(1500)).build());
+
+        limiter.acquire(CREATE_MESSAGE, SENDER);
+        limiter.acquire(CREATE_MESSAGE, SENDER);
+        DigipostClientException rejected = assertThrows(DigipostClientException.class, () -> limiter.acquire(CREATE_MESSAGE, SENDER));
+        assertThat(rejected.getErrorCode(), is(ErrorCode.OVERLOAD_PROTECTION));
+        assertThat(limiter.getStatistics().rejected, is(1L));
+
+        nanoTime.addAndGet(ofSeconds(1).toNanos());
+        limiter.acquire(CREATE_MESSAGE, SENDER);
+    }
+
+    @Test
+    void interruptWhileWaitingIsThrownAsDigipostClientException() {
+        RateLimiter limiter = new RateLimiter(RateLimitConfig.newConfiguration().perSender(1, 1).build(), nanoTime::get, nanos -> {
+            throw new InterruptedException();
+        });
+        limiter.acquire(CREATE_MESSAGE, SENDER);
+
+        try {
+            DigipostClientException interrupted = assertThrows(DigipostClientException.class, () -> limiter.acquire(CREATE_MESSAGE, SENDER));
+            assertThat(interrupted.getErrorCode(), is(ErrorCode.GENERAL_ERROR));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.http;
+
+import no.digipost.api.client.HedgingPolicy;
+import no.digipost.api.client.RetryPolicy;
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import no.digipost.api.client.errorhandling.ErrorCode;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static java.time.Duration.ofMillis;
+import static java.time.Duration.ofSeconds;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RequestHedgerTest {
+
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final CountDownLatch slowRequestCancelled = new CountDownLatch(1);
+
+    /**
+     * The first attempt hangs until it is cancelled, while any later attempt responds immediately.
+     */
+    private final Function<ClassicHttpRequest, String> firstAttemptHangs = request -> {
+        int attempt = attempts.incrementAndGet();
+        if (attempt == 1) {
+            CountDownLatch cancelled = new CountDownLatch(1);
+            ((HttpGet) request).setDependency(() -> {
+                cancelled.countDown();
+                slowRequestCancelled.countDown();
+                return true;
+            });
+            try {
+                cancelled.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IllegalStateException("cancelled");
+        }
+        return "response " + attempt;
+    };
+
+    @Test
+    void hedgesSlowRequestAndCancelsIt() throws InterruptedException {
+        RequestHedger hedger = new RequestHedger(HedgingPolicy.newPolicy().delay(ofMillis(10), ofMillis(50)).build());
+
+        String response = hedger.execute("search", () -> new HttpGet("/search"), firstAttemptHangs);
+
+        assertThat(response, is("response 2"));
+        assertTrue(slowRequestCancelled.await(5, TimeUnit.SECONDS), "slow request was cancelled");
+    }
+
+    @Test
+    void doesNotHedgeWhenBudgetIsSpent() {
+        RequestHedger hedger = new RequestHedger(HedgingPolicy.newPolicy().delay(ofMillis(1), ofMillis(1)).budget(0.01).build());
+        for (int i = 0; i < 10; i++) {
+            attempts.set(1);
+            hedger.execute("search", () -> new HttpGet("/search"), request -> {
+                attempts.incrementAndGet();
+                sleep(20);
+                return "slow";
+            });
+        }
+        attempts.set(0);
+        assertThrows(IllegalStateException.class, () -> hedger.execute("search", () -> new HttpGet("/search"), request -> {
+            if (attempts.incrementAndGet() == 1) {
+                sleep(20);
+                throw new IllegalStateException("only attempt failed");
+            }
+            return "hedged";
+        }));
+        assertThat(attempts.get(), is(1));
+    }
+
+    @Test
+    void usesOtherAttemptWhenFirstFails() {
+        RequestHedger hedger = new RequestHedger(HedgingPolicy.newPolicy().delay(ofMillis(10), ofMillis(10)).build());
+
+        String response = hedger.execute("document-status", () -> new HttpGet("/status"), request -> {
+            if (attempts.incrementAndGet() == 1) {
+                sleep(50);
+                throw new IllegalStateException("first attempt failed");
+            }
+            return "second";
+        });
+        assertThat(response, is("second"));
+    }
+
+    @Test
+    void cancelledSlowerRequestIsNotRetried() throws InterruptedException {
+        List<Duration> retrySleeps = new CopyOnWriteArrayList<>();
+        RequestRetrier retrier = new RequestRetrier(RetryPolicy.newPolicy().maxAttempts(3).initialBackoff(ofMillis(100)).maxBackoff(ofSeconds(5)).build(),
+                Clock.systemUTC(), retrySleeps::add, () -> 0.5);
+        RequestHedger hedger = new RequestHedger(HedgingPolicy.newPolicy().delay(ofMillis(10), ofMillis(10)).build());
+        AtomicReference<ClassicHttpRequest> slowRequest = new AtomicReference<>();
+        AtomicInteger slowAttempts = new AtomicInteger();
+        CountDownLatch slowRequestFinished = new CountDownLatch(1);
+
+        int status = hedger.execute("document-status", () -> new HttpGet("/status"), request -> {
+            boolean slow = slowRequest.compareAndSet(null, request) || slowRequest.get() == request;
+            try (ClassicHttpResponse response = retrier.execute(request, null, retry -> {
+                if (!slow) {
+                    return new BasicClassicHttpResponse(200);
+                }
+                slowAttempts.incrementAndGet();
+                CountDownLatch aborted = new CountDownLatch(1);
+                ((HttpGet) request).setDependency(() -> {
+                    aborted.countDown();
+                    return true;
+                });
+                try {
+                    aborted.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new SocketException("Socket closed");
+            })) {
+                return response.getCode();
+            } catch (IOException | HttpException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                if (slow) {
+                    slowRequestFinished.countDown();
+                }
+            }
+        });
+
+        assertThat(status, is(200));
+        assertTrue(slowRequestFinished.await(5, TimeUnit.SECONDS), "slow request finished");
+        assertThat(slowAttempts.get(), is(1));
+        assertThat(retrySleeps, empty());
+    }
+
+    @Test
+    void sendsFirstAttemptOnCallingThreadAndOnlyHedgeOnAnother() {
+        List<Thread> sendingThreads = new CopyOnWriteArrayList<>();
+
+        new RequestHedger(HedgingPolicy.newPolicy().delay(ofSeconds(1), ofSeconds(1)).build()).execute("search", () -> new HttpGet("/search"), request -> {
+            sendingThreads.add(Thread.currentThread());
+            return "fast";
+        });
+        assertThat(sendingThreads, contains(Thread.currentThread()));
+
+        sendingThreads.clear();
+        RequestHedger hedger = new RequestHedger(HedgingPolicy.newPolicy().delay(ofMillis(10), ofMillis(10)).build());
+        String response = hedger.execute("search", () -> new HttpGet("/search"), request -> {
+            sendingThreads.add(Thread.currentThread());
+            return firstAttemptHangs.apply(request);
+        });
+        assertThat(response, is("response 2"));
+        assertThat(sendingThreads.get(0), is(Thread.currentThread()));
+        assertThat(sendingThreads.get(1), not(Thread.currentThread()));
+    }
+
+    @Test
+    void interruptWhileWaitingForHedgedResponseIsThrownAsDigipostClientException() throws InterruptedException {
+        RequestHedger hedger = new RequestHedger(HedgingPolicy.newPolicy().delay(ofMillis(10), ofMillis(10)).build());
+
+        try {
+            DigipostClientException interrupted = assertThrows(DigipostClientException.class, () -> hedger.execute("search", () -> new HttpGet("/search"), request -> {
+                if (attempts.incrementAndGet() == 1) {
+                    sleep(50);
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("first attempt failed");
+                }
+                attempts.set(0); // the hedge hangs until it is cancelled
+                return firstAttemptHangs.apply(request);
+            }));
+            assertThat(interrupted.getErrorCode(), is(ErrorCode.GENERAL_ERROR));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        assertTrue(slowRequestCancelled.await(5, TimeUnit.SECONDS), "hedged request was cancelled");
+    }
+
+    @Test
+    void sendsRequestsWithoutHedgingWhenClosed() {
+        RequestHedger hedger = new RequestHedger(HedgingPolicy.newPolicy().delay(ofMillis(1), ofMillis(1)).build());
+        hedger.close();
+
+        String response = hedger.execute("search", () -> new HttpGet("/search"), request -> {
+            attempts.incrementAndGet();
+            sleep(20);
+            return "only";
+        });
+        assertThat(response, is("only"));
+        assertThat(attempts.get(), is(1));
+    }
+
+    @Test
+    void delayFollowsPercentileOfRecentResponseTimes() {
+        RequestHedger hedger = new RequestHedger(HedgingPolicy.newPolicy().percentile(0.9).delay(ofMillis(1), ofSeconds(1)).build());
+        RequestHedger.LatencyTracker latency = new RequestHedger.LatencyTracker();
+        assertThat(hedger.hedgeDelayNanos(latency), is(ofSeconds(1).toNanos()));
+
+        for (int i = 1; i <= 100; i++) {
+            latency.record(ofMillis(i).toNanos());
+        }
+        assertThat(hedger.hedgeDelayNanos(latency), is(ofMillis(90).toNanos()));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
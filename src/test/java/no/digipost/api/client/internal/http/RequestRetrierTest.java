@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.http;
+
+import no.digipost.api.client.RetryPolicy;
+import no.digipost.api.client.util.DateUtils;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.http.protocol.HttpCoreContext;
+import org.junit.jupiter.api.Test;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.time.Duration.ofMillis;
+import static java.time.Duration.ofSeconds;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RequestRetrierTest {
+
+    private final Clock clock = Clock.fixed(Instant.parse("2026-10-19T10:00:00Z"), ZoneOffset.UTC);
+    private final List<Duration> sleeps = new ArrayList<>();
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    private final RetryPolicy policy = RetryPolicy.newPolicy()
+            .maxAttempts(3).initialBackoff(ofMillis(100)).maxBackoff(ofSeconds(5)).build();
+
+    private RequestRetrier retrier(RetryPolicy policy) {
+        return new RequestRetrier(policy, clock, sleeps::add, () -> 0.5);
+    }
+
+    @Test
+    void retriesUnavailableGetWithExponentialBackoff() throws Exception {
+        ClassicHttpResponse response = retrier(policy).execute(new HttpGet("/documents"), null, retry -> {
+            attempts.incrementAndGet();
+            return new BasicClassicHttpResponse(retry < 2 ? 503 : 200);
+        });
+
+        assertThat(response.getCode(), is(200));
+        assertThat(attempts.get(), is(3));
+        assertThat(sleeps, contains(ofMillis(50), ofMillis(100)));
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() throws Exception {
+        ClassicHttpResponse response = retrier(policy).execute(new HttpGet("/documents"), null, retry -> {
+            attempts.incrementAndGet();
+            return new BasicClassicHttpResponse(503);
+        });
+
+        assertThat(response.getCode(), is(503));
+        assertThat(attempts.get(), is(3));
+    }
+
+    @Test
+    void honoursRetryAfterInSecondsAndAsDate() throws Exception {
+        ClassicHttpResponse response = retrier(policy).execute(new HttpGet("/documents"), null, retry -> {
+            BasicClassicHttpResponse tooMany = new BasicClassicHttpResponse(retry < 2 ? 429 : 200);
+            if (retry == 0) {
+                tooMany.setHeader("Retry-After", "2");
+            } else if (retry == 1) {
+                tooMany.setHeader("Retry-After", DateUtils.formatDate(clock.instant().plusSeconds(3).atZone(ZoneOffset.UTC)));
+            }
+            return tooMany;
+        });
+
+        assertThat(response.getCode(), is(200));
+        assertThat(sleeps, contains(ofSeconds(2), ofSeconds(3)));
+    }
+
+    @Test
+    void doesNotRetryWhenRetryAfterExceedsMaxBackoff() throws Exception {
+        ClassicHttpResponse response = retrier(policy).execute(new HttpGet("/documents"), null, retry -> {
+            BasicClassicHttpResponse unavailable = new BasicClassicHttpResponse(503);
+            unavailable.setHeader("Retry-After", "120");
+            return unavailable;
+        });
+
+        assertThat(response.getCode(), is(503));
+        assertThat(sleeps, empty());
+    }
+
+    @Test
+    void retriesMessageSendOnlyIfNotConnected() throws Exception {
+        HttpCoreContext context = HttpCoreContext.create();
+        context.setAttribute(RequestRetrier.RETRY_IF_NOT_PROCESSED, true);
+        HttpPost send = new HttpPost("/messages");
+        send.setEntity(new ByteArrayEntity(new byte[] {1, 2, 3}, ContentType.APPLICATION_OCTET_STREAM));
+
+        ClassicHttpResponse response = retrier(policy).execute(send, context, retry -> {
+            if (retry == 0) {
+                throw new ConnectException("Connection refused");
+            }
+            return new BasicClassicHttpResponse(200);
+        });
+        assertThat(response.getCode(), is(200));
+
+        assertThrows(SocketTimeoutException.class, () -> retrier(policy).execute(send, context, retry -> {
+            attempts.incrementAndGet();
+            throw new SocketTimeoutException("Read timed out");
+        }));
+        assertThat(attempts.get(), is(1));
+    }
+
+    @Test
+    void doesNotRetryNonIdempotentRequest() throws Exception {
+        ClassicHttpResponse response = retrier(policy).execute(new HttpPost("/archive"), null, retry -> {
+            attempts.incrementAndGet();
+            return new BasicClassicHttpResponse(503);
+        });
+
+        assertThat(response.getCode(), is(503));
+        assertThat(attempts.get(), is(1));
+    }
+
+    @Test
+    void stopsRetryingWhenRetryBudgetIsExhausted() throws Exception {
+        RequestRetrier retrier = retrier(RetryPolicy.newPolicy().maxAttempts(3).retryBudget(0.1, 2).build());
+        for (int i = 0; i < 3; i++) {
+            retrier.execute(new HttpGet("/documents"), null, retry -> {
+                attempts.incrementAndGet();
+                return new BasicClassicHttpResponse(503);
+            });
+        }
+
+        assertThat(attempts.get(), is(3 + 2));
+    }
+}
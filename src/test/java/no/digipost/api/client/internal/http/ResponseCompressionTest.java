@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.http;
+
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import no.digipost.api.client.internal.http.response.interceptor.ResponseContentSHA256Interceptor;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.ParseException;
+import org.apache.hc.core5.http.impl.bootstrap.HttpServer;
+import org.apache.hc.core5.http.impl.bootstrap.ServerBootstrap;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.InputStreamEntity;
+import org.apache.hc.core5.io.CloseMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
+import static no.digipost.api.client.errorhandling.ErrorCode.SERVER_SIGNATURE_ERROR;
+import static no.digipost.api.client.internal.http.Headers.Accept_Encoding_gzip_deflate;
+import static no.digipost.api.client.internal.http.Headers.X_Content_SHA256;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ResponseCompressionTest {
+
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><recipients>" + "<recipient>Ola Nordmann</recipient>".repeat(5000) + "</recipients>";
+
+    private final List<String> acceptEncodings = new CopyOnWriteArrayList<>();
+
+    private HttpServer server;
+    private URI serverUri;
+    private CloseableHttpClient client;
+
+    @BeforeEach
+    void startServerAndClient() throws IOException {
+        server = ServerBootstrap.bootstrap()
+                .register("/gzip", (request, response, context) -> {
+                    acceptEncodings.add(request.getFirstHeader("Accept-Encoding").getValue());
+                    byte[] gzipped = gzip(XML);
+                    response.setHeader(X_Content_SHA256, sha256(gzipped));
+                    response.setEntity(new ByteArrayEntity(gzipped, ContentType.APPLICATION_XML, "gzip"));
+                })
+                .register("/deflate", (request, response, context) -> {
+                    byte[] deflated = deflate(XML);
+                    response.setHeader(X_Content_SHA256, sha256(deflated));
+                    response.setEntity(new ByteArrayEntity(deflated, ContentType.APPLICATION_XML, "deflate"));
+                })
+                .register("/gzip-hash-of-decompressed", (request, response, context) -> {
+                    response.setHeader(X_Content_SHA256, sha256(XML.getBytes(UTF_8)));
+                    response.setEntity(new ByteArrayEntity(gzip(XML), ContentType.APPLICATION_XML, "gzip"));
+                })
+                .register("/gzip-chunked", (request, response, context) -> {
+                    byte[] gzipped = gzip(XML);
+                    response.setHeader(X_Content_SHA256, sha256(gzipped));
+                    response.setEntity(new InputStreamEntity(new ByteArrayInputStream(gzipped), -1, ContentType.APPLICATION_XML, "gzip"));
+                })
+                .register("/gzip-chunked-hash-of-decompressed", (request, response, context) -> {
+                    response.setHeader(X_Content_SHA256, sha256(XML.getBytes(UTF_8)));
+                    response.setEntity(new InputStreamEntity(new ByteArrayInputStream(gzip(XML)), -1, ContentType.APPLICATION_XML, "gzip"));
+                })
+                .create();
+        server.start();
+        serverUri = URI.create("http://localhost:" + server.getLocalPort());
+
+        client = HttpClients.custom()
+                .addResponseInterceptorLast(new ResponseContentSHA256Interceptor())
+                .build();
+    }
+
+    @AfterEach
+    void stop() {
+        client.close(CloseMode.IMMEDIATE);
+        server.close(CloseMode.IMMEDIATE);
+    }
+
+    @Test
+    void verifiesHashOfGzippedBytesAndDecompressesResponse() throws Exception {
+        assertThat(get("/gzip"), is(XML));
+        assertThat(acceptEncodings, is(singletonList("gzip, deflate")));
+    }
+
+    @Test
+    void verifiesHashOfDeflatedBytesAndDecompressesResponse() throws Exception {
+        assertThat(get("/deflate"), is(XML));
+    }
+
+    @Test
+    void verifiesHashOfStreamedGzippedBytesWhileDecompressingResponse() throws Exception {
+        assertThat(get("/gzip-chunked"), is(XML));
+    }
+
+    @Test
+    void rejectsHashOfDecompressedContent() {
+        DigipostClientException thrown = assertThrows(DigipostClientException.class, () -> get("/gzip-hash-of-decompressed"));
+        assertThat(thrown.getErrorCode(), is(SERVER_SIGNATURE_ERROR));
+    }
+
+    @Test
+    void rejectsHashOfDecompressedContentWhenStreamed() {
+        DigipostClientException thrown = assertThrows(DigipostClientException.class, () -> get("/gzip-chunked-hash-of-decompressed"));
+        assertThat(thrown.getErrorCode(), is(SERVER_SIGNATURE_ERROR));
+    }
+
+    private String get(String path) throws IOException, ParseException {
+        HttpGet get = new HttpGet(serverUri.resolve(path));
+        get.setHeader(Accept_Encoding_gzip_deflate);
+        try (ClassicHttpResponse response = client.executeOpen(null, get, null)) {
+            assertThat(response.getCode(), is(200));
+            assertThat(response.getEntity().getContentEncoding(), nullValue());
+            return EntityUtils.toString(response.getEntity(), UTF_8);
+        }
+    }
+
+
+    private static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(content.getBytes(UTF_8));
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] deflate(String content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream deflate = new DeflaterOutputStream(compressed)) {
+            deflate.write(content.getBytes(UTF_8));
+        }
+        return compressed.toByteArray();
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
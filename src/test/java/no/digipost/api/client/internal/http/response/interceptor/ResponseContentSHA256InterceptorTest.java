@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.internal.http.response.interceptor;
+
+import no.digipost.api.client.errorhandling.DigipostClientException;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.EofSensorInputStream;
+import org.apache.hc.core5.http.io.EofSensorWatcher;
+import org.apache.hc.core5.http.io.entity.InputStreamEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.http.protocol.BasicHttpContext;
+import org.bouncycastle.util.encoders.Base64;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static no.digipost.api.client.errorhandling.ErrorCode.SERVER_SIGNATURE_ERROR;
+import static no.digipost.api.client.internal.http.Headers.X_Content_SHA256;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseContentSHA256InterceptorTest {
+
+    private final ResponseContentSHA256Interceptor interceptor = new ResponseContentSHA256Interceptor();
+    private final byte[] content = new byte[(int) ResponseContentSHA256Interceptor.MAX_BUFFERED_CONTENT_LENGTH + 1];
+
+    @Test
+    void verifiesLargeContentWhileItIsRead() throws Exception {
+        ClassicHttpResponse response = response(content, sha256(content));
+        interceptor.process(response, response.getEntity(), new BasicHttpContext());
+
+        assertThat(response.getEntity(), instanceOf(SHA256VerifyingEntity.class));
+        try (InputStream verified = response.getEntity().getContent()) {
+            assertThat(verified.readAllBytes().length, is(content.length));
+        }
+    }
+
+    @Test
+    void failsWhenEndOfLargeContentNotMatchingHashIsReached() throws Exception {
+        ClassicHttpResponse response = response(content, sha256("other content".getBytes()));
+        interceptor.process(response, response.getEntity(), new BasicHttpContext());
+
+        try (InputStream verified = response.getEntity().getContent()) {
+            DigipostClientException thrown = assertThrows(DigipostClientException.class, verified::readAllBytes);
+            assertThat(thrown.getErrorCode(), is(SERVER_SIGNATURE_ERROR));
+        }
+    }
+
+    @Test
+    void buffersAndVerifiesSmallContentUpFront() throws Exception {
+        byte[] small = "small content".getBytes();
+        ClassicHttpResponse response = response(small, sha256(small));
+        interceptor.process(response, response.getEntity(), new BasicHttpContext());
+
+        assertThat(response.getEntity(), not(instanceOf(SHA256VerifyingEntity.class)));
+        assertThat(response.getEntity().isRepeatable(), is(true));
+    }
+
+    @Test
+    void failsWhenClosingResponseWithPartiallyReadContentNotMatchingHash() throws Exception {
+        ClassicHttpResponse response = response(content, sha256("other content".getBytes()));
+        interceptor.process(response, response.getEntity(), new BasicHttpContext());
+        int readBeforeClosing = content.length - SHA256VerifyingEntity.MAX_DRAINED_ON_CLOSE;
+        assertThat(response.getEntity().getContent().readNBytes(readBeforeClosing).length, is(readBeforeClosing));
+
+        DigipostClientException thrown = assertThrows(DigipostClientException.class, response::close);
+        assertThat(thrown.getErrorCode(), is(SERVER_SIGNATURE_ERROR));
+    }
+
+    @Test
+    void abortsConnectionInsteadOfDrainingLargeRemainderOfAbandonedContent() throws Exception {
+        AtomicInteger readFromConnection = new AtomicInteger();
+        AtomicBoolean aborted = new AtomicBoolean();
+        InputStream connection = new EofSensorInputStream(new ByteArrayInputStream(content) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                int read = super.read(b, off, len);
+                readFromConnection.addAndGet(Math.max(read, 0));
+                return read;
+            }
+        }, new EofSensorWatcher() {
+            @Override
+            public boolean eofDetected(InputStream wrapped) {
+                return true;
+            }
+
+            @Override
+            public boolean streamClosed(InputStream wrapped) throws IOException {
+                wrapped.transferTo(OutputStream.nullOutputStream());
+                return true;
+            }
+
+            @Override
+            public boolean streamAbort(InputStream wrapped) {
+                aborted.set(true);
+                return true;
+            }
+        });
+        ClassicHttpResponse response = new BasicClassicHttpResponse(200);
+        response.setHeader(X_Content_SHA256, sha256("other content".getBytes()));
+        response.setEntity(new InputStreamEntity(connection, content.length, ContentType.APPLICATION_OCTET_STREAM));
+        interceptor.process(response, response.getEntity(), new BasicHttpContext());
+
+        response.getEntity().getContent().read(new byte[100]);
+        response.close();
+
+        assertTrue(aborted.get());
+        assertThat(readFromConnection.get(), lessThan(content.length / 2));
+    }
+
+    @Test
+    void verifiesLargeXmlInFullBeforeHandingItOver() throws Exception {
+        ClassicHttpResponse response = response(content, -1, ContentType.APPLICATION_XML, sha256(content));
+        interceptor.process(response, response.getEntity(), new BasicHttpContext());
+
+        assertThat(response.getEntity(), not(instanceOf(SHA256VerifyingEntity.class)));
+        assertThat(response.getEntity().getContentLength(), is((long) content.length));
+        try (InputStream verified = response.getEntity().getContent()) {
+            assertThat(verified.readAllBytes().length, is(content.length));
+        }
+    }
+
+    @Test
+    void failsUpFrontWhenLargeXmlDoesNotMatchHash() {
+        ClassicHttpResponse response = response(content, content.length, ContentType.APPLICATION_XML, "not the hash");
+
+        DigipostClientException thrown = assertThrows(DigipostClientException.class, () -> interceptor.process(response, response.getEntity(), new BasicHttpContext()));
+        assertThat(thrown.getErrorCode(), is(SERVER_SIGNATURE_ERROR));
+    }
+
+    @Test
+    void failsWhenContentOfKnownLengthIsMissingHash() {
+        ClassicHttpResponse response = response("content".getBytes(), null);
+
+        DigipostClientException thrown = assertThrows(DigipostClientException.class, () -> interceptor.process(response, response.getEntity(), new BasicHttpContext()));
+        assertThat(thrown.getErrorCode(), is(SERVER_SIGNATURE_ERROR));
+    }
+
+    @Test
+    void leavesContentOfUnknownLengthWithoutHashAsIs() throws Exception {
+        ClassicHttpResponse response = response("Bad Gateway".getBytes(), -1, ContentType.TEXT_HTML, null);
+        HttpEntity entity = response.getEntity();
+        interceptor.process(response, entity, new BasicHttpContext());
+
+        assertThat(response.getEntity(), sameInstance(entity));
+    }
+
+    @Test
+    void verifiesContentOfUnknownLengthWithHashWhileItIsRead() throws Exception {
+        ClassicHttpResponse response = response(content, -1, ContentType.APPLICATION_OCTET_STREAM, sha256("other content".getBytes()));
+        interceptor.process(response, response.getEntity(), new BasicHttpContext());
+
+        try (InputStream verified = response.getEntity().getContent()) {
+            DigipostClientException thrown = assertThrows(DigipostClientException.class, verified::readAllBytes);
+            assertThat(thrown.getErrorCode(), is(SERVER_SIGNATURE_ERROR));
+        }
+    }
+
+
+    private static ClassicHttpResponse response(byte[] content, String hash) {
+        return response(content, content.length, ContentType.APPLICATION_OCTET_STREAM, hash);
+    }
+
+    private static ClassicHttpResponse response(byte[] content, long contentLength, ContentType contentType, String hash) {
+        ClassicHttpResponse response = new BasicClassicHttpResponse(200);
+        if (hash != null) {
+            response.setHeader(X_Content_SHA256, hash);
+        }
+        HttpEntity entity = new InputStreamEntity(new ByteArrayInputStream(content), contentLength, contentType);
+        response.setEntity(entity);
+        return response;
+    }
+
+    private static String sha256(byte[] content) throws NoSuchAlgorithmException {
+        return new String(Base64.encode(MessageDigest.getInstance("SHA-256").digest(content)));
+    }
+}
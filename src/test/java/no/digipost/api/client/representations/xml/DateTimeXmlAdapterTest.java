@@ -15,16 +15,22 @@
  */
 package no.digipost.api.client.representations.xml;
 
+import jakarta.xml.bind.DatatypeConverter;
 import org.junit.jupiter.api.Test;
+import org.quicktheories.WithQuickTheories;
 
+import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.stream.Stream;
 
 import static java.time.temporal.ChronoUnit.MILLIS;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 
-public class DateTimeXmlAdapterTest {
+public class DateTimeXmlAdapterTest implements WithQuickTheories {
 
     private final DateTimeXmlAdapter adapter = new DateTimeXmlAdapter();
 
@@ -44,4 +50,31 @@ public class DateTimeXmlAdapterTest {
         ZoneId gmtZone = daylightSavings ? ZoneId.of("GMT-4") : ZoneId.of("GMT-5");
         assertThat(adapter.unmarshal(xmlDateTimeString), is(rightNowInAmerica.withZoneSameInstant(gmtZone)));
     }
+
+    @Test
+    public void marshalls_and_unmarshalls_same_as_through_GregorianCalendar() {
+        ZoneId[] zones = Stream.of("Z", "GMT", "GMT-8", "+05:45", "-09:30", "+01:00:30", "Europe/Oslo", "America/New_York", "Asia/Kolkata")
+                .map(ZoneId::of).toArray(ZoneId[]::new);
+        qt()
+            .forAll(longs().between(-62_135_596_800L, 253_402_300_799L), integers().between(0, 999_999_999), integers().between(0, zones.length - 1))
+            .as((epochSecond, nanos, zone) -> Instant.ofEpochSecond(epochSecond, nanos).atZone(zones[zone]))
+            .checkAssert(dateTime -> {
+                String marshalled = adapter.marshal(dateTime);
+                assertThat(marshalled, is(DatatypeConverter.printDateTime(GregorianCalendar.from(dateTime))));
+                assertThat(adapter.unmarshal(marshalled), is(unmarshalThroughCalendar(marshalled)));
+            });
+    }
+
+    @Test
+    public void unmarshalls_other_layouts_same_as_through_GregorianCalendar() {
+        Stream.of("2024-02-29T12:34:56Z", "2024-02-29T12:34:56.1+01:00", "2024-02-29T12:34:56.123456789-00:00", "2024-02-29T12:34:56.000+14:00",
+                  "2024-02-29T12:34:56", "2024-02-29T24:00:00Z", "0001-01-01T00:00:00Z", "-0001-01-01T00:00:00Z", "12024-02-29T12:34:56Z",
+                  "2024-02-29T12:34:56+05:30")
+            .forEach(xmlDateTime -> assertThat(xmlDateTime, adapter.unmarshal(xmlDateTime), is(unmarshalThroughCalendar(xmlDateTime))));
+    }
+
+    private static ZonedDateTime unmarshalThroughCalendar(String xmlDateTime) {
+        Calendar parsed = DatatypeConverter.parseDate(xmlDateTime);
+        return ZonedDateTime.ofInstant(parsed.toInstant(), parsed.getTimeZone().toZoneId());
+    }
 }
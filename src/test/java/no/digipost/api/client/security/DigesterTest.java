@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class DigesterTest {
+
+    @Test
+    void sha256OfWrittenContentIsSameAsOfByteArray() throws IOException {
+        byte[] content = new byte[100_000];
+        new Random(42).nextBytes(content);
+
+        byte[] streamed = Digester.sha256.createDigest(out -> {
+            out.write(content, 0, 1000);
+            out.write(content[1000]);
+            out.write(content, 1001, content.length - 1001);
+        });
+
+        assertThat(streamed, is(Digester.sha256.createDigest(content)));
+    }
+
+    @Test
+    void defaultDigestOfWrittenContentCollectsTheContent() throws IOException {
+        Digester length = data -> new byte[] { (byte) data.length };
+        assertThat(length.createDigest(out -> out.write(new byte[7])), is(new byte[] { 7 }));
+    }
+}
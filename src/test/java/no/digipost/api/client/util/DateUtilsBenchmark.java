@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Clock;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static no.digipost.api.client.util.DateUtils.RFC_1123_DATE_FORMAT;
+
+/**
+ * Compares formatting and parsing of the Date header, done for every request and response,
+ * with {@link DateUtils} and with a {@link DateTimeFormatter}. Run with the {@link #main(String[]) main method}
+ * from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateUtilsBenchmark {
+
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern(RFC_1123_DATE_FORMAT).withZone(ZoneId.of("GMT")).withLocale(Locale.ENGLISH);
+
+    private final Clock clock = Clock.systemUTC();
+    private final String date = "Thu, 29 Feb 2024 23:59:59 GMT";
+
+    @Benchmark
+    public String formatWithFormatter() {
+        return formatter.format(ZonedDateTime.now(clock));
+    }
+
+    @Benchmark
+    public String formatWithDateUtils() {
+        return DateUtils.formatDate(clock.instant());
+    }
+
+    @Benchmark
+    public ZonedDateTime parseWithFormatter() {
+        return ZonedDateTime.parse(date, formatter);
+    }
+
+    @Benchmark
+    public ZonedDateTime parseWithDateUtils() {
+        return DateUtils.parseDate(date);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(DateUtilsBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) Posten Bring AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.client.util;
+
+import org.junit.jupiter.api.Test;
+import org.quicktheories.WithQuickTheories;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+import static no.digipost.api.client.util.DateUtils.RFC_1123_DATE_FORMAT;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DateUtilsTest implements WithQuickTheories {
+
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern(RFC_1123_DATE_FORMAT).withZone(ZoneId.of("GMT")).withLocale(Locale.ENGLISH);
+
+    private static final long YEAR_1900 = ZonedDateTime.parse("Mon, 01 Jan 1900 00:00:00 GMT", formatter).toEpochSecond();
+    private static final long YEAR_2200 = ZonedDateTime.parse("Wed, 01 Jan 2200 00:00:00 GMT", formatter).toEpochSecond();
+
+    @Test
+    public void formatsAndParsesSameAsFormatter() {
+        qt()
+            .forAll(longs().between(YEAR_1900, YEAR_2200), integers().between(0, 999_999_999))
+            .as(Instant::ofEpochSecond)
+            .checkAssert(instant -> {
+                String formatted = DateUtils.formatDate(instant);
+                assertThat(formatted, is(formatter.format(instant)));
+                assertThat(DateUtils.parseDate(formatted), is(ZonedDateTime.parse(formatted, formatter)));
+            });
+    }
+
+    @Test
+    public void formatsDatesWithinSameSecondToSameValue() {
+        Instant instant = Instant.parse("2024-02-29T23:59:59.001Z");
+        assertThat(DateUtils.formatDate(instant), is("Thu, 29 Feb 2024 23:59:59 GMT"));
+        assertThat(DateUtils.formatDate(instant.plusMillis(998)), is("Thu, 29 Feb 2024 23:59:59 GMT"));
+        assertThat(DateUtils.formatDate(instant.plusMillis(999)), is("Fri, 01 Mar 2024 00:00:00 GMT"));
+        assertThat(DateUtils.formatDate(instant.atZone(ZoneId.of("Europe/Oslo"))), is("Thu, 29 Feb 2024 23:59:59 GMT"));
+    }
+
+    @Test
+    public void parsesOtherLayoutsWithFormatter() {
+        assertThat(DateUtils.parseDate("Sun, 06 Nov 1994 08:49:37 GMT"), is(ZonedDateTime.parse("Sun, 06 Nov 1994 08:49:37 GMT", formatter)));
+        assertThrows(DateTimeParseException.class, () -> DateUtils.parseDate("Mon, 06 Nov 1994 08:49:37 GMT"));
+        assertThrows(DateTimeParseException.class, () -> DateUtils.parseDate("Sun, 06 nov 1994 08:49:37 GMT"));
+        assertThrows(DateTimeParseException.class, () -> DateUtils.parseDate("Sun, 06 Nov 1994 24:49:37 GMT"));
+        assertThrows(DateTimeParseException.class, () -> DateUtils.parseDate("Sun, 6 Nov 1994 08:49:37 GMT"));
+        assertThrows(DateTimeParseException.class, () -> DateUtils.parseDate("Sunday, 06-Nov-94 08:49:37 GMT"));
+    }
+}